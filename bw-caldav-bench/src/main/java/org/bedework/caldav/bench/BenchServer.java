@@ -0,0 +1,144 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.bedework.caldav.bench.Stubs.Answer;
+import org.bedework.caldav.server.CaldavBWServlet;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/** A CalDAV servlet over a freshly populated MemStore. Requests are
+ * run in the calling thread exactly as the container would run them.
+ */
+public class BenchServer {
+  /** The account requests run as */
+  public static final String user = "bench";
+
+  private static final long day = 24L * 60 * 60 * 1000;
+
+  private final MemStore store;
+
+  private final CaldavBWServlet servlet;
+
+  private final String calPath;
+
+  private final Date start;
+
+  /** Populate a new store and start a servlet over it. The events start
+   * a fortnight before today - midnight UTC - and are an hour apart.
+   *
+   * @param numEvents in the user's calendar
+   * @throws Throwable on errors
+   */
+  public BenchServer(final int numEvents) throws Throwable {
+    store = MemStore.reset();
+    calPath = store.addUser(user);
+
+    final long today = (System.currentTimeMillis() / day) * day;
+    start = new Date(today - 14 * day);
+
+    store.addEvents(calPath, numEvents, start, 60);
+
+    final Map<String, String> pars = new HashMap<>();
+
+    pars.put("sysintfImpl", MemSysIntf.class.getName());
+
+    servlet = new CaldavBWServlet();
+    servlet.init(servletConfig(pars));
+  }
+
+  /**
+   * @return the store
+   */
+  public MemStore getStore() {
+    return store;
+  }
+
+  /**
+   * @return path of the user's calendar
+   */
+  public String getCalPath() {
+    return calPath;
+  }
+
+  /**
+   * @return start of the first event
+   */
+  public Date getStart() {
+    return start;
+  }
+
+  /** Run the request and return the response.
+   *
+   * @param req describes the request
+   * @param keepBody true to keep the response body
+   * @return the response
+   * @throws Throwable on errors
+   */
+  public MockResponse execute(final MockRequest req,
+                              final boolean keepBody) throws Throwable {
+    final MockResponse resp = new MockResponse(keepBody);
+
+    servlet.service((ServletRequest)req.build(),
+                    (ServletResponse)resp.get());
+    resp.flush();
+
+    return resp;
+  }
+
+  /** Stop the servlet
+   */
+  public void close() {
+    servlet.destroy();
+  }
+
+  /* ====================================================================
+   *                      Private methods
+   * ==================================================================== */
+
+  private static ServletConfig servletConfig(final Map<String, String> pars) {
+    final Map<String, Answer> ctxAns = new HashMap<>();
+    final Map<String, Object> attrs = new HashMap<>();
+
+    ctxAns.put("getAttribute", a -> attrs.get((String)a[0]));
+    ctxAns.put("setAttribute", a -> attrs.put((String)a[0], a[1]));
+    ctxAns.put("getContextPath", a -> MockRequest.contextPath);
+    ctxAns.put("getServletContextName", a -> "bench");
+
+    final ServletContext ctx = Stubs.stub(ServletContext.class, ctxAns);
+
+    final Map<String, Answer> ans = new HashMap<>();
+
+    ans.put("getInitParameter", a -> pars.get((String)a[0]));
+    ans.put("getInitParameterNames",
+            a -> Collections.enumeration(pars.keySet()));
+    ans.put("getServletName", a -> "caldav-bench");
+    ans.put("getServletContext", a -> ctx);
+
+    return Stubs.stub(ServletConfig.class, ans);
+  }
+}
@@ -0,0 +1,247 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/** Request paths through the servlet over the in-memory store. Run
+ * with the gc profiler - BenchMain adds it - to get allocation rates
+ * alongside ops/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaldavBenchmarks {
+  /** Number of hrefs in the multiget */
+  public static final int multigetSize = 50;
+
+  /** The server and the requests we replay
+   */
+  @State(Scope.Benchmark)
+  public static class Server {
+    /** Events in the calendar */
+    @Param({"1000", "10000"})
+    public int numEvents;
+
+    BenchServer server;
+
+    MockRequest query;
+    MockRequest multiget;
+    MockRequest put;
+    MockRequest propfind;
+    MockRequest webcal;
+
+    /**
+     * @throws Throwable on errors
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+      server = new BenchServer(numEvents);
+
+      final String calPath = server.getCalPath();
+      final long week = 7L * 24 * 60 * 60 * 1000;
+      final Date qstart = new Date(server.getStart().getTime() + week);
+
+      query = new MockRequest("REPORT", calPath + "/", BenchServer.user)
+              .header("Depth", "1")
+              .body("application/xml",
+                    calendarQuery(qstart, new Date(qstart.getTime() + week)));
+
+      multiget = new MockRequest("REPORT", calPath + "/", BenchServer.user)
+              .header("Depth", "1")
+              .body("application/xml", multiget(calPath, numEvents));
+
+      put = new MockRequest("PUT", calPath + "/bench-put.ics",
+                            BenchServer.user)
+              .body("text/calendar",
+                    MemStore.makeEvent("bench-put", qstart, false));
+
+      propfind = new MockRequest("PROPFIND", calPath + "/", BenchServer.user)
+              .header("Depth", "1")
+              .body("application/xml", propfind);
+
+      webcal = new MockRequest("GET", MemStore.webcalUri, BenchServer.user)
+              .param("calPath", calPath);
+    }
+
+    /**
+     */
+    @TearDown(Level.Trial)
+    public void teardown() {
+      server.close();
+    }
+
+    long run(final MockRequest req) throws Throwable {
+      final MockResponse resp = server.execute(req, false);
+
+      if (resp.getStatus() >= 400) {
+        throw new IllegalStateException("Status " + resp.getStatus() +
+                                                " " + resp.getMessage());
+      }
+
+      return resp.getBytes();
+    }
+  }
+
+  /**
+   * @param s state
+   * @return bytes written
+   * @throws Throwable on errors
+   */
+  @Benchmark
+  public long calendarQuery(final Server s) throws Throwable {
+    return s.run(s.query);
+  }
+
+  /**
+   * @param s state
+   * @return bytes written
+   * @throws Throwable on errors
+   */
+  @Benchmark
+  public long multiget(final Server s) throws Throwable {
+    return s.run(s.multiget);
+  }
+
+  /**
+   * @param s state
+   * @return bytes written
+   * @throws Throwable on errors
+   */
+  @Benchmark
+  public long put(final Server s) throws Throwable {
+    return s.run(s.put);
+  }
+
+  /**
+   * @param s state
+   * @return bytes written
+   * @throws Throwable on errors
+   */
+  @Benchmark
+  public long propfindDepth1(final Server s) throws Throwable {
+    return s.run(s.propfind);
+  }
+
+  /**
+   * @param s state
+   * @return bytes written
+   * @throws Throwable on errors
+   */
+  @Benchmark
+  public long webcal(final Server s) throws Throwable {
+    return s.run(s.webcal);
+  }
+
+  /* ====================================================================
+   *                      Request bodies
+   * ==================================================================== */
+
+  private static final String propfind =
+          "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n" +
+          "<D:propfind xmlns:D=\"DAV:\">\n" +
+          "  <D:prop>\n" +
+          "    <D:getetag/>\n" +
+          "    <D:getcontenttype/>\n" +
+          "    <D:resourcetype/>\n" +
+          "    <D:displayname/>\n" +
+          "  </D:prop>\n" +
+          "</D:propfind>\n";
+
+  /**
+   * @param start of range
+   * @param end of range
+   * @return calendar-query body for events in the range
+   */
+  public static String calendarQuery(final Date start,
+                                     final Date end) {
+    final SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+    fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+    return "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n" +
+            "<C:calendar-query xmlns:D=\"DAV:\"\n" +
+            "    xmlns:C=\"urn:ietf:params:xml:ns:caldav\">\n" +
+            "  <D:prop>\n" +
+            "    <D:getetag/>\n" +
+            "    <C:calendar-data/>\n" +
+            "  </D:prop>\n" +
+            "  <C:filter>\n" +
+            "    <C:comp-filter name=\"VCALENDAR\">\n" +
+            "      <C:comp-filter name=\"VEVENT\">\n" +
+            "        <C:time-range start=\"" + fmt.format(start) +
+            "\" end=\"" + fmt.format(end) + "\"/>\n" +
+            "      </C:comp-filter>\n" +
+            "    </C:comp-filter>\n" +
+            "  </C:filter>\n" +
+            "</C:calendar-query>\n";
+  }
+
+  /**
+   * @param calPath calendar
+   * @param numEvents in the calendar
+   * @return multiget body for events spread through the calendar
+   */
+  public static String multiget(final String calPath,
+                                final int numEvents) {
+    final StringBuilder sb = new StringBuilder();
+
+    sb.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n");
+    sb.append("<C:calendar-multiget xmlns:D=\"DAV:\"\n");
+    sb.append("    xmlns:C=\"urn:ietf:params:xml:ns:caldav\">\n");
+    sb.append("  <D:prop>\n");
+    sb.append("    <D:getetag/>\n");
+    sb.append("    <C:calendar-data/>\n");
+    sb.append("  </D:prop>\n");
+
+    final int step = Math.max(1, numEvents / multigetSize);
+
+    for (int i = 0; (i < numEvents) && (i / step < multigetSize);
+         i += step) {
+      sb.append("  <D:href>")
+        .append(MockRequest.contextPath)
+        .append(calPath)
+        .append("/bench-")
+        .append(i)
+        .append(".ics</D:href>\n");
+    }
+
+    sb.append("</C:calendar-multiget>\n");
+
+    return sb.toString();
+  }
+}
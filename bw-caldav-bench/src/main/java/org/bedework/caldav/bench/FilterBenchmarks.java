@@ -0,0 +1,186 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.bedework.caldav.util.filter.parse.EventQuery;
+import org.bedework.caldav.util.filter.parse.FilterParser;
+import org.bedework.caldav.util.filter.parse.Filters;
+
+import ietf.params.xml.ns.caldav.FilterType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/** Parsing of CalDAV filters as REPORT requests do it. The perCall
+ * benchmarks do what Filters.parse did before the shared parser - a
+ * new JAXBContext for each node and a new DocumentBuilderFactory for
+ * each string - and are the baseline for the others.
+ *
+ * <p>Run with several threads to see the effect of pooling on filter
+ * heavy REPORT traffic.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class FilterBenchmarks {
+  /** A filter with the usual mix of tests
+   */
+  public static final String filter =
+          "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n" +
+          "<C:filter xmlns:C=\"urn:ietf:params:xml:ns:caldav\">\n" +
+          "  <C:comp-filter name=\"VCALENDAR\">\n" +
+          "    <C:comp-filter name=\"VEVENT\">\n" +
+          "      <C:time-range start=\"20200101T000000Z\"\n" +
+          "                    end=\"20200201T000000Z\"/>\n" +
+          "      <C:prop-filter name=\"SUMMARY\">\n" +
+          "        <C:text-match collation=\"i;ascii-casemap\"\n" +
+          "            >meeting</C:text-match>\n" +
+          "      </C:prop-filter>\n" +
+          "      <C:prop-filter name=\"ATTENDEE\">\n" +
+          "        <C:text-match>mailto:bench@bench.example.org</C:text-match>\n" +
+          "        <C:param-filter name=\"PARTSTAT\">\n" +
+          "          <C:text-match>NEEDS-ACTION</C:text-match>\n" +
+          "        </C:param-filter>\n" +
+          "      </C:prop-filter>\n" +
+          "    </C:comp-filter>\n" +
+          "  </C:comp-filter>\n" +
+          "</C:filter>\n";
+
+  /** The filter already parsed into a DOM - as REPORT sees it
+   */
+  @State(Scope.Thread)
+  public static class Dom {
+    Element filterElement;
+
+    /**
+     * @throws Throwable on errors
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+      filterElement = newBuilder().parse(
+              new InputSource(new StringReader(filter))).getDocumentElement();
+    }
+  }
+
+  /**
+   * @param dom state
+   * @return filter
+   * @throws Throwable on errors
+   */
+  @Benchmark
+  public FilterType perCallNode(final Dom dom) throws Throwable {
+    final JAXBContext jc =
+            JAXBContext.newInstance("ietf.params.xml.ns.caldav");
+    final Unmarshaller u = jc.createUnmarshaller();
+
+    return (FilterType)((JAXBElement<?>)u.unmarshal(dom.filterElement))
+            .getValue();
+  }
+
+  /**
+   * @return filter
+   * @throws Throwable on errors
+   */
+  @Benchmark
+  public FilterType perCallString() throws Throwable {
+    final Document doc = newBuilder().parse(
+            new InputSource(new StringReader(filter)));
+    final JAXBContext jc =
+            JAXBContext.newInstance("ietf.params.xml.ns.caldav");
+    final Unmarshaller u = jc.createUnmarshaller();
+
+    return (FilterType)((JAXBElement<?>)u.unmarshal(doc.getDocumentElement()))
+            .getValue();
+  }
+
+  /** Shared context and pooled unmarshallers
+   *
+   * @param dom state
+   * @return filter
+   * @throws Throwable on errors
+   */
+  @Benchmark
+  public FilterType sharedUnmarshal(final Dom dom) throws Throwable {
+    return FilterParser.unmarshal(dom.filterElement);
+  }
+
+  /** The DOM fast path
+   *
+   * @param dom state
+   * @return filter
+   * @throws Throwable on errors
+   */
+  @Benchmark
+  public FilterType parseNode(final Dom dom) throws Throwable {
+    return FilterParser.parse(dom.filterElement);
+  }
+
+  /** Pooled document builders and the DOM fast path
+   *
+   * @return filter
+   * @throws Throwable on errors
+   */
+  @Benchmark
+  public FilterType parseString() throws Throwable {
+    return FilterParser.parse(filter);
+  }
+
+  /** What a calendar-query does with its filter element
+   *
+   * @param dom state
+   * @return query
+   * @throws Throwable on errors
+   */
+  @Benchmark
+  public EventQuery parseAndQuery(final Dom dom) throws Throwable {
+    return Filters.getQuery(FilterParser.parse(dom.filterElement));
+  }
+
+  private static DocumentBuilder newBuilder() throws Throwable {
+    final DocumentBuilderFactory factory =
+            DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+
+    return factory.newDocumentBuilder();
+  }
+}
@@ -0,0 +1,206 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.bedework.caldav.util.filter.FilterBase;
+import org.bedework.caldav.util.filter.FilterMatcher;
+import org.bedework.caldav.util.filter.parse.FilterParser;
+import org.bedework.caldav.util.filter.parse.Filters;
+
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Component;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringReader;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/** In-memory evaluation of calendar-query filters over a synthetic
+ * calendar - what post-filtering does with the candidate set. One
+ * event in ten is a weekly recurrence so the time-range test has to
+ * expand some of them.
+ *
+ * <p>filterCompiled uses the predicate held by the filter, as the
+ * server does. compileAndFilter also compiles the filter on each call
+ * to show what compiling once saves.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MatchBenchmarks {
+  /** Time range only
+   */
+  public static final String rangeFilter =
+          "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n" +
+          "<C:filter xmlns:C=\"urn:ietf:params:xml:ns:caldav\">\n" +
+          "  <C:comp-filter name=\"VCALENDAR\">\n" +
+          "    <C:comp-filter name=\"VEVENT\">\n" +
+          "      <C:time-range start=\"20200301T000000Z\"\n" +
+          "                    end=\"20200401T000000Z\"/>\n" +
+          "    </C:comp-filter>\n" +
+          "  </C:comp-filter>\n" +
+          "</C:filter>\n";
+
+  /** Time range and a text match
+   */
+  public static final String textFilter =
+          "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n" +
+          "<C:filter xmlns:C=\"urn:ietf:params:xml:ns:caldav\">\n" +
+          "  <C:comp-filter name=\"VCALENDAR\">\n" +
+          "    <C:comp-filter name=\"VEVENT\">\n" +
+          "      <C:time-range start=\"20200301T000000Z\"\n" +
+          "                    end=\"20200401T000000Z\"/>\n" +
+          "      <C:prop-filter name=\"SUMMARY\">\n" +
+          "        <C:text-match collation=\"i;ascii-casemap\"\n" +
+          "            >review</C:text-match>\n" +
+          "      </C:prop-filter>\n" +
+          "    </C:comp-filter>\n" +
+          "  </C:comp-filter>\n" +
+          "</C:filter>\n";
+
+  private static final Instant yearStart =
+          Instant.parse("2020-01-01T00:00:00Z");
+
+  private static final DateTimeFormatter icalTime =
+          DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+                           .withZone(ZoneOffset.UTC);
+
+  private static final String[] summaries = {
+          "Team meeting",
+          "Design review",
+          "Lunch",
+          "Status call",
+  };
+
+  /** Number of events in the calendar */
+  @Param({"1000", "5000"})
+  public int events;
+
+  /** Which filter */
+  @Param({"range", "text"})
+  public String filterType;
+
+  private List<Component> components;
+
+  private FilterBase filter;
+
+  /**
+   * @throws Throwable on errors
+   */
+  @Setup(Level.Trial)
+  public void setup() throws Throwable {
+    final StringBuilder sb = new StringBuilder();
+
+    sb.append("BEGIN:VCALENDAR\r\n" +
+              "VERSION:2.0\r\n" +
+              "PRODID:-//bedework.org//BedeWork bench//EN\r\n");
+
+    for (int i = 0; i < events; i++) {
+      /* Spread the events over a year, starting between 08:00 and 17:00 */
+      final Instant start = yearStart.plus(i % 365, ChronoUnit.DAYS)
+                                     .plus(8 + (i / 365) % 10,
+                                           ChronoUnit.HOURS);
+      final Instant end = start.plus(1, ChronoUnit.HOURS);
+
+      sb.append("BEGIN:VEVENT\r\n");
+      sb.append("UID:bench-").append(i).append("\r\n");
+      sb.append("DTSTAMP:20200101T000000Z\r\n");
+      sb.append("DTSTART:").append(icalTime.format(start))
+        .append("\r\n");
+      sb.append("DTEND:").append(icalTime.format(end))
+        .append("\r\n");
+      sb.append("SUMMARY:").append(summaries[i % summaries.length])
+        .append(" ").append(i).append("\r\n");
+
+      if ((i % 10) == 0) {
+        sb.append("RRULE:FREQ=WEEKLY;COUNT=20\r\n");
+      }
+
+      sb.append("END:VEVENT\r\n");
+    }
+
+    sb.append("END:VCALENDAR\r\n");
+
+    components = new ArrayList<>(events);
+
+    for (final Object o: new CalendarBuilder().build(
+            new StringReader(sb.toString())).getComponents()) {
+      components.add((Component)o);
+    }
+
+    final String xml;
+    if ("text".equals(filterType)) {
+      xml = textFilter;
+    } else {
+      xml = rangeFilter;
+    }
+
+    filter = Filters.getQuery(FilterParser.parse(xml)).filter;
+  }
+
+  /** Match every component with the filter's own predicate
+   *
+   * @return number of matches
+   */
+  @Benchmark
+  public int filterCompiled() {
+    return count(filter.getPredicate());
+  }
+
+  /** Compile the filter then match every component
+   *
+   * @return number of matches
+   */
+  @Benchmark
+  public int compileAndFilter() {
+    return count(FilterMatcher.compile(filter));
+  }
+
+  private int count(final Predicate<Component> p) {
+    int n = 0;
+
+    for (final Component c: components) {
+      if (p.test(c)) {
+        n++;
+      }
+    }
+
+    return n;
+  }
+}
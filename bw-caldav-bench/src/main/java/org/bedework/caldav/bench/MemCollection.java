@@ -0,0 +1,143 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.bedework.caldav.server.CalDAVCollectionBase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+/** A collection held by the in-memory store.
+ */
+public class MemCollection extends CalDAVCollectionBase<MemCollection> {
+  private int refreshRate;
+
+  private List<String> supportedComponents = new ArrayList<>();
+
+  /* Sequence of the last change to the collection or its members */
+  private volatile long changed;
+
+  private final Map<QName, String> props = new HashMap<>();
+
+  /**
+   * @param calType one of the calType constants
+   * @param parentPath path of parent - null for the root
+   * @param name of the collection
+   */
+  public MemCollection(final int calType,
+                       final String parentPath,
+                       final String name) {
+    super(calType, calType == calTypeCalendarCollection);
+
+    setParentPath(parentPath);
+    setName(name);
+    setDisplayName(name);
+
+    if (name != null) {
+      if (parentPath == null) {
+        setPath("/" + name);
+      } else {
+        setPath(parentPath + "/" + name);
+      }
+    }
+  }
+
+  /**
+   * @param seq of change
+   */
+  void changed(final long seq) {
+    changed = seq;
+  }
+
+  /**
+   * @return sequence of the last change
+   */
+  long getChanged() {
+    return changed;
+  }
+
+  /* ====================================================================
+   *                      Abstract method implementations
+   * ==================================================================== */
+
+  @Override
+  public boolean getCanShare() {
+    return false;
+  }
+
+  @Override
+  public boolean getCanPublish() {
+    return false;
+  }
+
+  @Override
+  public void setProperty(final QName name, final String val) {
+    props.put(name, val);
+  }
+
+  @Override
+  public String getProperty(final QName name) {
+    return props.get(name);
+  }
+
+  @Override
+  public String getEtag() {
+    return "\"" + changed + "\"";
+  }
+
+  @Override
+  public String getPreviousEtag() {
+    return getEtag();
+  }
+
+  @Override
+  public boolean getDeleted() {
+    return false;
+  }
+
+  @Override
+  public void setRefreshRate(final int val) {
+    refreshRate = val;
+  }
+
+  @Override
+  public int getRefreshRate() {
+    return refreshRate;
+  }
+
+  @Override
+  public void setSupportedComponents(final List<String> val) {
+    supportedComponents = val;
+  }
+
+  @Override
+  public List<String> getSupportedComponents() {
+    return supportedComponents;
+  }
+
+  @Override
+  public List<String> getVpollSupportedComponents() {
+    return Collections.emptyList();
+  }
+}
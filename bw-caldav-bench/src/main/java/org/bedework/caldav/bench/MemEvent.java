@@ -0,0 +1,325 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.bedework.caldav.server.CalDAVEvent;
+import org.bedework.caldav.server.Organizer;
+import org.bedework.util.calendar.IcalDefs;
+import org.bedework.util.calendar.ScheduleMethods;
+import org.bedework.util.xml.XmlEmit;
+import org.bedework.webdav.servlet.shared.WebdavException;
+
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Property;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.namespace.QName;
+
+/** An event held by the in-memory store. The ical4j form is parsed
+ * once and the text kept, so fetching costs what a backend with a
+ * cache would. Stored events are never modified - an update replaces
+ * the object.
+ */
+public class MemEvent extends CalDAVEvent<MemEvent> {
+  private final String ical;
+
+  /* The component - no VCALENDAR wrapper */
+  private final String compText;
+
+  private final Calendar cal;
+
+  private final String uid;
+
+  private final String summary;
+
+  private final int entityType;
+
+  private boolean isNew = true;
+
+  private String etag;
+
+  private String prevEtag;
+
+  private long changed;
+
+  private Organizer organizer;
+
+  private String originator;
+
+  private Set<String> recipients = new TreeSet<>();
+
+  private final Set<String> attendees = new TreeSet<>();
+
+  private int scheduleMethod = ScheduleMethods.methodTypeNone;
+
+  private final Map<QName, String> props = new HashMap<>();
+
+  /**
+   * @param ical a VCALENDAR with one VEVENT or VTODO
+   * @throws WebdavException on parse errors
+   */
+  public MemEvent(final String ical) throws WebdavException {
+    this.ical = ical;
+
+    try {
+      cal = new CalendarBuilder().build(new StringReader(ical));
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    }
+
+    Component comp = cal.getComponent(Component.VEVENT);
+    if (comp != null) {
+      entityType = IcalDefs.entityTypeEvent;
+    } else {
+      comp = cal.getComponent(Component.VTODO);
+      if (comp == null) {
+        throw new WebdavException("No VEVENT or VTODO");
+      }
+      entityType = IcalDefs.entityTypeTodo;
+    }
+
+    compText = comp.toString();
+    uid = value(comp, Property.UID);
+    summary = value(comp, Property.SUMMARY);
+
+    for (final Object o: comp.getProperties(Property.ATTENDEE)) {
+      attendees.add(((Property)o).getValue());
+    }
+  }
+
+  /** Called when the event will replace one already stored.
+   *
+   * @param prev event it replaces
+   */
+  void replaces(final MemEvent prev) {
+    isNew = false;
+    setName(prev.getName());
+    prevEtag = prev.etag;
+  }
+
+  /** Called when the store takes the event.
+   *
+   * @param seq change sequence - used for etags and sync tokens
+   */
+  void stored(final long seq) {
+    changed = seq;
+    etag = "\"" + seq + "\"";
+  }
+
+  /**
+   * @return change sequence when stored
+   */
+  long getChanged() {
+    return changed;
+  }
+
+  /**
+   * @return parsed form
+   */
+  public Calendar getCalendar() {
+    return cal;
+  }
+
+  /**
+   * @return the component as text - without the VCALENDAR wrapper
+   */
+  public String getComponentText() {
+    return compText;
+  }
+
+  /* ====================================================================
+   *                      Abstract method implementations
+   * ==================================================================== */
+
+  @Override
+  public boolean getCanShare() {
+    return false;
+  }
+
+  @Override
+  public boolean getCanPublish() {
+    return false;
+  }
+
+  @Override
+  public boolean isAlias() {
+    return false;
+  }
+
+  @Override
+  public String getAliasUri() {
+    return null;
+  }
+
+  @Override
+  public MemEvent resolveAlias(final boolean resolveSubAlias) {
+    return null;
+  }
+
+  @Override
+  public void setProperty(final QName name, final String val) {
+    props.put(name, val);
+  }
+
+  @Override
+  public String getProperty(final QName name) {
+    return props.get(name);
+  }
+
+  @Override
+  public String getEtag() {
+    return etag;
+  }
+
+  @Override
+  public String getPreviousEtag() {
+    return prevEtag;
+  }
+
+  @Override
+  public String getScheduleTag() {
+    return null;
+  }
+
+  @Override
+  public boolean getOrganizerSchedulingObject() {
+    return false;
+  }
+
+  @Override
+  public boolean getAttendeeSchedulingObject() {
+    return false;
+  }
+
+  @Override
+  public String getPrevScheduleTag() {
+    return null;
+  }
+
+  @Override
+  public String getSummary() {
+    return summary;
+  }
+
+  @Override
+  public boolean isNew() {
+    return isNew;
+  }
+
+  @Override
+  public boolean getDeleted() {
+    return false;
+  }
+
+  @Override
+  public int getEntityType() {
+    return entityType;
+  }
+
+  @Override
+  public void setOrganizer(final Organizer val) {
+    organizer = val;
+  }
+
+  @Override
+  public Organizer getOrganizer() {
+    return organizer;
+  }
+
+  @Override
+  public void setOriginator(final String val) {
+    originator = val;
+  }
+
+  /**
+   * @return originator set for scheduling
+   */
+  public String getOriginator() {
+    return originator;
+  }
+
+  @Override
+  public void setRecipients(final Set<String> val) {
+    recipients = val;
+  }
+
+  @Override
+  public Set<String> getRecipients() {
+    return recipients;
+  }
+
+  @Override
+  public void addRecipient(final String val) {
+    recipients.add(val);
+  }
+
+  @Override
+  public Set<String> getAttendeeUris() {
+    return attendees;
+  }
+
+  @Override
+  public void setScheduleMethod(final int val) {
+    scheduleMethod = val;
+  }
+
+  @Override
+  public int getScheduleMethod() {
+    return scheduleMethod;
+  }
+
+  @Override
+  public String getUid() {
+    return uid;
+  }
+
+  @Override
+  public boolean generatePropertyValue(final QName tag,
+                                       final XmlEmit xml) {
+    return false;
+  }
+
+  @Override
+  public String toIcalString(final int methodType,
+                             final String contentType) {
+    return ical;
+  }
+
+  /* ====================================================================
+   *                      Private methods
+   * ==================================================================== */
+
+  private static String value(final Component comp,
+                              final String name) {
+    final Property p = comp.getProperty(name);
+
+    if (p == null) {
+      return null;
+    }
+
+    return p.getValue();
+  }
+}
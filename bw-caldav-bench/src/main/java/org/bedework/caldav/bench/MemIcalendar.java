@@ -0,0 +1,184 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.bedework.caldav.server.CalDAVEvent;
+import org.bedework.caldav.server.Organizer;
+import org.bedework.caldav.server.SysiIcalendar;
+import org.bedework.util.calendar.IcalDefs;
+import org.bedework.util.calendar.IcalDefs.IcalComponentType;
+import org.bedework.webdav.servlet.shared.WdEntity;
+
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.TimeZone;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/** The result of parsing one calendar object for MemSysIntf. There are
+ * no methods, no timezones of interest and exactly one entity.
+ */
+public class MemIcalendar extends SysiIcalendar {
+  private final MemEvent ev;
+
+  private transient boolean fetched;
+
+  /**
+   * @param ev the entity
+   */
+  public MemIcalendar(final MemEvent ev) {
+    this.ev = ev;
+  }
+
+  @Override
+  public String getProdid() {
+    return prop(Property.PRODID);
+  }
+
+  @Override
+  public String getVersion() {
+    return prop(Property.VERSION);
+  }
+
+  @Override
+  public String getCalscale() {
+    return prop(Property.CALSCALE);
+  }
+
+  @Override
+  public String getMethod() {
+    return prop(Property.METHOD);
+  }
+
+  @Override
+  public Collection<TimeZone> getTimeZones() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public Collection<?> getComponents() {
+    return List.of(ev);
+  }
+
+  @Override
+  public IcalComponentType getComponentType() {
+    if (ev.getEntityType() == IcalDefs.entityTypeTodo) {
+      return IcalComponentType.todo;
+    }
+
+    return IcalComponentType.event;
+  }
+
+  @Override
+  public int getMethodType() {
+    return methodTypeNone;
+  }
+
+  @Override
+  public int getMethodType(final String val) {
+    return methodTypeNone;
+  }
+
+  @Override
+  public String getMethodName(final int mt) {
+    return null;
+  }
+
+  @Override
+  public Organizer getOrganizer() {
+    return ev.getOrganizer();
+  }
+
+  @Override
+  public CalDAVEvent<?> getEvent() {
+    return ev;
+  }
+
+  @Override
+  public Iterator<WdEntity> iterator() {
+    return List.<WdEntity>of(ev).iterator();
+  }
+
+  @Override
+  public int size() {
+    return 1;
+  }
+
+  @Override
+  public boolean validItipMethodType() {
+    return false;
+  }
+
+  @Override
+  public boolean requestMethodType() {
+    return false;
+  }
+
+  @Override
+  public boolean replyMethodType() {
+    return false;
+  }
+
+  @Override
+  public boolean itipRequestMethodType(final int mt) {
+    return false;
+  }
+
+  @Override
+  public boolean itipReplyMethodType(final int mt) {
+    return false;
+  }
+
+  @Override
+  public boolean validItipMethodType(final int val) {
+    return false;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !fetched;
+  }
+
+  @Override
+  public WdEntity next() {
+    if (fetched) {
+      throw new NoSuchElementException();
+    }
+
+    fetched = true;
+    return ev;
+  }
+
+  /* ====================================================================
+   *                      Private methods
+   * ==================================================================== */
+
+  private String prop(final String name) {
+    final Property p = ev.getCalendar().getProperty(name);
+
+    if (p == null) {
+      return null;
+    }
+
+    return p.getValue();
+  }
+}
@@ -0,0 +1,183 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.bedework.caldav.server.CalDAVResource;
+import org.bedework.caldav.util.notifications.NotificationType.NotificationInfo;
+import org.bedework.webdav.servlet.shared.WebdavException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+/** A file held by the in-memory store.
+ */
+public class MemResource extends CalDAVResource<MemResource> {
+  private byte[] content = new byte[0];
+
+  private String contentType;
+
+  private boolean isNew = true;
+
+  private String etag;
+
+  private String prevEtag;
+
+  private final Map<QName, String> props = new HashMap<>();
+
+  /**
+   * @param parentPath path of the collection
+   */
+  public MemResource(final String parentPath) {
+    setParentPath(parentPath);
+  }
+
+  /** Called when the store takes the resource.
+   *
+   * @param seq change sequence - used for etags
+   */
+  void stored(final long seq) {
+    if (etag != null) {
+      isNew = false;
+      prevEtag = etag;
+    }
+
+    etag = "\"" + seq + "\"";
+  }
+
+  /* ====================================================================
+   *                      Abstract method implementations
+   * ==================================================================== */
+
+  @Override
+  public boolean getCanShare() {
+    return false;
+  }
+
+  @Override
+  public boolean getCanPublish() {
+    return false;
+  }
+
+  @Override
+  public boolean isAlias() {
+    return false;
+  }
+
+  @Override
+  public String getAliasUri() {
+    return null;
+  }
+
+  @Override
+  public MemResource resolveAlias(final boolean resolveSubAlias) {
+    return null;
+  }
+
+  @Override
+  public void setProperty(final QName name, final String val) {
+    props.put(name, val);
+  }
+
+  @Override
+  public String getProperty(final QName name) {
+    return props.get(name);
+  }
+
+  @Override
+  public String getEtag() {
+    return etag;
+  }
+
+  @Override
+  public String getPreviousEtag() {
+    return prevEtag;
+  }
+
+  @Override
+  public boolean isNew() {
+    return isNew;
+  }
+
+  @Override
+  public boolean getDeleted() {
+    return false;
+  }
+
+  @Override
+  public void setBinaryContent(final InputStream val)
+          throws WebdavException {
+    if (val == null) {
+      content = new byte[0];
+      return;
+    }
+
+    try {
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      final byte[] buf = new byte[4096];
+
+      for (;;) {
+        final int len = val.read(buf);
+        if (len < 0) {
+          break;
+        }
+
+        bos.write(buf, 0, len);
+      }
+
+      content = bos.toByteArray();
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    }
+  }
+
+  @Override
+  public InputStream getBinaryContent() {
+    return new ByteArrayInputStream(content);
+  }
+
+  @Override
+  public long getContentLen() {
+    return content.length;
+  }
+
+  @Override
+  public long getQuotaSize() {
+    return content.length;
+  }
+
+  @Override
+  public void setContentType(final String val) {
+    contentType = val;
+  }
+
+  @Override
+  public String getContentType() {
+    return contentType;
+  }
+
+  @Override
+  public NotificationInfo getNotificationType() {
+    return null;
+  }
+}
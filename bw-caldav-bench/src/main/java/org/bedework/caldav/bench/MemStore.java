@@ -0,0 +1,638 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.bedework.access.AccessPrincipal;
+import org.bedework.access.Ace;
+import org.bedework.caldav.bench.Stubs.Answer;
+import org.bedework.caldav.server.CalDAVCollection;
+import org.bedework.caldav.server.sysinterface.CalDAVAuthProperties;
+import org.bedework.caldav.server.sysinterface.CalDAVSystemProperties;
+import org.bedework.caldav.server.sysinterface.CalPrincipalInfo;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** The data behind MemSysIntf. There is one current store shared by all
+ * requests. Deletions are not recorded for sync reports.
+ */
+public class MemStore {
+  /** Root of user homes */
+  public static final String userRoot = "/user";
+
+  /** Root of user principals */
+  public static final String principalRoot = "/principals/users/";
+
+  /** Domain for calendar user addresses */
+  public static final String domain = "bench.example.org";
+
+  /** Name of each user's calendar */
+  public static final String calendarName = "calendar";
+
+  /** Path of the webcal service */
+  public static final String webcalUri = "/webcal";
+
+  private static volatile MemStore current = new MemStore();
+
+  private final AtomicLong seq = new AtomicLong();
+
+  /* By path */
+  private final Map<String, MemCollection> cols =
+          new ConcurrentHashMap<>();
+
+  /* Collection path to members by name */
+  private final Map<String, ConcurrentNavigableMap<String, MemEvent>> events =
+          new ConcurrentHashMap<>();
+
+  /* Collection path to event names by uid */
+  private final Map<String, Map<String, String>> uids =
+          new ConcurrentHashMap<>();
+
+  private final Map<String, ConcurrentNavigableMap<String, MemResource>> files =
+          new ConcurrentHashMap<>();
+
+  private final Map<String, AccessPrincipal> principals =
+          new ConcurrentHashMap<>();
+
+  private final CalDAVAuthProperties authProperties;
+
+  private final CalDAVSystemProperties systemProperties;
+
+  private volatile long latency;
+
+  private volatile boolean concurrent;
+
+  private final AtomicInteger activeQueries = new AtomicInteger();
+
+  private final AtomicInteger peakQueries = new AtomicInteger();
+
+  /**
+   */
+  public MemStore() {
+    final Map<String, Object> auth = new HashMap<>();
+
+    auth.put("maxUserEntitySize", 1024 * 1024);
+    auth.put("defaultWebCalPeriod", 31);
+    auth.put("maxWebCalPeriod", 366);
+
+    authProperties = Stubs.bean(CalDAVAuthProperties.class, auth);
+
+    final Map<String, Object> sys = new HashMap<>();
+
+    sys.put("webcalServiceURI", webcalUri);
+    sys.put("maxUserEntitySize", 1024 * 1024);
+
+    systemProperties = Stubs.bean(CalDAVSystemProperties.class, sys);
+
+    final MemCollection root =
+            new MemCollection(CalDAVCollection.calTypeCollection,
+                              null, userRoot.substring(1));
+    addCollection(root);
+  }
+
+  /**
+   * @return the store used by new requests
+   */
+  public static MemStore get() {
+    return current;
+  }
+
+  /** Replace the current store with an empty one
+   *
+   * @return the new store
+   */
+  public static MemStore reset() {
+    current = new MemStore();
+    return current;
+  }
+
+  /**
+   * @param val milliseconds each query waits before returning - to
+   *            look like a remote backend
+   */
+  public void setLatency(final long val) {
+    latency = val;
+  }
+
+  /** Called at the start of each query
+   */
+  void delay() {
+    peakQueries.accumulateAndGet(activeQueries.incrementAndGet(), Math::max);
+
+    try {
+      final long l = latency;
+
+      if (l <= 0) {
+        return;
+      }
+
+      Thread.sleep(l);
+    } catch (final InterruptedException ie) {
+      Thread.currentThread().interrupt();
+    } finally {
+      activeQueries.decrementAndGet();
+    }
+  }
+
+  /**
+   * @return the most queries which have been in progress at once
+   */
+  public int getPeakQueries() {
+    return peakQueries.get();
+  }
+
+  /** Start counting the peak again
+   */
+  public void resetPeakQueries() {
+    peakQueries.set(0);
+  }
+
+  /**
+   * @param val true to tell the server queries may run concurrently
+   */
+  public void setConcurrent(final boolean val) {
+    concurrent = val;
+  }
+
+  /**
+   * @return true if queries may run concurrently
+   */
+  public boolean getConcurrent() {
+    return concurrent;
+  }
+
+  /**
+   * @return properties given to the server
+   */
+  public CalDAVAuthProperties getAuthProperties() {
+    return authProperties;
+  }
+
+  /**
+   * @return properties given to the server
+   */
+  public CalDAVSystemProperties getSystemProperties() {
+    return systemProperties;
+  }
+
+  /* ====================================================================
+   *                      Principals
+   * ==================================================================== */
+
+  /** Add a user with a home, a calendar, an inbox and an outbox.
+   *
+   * @param account of user
+   * @return path of the calendar
+   */
+  public String addUser(final String account) {
+    final Map<String, Answer> ans = new HashMap<>();
+    final String href = principalRoot + account;
+
+    ans.put("getAccount", a -> account);
+    ans.put("getPrincipalRef", a -> href);
+    ans.put("getKind", a -> Ace.whoTypeUser);
+    ans.put("getUnauthenticated", a -> false);
+    ans.put("toString", a -> href);
+
+    principals.put(account, Stubs.stub(AccessPrincipal.class, ans));
+
+    final MemCollection home =
+            new MemCollection(CalDAVCollection.calTypeCollection,
+                              userRoot, account);
+    addCollection(home);
+
+    addCollection(new MemCollection(CalDAVCollection.calTypeInbox,
+                                    home.getPath(), "Inbox"));
+    addCollection(new MemCollection(CalDAVCollection.calTypeOutbox,
+                                    home.getPath(), "Outbox"));
+
+    return addCalendar(account, calendarName);
+  }
+
+  /** Add a calendar collection to the user's home.
+   *
+   * @param account of user
+   * @param name of calendar
+   * @return path of the calendar
+   */
+  public String addCalendar(final String account,
+                            final String name) {
+    final MemCollection cal =
+            new MemCollection(CalDAVCollection.calTypeCalendarCollection,
+                              userRoot + "/" + account, name);
+    cal.setSupportedComponents(List.of("VEVENT", "VTODO"));
+    addCollection(cal);
+
+    return cal.getPath();
+  }
+
+  /**
+   * @param account of user
+   * @return principal or null
+   */
+  public AccessPrincipal getPrincipal(final String account) {
+    if (account == null) {
+      return null;
+    }
+
+    return principals.get(account);
+  }
+
+  /**
+   * @param href principal href
+   * @return principal or null
+   */
+  public AccessPrincipal getPrincipalByHref(final String href) {
+    if ((href == null) || !href.startsWith(principalRoot)) {
+      return null;
+    }
+
+    String account = href.substring(principalRoot.length());
+
+    if (account.endsWith("/")) {
+      account = account.substring(0, account.length() - 1);
+    }
+
+    return getPrincipal(account);
+  }
+
+  /**
+   * @param p principal
+   * @return info with the paths of the user's collections
+   */
+  public CalPrincipalInfo getPrincipalInfo(final AccessPrincipal p) {
+    final String home = userRoot + "/" + p.getAccount();
+
+    return new CalPrincipalInfo(p, null, null,
+                                home,
+                                home + "/" + calendarName,
+                                home + "/Inbox",
+                                home + "/Outbox",
+                                null,
+                                0);
+  }
+
+  /* ====================================================================
+   *                      Collections
+   * ==================================================================== */
+
+  /**
+   * @param col to add
+   */
+  public void addCollection(final MemCollection col) {
+    col.changed(seq.incrementAndGet());
+    cols.put(col.getPath(), col);
+    events.put(col.getPath(), new ConcurrentSkipListMap<>());
+    uids.put(col.getPath(), new ConcurrentHashMap<>());
+    files.put(col.getPath(), new ConcurrentSkipListMap<>());
+  }
+
+  /**
+   * @param path of collection
+   * @return collection or null
+   */
+  public MemCollection getCollection(final String path) {
+    return cols.get(stripSlash(path));
+  }
+
+  /**
+   * @param col to remove with its members
+   */
+  public void removeCollection(final MemCollection col) {
+    final String path = col.getPath();
+
+    cols.remove(path);
+    events.remove(path);
+    uids.remove(path);
+    files.remove(path);
+
+    final String prefix = path + "/";
+
+    cols.keySet().removeIf(p -> p.startsWith(prefix));
+    events.keySet().removeIf(p -> p.startsWith(prefix));
+    uids.keySet().removeIf(p -> p.startsWith(prefix));
+    files.keySet().removeIf(p -> p.startsWith(prefix));
+  }
+
+  /**
+   * @param col parent
+   * @return child collections in name order
+   */
+  public List<MemCollection> getChildren(final MemCollection col) {
+    final List<MemCollection> res = new ArrayList<>();
+
+    for (final MemCollection c: cols.values()) {
+      if (col.getPath().equals(c.getParentPath())) {
+        res.add(c);
+      }
+    }
+
+    res.sort((c1, c2) -> c1.getName().compareTo(c2.getName()));
+
+    return res;
+  }
+
+  /**
+   * @param col collection
+   * @return sync token for the collection
+   */
+  public String getSyncToken(final MemCollection col) {
+    return tokenPrefix + col.getChanged();
+  }
+
+  /* ====================================================================
+   *                      Events
+   * ==================================================================== */
+
+  /** Add or replace an event.
+   *
+   * @param colPath path of collection
+   * @param name of the event
+   * @param ev the event
+   * @return false if there is no such collection
+   */
+  public boolean putEvent(final String colPath,
+                          final String name,
+                          final MemEvent ev) {
+    final MemCollection col = getCollection(colPath);
+    final Map<String, MemEvent> evs = events.get(stripSlash(colPath));
+
+    if ((col == null) || (evs == null)) {
+      return false;
+    }
+
+    ev.setName(name);
+    ev.setParentPath(col.getPath());
+
+    final long s = seq.incrementAndGet();
+
+    ev.stored(s);
+    evs.put(name, ev);
+    uids.get(col.getPath()).put(ev.getUid(), name);
+    col.changed(s);
+
+    return true;
+  }
+
+  /**
+   * @param colPath path of collection
+   * @param uid of the event
+   * @return event or null
+   */
+  public MemEvent getEventByUid(final String colPath,
+                                final String uid) {
+    final Map<String, String> names = uids.get(stripSlash(colPath));
+
+    if (names == null) {
+      return null;
+    }
+
+    final String name = names.get(uid);
+
+    if (name == null) {
+      return null;
+    }
+
+    return getEvent(colPath, name);
+  }
+
+  /**
+   * @param colPath path of collection
+   * @param name of the event
+   * @return event or null
+   */
+  public MemEvent getEvent(final String colPath,
+                           final String name) {
+    final Map<String, MemEvent> evs = events.get(stripSlash(colPath));
+
+    if (evs == null) {
+      return null;
+    }
+
+    return evs.get(name);
+  }
+
+  /**
+   * @param colPath path of collection
+   * @return the events in name order - a live view
+   */
+  public Collection<MemEvent> getEvents(final String colPath) {
+    final ConcurrentNavigableMap<String, MemEvent> evs =
+            events.get(stripSlash(colPath));
+
+    if (evs == null) {
+      return List.of();
+    }
+
+    return evs.values();
+  }
+
+  /**
+   * @param ev to remove
+   */
+  public void removeEvent(final MemEvent ev) {
+    final Map<String, MemEvent> evs = events.get(ev.getParentPath());
+
+    if ((evs != null) && (evs.remove(ev.getName()) != null)) {
+      uids.get(ev.getParentPath()).remove(ev.getUid());
+
+      final MemCollection col = getCollection(ev.getParentPath());
+
+      if (col != null) {
+        col.changed(seq.incrementAndGet());
+      }
+    }
+  }
+
+  /** Add generated events to a calendar. Each is an hour long, they
+   * start at the given time and follow each other at the given
+   * interval. Every tenth event recurs weekly ten times.
+   *
+   * @param colPath path of calendar
+   * @param num number of events
+   * @param start of the first
+   * @param intervalMinutes between starts
+   * @throws Throwable on errors
+   */
+  public void addEvents(final String colPath,
+                        final int num,
+                        final Date start,
+                        final int intervalMinutes) throws Throwable {
+    for (int i = 0; i < num; i++) {
+      final Date dt = new Date(start.getTime() +
+                                       (long)i * intervalMinutes * 60000);
+
+      putEvent(colPath, "bench-" + i + ".ics",
+               new MemEvent(makeEvent("bench-" + i, dt, (i % 10) == 0)));
+    }
+  }
+
+  /**
+   * @param uid of event
+   * @param start of event
+   * @param recurring true for a weekly recurrence
+   * @return ics text
+   */
+  public static String makeEvent(final String uid,
+                                 final Date start,
+                                 final boolean recurring) {
+    final SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+    fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+    final StringBuilder sb = new StringBuilder();
+
+    sb.append("BEGIN:VCALENDAR\r\n");
+    sb.append("VERSION:2.0\r\n");
+    sb.append("PRODID:-//Bedework//bw-caldav-bench//EN\r\n");
+    sb.append("BEGIN:VEVENT\r\n");
+    sb.append("UID:").append(uid).append('@').append(domain).append("\r\n");
+    sb.append("DTSTAMP:").append(fmt.format(start)).append("\r\n");
+    sb.append("DTSTART:").append(fmt.format(start)).append("\r\n");
+    sb.append("DURATION:PT1H\r\n");
+
+    if (recurring) {
+      sb.append("RRULE:FREQ=WEEKLY;COUNT=10\r\n");
+    }
+
+    sb.append("SUMMARY:Benchmark event ").append(uid).append("\r\n");
+    sb.append("DESCRIPTION:Generated for the CalDAV benchmarks\r\n");
+    sb.append("LOCATION:Room ").append(uid.hashCode() & 0xff).append("\r\n");
+    sb.append("END:VEVENT\r\n");
+    sb.append("END:VCALENDAR\r\n");
+
+    return sb.toString();
+  }
+
+  /* ====================================================================
+   *                      Files
+   * ==================================================================== */
+
+  /**
+   * @param colPath path of collection
+   * @param r the resource - name set
+   * @return false if there is no such collection
+   */
+  public boolean putFile(final String colPath,
+                         final MemResource r) {
+    final MemCollection col = getCollection(colPath);
+    final Map<String, MemResource> rs = files.get(stripSlash(colPath));
+
+    if ((col == null) || (rs == null)) {
+      return false;
+    }
+
+    r.setParentPath(col.getPath());
+
+    final long s = seq.incrementAndGet();
+
+    r.stored(s);
+    rs.put(r.getName(), r);
+    col.changed(s);
+
+    return true;
+  }
+
+  /**
+   * @param colPath path of collection
+   * @param name of file
+   * @return resource or null
+   */
+  public MemResource getFile(final String colPath,
+                             final String name) {
+    final Map<String, MemResource> rs = files.get(stripSlash(colPath));
+
+    if (rs == null) {
+      return null;
+    }
+
+    return rs.get(name);
+  }
+
+  /**
+   * @param colPath path of collection
+   * @return files in name order - a live view
+   */
+  public Collection<MemResource> getFiles(final String colPath) {
+    final ConcurrentNavigableMap<String, MemResource> rs =
+            files.get(stripSlash(colPath));
+
+    if (rs == null) {
+      return List.of();
+    }
+
+    return rs.values();
+  }
+
+  /**
+   * @param r to remove
+   */
+  public void removeFile(final MemResource r) {
+    final Map<String, MemResource> rs = files.get(r.getParentPath());
+
+    if (rs != null) {
+      rs.remove(r.getName());
+    }
+  }
+
+  /* ====================================================================
+   *                      Sync
+   * ==================================================================== */
+
+  /** Prefix of the sync tokens */
+  public static final String tokenPrefix = "data:,";
+
+  /**
+   * @param token from a sync token or null for all
+   * @return change sequence
+   */
+  public static long tokenSeq(final String token) {
+    if ((token == null) || !token.startsWith(tokenPrefix)) {
+      return 0;
+    }
+
+    try {
+      return Long.parseLong(token.substring(tokenPrefix.length()));
+    } catch (final NumberFormatException nfe) {
+      return 0;
+    }
+  }
+
+  /* ====================================================================
+   *                      Private methods
+   * ==================================================================== */
+
+  private static String stripSlash(final String path) {
+    if ((path != null) && (path.length() > 1) && path.endsWith("/")) {
+      return path.substring(0, path.length() - 1);
+    }
+
+    return path;
+  }
+}
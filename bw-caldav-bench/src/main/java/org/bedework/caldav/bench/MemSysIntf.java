@@ -0,0 +1,762 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.bedework.access.AccessPrincipal;
+import org.bedework.access.Acl;
+import org.bedework.access.CurrentAccess;
+import org.bedework.caldav.server.CalDAVCollection;
+import org.bedework.caldav.server.CalDAVEvent;
+import org.bedework.caldav.server.CalDAVResource;
+import org.bedework.caldav.server.PropertyHandler;
+import org.bedework.caldav.server.PropertyHandler.PropertyType;
+import org.bedework.caldav.server.SysiIcalendar;
+import org.bedework.caldav.server.sysinterface.CalDAVAuthProperties;
+import org.bedework.caldav.server.sysinterface.CalDAVSystemProperties;
+import org.bedework.caldav.server.sysinterface.CalPrincipalInfo;
+import org.bedework.caldav.server.sysinterface.RetrievalMode;
+import org.bedework.caldav.server.sysinterface.SysIntf;
+import org.bedework.caldav.util.TimeRange;
+import org.bedework.caldav.util.filter.FilterBase;
+import org.bedework.caldav.util.notifications.NotificationType;
+import org.bedework.caldav.util.sharing.InviteReplyType;
+import org.bedework.caldav.util.sharing.InviteType;
+import org.bedework.caldav.util.sharing.ShareResultType;
+import org.bedework.caldav.util.sharing.ShareType;
+import org.bedework.util.xml.XmlEmit;
+import org.bedework.webdav.servlet.shared.PrincipalPropertySearch;
+import org.bedework.webdav.servlet.shared.UrlHandler;
+import org.bedework.webdav.servlet.shared.WdEntity;
+import org.bedework.webdav.servlet.shared.WebdavException;
+
+import ietf.params.xml.ns.icalendar_2.IcalendarType;
+import net.fortuna.ical4j.model.Calendar;
+import org.oasis_open.docs.ws_calendar.ns.soap.ComponentSelectionType;
+
+import java.io.BufferedReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.namespace.QName;
+
+import static javax.servlet.http.HttpServletResponse.SC_CREATED;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_IMPLEMENTED;
+
+/** A SysIntf over the in-memory MemStore. It does just enough for the
+ * request paths we measure - reads, writes, queries, sync and webcal.
+ * Scheduling, sharing, notifications and xml/json calendar forms are
+ * not implemented.
+ *
+ * <p>Objects are reusable and pooled by SysIntfFactory like those of a
+ * production backend.
+ */
+public class MemSysIntf implements SysIntf {
+  private MemStore store;
+
+  private AccessPrincipal principal;
+
+  private UrlHandler urlHandler;
+
+  @Override
+  public String init(final HttpServletRequest req,
+                     final String account,
+                     final boolean service,
+                     final boolean calWs,
+                     final boolean synchWs,
+                     final boolean notifyWs,
+                     final boolean socketWs,
+                     final String opaqueData) throws WebdavException {
+    store = MemStore.get();
+    principal = store.getPrincipal(account);
+    urlHandler = new UrlHandler(req, !calWs);
+
+    return account;
+  }
+
+  @Override
+  public String getDefaultContentType() {
+    return "text/calendar";
+  }
+
+  @Override
+  public String getNotificationURL() {
+    return null;
+  }
+
+  @Override
+  public boolean testMode() {
+    return false;
+  }
+
+  @Override
+  public boolean bedeworkExtensionsEnabled() {
+    return false;
+  }
+
+  @Override
+  public CalDAVAuthProperties getAuthProperties() {
+    return store.getAuthProperties();
+  }
+
+  @Override
+  public CalDAVSystemProperties getSystemProperties() {
+    return store.getSystemProperties();
+  }
+
+  @Override
+  public AccessPrincipal getPrincipal() {
+    return principal;
+  }
+
+  @Override
+  public PropertyHandler getPropertyHandler(final PropertyType ptype) {
+    return null;
+  }
+
+  @Override
+  public UrlHandler getUrlHandler() {
+    return urlHandler;
+  }
+
+  /* ====================================================================
+   *                      Principals
+   * ==================================================================== */
+
+  @Override
+  public boolean isPrincipal(final String val) {
+    return (val != null) && val.startsWith(MemStore.principalRoot);
+  }
+
+  @Override
+  public AccessPrincipal getPrincipalForUser(final String account) {
+    return store.getPrincipal(account);
+  }
+
+  @Override
+  public AccessPrincipal getPrincipal(final String href) {
+    return store.getPrincipalByHref(href);
+  }
+
+  @Override
+  public byte[] getPublicKey(final String domain,
+                             final String service) {
+    return null;
+  }
+
+  @Override
+  public String makeHref(final String id, final int whoType) {
+    return MemStore.principalRoot + id;
+  }
+
+  @Override
+  public Collection<String> getGroups(final String rootUrl,
+                                      final String principalUrl) {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public AccessPrincipal caladdrToPrincipal(final String caladdr) {
+    if ((caladdr == null) || !caladdr.startsWith("mailto:")) {
+      return null;
+    }
+
+    final int at = caladdr.indexOf('@');
+    if (at < 0) {
+      return null;
+    }
+
+    return store.getPrincipal(caladdr.substring(7, at));
+  }
+
+  @Override
+  public String principalToCaladdr(final AccessPrincipal principal) {
+    return "mailto:" + principal.getAccount() + "@" + MemStore.domain;
+  }
+
+  @Override
+  public CalPrincipalInfo getCalPrincipalInfo(final AccessPrincipal principal) {
+    if (principal == null) {
+      return null;
+    }
+
+    return store.getPrincipalInfo(principal);
+  }
+
+  @Override
+  public Collection<String> getPrincipalCollectionSet(final String resourceUri) {
+    return List.of(MemStore.principalRoot);
+  }
+
+  @Override
+  public Collection<CalPrincipalInfo> getPrincipals(final String resourceUri,
+                                                    final PrincipalPropertySearch pps) {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public boolean validPrincipal(final String href) {
+    return store.getPrincipalByHref(href) != null;
+  }
+
+  /* ====================================================================
+   *                      Notifications and sharing
+   * ==================================================================== */
+
+  @Override
+  public boolean subscribeNotification(final String principalHref,
+                                       final String action,
+                                       final List<String> emails) {
+    return false;
+  }
+
+  @Override
+  public boolean sendNotification(final String href,
+                                  final NotificationType val) {
+    return false;
+  }
+
+  @Override
+  public void removeNotification(final String href,
+                                 final NotificationType val) {
+  }
+
+  @Override
+  public List<NotificationType> getNotifications() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<NotificationType> getNotifications(final String href,
+                                                 final QName type) {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public ShareResultType share(final CalDAVCollection<?> col,
+                               final ShareType share) throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  @Override
+  public String sharingReply(final CalDAVCollection<?> col,
+                             final InviteReplyType reply) throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  @Override
+  public InviteType getInviteStatus(final CalDAVCollection<?> col) {
+    return null;
+  }
+
+  /* ====================================================================
+   *                      Scheduling
+   * ==================================================================== */
+
+  @Override
+  public Collection<String> getFreebusySet() {
+    if (principal == null) {
+      return Collections.emptyList();
+    }
+
+    return List.of(store.getPrincipalInfo(principal).getDefaultCalendarPath());
+  }
+
+  @Override
+  public Collection<SchedRecipientResult> schedule(final CalDAVEvent<?> ev)
+          throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  @Override
+  public Collection<SchedRecipientResult> requestFreeBusy(final CalDAVEvent<?> val,
+                                                          final boolean iSchedule)
+          throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  @Override
+  public void getSpecialFreeBusy(final String cua,
+                                 final Set<String> recipients,
+                                 final String originator,
+                                 final TimeRange tr,
+                                 final Writer wtr) throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  @Override
+  public CalDAVEvent<?> getFreeBusy(final CalDAVCollection<?> col,
+                                    final int depth,
+                                    final TimeRange timeRange)
+          throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  /* ====================================================================
+   *                      Events
+   * ==================================================================== */
+
+  @Override
+  public Collection<CalDAVEvent<?>> addEvent(final CalDAVEvent<?> ev,
+                                             final boolean noInvites,
+                                             final boolean rollbackOnError)
+          throws WebdavException {
+    if (!store.putEvent(ev.getParentPath(), ev.getName(), (MemEvent)ev)) {
+      throw new WebdavException(SC_NOT_FOUND);
+    }
+
+    return null;
+  }
+
+  @Override
+  public void reindexEvent(final CalDAVEvent<?> event) {
+  }
+
+  @Override
+  public void updateEvent(final CalDAVEvent<?> event) throws WebdavException {
+    addEvent(event, true, true);
+  }
+
+  @Override
+  public UpdateResult updateEvent(final CalDAVEvent<?> event,
+                                  final List<ComponentSelectionType> updates)
+          throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  @Override
+  public Collection<CalDAVEvent<?>> getEvents(final CalDAVCollection<?> col,
+                                              final FilterBase filter,
+                                              final List<String> retrieveList,
+                                              final RetrievalMode recurRetrieval)
+          throws WebdavException {
+    final List<CalDAVEvent<?>> res = new ArrayList<>();
+    final Iterator<CalDAVEvent<?>> it =
+            getEventsIterator(col, filter, retrieveList, recurRetrieval);
+
+    while (it.hasNext()) {
+      res.add(it.next());
+    }
+
+    return res;
+  }
+
+  @Override
+  public Iterator<CalDAVEvent<?>> getEventsIterator(
+          final CalDAVCollection<?> col,
+          final FilterBase filter,
+          final List<String> retrieveList,
+          final RetrievalMode recurRetrieval) {
+    store.delay();
+
+    final Iterator<MemEvent> evs = store.getEvents(col.getPath()).iterator();
+    final String userHref =
+            (principal == null) ? null : principal.getPrincipalRef();
+
+    return new Iterator<CalDAVEvent<?>>() {
+      private MemEvent next;
+
+      @Override
+      public boolean hasNext() {
+        while ((next == null) && evs.hasNext()) {
+          final MemEvent ev = evs.next();
+
+          try {
+            if ((filter == null) ||
+                    filter.match(ev.getCalendar(), userHref)) {
+              next = ev;
+            }
+          } catch (final WebdavException wde) {
+            throw new RuntimeException(wde);
+          }
+        }
+
+        return next != null;
+      }
+
+      @Override
+      public CalDAVEvent<?> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+
+        final MemEvent ev = next;
+        next = null;
+
+        return ev;
+      }
+    };
+  }
+
+  @Override
+  public boolean allowsConcurrentQueries() {
+    return store.getConcurrent();
+  }
+
+  @Override
+  public boolean allowsConcurrentReads() {
+    return store.getConcurrent();
+  }
+
+  @Override
+  public CalDAVEvent<?> getEvent(final CalDAVCollection<?> col,
+                                 final String val) {
+    return store.getEvent(col.getPath(), val);
+  }
+
+  @Override
+  public void deleteEvent(final CalDAVEvent<?> ev,
+                          final boolean scheduleReply) {
+    store.removeEvent((MemEvent)ev);
+  }
+
+  @Override
+  public CurrentAccess checkAccess(final WdEntity<?> ent,
+                                   final int desiredAccess,
+                                   final boolean returnResult) {
+    return new CurrentAccess(true);
+  }
+
+  @Override
+  public void updateAccess(final CalDAVEvent<?> ev,
+                           final Acl acl) {
+  }
+
+  @Override
+  public boolean copyMove(final CalDAVEvent<?> from,
+                          final CalDAVCollection<?> to,
+                          final String name,
+                          final boolean copy,
+                          final boolean overwrite) throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  /* ====================================================================
+   *                      Collections
+   * ==================================================================== */
+
+  @Override
+  public CalDAVCollection<?> newCollectionObject(final boolean isCalendarCollection,
+                                                 final String parentPath) {
+    final int calType;
+
+    if (isCalendarCollection) {
+      calType = CalDAVCollection.calTypeCalendarCollection;
+    } else {
+      calType = CalDAVCollection.calTypeCollection;
+    }
+
+    return new MemCollection(calType, parentPath, null);
+  }
+
+  @Override
+  public void updateAccess(final CalDAVCollection<?> col,
+                           final Acl acl) {
+  }
+
+  @Override
+  public int makeCollection(final CalDAVCollection<?> col) {
+    final MemCollection mc = (MemCollection)col;
+
+    if (mc.getPath() == null) {
+      mc.setPath(mc.getParentPath() + "/" + mc.getName());
+    }
+
+    store.addCollection(mc);
+
+    return SC_CREATED;
+  }
+
+  @Override
+  public void copyMove(final CalDAVCollection<?> from,
+                       final CalDAVCollection<?> to,
+                       final boolean copy,
+                       final boolean overwrite) throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  @Override
+  public CalDAVCollection<?> getCollection(final String path) {
+    return store.getCollection(path);
+  }
+
+  @Override
+  public void updateCollection(final CalDAVCollection<?> val) {
+  }
+
+  @Override
+  public void deleteCollection(final CalDAVCollection<?> col,
+                               final boolean sendSchedulingMessage) {
+    store.removeCollection((MemCollection)col);
+  }
+
+  @Override
+  public Collection<CalDAVCollection<?>> getCollections(final CalDAVCollection<?> col) {
+    return new ArrayList<>(store.getChildren((MemCollection)col));
+  }
+
+  /* ====================================================================
+   *                      Files
+   * ==================================================================== */
+
+  @Override
+  public CalDAVResource<?> newResourceObject(final String parentPath) {
+    return new MemResource(parentPath);
+  }
+
+  @Override
+  public void putFile(final CalDAVCollection<?> coll,
+                      final CalDAVResource<?> val) {
+    store.putFile(coll.getPath(), (MemResource)val);
+  }
+
+  @Override
+  public CalDAVResource<?> getFile(final CalDAVCollection<?> coll,
+                                   final String name) {
+    return store.getFile(coll.getPath(), name);
+  }
+
+  @Override
+  public void getFileContent(final CalDAVResource<?> val) {
+    // Always present
+  }
+
+  @Override
+  public Collection<CalDAVResource<?>> getFiles(final CalDAVCollection<?> coll) {
+    return new ArrayList<>(store.getFiles(coll.getPath()));
+  }
+
+  @Override
+  public void updateFile(final CalDAVResource<?> val,
+                         final boolean updateContent) {
+    store.putFile(val.getParentPath(), (MemResource)val);
+  }
+
+  @Override
+  public void deleteFile(final CalDAVResource<?> val) {
+    store.removeFile((MemResource)val);
+  }
+
+  @Override
+  public boolean copyMoveFile(final CalDAVResource<?> from,
+                              final String toPath,
+                              final String name,
+                              final boolean copy,
+                              final boolean overwrite) throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  /* ====================================================================
+   *                      Sync
+   * ==================================================================== */
+
+  @Override
+  public String getSyncToken(final CalDAVCollection<?> col) {
+    return store.getSyncToken((MemCollection)col);
+  }
+
+  @Override
+  public SynchReportData getSyncReport(final String path,
+                                       final String token,
+                                       final int limit,
+                                       final boolean recurse)
+          throws WebdavException {
+    final MemCollection col = store.getCollection(path);
+
+    if (col == null) {
+      return null;
+    }
+
+    final long since = MemStore.tokenSeq(token);
+    final SynchReportData srd = new SynchReportData();
+
+    srd.items = new ArrayList<>();
+
+    for (final MemEvent ev: store.getEvents(col.getPath())) {
+      if (ev.getChanged() <= since) {
+        continue;
+      }
+
+      if ((limit > 0) && (srd.items.size() == limit)) {
+        srd.truncated = true;
+        break;
+      }
+
+      srd.items.add(new SynchReportData.SynchReportDataItem(
+              col.getPath(), ev, MemStore.tokenPrefix + ev.getChanged()));
+    }
+
+    srd.token = store.getSyncToken(col);
+
+    return srd;
+  }
+
+  /* ====================================================================
+   *                      Calendar forms
+   * ==================================================================== */
+
+  @Override
+  public Calendar toCalendar(final CalDAVEvent<?> ev,
+                             final boolean incSchedMethod) {
+    return ((MemEvent)ev).getCalendar();
+  }
+
+  @Override
+  public IcalendarType toIcalendar(final CalDAVEvent<?> ev,
+                                   final boolean incSchedMethod,
+                                   final IcalendarType pattern)
+          throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  @Override
+  public String toJcal(final CalDAVEvent<?> ev,
+                       final boolean incSchedMethod) throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  @Override
+  public String toIcalString(final Calendar cal,
+                             final String contentType) {
+    return cal.toString();
+  }
+
+  @Override
+  public String writeCalendar(final Collection<CalDAVEvent<?>> evs,
+                              final MethodEmitted method,
+                              final XmlEmit xml,
+                              final Writer wtr,
+                              final String contentType)
+          throws WebdavException {
+    if ((xml != null) || (wtr == null)) {
+      throw new WebdavException(SC_NOT_IMPLEMENTED);
+    }
+
+    try {
+      wtr.write("BEGIN:VCALENDAR\r\n");
+      wtr.write("VERSION:2.0\r\n");
+      wtr.write("PRODID:-//Bedework//bw-caldav-bench//EN\r\n");
+
+      if (method == MethodEmitted.publish) {
+        wtr.write("METHOD:PUBLISH\r\n");
+      }
+
+      for (final CalDAVEvent<?> ev: evs) {
+        wtr.write(((MemEvent)ev).getComponentText());
+      }
+
+      wtr.write("END:VCALENDAR\r\n");
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    }
+
+    return null;
+  }
+
+  @Override
+  public SysiIcalendar fromIcal(final CalDAVCollection<?> col,
+                                final Reader rdr,
+                                final String contentType,
+                                final IcalResultType rtype,
+                                final boolean mergeAttendees)
+          throws WebdavException {
+    final StringBuilder sb = new StringBuilder();
+
+    try {
+      final BufferedReader br = new BufferedReader(rdr);
+      final char[] buf = new char[4096];
+
+      for (;;) {
+        final int len = br.read(buf);
+        if (len < 0) {
+          break;
+        }
+
+        sb.append(buf, 0, len);
+      }
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    }
+
+    final MemEvent ev = new MemEvent(sb.toString());
+
+    if (col != null) {
+      final MemEvent prev = store.getEventByUid(col.getPath(), ev.getUid());
+
+      if (prev != null) {
+        ev.replaces(prev);
+      }
+    }
+
+    return new MemIcalendar(ev);
+  }
+
+  @Override
+  public SysiIcalendar fromIcal(final CalDAVCollection<?> col,
+                                final IcalendarType ical,
+                                final IcalResultType rtype)
+          throws WebdavException {
+    throw new WebdavException(SC_NOT_IMPLEMENTED);
+  }
+
+  @Override
+  public String toStringTzCalendar(final String tzid) {
+    return null;
+  }
+
+  @Override
+  public String tzidFromTzdef(final String val) {
+    return null;
+  }
+
+  @Override
+  public boolean validateAlarm(final String val) {
+    return true;
+  }
+
+  @Override
+  public void rollback() {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  @Override
+  public boolean isReusable() {
+    return true;
+  }
+
+  @Override
+  public boolean recycle() {
+    store = null;
+    principal = null;
+    urlHandler = null;
+
+    return true;
+  }
+}
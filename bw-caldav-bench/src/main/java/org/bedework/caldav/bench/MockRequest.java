@@ -0,0 +1,183 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.bedework.caldav.bench.Stubs.Answer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+/** Describes a request. Each call to build gives a new request object
+ * positioned at the start of the body so one description can be
+ * replayed for every benchmark invocation.
+ */
+public class MockRequest {
+  /** Context path of the mock servlet */
+  public static final String contextPath = "/ucaldav";
+
+  private final String method;
+  private final String path;
+  private final String user;
+
+  private final Map<String, List<String>> headers =
+          new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+  private final Map<String, String> params = new HashMap<>();
+  private byte[] body = new byte[0];
+  private String contentType;
+
+  /**
+   * @param method http method
+   * @param path of the resource - excluding the context path
+   * @param user authenticated account - null for unauthenticated
+   */
+  public MockRequest(final String method,
+                     final String path,
+                     final String user) {
+    this.method = method;
+    this.path = path;
+    this.user = user;
+  }
+
+  /**
+   * @param name of header
+   * @param val value - added to any present
+   * @return this
+   */
+  public MockRequest header(final String name,
+                            final String val) {
+    headers.computeIfAbsent(name, k -> new ArrayList<>()).add(val);
+    return this;
+  }
+
+  /**
+   * @param name of parameter
+   * @param val value
+   * @return this
+   */
+  public MockRequest param(final String name,
+                           final String val) {
+    params.put(name, val);
+    return this;
+  }
+
+  /**
+   * @param contentType of the body
+   * @param val body
+   * @return this
+   */
+  public MockRequest body(final String contentType,
+                          final String val) {
+    this.contentType = contentType;
+    body = val.getBytes(StandardCharsets.UTF_8);
+    header("Content-Type", contentType);
+    return this;
+  }
+
+  /**
+   * @return a new request object
+   */
+  public HttpServletRequest build() {
+    final Map<String, Answer> ans = new HashMap<>();
+    final ByteArrayInputStream bis = new ByteArrayInputStream(body);
+    final Map<String, Object> attrs = new HashMap<>();
+
+    ans.put("getMethod", a -> method);
+    ans.put("getScheme", a -> "http");
+    ans.put("getServerName", a -> "localhost");
+    ans.put("getServerPort", a -> 8080);
+    ans.put("getContextPath", a -> contextPath);
+    ans.put("getServletPath", a -> "");
+    ans.put("getPathInfo", a -> path);
+    ans.put("getRequestURI", a -> contextPath + path);
+    ans.put("getRequestURL", a -> new StringBuffer(
+            "http://localhost:8080" + contextPath + path));
+    ans.put("getRemoteUser", a -> user);
+    ans.put("getProtocol", a -> "HTTP/1.1");
+
+    ans.put("getHeader", a -> {
+      final List<String> vals = headers.get((String)a[0]);
+      return (vals == null) ? null : vals.get(0);
+    });
+    ans.put("getHeaders", a -> {
+      final List<String> vals = headers.get((String)a[0]);
+      return Collections.enumeration(
+              (vals == null) ? Collections.emptyList() : vals);
+    });
+    ans.put("getHeaderNames",
+            a -> Collections.enumeration(headers.keySet()));
+    ans.put("getIntHeader", a -> {
+      final List<String> vals = headers.get((String)a[0]);
+      return (vals == null) ? -1 : Integer.parseInt(vals.get(0));
+    });
+
+    ans.put("getParameter", a -> params.get((String)a[0]));
+    ans.put("getParameterNames",
+            a -> Collections.enumeration(params.keySet()));
+
+    ans.put("getAttribute", a -> attrs.get((String)a[0]));
+    ans.put("setAttribute", a -> attrs.put((String)a[0], a[1]));
+    ans.put("removeAttribute", a -> attrs.remove((String)a[0]));
+
+    ans.put("getContentType", a -> contentType);
+    ans.put("getCharacterEncoding", a -> "UTF-8");
+    ans.put("getContentLength", a -> body.length);
+    ans.put("getContentLengthLong", a -> (long)body.length);
+    ans.put("getInputStream", a -> new ServletInputStream() {
+      @Override
+      public boolean isFinished() {
+        return bis.available() == 0;
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setReadListener(final ReadListener readListener) {
+      }
+
+      @Override
+      public int read() {
+        return bis.read();
+      }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len) {
+        return bis.read(b, off, len);
+      }
+    });
+    ans.put("getReader", a -> new BufferedReader(
+            new InputStreamReader(bis, StandardCharsets.UTF_8)));
+
+    return Stubs.stub(HttpServletRequest.class, ans);
+  }
+}
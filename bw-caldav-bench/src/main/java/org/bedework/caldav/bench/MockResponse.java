@@ -0,0 +1,199 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.bedework.caldav.bench.Stubs.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+/** Records the status and headers of a response and counts the bytes
+ * of the body, which is discarded unless asked for.
+ */
+public class MockResponse {
+  private int status = HttpServletResponse.SC_OK;
+  private String message;
+  private long bytes;
+
+  /* Null unless the body is kept */
+  private final ByteArrayOutputStream body;
+
+  private final Map<String, String> headers =
+          new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+  private final ServletOutputStream out = new ServletOutputStream() {
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(final WriteListener writeListener) {
+    }
+
+    @Override
+    public void write(final int b) {
+      bytes++;
+
+      if (body != null) {
+        body.write(b);
+      }
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+      bytes += len;
+
+      if (body != null) {
+        body.write(b, off, len);
+      }
+    }
+  };
+
+  private PrintWriter writer;
+
+  private final HttpServletResponse resp;
+
+  /** A response which discards the body
+   */
+  public MockResponse() {
+    this(false);
+  }
+
+  /**
+   * @param keepBody true to keep the body for getBody
+   */
+  public MockResponse(final boolean keepBody) {
+    if (keepBody) {
+      body = new ByteArrayOutputStream();
+    } else {
+      body = null;
+    }
+
+    final Map<String, Answer> ans = new HashMap<>();
+
+    ans.put("setStatus", a -> {
+      status = (Integer)a[0];
+      return null;
+    });
+    ans.put("sendError", a -> {
+      status = (Integer)a[0];
+      if (a.length > 1) {
+        message = (String)a[1];
+      }
+      return null;
+    });
+    ans.put("getStatus", a -> status);
+    ans.put("setHeader", a -> headers.put((String)a[0], (String)a[1]));
+    ans.put("addHeader", a -> headers.merge((String)a[0], (String)a[1],
+                                           (o, n) -> o + ", " + n));
+    ans.put("setIntHeader",
+            a -> headers.put((String)a[0], String.valueOf(a[1])));
+    ans.put("setDateHeader",
+            a -> headers.put((String)a[0], String.valueOf(a[1])));
+    ans.put("containsHeader", a -> headers.containsKey((String)a[0]));
+    ans.put("getHeader", a -> headers.get((String)a[0]));
+    ans.put("setContentType",
+            a -> headers.put("Content-Type", (String)a[0]));
+    ans.put("getContentType", a -> headers.get("Content-Type"));
+    ans.put("setContentLength",
+            a -> headers.put("Content-Length", String.valueOf(a[0])));
+    ans.put("setContentLengthLong",
+            a -> headers.put("Content-Length", String.valueOf(a[0])));
+    ans.put("getCharacterEncoding", a -> "UTF-8");
+    ans.put("getOutputStream", a -> out);
+    ans.put("getWriter", a -> {
+      if (writer == null) {
+        writer = new PrintWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8));
+      }
+      return writer;
+    });
+    ans.put("flushBuffer", a -> {
+      flush();
+      return null;
+    });
+
+    resp = Stubs.stub(HttpServletResponse.class, ans);
+  }
+
+  /**
+   * @return the response object
+   */
+  public HttpServletResponse get() {
+    return resp;
+  }
+
+  /** Flush anything written through the writer.
+   */
+  public void flush() {
+    if (writer != null) {
+      writer.flush();
+    }
+  }
+
+  /**
+   * @return status set
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * @return message from sendError or null
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * @param name of header
+   * @return value or null
+   */
+  public String getHeader(final String name) {
+    return headers.get(name);
+  }
+
+  /**
+   * @return number of body bytes written - after flush
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @return the body - after flush - or null if not kept
+   */
+  public String getBody() {
+    if (body == null) {
+      return null;
+    }
+
+    return new String(body.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,218 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Dynamic proxies standing in for container and backend objects which
+ * have no behaviour of interest to the benchmarks. Methods which are
+ * not answered return null, zero or false.
+ */
+public final class Stubs {
+  /** Supplies the result of a call
+   */
+  public interface Answer {
+    /**
+     * @param args of the call - never null
+     * @return result
+     * @throws Throwable to be thrown by the call
+     */
+    Object answer(Object[] args) throws Throwable;
+  }
+
+  private Stubs() {
+  }
+
+  /** A proxy which answers calls by method name.
+   *
+   * @param cl interface to implement
+   * @param answers by method name
+   * @param <T> interface type
+   * @return proxy
+   */
+  public static <T> T stub(final Class<T> cl,
+                           final Map<String, Answer> answers) {
+    return cl.cast(Proxy.newProxyInstance(
+            cl.getClassLoader(),
+            new Class<?>[]{cl},
+            (proxy, method, args) -> {
+              final Object[] a = (args == null) ? new Object[0] : args;
+              final Answer ans = answers.get(method.getName());
+
+              if (ans != null) {
+                try {
+                  return ans.answer(a);
+                } catch (final InvocationTargetException ite) {
+                  throw ite.getCause();
+                }
+              }
+
+              return standard(proxy, method, a);
+            }));
+  }
+
+  /** A proxy for a bean style interface. Setters store values in the
+   * map, getters return them.
+   *
+   * @param cl interface to implement
+   * @param values initial property values - by property name
+   * @param <T> interface type
+   * @return proxy
+   */
+  public static <T> T bean(final Class<T> cl,
+                           final Map<String, Object> values) {
+    final Map<String, Object> props = new HashMap<>(values);
+
+    return cl.cast(Proxy.newProxyInstance(
+            cl.getClassLoader(),
+            new Class<?>[]{cl},
+            (proxy, method, args) -> {
+              final String name = method.getName();
+
+              if (name.startsWith("set") && (args != null) &&
+                      (args.length == 1)) {
+                synchronized (props) {
+                  props.put(propertyName(name, 3), args[0]);
+                }
+                return null;
+              }
+
+              final String pname;
+              if (name.startsWith("get")) {
+                pname = propertyName(name, 3);
+              } else if (name.startsWith("is")) {
+                pname = propertyName(name, 2);
+              } else {
+                pname = null;
+              }
+
+              if ((pname != null) &&
+                      ((args == null) || (args.length == 0))) {
+                final Object val;
+                synchronized (props) {
+                  val = props.get(pname);
+                }
+
+                if (val != null) {
+                  return val;
+                }
+              }
+
+              return standard(proxy, method,
+                              (args == null) ? new Object[0] : args);
+            }));
+  }
+
+  /** The value returned for calls with no answer
+   *
+   * @param type return type
+   * @return null, zero or false
+   */
+  public static Object defaultValue(final Class<?> type) {
+    if (!type.isPrimitive()) {
+      if (type == Enumeration.class) {
+        return Collections.emptyEnumeration();
+      }
+
+      return null;
+    }
+
+    if (type == boolean.class) {
+      return false;
+    }
+
+    if (type == char.class) {
+      return (char)0;
+    }
+
+    if (type == byte.class) {
+      return (byte)0;
+    }
+
+    if (type == short.class) {
+      return (short)0;
+    }
+
+    if (type == int.class) {
+      return 0;
+    }
+
+    if (type == long.class) {
+      return 0L;
+    }
+
+    if (type == float.class) {
+      return 0f;
+    }
+
+    if (type == double.class) {
+      return 0d;
+    }
+
+    return null; // void
+  }
+
+  /* ====================================================================
+   *                   Private methods
+   * ==================================================================== */
+
+  private static Object standard(final Object proxy,
+                                 final Method method,
+                                 final Object[] args) {
+    switch (method.getName()) {
+      case "equals":
+        if (args.length == 1) {
+          return proxy == args[0];
+        }
+        break;
+
+      case "hashCode":
+        if (args.length == 0) {
+          return System.identityHashCode(proxy);
+        }
+        break;
+
+      case "toString":
+        if (args.length == 0) {
+          return "Stub(" + proxy.getClass().getInterfaces()[0].getName() +
+                  ")";
+        }
+        break;
+    }
+
+    return defaultValue(method.getReturnType());
+  }
+
+  private static String propertyName(final String methodName,
+                                     final int prefixLen) {
+    final String s = methodName.substring(prefixLen);
+
+    if (s.isEmpty()) {
+      return s;
+    }
+
+    return Character.toLowerCase(s.charAt(0)) + s.substring(1);
+  }
+}
@@ -0,0 +1,156 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.bench;
+
+import org.bedework.caldav.server.calquery.QueryExecutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** A calendar-query over a home with a number of calendars, each
+ * query to the backend taking a fixed time. Run concurrently the
+ * backend queries should overlap, and the response should be exactly
+ * the same as the sequential run.
+ */
+public class ConcurrentQueryTest {
+  private static final int numCalendars = 8;
+
+  private static final int eventsPerCalendar = 20;
+
+  private static final long latency = 100;
+
+  private static final Pattern href =
+          Pattern.compile("<[^>/]*href>([^<]*)</");
+
+  private BenchServer server;
+
+  private MockRequest query;
+
+  private final QueryExecutor qe = new QueryExecutor();
+
+  /* The executor configuration is static - put it back afterwards */
+  private boolean wasEnabled;
+  private int wasParallelism;
+  private int wasMaxThreads;
+
+  @Before
+  public void setUp() throws Throwable {
+    wasEnabled = qe.getEnabled();
+    wasParallelism = qe.getParallelism();
+    wasMaxThreads = qe.getMaxThreads();
+
+    server = new BenchServer(eventsPerCalendar);
+
+    final MemStore store = server.getStore();
+
+    for (int i = 1; i < numCalendars; i++) {
+      store.addEvents(store.addCalendar(BenchServer.user, "cal" + i),
+                      eventsPerCalendar, server.getStart(), 60);
+    }
+
+    store.setLatency(latency);
+
+    final Date start = server.getStart();
+    final Date end = new Date(start.getTime() + 2L * 24 * 60 * 60 * 1000);
+
+    query = new MockRequest("REPORT",
+                            MemStore.userRoot + "/" + BenchServer.user + "/",
+                            BenchServer.user)
+            .header("Depth", "infinity")
+            .body("application/xml",
+                  CaldavBenchmarks.calendarQuery(start, end));
+  }
+
+  @After
+  public void tearDown() {
+    qe.setEnabled(wasEnabled);
+    qe.setParallelism(wasParallelism);
+    qe.setMaxThreads(wasMaxThreads);
+    QueryExecutor.shutdown();
+    server.close();
+  }
+
+  @Test
+  public void testConcurrentQuery() throws Throwable {
+    final MemStore store = server.getStore();
+
+    store.setConcurrent(false);
+    qe.setEnabled(false);
+
+    store.resetPeakQueries();
+    final MockResponse seq = run();
+
+    assertEquals("Sequential queries overlapped",
+                 1, store.getPeakQueries());
+
+    store.setConcurrent(true);
+    qe.setParallelism(numCalendars);
+    qe.setMaxThreads(2 * numCalendars);
+    qe.setEnabled(true);
+
+    store.resetPeakQueries();
+    final MockResponse conc = run();
+
+    assertTrue("Concurrent queries did not overlap",
+               store.getPeakQueries() > 1);
+
+    final List<String> seqHrefs = hrefs(seq.getBody());
+
+    assertEquals(numCalendars * eventsPerCalendar, seqHrefs.size());
+    assertEquals(seqHrefs, hrefs(conc.getBody()));
+
+    /* Collection by collection in href order */
+    String last = "";
+    for (final String h: seqHrefs) {
+      final String col = h.substring(0, h.lastIndexOf('/'));
+
+      assertTrue(col + " after " + last, col.compareTo(last) >= 0);
+      last = col;
+    }
+  }
+
+  private MockResponse run() throws Throwable {
+    final MockResponse resp = server.execute(query, true);
+
+    assertEquals(207, resp.getStatus());
+
+    return resp;
+  }
+
+  private static List<String> hrefs(final String body) {
+    final List<String> res = new ArrayList<>();
+    final Matcher m = href.matcher(body);
+
+    while (m.find()) {
+      res.add(m.group(1));
+    }
+
+    return res;
+  }
+}
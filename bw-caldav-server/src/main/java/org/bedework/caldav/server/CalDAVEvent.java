@@ -134,6 +134,18 @@ public abstract class CalDAVEvent <T> extends WdEntity<T> {
    */
   public abstract Set<String> getAttendeeUris() throws WebdavException;
 
+  /** Set the SCHEDULE-STATUS parameter of an attendee. Used to mark
+   * attendees whose messages have been queued rather than delivered.
+   * The default does nothing.
+   *
+   * @param attendeeUri of the attendee
+   * @param val status code, e.g. "1.0" for pending
+   * @throws WebdavException on error
+   */
+  public void setScheduleStatus(final String attendeeUri,
+                                final String val) throws WebdavException {
+  }
+
   /** Set the scheduleMethod for this event. Takes methodType values defined
    * in Icalendar
    *
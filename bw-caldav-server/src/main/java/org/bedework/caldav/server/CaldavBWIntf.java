@@ -27,22 +27,38 @@ import org.bedework.access.Acl;
 import org.bedework.access.PrivilegeDefs;
 import org.bedework.access.WhoDefs;
 import org.bedework.caldav.server.CaldavBwNode.PropertyTagXrdEntry;
+import org.bedework.caldav.server.CaldavComponentNode.EventLoader;
+import org.bedework.caldav.server.cache.ContentCache;
+import org.bedework.caldav.server.cache.WebcalCache;
 import org.bedework.caldav.server.calquery.CalData;
+import org.bedework.caldav.server.calquery.FreeBusyEngine;
 import org.bedework.caldav.server.calquery.FreeBusyQuery;
+import org.bedework.caldav.server.calquery.QueryExecutor;
 import org.bedework.caldav.server.filter.FilterHandler;
 import org.bedework.caldav.server.get.FreeBusyGetHandler;
 import org.bedework.caldav.server.get.GetHandler;
 import org.bedework.caldav.server.get.IscheduleGetHandler;
 import org.bedework.caldav.server.get.ServerInfoGetHandler;
 import org.bedework.caldav.server.get.WebcalGetHandler;
+import org.bedework.caldav.server.scheduling.IscheduleInbound;
+import org.bedework.caldav.server.scheduling.IscheduleKeys;
+import org.bedework.caldav.server.scheduling.OutboundMessage.Kind;
+import org.bedework.caldav.server.scheduling.OutboundQueue;
+import org.bedework.caldav.server.scheduling.RecipientExecutor;
 import org.bedework.caldav.server.soap.synch.SynchConnections;
 import org.bedework.caldav.server.soap.synch.SynchConnectionsMBean;
+import org.bedework.caldav.server.stats.CaldavStats;
+import org.bedework.caldav.server.stats.CaldavStats.StatsType;
 import org.bedework.caldav.server.sysinterface.CalPrincipalInfo;
+import org.bedework.caldav.server.sysinterface.EntityTag;
 import org.bedework.caldav.server.sysinterface.RetrievalMode;
 import org.bedework.caldav.server.sysinterface.SysIntf;
 import org.bedework.caldav.server.sysinterface.SysIntf.IcalResultType;
 import org.bedework.caldav.server.sysinterface.SysIntf.SynchReportData;
 import org.bedework.caldav.server.sysinterface.SysIntf.SynchReportData.SynchReportDataItem;
+import org.bedework.caldav.server.sysinterface.SysIntfFactory;
+import org.bedework.caldav.util.filter.FilterBase;
+import org.bedework.util.calendar.ScheduleMethods;
 import org.bedework.util.jmx.AnnotatedMBean;
 import org.bedework.util.jmx.ManagementContext;
 import org.bedework.util.misc.Util;
@@ -102,10 +118,14 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.function.Supplier;
 
@@ -155,6 +175,69 @@ public class CaldavBWIntf extends WebdavNsIntf {
 
   private static ServerInfo serverInfo;
 
+  /* We are created for each request so these remember lookups for the
+     life of the request. Cleared whenever we make a change.
+
+     Nodes and collections initialise themselves lazily so they are not
+     shared between threads. Lookups made by QueryExecutor tasks, e.g.
+     the concurrent reads of a multi-op, bypass the memo. Access is still
+     synchronized on the map as the request thread may use it while the
+     tasks run.
+   */
+  private final Map<String, CalDAVCollection<?>> collectionMemo =
+          new HashMap<>();
+  private final Map<String, WebdavNsNode> nodeMemo = new HashMap<>();
+
+  private int collectionLookups;
+  private int collectionMemoHits;
+  private int nodeLookups;
+  private int nodeMemoHits;
+
+  /* Outbound scheduling messages for changes made in this request. They
+     are only queued once the changes have been committed by close.
+   */
+  private final List<PendingMessage> pendingScheduling = new ArrayList<>();
+
+  /* RFC 6638 SCHEDULE-STATUS for a message not yet delivered */
+  private static final String scheduleStatusPending = "1.0";
+
+  private static class PendingMessage {
+    private final Kind kind;
+    private final String owner;
+    private final String href;
+    private final String uid;
+    private final String recipient;
+    private final String icalendar;
+
+    PendingMessage(final Kind kind,
+                   final String owner,
+                   final String href,
+                   final String uid,
+                   final String recipient,
+                   final String icalendar) {
+      this.kind = kind;
+      this.owner = owner;
+      this.href = href;
+      this.uid = uid;
+      this.recipient = recipient;
+      this.icalendar = icalendar;
+    }
+  }
+
+  /* Organizer's entity as it was before an update */
+  private static class PriorState {
+    private final Set<String> attendees;
+
+    /* The entity as a CANCEL for attendees who were removed */
+    private final String cancel;
+
+    PriorState(final Set<String> attendees,
+               final String cancel) {
+      this.attendees = attendees;
+      this.cancel = cancel;
+    }
+  }
+
   /* ====================================================================
    *                     JMX configuration
    * ==================================================================== */
@@ -188,6 +271,18 @@ public class CaldavBWIntf extends WebdavNsIntf {
           new CopyOnWriteArraySet<>();
   private static ManagementContext managementContext;
   private static SynchConnections synchConn;
+  private static CaldavStats stats;
+  private static ContentCache contentCache;
+  private static WebcalCache webcalCache;
+  private static QueryExecutor queryExecutor;
+  private static FreeBusyEngine freeBusyEngine;
+  private static RecipientExecutor recipientExecutor;
+  private static OutboundQueue outboundQueue;
+  private static IscheduleInbound ischeduleInbound;
+  private static IscheduleKeys ischeduleKeys;
+  private static SysIntfFactory sysIntfFactory;
+  private static Warmup warmup;
+  private static SynchReports synchReports;
 
   /*
   static {
@@ -273,6 +368,54 @@ public class CaldavBWIntf extends WebdavNsIntf {
         synchConn = new SynchConnections();
         registerMbean(new ObjectName(synchConn.getServiceName()),
                       synchConn);
+
+        stats = new CaldavStats();
+        registerMbean(new ObjectName(stats.getServiceName()),
+                      stats);
+
+        contentCache = new ContentCache();
+        registerMbean(new ObjectName(contentCache.getServiceName()),
+                      contentCache);
+
+        webcalCache = new WebcalCache();
+        registerMbean(new ObjectName(webcalCache.getServiceName()),
+                      webcalCache);
+
+        queryExecutor = new QueryExecutor();
+        registerMbean(new ObjectName(queryExecutor.getServiceName()),
+                      queryExecutor);
+
+        freeBusyEngine = new FreeBusyEngine();
+        registerMbean(new ObjectName(freeBusyEngine.getServiceName()),
+                      freeBusyEngine);
+
+        recipientExecutor = new RecipientExecutor();
+        registerMbean(new ObjectName(recipientExecutor.getServiceName()),
+                      recipientExecutor);
+
+        outboundQueue = new OutboundQueue();
+        registerMbean(new ObjectName(outboundQueue.getServiceName()),
+                      outboundQueue);
+
+        ischeduleInbound = new IscheduleInbound();
+        registerMbean(new ObjectName(ischeduleInbound.getServiceName()),
+                      ischeduleInbound);
+
+        ischeduleKeys = new IscheduleKeys();
+        registerMbean(new ObjectName(ischeduleKeys.getServiceName()),
+                      ischeduleKeys);
+
+        sysIntfFactory = new SysIntfFactory();
+        registerMbean(new ObjectName(sysIntfFactory.getServiceName()),
+                      sysIntfFactory);
+
+        warmup = new Warmup();
+        registerMbean(new ObjectName(warmup.getServiceName()),
+                      warmup);
+
+        synchReports = new SynchReports();
+        registerMbean(new ObjectName(synchReports.getServiceName()),
+                      synchReports);
       }
     } catch (final Throwable t) {
       t.printStackTrace();
@@ -293,6 +436,11 @@ public class CaldavBWIntf extends WebdavNsIntf {
       } catch (final Throwable t) {
         t.printStackTrace();
       } finally {
+        QueryExecutor.shutdown();
+        RecipientExecutor.shutdown();
+        OutboundQueue.shutdown();
+        SynchConnections.shutdown();
+
         try {
           managementContext.stop();
         } catch (final Throwable ignored) {}
@@ -326,7 +474,7 @@ public class CaldavBWIntf extends WebdavNsIntf {
       synchWs = Boolean.parseBoolean(servlet.getInitParameter("synchws"));
       notifyWs = Boolean.parseBoolean(servlet.getInitParameter("notifyws"));
       socketWs = Boolean.parseBoolean(servlet.getInitParameter("socketws"));
-      sysi = getSysi(servlet.getInitParameter("sysintfImpl"));
+      sysi = SysIntfFactory.acquire(servlet.getInitParameter("sysintfImpl"));
 
       super.init(servlet, req, methods, dumpContent);
 
@@ -372,13 +520,15 @@ public class CaldavBWIntf extends WebdavNsIntf {
                      final String opaqueData) throws WebdavException {
     try {
       if (sysi != null) {
+        RecipientExecutor.finish(sysi);
+
         try {
           sysi.close();
         } catch (final Throwable t) {
           throw new WebdavException(t);
         }
       } else {
-        sysi = getSysi(servlet.getInitParameter("sysintfImpl"));
+        sysi = SysIntfFactory.acquire(servlet.getInitParameter("sysintfImpl"));
       }
 
       this.account = account;
@@ -574,12 +724,49 @@ public class CaldavBWIntf extends WebdavNsIntf {
 
   @Override
   public void rollback() {
-    sysi.rollback();
+    clearMemo();
+    pendingScheduling.clear();
+
+    if (sysi != null) {
+      sysi.rollback();
+    }
   }
 
   @Override
   public void close() throws WebdavException {
-    sysi.close();
+    if (debug() && ((collectionLookups > 0) || (nodeLookups > 0))) {
+      debug("Collection lookups: backend=" + collectionLookups +
+                    " memo=" + collectionMemoHits +
+                    " Node lookups: backend=" + nodeLookups +
+                    " memo=" + nodeMemoHits);
+    }
+
+    if (sysi == null) {
+      // Already closed
+      return;
+    }
+
+    /* Recipient tasks left running must not use a closed backend */
+    RecipientExecutor.finish(sysi);
+
+    try {
+      sysi.close();
+    } catch (final WebdavException we) {
+      pendingScheduling.clear();
+      throw we;
+    }
+
+    /* Committed - the messages may now be delivered */
+    for (final PendingMessage pm: pendingScheduling) {
+      OutboundQueue.enqueue(pm.kind, pm.owner, pm.href, pm.uid,
+                            pm.recipient, pm.icalendar);
+    }
+
+    pendingScheduling.clear();
+
+    /* Don't hold on to it - it may now belong to another request */
+    SysIntfFactory.release(sysi);
+    sysi = null;
   }
 
   @Override
@@ -644,8 +831,38 @@ public class CaldavBWIntf extends WebdavNsIntf {
                               final int existence,
                               final int nodeType,
                               final boolean addMember) throws WebdavException {
-    return getNodeInt(uri, existence, nodeType, addMember,
+    if ((uri == null) || addMember ||
+            QueryExecutor.inExecutor() ||
+            ((existence != WebdavNsIntf.existanceMust) &&
+                     (existence != WebdavNsIntf.existanceMay))) {
+      return getNodeInt(uri, existence, nodeType, addMember,
+                        null, null, null);
+    }
+
+    final String key = existence + "|" + nodeType + "|" + uri;
+
+    WebdavNsNode node;
+
+    synchronized (nodeMemo) {
+      node = nodeMemo.get(key);
+      if (node != null) {
+        nodeMemoHits++;
+        return node;
+      }
+
+      nodeLookups++;
+    }
+
+    node = getNodeInt(uri, existence, nodeType, addMember,
                       null, null, null);
+
+    if ((node != null) && node.getExists()) {
+      synchronized (nodeMemo) {
+        nodeMemo.put(key, node);
+      }
+    }
+
+    return node;
   }
 
   @Override
@@ -687,7 +904,25 @@ public class CaldavBWIntf extends WebdavNsIntf {
             sendSchedulingMessage = false;
           }
 
+          String deleted = null;
+          final boolean defer = sendSchedulingMessage &&
+                  deferScheduling();
+
+          if (defer) {
+            // Must be captured first - it's gone afterwards
+            deleted = ev.toIcalString(
+                    ev.getOrganizerSchedulingObject() ?
+                            ScheduleMethods.methodTypeCancel :
+                            ScheduleMethods.methodTypeReply,
+                    "text/calendar");
+          }
+
           sysi.deleteEvent(ev, sendSchedulingMessage);
+          FreeBusyEngine.invalidate(ev.getParentPath());
+
+          if (defer) {
+            queueScheduling(ev, deleted, null);
+          }
         } else {
           if (debug()) {
             debug("No event object available");
@@ -715,11 +950,14 @@ public class CaldavBWIntf extends WebdavNsIntf {
           }
         }
         sysi.deleteCollection(col, sendSchedulingMessage);
+        FreeBusyEngine.invalidate(col.getPath());
       }
     } catch (final WebdavException we) {
       throw we;
     } catch (final Throwable t) {
       throw new WebdavException(t);
+    } finally {
+      clearMemo();
     }
   }
 
@@ -727,11 +965,14 @@ public class CaldavBWIntf extends WebdavNsIntf {
   public Collection<WebdavNsNode> getChildren(
           final WebdavNsNode node,
           final Supplier<Object> filterGetter) throws WebdavException {
+    final CaldavStats.Timer timer = CaldavStats.start(StatsType.getChildren);
+
     try {
       final ArrayList<WebdavNsNode> al = new ArrayList<>();
 
       if (!node.isCollection()) {
         // Don't think we should have been called
+        timer.ok();
         return al;
       }
 
@@ -739,11 +980,41 @@ public class CaldavBWIntf extends WebdavNsIntf {
         debug("About to get children for " + node.getUri());
       }
 
+      if (sysi.listsEntityTags() && (node instanceof CaldavCalNode)) {
+        /* Build the entity nodes from a listing - the events are only
+           retrieved if some other property is asked for.
+         */
+        final Collection<EntityTag> tags =
+                ((CaldavCalNode)node).getChildTags(filterGetter);
+
+        if (tags != null) {
+          final CalDAVCollection<?> parent =
+                  (CalDAVCollection<?>)node.getCollection(false);  // don't deref
+          final FilterBase filter;
+
+          if (filterGetter == null) {
+            filter = null;
+          } else {
+            filter = (FilterBase)filterGetter.get();
+          }
+
+          final EventLoader loader = new EventLoader(sysi, parent, filter);
+
+          for (final EntityTag tag: tags) {
+            al.add(getTagNode(parent, tag, loader));
+          }
+
+          timer.ok();
+          return al;
+        }
+      }
+
       final Collection<? extends WdEntity<?>> children =
               node.getChildren(filterGetter);
 
       if (children == null) {
         // Perhaps no access
+        timer.ok();
         return al;
       }
 
@@ -787,11 +1058,14 @@ public class CaldavBWIntf extends WebdavNsIntf {
                           col, ev, r));
       }
 
+      timer.ok();
       return al;
     } catch (WebdavException we) {
       throw we;
     } catch (Throwable t) {
       throw new WebdavException(t);
+    } finally {
+      timer.stop();
     }
   }
 
@@ -908,7 +1182,18 @@ public class CaldavBWIntf extends WebdavNsIntf {
       Content c = new Content();
       c.written = true;
 
-      c.contentType = node.writeContent(null, resp.getWriter(), ctype);
+      if (node instanceof CaldavComponentNode) {
+        final ContentCache.Entry content =
+                ((CaldavComponentNode)node).getContent(ctype);
+
+        final byte[] bytes = content.getContent();
+
+        resp.setContentLength(bytes.length);
+        resp.getOutputStream().write(bytes);
+        c.contentType = content.getContentType();
+      } else {
+        c.contentType = node.writeContent(null, resp.getWriter(), ctype);
+      }
 
       if (c.contentType.indexOf(';') < 0) {
         // No charset
@@ -982,6 +1267,8 @@ public class CaldavBWIntf extends WebdavNsIntf {
                                      final String[] contentTypePars,
                                      final Reader contentRdr,
                                      final IfHeaders ifHeaders) throws WebdavException {
+    final CaldavStats.Timer timer = CaldavStats.start(StatsType.putContent);
+
     try {
       PutContentResult pcr = new PutContentResult();
       pcr.node = node;
@@ -1015,11 +1302,15 @@ public class CaldavBWIntf extends WebdavNsIntf {
                              contentTypePars[0],
                              ifHeaders);
 
+      timer.ok();
       return pcr;
     } catch (WebdavException we) {
       throw we;
     } catch (Throwable t) {
       throw new WebdavException(t);
+    } finally {
+      clearMemo();
+      timer.stop();
     }
   }
 
@@ -1081,6 +1372,8 @@ public class CaldavBWIntf extends WebdavNsIntf {
       throw we;
     } catch (Throwable t) {
       throw new WebdavException(t);
+    } finally {
+      clearMemo();
     }
   }
 
@@ -1100,6 +1393,17 @@ public class CaldavBWIntf extends WebdavNsIntf {
             (CalDAVCollection<?>)bwnode.getCollection(true);
     boolean created = false;
 
+    final boolean defer = deferScheduling();
+
+    /* Must be captured before we parse - the parse may update it */
+    final PriorState prior;
+
+    if (defer) {
+      prior = priorState(bwnode);
+    } else {
+      prior = null;
+    }
+
     final SysiIcalendar cal =
             sysi.fromIcal(col, contentRdr, contentType,
                           IcalResultType.OneComponent,
@@ -1124,6 +1428,10 @@ public class CaldavBWIntf extends WebdavNsIntf {
                " new event = " + ev.isNew());
     }
 
+    if (defer) {
+      markDeferred(ev);
+    }
+
     if (ev.isNew()) {
       created = true;
       ev.setName(entityName);
@@ -1170,6 +1478,12 @@ public class CaldavBWIntf extends WebdavNsIntf {
       bwnode.setEvent(ev);
     }
 
+    FreeBusyEngine.invalidate(col.getPath());
+
+    if (defer) {
+      queueScheduling(ev, null, prior);
+    }
+
     if (ev.getOrganizerSchedulingObject() ||
         ev.getAttendeeSchedulingObject()) {
       resp.setHeader("Schedule-Tag", ev.getScheduleTag());
@@ -1202,6 +1516,17 @@ public class CaldavBWIntf extends WebdavNsIntf {
             (CalDAVCollection<?>)bwnode.getCollection(true); // deref
     boolean created = false;
 
+    final boolean defer = deferScheduling();
+
+    /* Must be captured before we parse - the parse may update it */
+    final PriorState prior;
+
+    if (defer) {
+      prior = priorState(bwnode);
+    } else {
+      prior = null;
+    }
+
     SysiIcalendar cal = sysi.fromIcal(col, ical,
                                       IcalResultType.OneComponent);
     if (cal.getMethod() != null) {
@@ -1224,12 +1549,17 @@ public class CaldavBWIntf extends WebdavNsIntf {
                " new event = " + ev.isNew());
     }
 
+    if (defer) {
+      markDeferred(ev);
+    }
+
     if (ev.isNew()) {
       created = true;
       ev.setName(entityName);
 
       /* Collection<BwEventProxy>failedOverrides = */
       sysi.addEvent(ev, noInvites, true);
+      clearMemo();
 
       bwnode.setEvent(ev);
     } else if (create) {
@@ -1266,6 +1596,13 @@ public class CaldavBWIntf extends WebdavNsIntf {
         debug("putContent: update event " + ev);
       }
       sysi.updateEvent(ev);
+      clearMemo();
+    }
+
+    FreeBusyEngine.invalidate(col.getPath());
+
+    if (defer) {
+      queueScheduling(ev, null, prior);
     }
 
     if (ev.getOrganizerSchedulingObject() ||
@@ -1331,7 +1668,7 @@ public class CaldavBWIntf extends WebdavNsIntf {
               (CalDAVCollection<?>)bwnode.getCollection(false); // No deref?
 
       final CalDAVCollection<?> parent =
-              getSysi().getCollection(newCol.getParentPath());
+              getCollection(newCol.getParentPath());
       if (parent.getCalType() == CalDAVCollection.calTypeCalendarCollection) {
         throw new WebdavForbidden(CaldavTags.calendarCollectionLocationOk);
       }
@@ -1345,6 +1682,8 @@ public class CaldavBWIntf extends WebdavNsIntf {
       throw we;
     } catch (final Throwable t) {
       throw new WebdavException(t);
+    } finally {
+      clearMemo();
     }
   }
 
@@ -1356,31 +1695,36 @@ public class CaldavBWIntf extends WebdavNsIntf {
                        final boolean copy,
                        final boolean overwrite,
                        final int depth) throws WebdavException {
-    if (from instanceof CaldavCalNode) {
-      copyMoveCollection(resp, (CaldavCalNode)from,
-                         to, copy, overwrite, depth);
+    try {
+      if (from instanceof CaldavCalNode) {
+        copyMoveCollection(resp, (CaldavCalNode)from,
+                           to, copy, overwrite, depth);
 
-      return;
-    }
+        return;
+      }
 
-    // Copy entity or resource
-    if ((depth != Headers.depthNone) && (depth != 0)) {
-      throw new WebdavBadRequest();
-    }
+      // Copy entity or resource
+      if ((depth != Headers.depthNone) && (depth != 0)) {
+        throw new WebdavBadRequest();
+      }
 
-    if (from instanceof CaldavComponentNode) {
-      copyMoveComponent(resp, (CaldavComponentNode)from,
-                        to, copy, overwrite);
-      return;
-    }
+      if (from instanceof CaldavComponentNode) {
+        copyMoveComponent(resp, (CaldavComponentNode)from,
+                          to, copy, overwrite);
+        return;
+      }
 
-    if (from instanceof CaldavResourceNode) {
-      copyMoveResource(resp, (CaldavResourceNode)from,
-                       to, copy, overwrite);
-      return;
-    }
+      if (from instanceof CaldavResourceNode) {
+        copyMoveResource(resp, (CaldavResourceNode)from,
+                         to, copy, overwrite);
+        return;
+      }
 
-    throw new WebdavBadRequest();
+      throw new WebdavBadRequest();
+    } finally {
+      FreeBusyEngine.invalidate(null);
+      clearMemo();
+    }
   }
 
   private Content doXrd(final HttpServletRequest req,
@@ -1615,71 +1959,73 @@ public class CaldavBWIntf extends WebdavNsIntf {
     wsr.truncated = srd.truncated;
     wsr.items = new ArrayList<WdSynchReportItem>();
 
-    Map<String, WebdavNsNode> parents = new HashMap<String, WebdavNsNode>();
-
     for (SynchReportDataItem srdi: srd.items) {
-      int nodeType;
-      CalDAVCollection<?> col = null;
-      CalDAVResource<?> r = null;
-      CalDAVEvent<?> ev = null;
-      WdSynchReportItem wri = null;
-      WebdavNsNode parent = null; // Need for non-collection
-      String name;
-      boolean canSync;
-
-      if (srdi.getCol() == null) {
-        parent = parents.get(srdi.getVpath());
-        if (parent == null) {
-          parent = getNode(srdi.getVpath(),
-                           WebdavNsIntf.existanceMust,
-                           WebdavNsIntf.nodeTypeCollection,
-                           false);
-
-          parents.put(srdi.getVpath(), parent);
-        }
+      wsr.items.add(new WdSynchReportItem(getSynchNode(srdi),
+                                          srdi.getToken(),
+                                          getCanSync(srdi)));
+    }
 
-        col = (CalDAVCollection<?>)parent.getCollection(false);
-        canSync = true;
+    return wsr;
+  }
 
-        if (srdi.getEntity() != null) {
-          nodeType = WebdavNsIntf.nodeTypeEntity;
-          ev = srdi.getEntity();
-          name = ev.getName();
-        } else if (srdi.getResource() != null) {
-          nodeType = WebdavNsIntf.nodeTypeEntity;
-          r = srdi.getResource();
-          name = r.getName();
-        } else {
-          throw new WebdavException("Unexpected return type");
-        }
-      } else {
-        nodeType = WebdavNsIntf.nodeTypeCollection;
-        col = srdi.getCol();
-        name = col.getName();
-        canSync = srdi.getCanSync();
-      }
+  private boolean getCanSync(final SynchReportDataItem srdi) {
+    return (srdi.getCol() == null) || srdi.getCanSync();
+  }
 
-      wri = new WdSynchReportItem(getNodeInt(Util.buildPath(false,
-                                                            srdi.getVpath(),
-                                                            "/", name),
-                                             WebdavNsIntf.existanceDoesExist,
-                                             nodeType,
-                                             false,
-                                             col, ev, r),
-                                             srdi.getToken(),
-                                             canSync);
+  /** Turn a changed item from a sync cursor into a node. Parent
+   * collection nodes come from the request memo.
+   *
+   * @param srdi the changed item
+   * @return node for the item
+   * @throws WebdavException on error
+   */
+  public WebdavNsNode getSynchNode(final SynchReportDataItem srdi) throws WebdavException {
+    int nodeType;
+    CalDAVCollection<?> col = null;
+    CalDAVResource<?> r = null;
+    CalDAVEvent<?> ev = null;
+    String name;
 
-      wsr.items.add(wri);
+    if (srdi.getCol() == null) {
+      // Parent is needed for non-collection - getNode remembers it
+      final WebdavNsNode parent = getNode(srdi.getVpath(),
+                                          WebdavNsIntf.existanceMust,
+                                          WebdavNsIntf.nodeTypeCollection,
+                                          false);
+
+      col = (CalDAVCollection<?>)parent.getCollection(false);
+
+      if (srdi.getEntity() != null) {
+        nodeType = WebdavNsIntf.nodeTypeEntity;
+        ev = srdi.getEntity();
+        name = ev.getName();
+      } else if (srdi.getResource() != null) {
+        nodeType = WebdavNsIntf.nodeTypeEntity;
+        r = srdi.getResource();
+        name = r.getName();
+      } else {
+        throw new WebdavException("Unexpected return type");
+      }
+    } else {
+      nodeType = WebdavNsIntf.nodeTypeCollection;
+      col = srdi.getCol();
+      name = col.getName();
     }
 
-    return wsr;
+    return getNodeInt(Util.buildPath(false,
+                                     srdi.getVpath(),
+                                     "/", name),
+                      WebdavNsIntf.existanceDoesExist,
+                      nodeType,
+                      false,
+                      col, ev, r);
   }
 
   @Override
   public String getSyncToken(final String path) throws WebdavException{
     String url = sysi.getUrlHandler().unprefix(fixPath(path));
 
-    CalDAVCollection<?> col = getSysi().getCollection(url);
+    CalDAVCollection<?> col = getCollection(url);
 
     if (col == null) {
       throw new WebdavException(HttpServletResponse.SC_PRECONDITION_FAILED,
@@ -1771,10 +2117,15 @@ public class CaldavBWIntf extends WebdavNsIntf {
       } else {
         throw new WebdavException(HttpServletResponse.SC_NOT_IMPLEMENTED);
       }
+
+      // Access changes what others may see
+      FreeBusyEngine.invalidate(null);
     } catch (WebdavException wi) {
       throw wi;
     } catch (Throwable t) {
       throw new WebdavException(t);
+    } finally {
+      clearMemo();
     }
   }
 
@@ -1978,6 +2329,28 @@ public class CaldavBWIntf extends WebdavNsIntf {
    *                         Caldav methods
    * ==================================================================== */
 
+  /** Receives the nodes produced by a streaming query one at a time.
+   */
+  public interface NodeHandler {
+    /**
+     * @param node the next result node
+     * @throws WebdavException on error - terminates the query
+     */
+    void handle(WebdavNsNode node) throws WebdavException;
+
+    /** Called when the query of one of a number of collections fails.
+     * The default terminates the query.
+     *
+     * @param node the collection
+     * @param we the failure
+     * @throws WebdavException to terminate the query
+     */
+    default void error(final WebdavNsNode node,
+                       final WebdavException we) throws WebdavException {
+      throw we;
+    }
+  }
+
   /** Use the given query to return a collection of nodes. An exception will
    * be raised if the entire query fails for some reason (access, etc). An
    * empty collection will be returned if no objects match.
@@ -1993,13 +2366,171 @@ public class CaldavBWIntf extends WebdavNsIntf {
                                         final List<String> retrieveList,
                                         final RetrievalMode retrieveRecur,
                                         final FilterType fltr) throws WebdavException {
+    final Collection<WebdavNsNode> evnodes = new ArrayList<>();
+
+    query(wdnode, retrieveList, retrieveRecur, fltr, evnodes::add);
+
+    return evnodes;
+  }
+
+  /** Use the given query to produce a stream of nodes. Each node is built
+   * from the next event delivered by the SysIntf iterator, post-filtered
+   * and passed to the handler. We hold no reference to it once the handler
+   * returns so the memory used is independent of the size of the result.
+   *
+   * <p>An exception will be raised if the query fails for some reason
+   * (access, etc).
+   *
+   * @param wdnode    WebdavNsNode defining root of search
+   * @param retrieveList   If non-null limit required fields.
+   * @param retrieveRecur  How we retrieve recurring events
+   * @param fltr      Filter object defining search
+   * @param handler   called for each result node
+   * @throws WebdavException
+   */
+  public void query(final WebdavNsNode wdnode,
+                    final List<String> retrieveList,
+                    final RetrievalMode retrieveRecur,
+                    final FilterType fltr,
+                    final NodeHandler handler) throws WebdavException {
     CaldavBwNode node = (CaldavBwNode)wdnode;
 
     FilterHandler fh = new FilterHandler(fltr);
-    Collection<CalDAVEvent<?>> events =
-            fh.query(node,
-                     retrieveList, retrieveRecur);
 
+    if (isMetadataOnly(retrieveList) && (retrieveRecur == null)) {
+      /* Only etags or schedule tags - try for a listing */
+      final Collection<EntityTag> tags = fh.queryTags(node);
+
+      if (tags != null) {
+        final CalDAVCollection<?> col =
+                (CalDAVCollection<?>)node.getCollection(false);
+        final EventLoader loader =
+                new EventLoader(sysi, col, fh.getQueryFilter());
+
+        for (final EntityTag tag: tags) {
+          handler.handle(getTagNode(col, tag, loader));
+        }
+
+        return;
+      }
+    }
+
+    Iterator<CalDAVEvent<?>> events =
+            fh.queryIterator(node,
+                             retrieveList, retrieveRecur);
+
+    emitNodes(fh, events, handler);
+  }
+
+  /** Run the query against each of the given calendar collections.
+   * Results are delivered collection by collection in href order.
+   *
+   * <p>If concurrent queries are enabled and the SysIntf allows it the
+   * backend queries run in parallel on the QueryExecutor. Only the
+   * SysIntf calls are made on other threads - nodes are built, post
+   * filtered and passed to the handler in this thread. Each collection's
+   * results are streamed as soon as its query and those of the
+   * collections before it have completed, in the order the SysIntf
+   * returned them - the same order as the sequential path.
+   *
+   * <p>If the query of a collection fails the handler's error method is
+   * called for it and the other collections are still queried.
+   *
+   * @param calNodes  calendar collection nodes to search
+   * @param retrieveList   If non-null limit required fields.
+   * @param retrieveRecur  How we retrieve recurring events
+   * @param fltr      Filter object defining search
+   * @param handler   called for each result node
+   * @throws WebdavException
+   */
+  public void query(final Collection<WebdavNsNode> calNodes,
+                    final List<String> retrieveList,
+                    final RetrievalMode retrieveRecur,
+                    final FilterType fltr,
+                    final NodeHandler handler) throws WebdavException {
+    final TreeMap<String, WebdavNsNode> sorted = new TreeMap<>();
+
+    for (final WebdavNsNode n: calNodes) {
+      sorted.put(n.getUri(), n);
+    }
+
+    if (!QueryExecutor.isEnabled() ||
+            !sysi.allowsConcurrentQueries() ||
+            isMetadataOnly(retrieveList) ||
+            (sorted.size() < 2)) {
+      for (final WebdavNsNode n: sorted.values()) {
+        try {
+          query(n, retrieveList, retrieveRecur, fltr, handler);
+        } catch (final WebdavException we) {
+          handler.error(n, we);
+        }
+      }
+
+      return;
+    }
+
+    final List<WebdavNsNode> cols = new ArrayList<>(sorted.values());
+    final List<FilterHandler> fhs = new ArrayList<>(cols.size());
+    final List<Callable<Collection<CalDAVEvent<?>>>> tasks =
+            new ArrayList<>(cols.size());
+
+    /* Set by a task which fails - seen by us once its result is */
+    final WebdavException[] errors = new WebdavException[cols.size()];
+
+    for (int i = 0; i < cols.size(); i++) {
+      final int index = i;
+      final CaldavBwNode n = (CaldavBwNode)cols.get(i);
+      final FilterHandler fh = new FilterHandler(fltr);
+
+      fhs.add(fh);
+      tasks.add(() -> {
+        try {
+          return fh.query(n, retrieveList, retrieveRecur);
+        } catch (final WebdavException we) {
+          errors[index] = we;
+          return null;
+        }
+      });
+    }
+
+    QueryExecutor.invokeOrdered(sysi, tasks, (i, events) -> {
+      if (errors[i] != null) {
+        handler.error(cols.get(i), errors[i]);
+      } else if (events != null) {
+        try {
+          emitNodes(fhs.get(i), events.iterator(), handler);
+        } catch (final WebdavException we) {
+          handler.error(cols.get(i), we);
+        }
+      }
+    });
+  }
+
+  /* True if the retrieve list names only properties held in an EntityTag
+   */
+  private boolean isMetadataOnly(final List<String> retrieveList) {
+    return (retrieveList != null) &&
+            sysi.metadataProperties().containsAll(retrieveList);
+  }
+
+  /* A node for an entity from a tag listing. The entity is retrieved by
+     the loader only if needed.
+   */
+  private CaldavComponentNode getTagNode(final CalDAVCollection<?> col,
+                                         final EntityTag tag,
+                                         final EventLoader loader)
+          throws WebdavException {
+    return new CaldavComponentNode(new CaldavURI(col, null, tag.getName(),
+                                                 true, false),
+                                   sysi, tag, loader);
+  }
+
+  /* Build a node for each of the events, post-filter it and pass it to
+     the handler.
+   */
+  private void emitNodes(final FilterHandler fh,
+                         final Iterator<CalDAVEvent<?>> events,
+                         final NodeHandler handler) throws WebdavException {
     /* We now need to build a node for each of the events in the collection.
        For each event we first determine what calendar it's in. We then take the
        incoming uri, strip any calendar names off it and append the calendar
@@ -2008,16 +2539,11 @@ public class CaldavBWIntf extends WebdavNsIntf {
        If there is no calendar name for the event we just give it the default.
      */
 
-    Collection<WebdavNsNode> evnodes = new ArrayList<>();
-
-    if (events == null) {
-      return evnodes;
-    }
-
     try {
-      for (final CalDAVEvent<?> ev: events) {
-        CalDAVCollection<?> col =
-                getSysi().getCollection(ev.getParentPath());
+      while (events.hasNext()) {
+        final CalDAVEvent<?> ev = events.next();
+
+        CalDAVCollection<?> col = getCollection(ev.getParentPath());
         String uri = col.getPath();
 
         /* If no name was assigned use the guid */
@@ -2035,10 +2561,12 @@ public class CaldavBWIntf extends WebdavNsIntf {
                                                 false,
                                                 col, ev, null);
 
-        evnodes.add(evnode);
-      }
+        if (!fh.postFilter(evnode)) {
+          continue;
+        }
 
-      return fh.postFilter(evnodes);
+        handler.handle(evnode);
+      }
     } catch (WebdavException we) {
       throw we;
     } catch (Throwable t) {
@@ -2047,6 +2575,124 @@ public class CaldavBWIntf extends WebdavNsIntf {
     }
   }
 
+  /** Resolve a number of uris which are expected to refer to existing
+   * entities. Uris in the same calendar collection are fetched with one
+   * call to SysIntf.getEvents. Anything else is resolved with getNode.
+   *
+   * @param uris    uris - path part only
+   * @return list with one entry per uri in the same order - null for not
+   *         found or a node with an error status.
+   * @throws WebdavException on fatal error
+   */
+  public List<WebdavNsNode> getEntityNodes(final List<String> uris)
+          throws WebdavException {
+    final List<WebdavNsNode> nodes = new ArrayList<>(uris.size());
+
+    /* Parent path to the positions of the uris in that collection */
+    final Map<String, List<Integer>> byParent = new LinkedHashMap<>();
+
+    for (int i = 0; i < uris.size(); i++) {
+      nodes.add(null);
+
+      final String uri = normalizeUri(uris.get(i));
+
+      if (uri.endsWith("/") || sysi.isPrincipal(uri)) {
+        nodes.set(i, getNodeOrStatus(uris.get(i)));
+        continue;
+      }
+
+      final SplitResult split = splitUri(uri);
+
+      if (!split.isOk() || (split.name == null)) {
+        nodes.set(i, getNodeOrStatus(uris.get(i)));
+        continue;
+      }
+
+      byParent.computeIfAbsent(split.path, k -> new ArrayList<>()).add(i);
+    }
+
+    for (final String parentPath: byParent.keySet()) {
+      final List<Integer> positions = byParent.get(parentPath);
+
+      try {
+        final CalDAVCollection<?> col = getCollection(parentPath);
+
+        if (col == null) {
+          // All not found
+          continue;
+        }
+
+        final int ctype = col.getCalType();
+        if ((ctype != CalDAVCollection.calTypeCalendarCollection) &&
+                (ctype != CalDAVCollection.calTypeInbox) &&
+                (ctype != CalDAVCollection.calTypeOutbox)) {
+          for (final int pos: positions) {
+            nodes.set(pos, getNodeOrStatus(uris.get(pos)));
+          }
+
+          continue;
+        }
+
+        final List<String> names = new ArrayList<>(positions.size());
+
+        for (final int pos: positions) {
+          names.add(splitUri(normalizeUri(uris.get(pos))).name);
+        }
+
+        final Map<String, CalDAVEvent<?>> evs = sysi.getEvents(col, names);
+
+        for (int i = 0; i < positions.size(); i++) {
+          final CalDAVEvent<?> ev = evs.get(names.get(i));
+
+          if (ev == null) {
+            /* Not an entity - may be a collection referred to without
+               the trailing "/"
+             */
+            final String uri = uris.get(positions.get(i));
+
+            if (getCollection(normalizeUri(uri)) != null) {
+              nodes.set(positions.get(i), getNodeOrStatus(uri));
+            }
+
+            continue;
+          }
+
+          nodes.set(positions.get(i),
+                    getNodeInt(Util.buildPath(false, col.getPath(),
+                                              "/", names.get(i)),
+                               WebdavNsIntf.existanceDoesExist,
+                               WebdavNsIntf.nodeTypeEntity,
+                               false,
+                               col, ev, null));
+        }
+      } catch (final WebdavException we) {
+        // The whole group fails with the same status
+        for (final int pos: positions) {
+          nodes.set(pos, new CaldavComponentNode(sysi,
+                                                 we.getStatusCode(),
+                                                 uris.get(pos)));
+        }
+      }
+    }
+
+    return nodes;
+  }
+
+  private WebdavNsNode getNodeOrStatus(final String uri) {
+    try {
+      return getNode(uri,
+                     WebdavNsIntf.existanceMust,
+                     WebdavNsIntf.nodeTypeUnknown,
+                     false);
+    } catch (final WebdavException we) {
+      if (uri.endsWith("/")) {
+        return new CaldavCalNode(sysi, we.getStatusCode(), uri);
+      }
+
+      return new CaldavComponentNode(sysi, we.getStatusCode(), uri);
+    }
+  }
+
   /** The node represents a calendar resource for which we must get free-busy
    * information.
    *
@@ -2068,6 +2714,16 @@ public class CaldavBWIntf extends WebdavNsIntf {
         return;
       }
 
+      final AccessPrincipal p = sysi.getPrincipal();
+      final String fb = FreeBusyEngine.getFreeBusy(
+              sysi, c, depth, freeBusy.getTimeRange(),
+              (p == null) ? null : p.getPrincipalRef());
+
+      if (fb != null) {
+        cnode.setFreeBusy(fb);
+        return;
+      }
+
       cnode.setFreeBusy(freeBusy.getFreeBusy(sysi, c,
                                              depth));
     } catch (WebdavException we) {
@@ -2081,25 +2737,118 @@ public class CaldavBWIntf extends WebdavNsIntf {
    *                         Private methods
    * ==================================================================== */
 
-  private SysIntf getSysi(final String className) throws WebdavException {
-    try {
-      Object o = Class.forName(className).newInstance();
+  /* True if outbound scheduling messages for changes made in this
+     request go via the OutboundQueue. The SysIntf then leaves delivery
+     to us.
+   */
+  private boolean deferScheduling() throws WebdavException {
+    if (!OutboundQueue.isEnabled()) {
+      return false;
+    }
+
+    return OutboundQueue.start(sysi.getOutboundDeliverer());
+  }
+
+  /* Mark the attendees whose messages will be queued as pending. Done
+     before the entity is stored so the status is stored with it and
+     the organizer sees it per recipient.
+   */
+  private void markDeferred(final CalDAVEvent<?> ev) throws WebdavException {
+    if (!ev.getOrganizerSchedulingObject()) {
+      return;
+    }
+
+    final Organizer org = ev.getOrganizer();
+    final String orgUri = (org == null) ? null : org.getOrganizerUri();
+
+    for (final String att: ev.getAttendeeUris()) {
+      if (att.equals(orgUri)) {
+        continue;
+      }
+
+      ev.setScheduleStatus(att, scheduleStatusPending);
+    }
+  }
+
+  /* Attendees of the existing entity if the principal is its organizer */
+  private PriorState priorState(final CaldavComponentNode bwnode)
+          throws WebdavException {
+    if (!bwnode.getExists()) {
+      return null;
+    }
+
+    final CalDAVEvent<?> old = bwnode.getEvent();
+
+    if ((old == null) || !old.getOrganizerSchedulingObject()) {
+      return null;
+    }
+
+    return new PriorState(new TreeSet<>(old.getAttendeeUris()),
+                          old.toIcalString(ScheduleMethods.methodTypeCancel,
+                                           "text/calendar"));
+  }
+
+  /* Hold a message for each recipient of a change to the entity until
+     the change is committed. deleted is the entity as it was if it has
+     been deleted. prior is the state before an update - attendees who
+     have been removed are sent its CANCEL.
+   */
+  private void queueScheduling(final CalDAVEvent<?> ev,
+                               final String deleted,
+                               final PriorState prior) throws WebdavException {
+    final AccessPrincipal p = sysi.getPrincipal();
+    final String owner = (p == null) ? null : p.getPrincipalRef();
+    final String href = Util.buildPath(false, ev.getParentPath(),
+                                       "/", ev.getName());
+
+    if (ev.getOrganizerSchedulingObject()) {
+      final Organizer org = ev.getOrganizer();
+      final String orgUri = (org == null) ? null : org.getOrganizerUri();
+      final Kind kind = (deleted == null) ? Kind.organizerChange :
+              Kind.organizerDelete;
+
+      final Set<String> atts = ev.getAttendeeUris();
+
+      for (final String att: atts) {
+        if (att.equals(orgUri)) {
+          continue;
+        }
+
+        pendingScheduling.add(new PendingMessage(kind, owner, href,
+                                                 ev.getUid(), att,
+                                                 deleted));
+      }
 
-      if (o == null) {
-        throw new WebdavException("Class " + className + " not found");
+      if ((deleted != null) || (prior == null)) {
+        return;
       }
 
-      if (!SysIntf.class.isInstance(o)) {
-        throw new WebdavException("Class " + className +
-                                  " is not a subclass of " +
-                                  SysIntf.class.getName());
+      for (final String att: prior.attendees) {
+        if (att.equals(orgUri) || atts.contains(att)) {
+          continue;
+        }
+
+        pendingScheduling.add(new PendingMessage(Kind.organizerDelete,
+                                                 owner, href,
+                                                 ev.getUid(), att,
+                                                 prior.cancel));
       }
 
-      return (SysIntf)o;
-    } catch (WebdavException we) {
-      throw we;
-    } catch (Throwable t) {
-      throw new WebdavException(t);
+      return;
+    }
+
+    if (ev.getAttendeeSchedulingObject()) {
+      final Organizer org = ev.getOrganizer();
+
+      if ((org == null) || (org.getOrganizerUri() == null)) {
+        return;
+      }
+
+      pendingScheduling.add(new PendingMessage(
+              (deleted == null) ? Kind.attendeeChange :
+                      Kind.attendeeDelete,
+              owner, href, ev.getUid(),
+              org.getOrganizerUri(), deleted));
     }
   }
 
@@ -2166,6 +2915,10 @@ public class CaldavBWIntf extends WebdavNsIntf {
         nd = new CaldavComponentNode(wi, sysi);
       }
 
+      if (nd instanceof CaldavBwNode) {
+        ((CaldavBwNode)nd).setNsIntf(this);
+      }
+
       return nd;
     } catch (WebdavException we) {
       throw we;
@@ -2252,7 +3005,7 @@ public class CaldavBWIntf extends WebdavNsIntf {
       if (debug()) {
         debug("search for collection uri \"" + uri + "\"");
       }
-      CalDAVCollection<?> col = sysi.getCollection(uri);
+      CalDAVCollection<?> col = getCollection(uri);
 
       if ((nodeType == WebdavNsIntf.nodeTypeCollection) ||
           (nodeType == WebdavNsIntf.nodeTypeUnknown)) {
@@ -2308,7 +3061,7 @@ public class CaldavBWIntf extends WebdavNsIntf {
       final String entityName = split.name;
 
       /* Look for the parent */
-      col = sysi.getCollection(parentPath);
+      col = getCollection(parentPath);
 
       if (col == null) {
         if (nodeType == WebdavNsIntf.nodeTypeCollection) {
@@ -2380,6 +3133,81 @@ public class CaldavBWIntf extends WebdavNsIntf {
     }
   }
 
+  /* ====================================================================
+   *                   Request scoped memo
+   * ==================================================================== */
+
+  /** Look up the collection, remembering the result (including not
+   * found) for the rest of the request or until a change is made.
+   * Lookups from QueryExecutor tasks always go to the backend.
+   *
+   * @param path of collection
+   * @return collection or null
+   * @throws WebdavException on error
+   */
+  public CalDAVCollection<?> getCollection(final String path) throws WebdavException {
+    if (QueryExecutor.inExecutor()) {
+      return sysi.getCollection(path);
+    }
+
+    synchronized (collectionMemo) {
+      if (collectionMemo.containsKey(path)) {
+        collectionMemoHits++;
+        return collectionMemo.get(path);
+      }
+
+      collectionLookups++;
+    }
+
+    final CalDAVCollection<?> col = sysi.getCollection(path);
+
+    synchronized (collectionMemo) {
+      collectionMemo.put(path, col);
+    }
+
+    return col;
+  }
+
+  /** Forget everything we looked up. Called after any change.
+   */
+  public void clearMemo() {
+    synchronized (collectionMemo) {
+      collectionMemo.clear();
+    }
+
+    synchronized (nodeMemo) {
+      nodeMemo.clear();
+    }
+  }
+
+  /**
+   * @return number of collections fetched from the backend in this request
+   */
+  public int getCollectionLookups() {
+    return collectionLookups;
+  }
+
+  /**
+   * @return number of collection lookups satisfied by the memo
+   */
+  public int getCollectionMemoHits() {
+    return collectionMemoHits;
+  }
+
+  /**
+   * @return number of nodes fetched from the backend in this request
+   */
+  public int getNodeLookups() {
+    return nodeLookups;
+  }
+
+  /**
+   * @return number of node lookups satisfied by the memo
+   */
+  public int getNodeMemoHits() {
+    return nodeMemoHits;
+  }
+
   private static class SplitResult extends Response {
     String path;
     String name;
@@ -18,6 +18,7 @@
 */
 package org.bedework.caldav.server;
 
+import org.bedework.caldav.server.sysinterface.SysIntfFactory;
 import org.bedework.util.logging.BwLogger;
 import org.bedework.webdav.servlet.common.DeleteMethod;
 import org.bedework.webdav.servlet.common.GetMethod;
@@ -30,11 +31,14 @@ import org.bedework.webdav.servlet.common.WebdavServlet;
 import org.bedework.webdav.servlet.shared.WebdavException;
 import org.bedework.webdav.servlet.shared.WebdavNsIntf;
 
+import java.io.IOException;
+
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 /** This class extends the webdav servlet class, implementing the abstract
  * methods and overriding others to extend/modify the behaviour.
@@ -63,6 +67,24 @@ public class CaldavBWServlet extends WebdavServlet implements
     notifyWs = Boolean.parseBoolean(config.getInitParameter("notifyws"));
 
     super.init(config);
+
+    /* Resolve the implementation and pool some objects now rather than
+       on the first requests */
+    SysIntfFactory.warmUp(config.getInitParameter("sysintfImpl"));
+  }
+
+  @Override
+  protected void service(final HttpServletRequest req,
+                         final HttpServletResponse resp)
+          throws ServletException, IOException {
+    if (Warmup.holdRequests()) {
+      // Still warming up - have the client come back rather than wait
+      resp.setHeader("Retry-After", String.valueOf(Warmup.retryAfter));
+      resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      return;
+    }
+
+    super.service(req, resp);
   }
 
   @Override
@@ -121,6 +143,8 @@ public class CaldavBWServlet extends WebdavServlet implements
     } catch (final Throwable t) {
       t.printStackTrace();
     }
+
+    Warmup.start();
   }
 
   @Override
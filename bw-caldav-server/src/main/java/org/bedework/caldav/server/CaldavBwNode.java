@@ -117,6 +117,9 @@ public abstract class CaldavBwNode extends WebdavNsNode {
   /* for accessing calendars */
   private SysIntf sysi;
 
+  /* The interface which created us - null for nodes built elsewhere */
+  private CaldavBWIntf nsIntf;
+
   CaldavBwNode(final CaldavURI cdURI,
                final SysIntf sysi) throws WebdavException {
     this(sysi, cdURI.getPath(), cdURI.isCollection(),
@@ -163,6 +166,22 @@ public abstract class CaldavBwNode extends WebdavNsNode {
     return sysi;
   }
 
+  /**
+   * @param val the namespace interface which created this node
+   */
+  void setNsIntf(final CaldavBWIntf val) {
+    nsIntf = val;
+  }
+
+  /** Called after this node has been updated so the per-request
+   * lookup memo does not hand out stale collections or nodes.
+   */
+  protected void updated() {
+    if (nsIntf != null) {
+      nsIntf.clearMemo();
+    }
+  }
+
   @Override
   public WdCollection<?> getCollection(final boolean deref) throws WebdavException {
     if (!deref) {
@@ -22,6 +22,7 @@ import org.bedework.access.AccessPrincipal;
 import org.bedework.access.CurrentAccess;
 import org.bedework.access.PrivilegeDefs;
 import org.bedework.caldav.server.sysinterface.CalPrincipalInfo;
+import org.bedework.caldav.server.sysinterface.EntityTag;
 import org.bedework.caldav.server.sysinterface.SysIntf;
 import org.bedework.caldav.server.sysinterface.SysIntf.MethodEmitted;
 import org.bedework.caldav.util.filter.FilterBase;
@@ -88,6 +89,9 @@ import javax.xml.namespace.QName;
 public class CaldavCalNode extends CaldavBwNode {
   private CalDAVEvent ical;
 
+  /* Free-busy already rendered by the FreeBusyEngine */
+  private String fbContent;
+
   private AccessPrincipal owner;
 
   private CurrentAccess currentAccess;
@@ -356,6 +360,41 @@ public class CaldavCalNode extends CaldavBwNode {
     }
   }
 
+  /** As getChildren but returns only the names and tags of the entities
+   * in a calendar collection.
+   *
+   * @param filterGetter supplies the filter - may be null
+   * @return tags or null if this collection does not hold entities
+   * @throws WebdavException on error
+   */
+  public Collection<EntityTag> getChildTags(
+          final Supplier<Object> filterGetter) throws WebdavException {
+    try {
+      final CalDAVCollection<?> c =
+              (CalDAVCollection<?>)getCollection(true); // deref
+
+      if ((c == null) || !c.entitiesAllowed()) {
+        return null;
+      }
+
+      final FilterBase filter;
+
+      if (filterGetter == null) {
+        filter = null;
+      } else {
+        filter = (FilterBase)filterGetter.get();
+      }
+
+      /* Note we use the undereferenced version for the fetch */
+      return getSysi().getEntityTags(
+              (CalDAVCollection<?>)getCollection(false), filter);
+    } catch (final WebdavException we) {
+      throw we;
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    }
+  }
+
   /**
    * @param fbcal
    * @throws WebdavException
@@ -363,6 +402,7 @@ public class CaldavCalNode extends CaldavBwNode {
   public void setFreeBusy(final CalDAVEvent<?> fbcal) throws WebdavException {
     try {
       ical = fbcal;
+      fbContent = null;
 
       allowsGet = true;
     } catch (Throwable t) {
@@ -373,11 +413,27 @@ public class CaldavCalNode extends CaldavBwNode {
     }
   }
 
+  /**
+   * @param val free-busy rendered as text/calendar
+   */
+  public void setFreeBusy(final String val) {
+    fbContent = val;
+    ical = null;
+
+    allowsGet = true;
+  }
+
   @Override
   public String writeContent(final XmlEmit xml,
                              final Writer wtr,
                              final String contentType) throws WebdavException {
     try {
+      if (fbContent != null) {
+        wtr.write(fbContent);
+
+        return "text/calendar";
+      }
+
       Collection<CalDAVEvent<?>> evs = new ArrayList<>();
 
       evs.add(ical);
@@ -398,6 +454,10 @@ public class CaldavCalNode extends CaldavBwNode {
   public String getContentString(final String contentType) throws WebdavException {
     init(true);
 
+    if (fbContent != null) {
+      return fbContent;
+    }
+
     if (ical == null) {
       return null;
     }
@@ -410,6 +470,7 @@ public class CaldavCalNode extends CaldavBwNode {
     // ALIAS probably not unaliasing here
     if (col != null) {
       getSysi().updateCollection(col);
+      updated();
     }
   }
 
@@ -435,7 +496,7 @@ public class CaldavCalNode extends CaldavBwNode {
 
   @Override
   public String getContentType() {
-    if (ical != null) {
+    if ((ical != null) || (fbContent != null)) {
       return "text/calendar;charset=utf-8";
     }
 
@@ -21,14 +21,18 @@ package org.bedework.caldav.server;
 import org.bedework.access.AccessPrincipal;
 import org.bedework.access.CurrentAccess;
 import org.bedework.access.PrivilegeDefs;
+import org.bedework.caldav.server.cache.ContentCache;
+import org.bedework.caldav.server.sysinterface.EntityTag;
 import org.bedework.caldav.server.sysinterface.SysIntf;
 import org.bedework.caldav.server.sysinterface.SysIntf.MethodEmitted;
+import org.bedework.caldav.util.filter.FilterBase;
 import org.bedework.util.misc.ToString;
 import org.bedework.util.timezones.DateTimeUtil;
 import org.bedework.util.xml.XmlEmit;
 import org.bedework.util.xml.tagdefs.AppleServerTags;
 import org.bedework.util.xml.tagdefs.CaldavTags;
 import org.bedework.util.xml.tagdefs.ICalTags;
+import org.bedework.util.xml.tagdefs.XcalTags;
 import org.bedework.webdav.servlet.shared.WebdavException;
 import org.bedework.webdav.servlet.shared.WebdavNsIntf;
 
@@ -37,10 +41,12 @@ import net.fortuna.ical4j.model.Component;
 import net.fortuna.ical4j.model.ComponentList;
 import org.w3c.dom.Element;
 
+import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 
 import javax.xml.namespace.QName;
 
@@ -52,6 +58,12 @@ public class CaldavComponentNode extends CaldavBwNode {
   /* The event if this component is an event */
   private CalDAVEvent<?> event;
 
+  /* Set if we were built from a tag listing - the event is retrieved when
+     we need more than the tags.
+   */
+  private EntityTag entityTag;
+  private EventLoader loader;
+
   private AccessPrincipal owner;
 
   private CurrentAccess currentAccess;
@@ -68,8 +80,6 @@ public class CaldavComponentNode extends CaldavBwNode {
    */
   private Component comp;
 
-  private String compContentType;
-  private String compString;
 
   private final static HashMap<QName, PropertyTagEntry> propertyNames =
     new HashMap<>();
@@ -163,6 +173,78 @@ public class CaldavComponentNode extends CaldavBwNode {
     event = cdURI.getEntity();
   }
 
+  /** Retrieves the events for a set of nodes built from a tag listing.
+   * The first node which needs its event causes all the events to be
+   * retrieved with a single query.
+   */
+  public static class EventLoader {
+    private final SysIntf sysi;
+    private final CalDAVCollection<?> col;
+    private final FilterBase filter;
+
+    private Map<String, CalDAVEvent<?>> events;
+
+    /**
+     * @param sysi system interface
+     * @param col collection the tags were listed from
+     * @param filter used for the listing - may be null
+     */
+    public EventLoader(final SysIntf sysi,
+                       final CalDAVCollection<?> col,
+                       final FilterBase filter) {
+      this.sysi = sysi;
+      this.col = col;
+      this.filter = filter;
+    }
+
+    /**
+     * @param name of entity
+     * @return event or null
+     * @throws WebdavException on error
+     */
+    public CalDAVEvent<?> getEvent(final String name) throws WebdavException {
+      if (events == null) {
+        events = new HashMap<>();
+
+        final Collection<CalDAVEvent<?>> evs =
+                sysi.getEvents(col, filter, null, null);
+
+        if (evs != null) {
+          for (final CalDAVEvent<?> ev: evs) {
+            String evName = ev.getName();
+            if (evName == null) {
+              evName = ev.getUid() + ".ics";
+            }
+
+            events.put(evName, ev);
+          }
+        }
+      }
+
+      return events.get(name);
+    }
+  }
+
+  /** Constructor for an entity known only from a tag listing. The event
+   * is retrieved only if some property other than the etag or schedule
+   * tag is required.
+   *
+   * @param cdURI
+   * @param sysi
+   * @param entityTag name and tags for the entity
+   * @param loader shared by the nodes from the listing - may be null
+   * @throws WebdavException
+   */
+  public CaldavComponentNode(final CaldavURI cdURI,
+                             final SysIntf sysi,
+                             final EntityTag entityTag,
+                             final EventLoader loader) throws WebdavException {
+    this(cdURI, sysi);
+
+    this.entityTag = entityTag;
+    this.loader = loader;
+  }
+
   /** Constructor
    *
    * @param event
@@ -193,13 +275,14 @@ public class CaldavComponentNode extends CaldavBwNode {
   }
 
   @Override
-  public AccessPrincipal getOwner() {
+  public AccessPrincipal getOwner() throws WebdavException {
     if (owner == null) {
-      if (event == null) {
+      final CalDAVEvent<?> ev = getEvent();
+      if (ev == null) {
         return null;
       }
 
-      owner = event.getOwner();
+      owner = ev.getOwner();
     }
 
     return owner;
@@ -233,7 +316,7 @@ public class CaldavComponentNode extends CaldavBwNode {
     init(true);
 
     try {
-      if ((event != null) && (comp == null)) {
+      if ((getEvent() != null) && (comp == null)) {
         if (ical == null) {
           ical = getSysi().toCalendar(event,
                                       (col.getCalType() == CalDAVCollection.calTypeInbox) ||
@@ -257,8 +340,9 @@ public class CaldavComponentNode extends CaldavBwNode {
 
   @Override
   public void update() throws WebdavException {
-    if (event != null) {
+    if (getEvent() != null) {
       getSysi().updateEvent(event);
+      updated();
     }
   }
 
@@ -318,6 +402,16 @@ public class CaldavComponentNode extends CaldavBwNode {
     }
 
     try {
+      if ((entityTag != null) && tag.equals(CaldavTags.scheduleTag)) {
+        // Answer from the listing
+        if (entityTag.getScheduleTag() == null) {
+          return false;
+        }
+
+        xml.property(tag, entityTag.getScheduleTag());
+        return true;
+      }
+
       final CalDAVEvent<?> ev = checkEv(pv);
       if (ev == null) {
         return true;
@@ -356,6 +450,21 @@ public class CaldavComponentNode extends CaldavBwNode {
   public CalDAVEvent<?> getEvent() throws WebdavException {
     init(true);
 
+    if ((event == null) && (entityTag != null)) {
+      if (loader != null) {
+        event = loader.getEvent(entityName);
+      } else {
+        event = getSysi().getEvent(col, entityName);
+      }
+
+      entityTag = null;
+      loader = null;
+
+      if (event == null) {
+        exists = false;
+      }
+    }
+
     return event;
   }
 
@@ -368,7 +477,7 @@ public class CaldavComponentNode extends CaldavBwNode {
 
     try {
       if (ical == null) {
-        ical = getSysi().toCalendar(event,
+        ical = getSysi().toCalendar(getEvent(),
                                     (col.getCalType() == CalDAVCollection.calTypeInbox) ||
                                     (col.getCalType() == CalDAVCollection.calTypeOutbox));
       }
@@ -423,24 +532,24 @@ public class CaldavComponentNode extends CaldavBwNode {
                              final Writer wtr,
                              final String contentType) throws WebdavException {
     try {
-      Collection<CalDAVEvent<?>> evs = new ArrayList<>();
-
-      evs.add(event);
+      if ((xml != null) && XcalTags.mimetype.equals(contentType)) {
+        // XML content is emitted as elements - not cacheable as text
+        return getSysi().writeCalendar(getEventList(),
+                                       getMethodEmitted(),
+                                       xml,
+                                       wtr,
+                                       contentType);
+      }
 
-      MethodEmitted method;
+      final ContentCache.Entry content = getContent(contentType);
 
-      if ((col.getCalType() == CalDAVCollection.calTypeInbox) ||
-      (col.getCalType() == CalDAVCollection.calTypeOutbox)) {
-        method = MethodEmitted.eventMethod;
-      } else {
-        method = MethodEmitted.noMethod;
+      if (xml != null) {
+        xml.cdataValue(content.getString());
+      } else if (wtr != null) {
+        wtr.write(content.getString());
       }
 
-      return getSysi().writeCalendar(evs,
-                                     method,
-                                     xml,
-                                     wtr,
-                                     contentType);
+      return content.getContentType();
     } catch (WebdavException we) {
       throw we;
     } catch (Throwable t) {
@@ -450,7 +559,54 @@ public class CaldavComponentNode extends CaldavBwNode {
 
   @Override
   public String getContentString(String contentType) throws WebdavException {
-    return getCompString(contentType);
+    return getContent(contentType).getString();
+  }
+
+  /** Return the serialized form of this entity, from the shared content
+   * cache if we have already rendered this version.
+   *
+   * @param contentType requested type - null for default
+   * @return cached content - never null
+   * @throws WebdavException on fatal error
+   */
+  public ContentCache.Entry getContent(final String contentType) throws WebdavException {
+    String ctype = contentType;
+    if (ctype == null) {
+      ctype = getSysi().getDefaultContentType();
+    }
+
+    final int pos = ctype.indexOf(';');
+    if (pos > 0) {
+      ctype = ctype.substring(0, pos).trim();
+    }
+
+    final MethodEmitted method = getMethodEmitted();
+    final AccessPrincipal principal = getSysi().getPrincipal();
+
+    final String key = ContentCache.makeKey(
+            getUri(),
+            getEtagValue(true),
+            ctype,
+            method.name(),
+            (principal == null) ? null : principal.getPrincipalRef());
+
+    ContentCache.Entry content = ContentCache.get(key);
+    if (content != null) {
+      return content;
+    }
+
+    final StringWriter sw = new StringWriter();
+
+    final String actualType = getSysi().writeCalendar(getEventList(),
+                                                      method,
+                                                      null,
+                                                      sw,
+                                                      ctype);
+
+    content = new ContentCache.Entry(sw.toString(), actualType);
+    ContentCache.put(key, content);
+
+    return content;
   }
 
   /* ====================================================================
@@ -463,12 +619,13 @@ public class CaldavComponentNode extends CaldavBwNode {
       return currentAccess;
     }
 
-    if (event == null) {
+    final CalDAVEvent<?> ev = getEvent();
+    if (ev == null) {
       return null;
     }
 
     try {
-      currentAccess = getSysi().checkAccess(event, PrivilegeDefs.privAny, true);
+      currentAccess = getSysi().checkAccess(ev, PrivilegeDefs.privAny, true);
     } catch (Throwable t) {
       throw new WebdavException(t);
     }
@@ -483,6 +640,10 @@ public class CaldavComponentNode extends CaldavBwNode {
   public String getStagValue() throws WebdavException {
     init(true);
 
+    if (entityTag != null) {
+      return entityTag.getScheduleTag();
+    }
+
     CalDAVEvent<?> ev = getEvent();
     if (ev == null) {
       return null;
@@ -510,12 +671,18 @@ public class CaldavComponentNode extends CaldavBwNode {
   public String getEtagValue(final boolean strong) throws WebdavException {
     init(true);
 
-    final CalDAVEvent<?> ev = getEvent();
-    if (ev == null) {
-      return null;
-    }
+    final String val;
+
+    if (entityTag != null) {
+      val = entityTag.getEtag();
+    } else {
+      final CalDAVEvent<?> ev = getEvent();
+      if (ev == null) {
+        return null;
+      }
 
-    final String val = ev.getEtag();
+      val = ev.getEtag();
+    }
 
     if (strong) {
       return val;
@@ -575,7 +742,7 @@ public class CaldavComponentNode extends CaldavBwNode {
 
   @Override
   public long getContentLen() throws WebdavException {
-    return getCompString(getContentType()).length();
+    return getContent(getContentType()).getLength();
   }
 
   @Override
@@ -628,22 +795,21 @@ public class CaldavComponentNode extends CaldavBwNode {
    *                   Private methods
    * ==================================================================== */
 
-  private String getCompString(final String contentType) throws WebdavException {
-    String ctype = contentType;
-    if (ctype == null) {
-      ctype = getSysi().getDefaultContentType();
-    }
+  private Collection<CalDAVEvent<?>> getEventList() throws WebdavException {
+    final Collection<CalDAVEvent<?>> evs = new ArrayList<>();
 
-    if (ctype.equals(compContentType)) {
-      return compString;
-    }
+    evs.add(getEvent());
 
-    getIcal();
+    return evs;
+  }
 
-    compContentType = ctype;
-    compString = getSysi().toIcalString(ical, ctype);
+  private MethodEmitted getMethodEmitted() {
+    if ((col.getCalType() == CalDAVCollection.calTypeInbox) ||
+            (col.getCalType() == CalDAVCollection.calTypeOutbox)) {
+      return MethodEmitted.eventMethod;
+    }
 
-    return compString;
+    return MethodEmitted.noMethod;
   }
 
   private boolean generateTZPropertyValue(final QName tag,
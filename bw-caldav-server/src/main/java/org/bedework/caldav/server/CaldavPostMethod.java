@@ -18,6 +18,11 @@
 */
 package org.bedework.caldav.server;
 
+import org.bedework.caldav.server.calquery.FreeBusyEngine;
+import org.bedework.caldav.server.scheduling.IscheduleInbound;
+import org.bedework.caldav.server.scheduling.IscheduleInbound.CapturingResponse;
+import org.bedework.caldav.server.scheduling.IscheduleKeys;
+import org.bedework.caldav.server.scheduling.RecipientExecutor;
 import org.bedework.caldav.server.soap.calws.CalwsHandler;
 import org.bedework.caldav.server.soap.synch.SynchwsHandler;
 import org.bedework.caldav.server.sysinterface.CalPrincipalInfo;
@@ -49,18 +54,17 @@ import org.bedework.webdav.servlet.shared.WebdavNsNode;
 import org.bedework.webdav.servlet.shared.WebdavStatusCode;
 
 import org.apache.james.jdkim.DKIMVerifier;
-import org.apache.james.jdkim.IscheduleDKIMVerifier;
 import org.apache.james.jdkim.api.BodyHasher;
 import org.apache.james.jdkim.api.SignatureRecord;
 import org.apache.james.jdkim.exceptions.FailException;
 import org.w3c.dom.Element;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Set;
 
@@ -511,79 +515,126 @@ public class CaldavPostMethod extends PostMethod {
                                   "No message id");
       }
 
-      final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      streamCopy(pars.getReq().getInputStream(), baos);
-
-      validateHost(pars,
-                   new ByteArrayInputStream(baos.toByteArray()));
-
-      pars.setIcalendar(sysi.fromIcal(pars.getCol(),
-                                      new InputStreamReader(
-                                              new ByteArrayInputStream(
-                                                      baos.toByteArray())),
-                                      pars.getContentTypePars()[0],
-                                      IcalResultType.OneComponent,
-                                      false));
+      if (!IscheduleInbound.admit()) {
+        IscheduleInbound.reject(resp);
+        return;
+      }
 
-      /* (ISCHED:valid-calendar-data) -- checked in fromIcal */
+      try {
+        readIschedule(sysi, pars);
+
+        /* A repeat of a message we already handled gets the same answer.
+           The body hash in the signature is only part of the key once
+           it has been checked against the body we read.
+         */
+        final SignatureRecord sig = isi.getDkimSignature();
+        final String replayKey =
+                IscheduleInbound.makeKey(isi.getOriginator(),
+                                         isi.getIScheduleMessageId(),
+                                         (sig == null) ? null :
+                                                 sig.getBodyHash());
+        final IscheduleInbound.Response prev =
+                IscheduleInbound.begin(replayKey);
+
+        if (prev == IscheduleInbound.Response.inProgress) {
+          IscheduleInbound.reject(resp);
+          return;
+        }
 
-      if (!pars.getIcalendar().validItipMethodType()) {
-        if (debug()) {
-          debug("Bad method: " +
-                           String.valueOf(pars.getIcalendar().getMethodType()));
+        if (prev != null) {
+          if (debug()) {
+            debug("Replay response to " + isi.getIScheduleMessageId());
+          }
+          prev.replay(resp);
+          return;
         }
-        throw new WebdavForbidden(IscheduleTags.invalidCalendarData, "Bad METHOD");
-      }
 
-      /* Do the stuff we deferred above */
+        boolean completed = false;
 
-      /* (CALDAV:valid-scheduling-message) -- later */
-      final IcalComponentType ctype = pars.getIcalendar().getComponentType();
+        try {
+          final CapturingResponse cresp = new CapturingResponse(resp);
 
-      if ((ctype == IcalComponentType.event) ||
-          (ctype == IcalComponentType.vpoll)) {
-        handleEvent(sysi, pars, resp);
-      } else if (ctype == IcalComponentType.freebusy) {
-        handleFreeBusy(sysi, pars, resp);
-      } else {
-        if (debug()) {
-          debug("Unsupported component type: " + ctype);
+          processIschedule(sysi, pars, cresp);
+
+          IscheduleInbound.complete(replayKey, cresp);
+          completed = true;
+        } finally {
+          if (!completed) {
+            IscheduleInbound.abandon(replayKey);
+          }
         }
-        throw new WebdavForbidden("org.bedework.caldav.unsupported.component " +
-                                  ctype);
+      } finally {
+        IscheduleInbound.release();
       }
-
-      flush();
     } catch (final WebdavException we) {
       throw we;
+    } catch (final InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new WebdavException(ie);
     } catch (final Throwable t) {
       throw new WebdavException(t);
     }
   }
 
-  private void validateHost(final RequestPars pars,
-                            final InputStream content) throws WebdavException {
+  /* Read and parse the body and verify the signature */
+  private void readIschedule(final SysIntf sysi,
+                             final RequestPars pars) throws WebdavException {
+    final Integer maxSize = sysi.getAuthProperties().getMaxUserEntitySize();
+    final long len = pars.getReq().getContentLengthLong();
+
+    if ((maxSize != null) && (len > maxSize)) {
+      throw new WebdavForbidden(CaldavTags.maxResourceSize,
+                                "Message too large: " + len);
+    }
+
+    /* One pass over the body - the bytes go to the DKIM body hasher as
+       the parser reads them. Nothing is delivered until the signature
+       has been verified.
+     */
     final IscheduleIn isi = pars.getIschedRequest();
     final SignatureRecord sig = isi.getDkimSignature();
+    DKIMVerifier verifier = null;
+    BodyHasher bh = null;
 
     if (sig == null) {
       // Check to see if we allow this host -
       warn("Unchecked host - no dkim signature:");
-      return;
+    } else {
+      verifier = IscheduleKeys.newVerifier();
+      bh = verifier.newBodyHasher(isi);
     }
 
+    BodyInputStream in = null;
+
     try {
-      /* Do DKIM validation */
-      final DKIMVerifier verifier = new IscheduleDKIMVerifier();
-      final BodyHasher bh = verifier.newBodyHasher(isi);
+      in = new BodyInputStream(pars.getReq().getInputStream(),
+                               (bh == null) ? null : bh.getOutputStream(),
+                               maxSize);
 
-      if (bh != null) {
-        final OutputStream os = bh.getOutputStream();
-        streamCopy(content, os);
-      }
+      pars.setIcalendar(sysi.fromIcal(pars.getCol(),
+                                      new InputStreamReader(
+                                              in, StandardCharsets.UTF_8),
+                                      pars.getContentTypePars()[0],
+                                      IcalResultType.OneComponent,
+                                      false));
+
+      // The parser may stop before the end
+      in.finish();
 
-      verifier.verify(bh);
+      if (verifier != null) {
+        verifier.verify(bh);
+      }
+    } catch (final WebdavException we) {
+      if ((in != null) && in.overflowed) {
+        throw new WebdavForbidden(CaldavTags.maxResourceSize,
+                                  "Message too large");
+      }
+      throw we;
     } catch (final IOException e) {
+      if ((in != null) && in.overflowed) {
+        throw new WebdavForbidden(CaldavTags.maxResourceSize,
+                                  "Message too large");
+      }
       throw new WebdavException(e);
     } catch (final FailException e) {
       if (debug()) {
@@ -593,6 +644,41 @@ public class CaldavPostMethod extends PostMethod {
     }
   }
 
+  /* Handle a message which has been read and verified */
+  private void processIschedule(final SysIntf sysi,
+                                final RequestPars pars,
+                                final HttpServletResponse resp) throws WebdavException {
+    /* (ISCHED:valid-calendar-data) -- checked in fromIcal */
+
+    if (!pars.getIcalendar().validItipMethodType()) {
+      if (debug()) {
+        debug("Bad method: " +
+                         String.valueOf(pars.getIcalendar().getMethodType()));
+      }
+      throw new WebdavForbidden(IscheduleTags.invalidCalendarData, "Bad METHOD");
+    }
+
+    /* Do the stuff we deferred above */
+
+    /* (CALDAV:valid-scheduling-message) -- later */
+    final IcalComponentType ctype = pars.getIcalendar().getComponentType();
+
+    if ((ctype == IcalComponentType.event) ||
+        (ctype == IcalComponentType.vpoll)) {
+      handleEvent(sysi, pars, resp);
+    } else if (ctype == IcalComponentType.freebusy) {
+      handleFreeBusy(sysi, pars, resp);
+    } else {
+      if (debug()) {
+        debug("Unsupported component type: " + ctype);
+      }
+      throw new WebdavForbidden("org.bedework.caldav.unsupported.component " +
+                                ctype);
+    }
+
+    flush();
+  }
+
   /** Only for iSchedule - handle incoming event.
    *
    * @param intf the interface
@@ -614,7 +700,12 @@ public class CaldavPostMethod extends PostMethod {
     ev.setScheduleMethod(pars.getIcalendar().getMethodType());
     validateOriginator(pars, ev);
 
-    final Collection<SchedRecipientResult> srrs = intf.schedule(ev);
+    final boolean concurrent = concurrentRecipients(intf, ev);
+    Collection<SchedRecipientResult> srrs = null;
+
+    if (!concurrent) {
+      srrs = intf.schedule(ev);
+    }
 
     resp.setStatus(HttpServletResponse.SC_OK);
     resp.setContentType("text/xml;charset=utf-8");
@@ -625,18 +716,31 @@ public class CaldavPostMethod extends PostMethod {
 
     openTag(IscheduleTags.scheduleResponse);
 
-    for (final SchedRecipientResult srr: srrs) {
-      openTag(IscheduleTags.response);
-
-      property(IscheduleTags.recipient, srr.recipient);
-
-      setReqstat(srr.status, true);
-      closeTag(IscheduleTags.response);
+    if (concurrent) {
+      RecipientExecutor.process(intf, ev.getRecipients(),
+                                r -> intf.schedule(ev, r),
+                                srr -> emitScheduleResponse(srr));
+    } else {
+      for (final SchedRecipientResult srr: srrs) {
+        emitScheduleResponse(srr);
+      }
     }
 
     closeTag(IscheduleTags.scheduleResponse);
   }
 
+  private void emitScheduleResponse(final SchedRecipientResult srr)
+          throws WebdavException {
+    openTag(IscheduleTags.response);
+
+    property(IscheduleTags.recipient, srr.recipient);
+
+    setReqstat(srr.status, true);
+    closeTag(IscheduleTags.response);
+
+    flushEmit();
+  }
+
   private void handleFreeBusy(final SysIntf intf,
                               final RequestPars pars,
                               final HttpServletResponse resp) throws WebdavException {
@@ -652,7 +756,20 @@ public class CaldavPostMethod extends PostMethod {
     ev.setScheduleMethod(pars.getIcalendar().getMethodType());
     validateOriginator(pars, ev);
 
-    final Collection<SchedRecipientResult> srrs = intf.requestFreeBusy(ev, true);
+    final boolean concurrent = concurrentRecipients(intf, ev);
+    final String originator;
+
+    if (pars.isiSchedule()) {
+      originator = pars.getIschedRequest().getOriginator();
+    } else {
+      originator = ev.getOrganizer().getOrganizerUri();
+    }
+
+    Collection<SchedRecipientResult> srrs = null;
+
+    if (!concurrent && !FreeBusyEngine.isEnabled()) {
+      srrs = intf.requestFreeBusy(ev, true);
+    }
 
     resp.setStatus(HttpServletResponse.SC_OK);
     resp.setContentType("application/xml;charset=utf-8");
@@ -680,41 +797,97 @@ public class CaldavPostMethod extends PostMethod {
 
     openTag(sresponseTag);
 
-    for (final SchedRecipientResult srr: srrs) {
-      openTag(responseTag);
-
-      if (pars.isiSchedule()) {
-        property(recipientTag, srr.recipient);
-      } else {
-        openTag(recipientTag);
-        property(WebdavTags.href, srr.recipient);
-        closeTag(recipientTag);
+    if (concurrent) {
+      RecipientExecutor.process(intf, ev.getRecipients(),
+                                r -> FreeBusyEngine.requestFreeBusy(
+                                        intf, ev, originator, r, true),
+                                srr -> emitFreeBusyResponse(
+                                        pars, srr, responseTag,
+                                        recipientTag, calendarDataTag),
+                                true); // Nothing to gain from late lookups
+    } else if (srrs == null) {
+      /* One at a time through the free-busy cache */
+      for (final String r: ev.getRecipients()) {
+        emitFreeBusyResponse(pars,
+                             FreeBusyEngine.requestFreeBusy(
+                                     intf, ev, originator, r, true),
+                             responseTag,
+                             recipientTag, calendarDataTag);
+      }
+    } else {
+      for (final SchedRecipientResult srr: srrs) {
+        emitFreeBusyResponse(pars, srr, responseTag,
+                             recipientTag, calendarDataTag);
       }
+    }
 
-      setReqstat(srr.status, pars.isiSchedule());
+    closeTag(sresponseTag);
+  }
 
-      final CalDAVEvent rfb = srr.freeBusy;
-      if (rfb != null) {
-        rfb.setOrganizer(pars.getIcalendar().getOrganizer());
+  private void emitFreeBusyResponse(final RequestPars pars,
+                                    final SchedRecipientResult srr,
+                                    final QName responseTag,
+                                    final QName recipientTag,
+                                    final QName calendarDataTag)
+          throws WebdavException {
+    openTag(responseTag);
 
-        try {
-          cdataProperty(calendarDataTag,
-                        "content-type",
-                        pars.getContentType(),
-                        rfb.toIcalString(ScheduleMethods.methodTypeReply,
-                                         pars.getContentTypePars()[0]));
-        } catch (final Throwable t) {
-          if (debug()) {
-            error(t);
-          }
-          throw new WebdavException(t);
+    if (pars.isiSchedule()) {
+      property(recipientTag, srr.recipient);
+    } else {
+      openTag(recipientTag);
+      property(WebdavTags.href, srr.recipient);
+      closeTag(recipientTag);
+    }
+
+    setReqstat(srr.status, pars.isiSchedule());
+
+    final CalDAVEvent rfb = srr.freeBusy;
+    if (rfb != null) {
+      rfb.setOrganizer(pars.getIcalendar().getOrganizer());
+
+      try {
+        cdataProperty(calendarDataTag,
+                      "content-type",
+                      pars.getContentType(),
+                      rfb.toIcalString(ScheduleMethods.methodTypeReply,
+                                       pars.getContentTypePars()[0]));
+      } catch (final Throwable t) {
+        if (debug()) {
+          error(t);
         }
+        throw new WebdavException(t);
       }
+    }
+
+    closeTag(responseTag);
+
+    flushEmit();
+  }
 
-      closeTag(responseTag);
+  /* True if we should hand each recipient to the RecipientExecutor */
+  private boolean concurrentRecipients(final SysIntf intf,
+                                       final CalDAVEvent<?> ev)
+          throws WebdavException {
+    if (!RecipientExecutor.isEnabled() ||
+            !intf.allowsConcurrentScheduling()) {
+      return false;
     }
 
-    closeTag(sresponseTag);
+    final Set<String> recips = ev.getRecipients();
+
+    return (recips != null) && (recips.size() > 1);
+  }
+
+  /* Push out what we have so far so the client sees each recipient as
+     it completes.
+   */
+  private void flushEmit() throws WebdavException {
+    try {
+      xml.flush();
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    }
   }
 
   /**
@@ -821,14 +994,90 @@ public class CaldavPostMethod extends PostMethod {
     }
   }
 
-  private void streamCopy(final InputStream in, final OutputStream out)
-          throws IOException {
-    final byte[] buffer = new byte[2048];
-    int read;
-    while ((read = in.read(buffer)) > 0) {
-      out.write(buffer, 0, read);
+  /* Reads the request body passing each byte to the DKIM body hasher
+     and failing if there are more than maxSize bytes.
+   */
+  private static class BodyInputStream extends FilterInputStream {
+    private final OutputStream hasher;
+    private final Integer maxSize;
+    private long count;
+
+    boolean overflowed;
+
+    BodyInputStream(final InputStream in,
+                    final OutputStream hasher,
+                    final Integer maxSize) {
+      super(in);
+      this.hasher = hasher;
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int b = super.read();
+
+      if (b >= 0) {
+        counted(1);
+
+        if (hasher != null) {
+          hasher.write(b);
+        }
+      }
+
+      return b;
+    }
+
+    @Override
+    public int read(final byte[] b,
+                    final int off,
+                    final int len) throws IOException {
+      final int read = super.read(b, off, len);
+
+      if (read > 0) {
+        counted(read);
+
+        if (hasher != null) {
+          hasher.write(b, off, read);
+        }
+      }
+
+      return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      // Skipped bytes must still be hashed
+      final byte[] buffer = new byte[(int)Math.min(n, 2048)];
+      final int read = read(buffer, 0, buffer.length);
+
+      return Math.max(read, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    /* Read and hash anything the parser left then complete the hash */
+    void finish() throws IOException {
+      final byte[] buffer = new byte[2048];
+
+      //noinspection StatementWithEmptyBody
+      while (read(buffer, 0, buffer.length) >= 0) {
+      }
+
+      if (hasher != null) {
+        hasher.close();
+      }
+    }
+
+    private void counted(final int n) throws IOException {
+      count += n;
+
+      if ((maxSize != null) && (count > maxSize)) {
+        overflowed = true;
+        throw new IOException("Message exceeds " + maxSize + " bytes");
+      }
     }
-    in.close();
-    out.close();
   }
 }
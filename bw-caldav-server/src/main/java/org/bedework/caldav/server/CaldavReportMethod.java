@@ -18,9 +18,15 @@
 */
 package org.bedework.caldav.server;
 
+import org.bedework.caldav.server.CaldavBWIntf.NodeHandler;
 import org.bedework.caldav.server.calquery.CalData;
 import org.bedework.caldav.server.calquery.FreeBusyQuery;
+import org.bedework.caldav.server.calquery.QueryExecutor;
+import org.bedework.caldav.server.stats.CaldavStats;
+import org.bedework.caldav.server.stats.CaldavStats.StatsType;
 import org.bedework.caldav.server.sysinterface.RetrievalMode;
+import org.bedework.caldav.server.sysinterface.SysIntf.SynchCursor;
+import org.bedework.caldav.server.sysinterface.SysIntf.SynchReportData.SynchReportDataItem;
 import org.bedework.caldav.server.sysinterface.SysIntf.IcalResultType;
 import org.bedework.caldav.util.DumpUtil;
 import org.bedework.caldav.util.filter.parse.EventQuery;
@@ -30,6 +36,7 @@ import org.bedework.util.timezones.Timezones;
 import org.bedework.util.xml.XmlUtil;
 import org.bedework.util.xml.tagdefs.CaldavTags;
 import org.bedework.util.xml.tagdefs.WebdavTags;
+import org.bedework.webdav.servlet.common.Headers;
 import org.bedework.webdav.servlet.common.PropFindMethod.PropRequest;
 import org.bedework.webdav.servlet.common.ReportMethod;
 import org.bedework.webdav.servlet.shared.WebdavBadRequest;
@@ -72,6 +79,7 @@ public class CaldavReportMethod extends ReportMethod {
    *  1. Free-busy request
    *  2. Query - optional props + filter
    *  3. Multi-get - optional props + one or more hrefs
+   *  4. Sync-collection - token, level, optional limit + props
    */
 
   private FreeBusyQuery freeBusy;
@@ -87,10 +95,29 @@ public class CaldavReportMethod extends ReportMethod {
   protected CalendarQueryPars cqpars;
   private ArrayList<String> hrefs;
 
+  private String syncToken;
+  private boolean syncRecurse;
+  private int syncLimit = -1;
+
+  private static final QName syncCollection =
+          new QName(WebdavTags.namespace, "sync-collection");
+  private static final QName syncTokenTag =
+          new QName(WebdavTags.namespace, "sync-token");
+  private static final QName syncLevel =
+          new QName(WebdavTags.namespace, "sync-level");
+  private static final QName limit =
+          new QName(WebdavTags.namespace, "limit");
+  private static final QName nresults =
+          new QName(WebdavTags.namespace, "nresults");
+
   // ENUM
   private final static int reportTypeQuery = 0;
   private final static int reportTypeMultiGet = 1;
   private final static int reportTypeFreeBusy = 2;
+  private final static int reportTypeSync = 3;
+
+  /* Status for a truncated sync report */
+  private final static int insufficientStorage = 507;
 
   private int reportType;
 
@@ -121,6 +148,13 @@ public class CaldavReportMethod extends ReportMethod {
 
     if (reportType == reportTypeFreeBusy) {
       processFbResp(req, resp, depth);
+    } else if (reportType == reportTypeSync) {
+      if ((depth != Headers.depthNone) && (depth != 0)) {
+        // RFC 6578 3.2 - no Depth header means 0
+        throw new WebdavBadRequest("Depth must be 0 for sync-collection");
+      }
+
+      processSyncResp(req, resp);
     } else {
       processResp(req, resp, depth);
     }
@@ -148,6 +182,10 @@ public class CaldavReportMethod extends ReportMethod {
         return reportTypeFreeBusy;
       }
 
+      if (XmlUtil.nodeMatches(root, syncCollection)) {
+        return reportTypeSync;
+      }
+
       return -1;
     } catch (Throwable t) {
       System.err.println(t.getMessage());
@@ -185,6 +223,11 @@ public class CaldavReportMethod extends ReportMethod {
 
       Collection<Element> children = getChildren(root);
 
+      if (reportType == reportTypeSync) {
+        processSyncDoc(children);
+        return;
+      }
+
       /* Two possibilities:
                <!ELEMENT calendar-multiget ((DAV:allprop |
                                       DAV:propname |
@@ -387,11 +430,20 @@ public class CaldavReportMethod extends ReportMethod {
 
     String resourceUri = getResourceUri(req);
 
+    final CaldavStats.Timer timer;
     if (reportType == reportTypeQuery) {
       cqpars.depth = depth;
+      timer = CaldavStats.start(StatsType.reportQuery);
+    } else {
+      timer = CaldavStats.start(StatsType.reportMultiget);
     }
 
-    process(cqpars, resourceUri);
+    try {
+      process(cqpars, resourceUri);
+      timer.ok();
+    } finally {
+      timer.stop();
+    }
   }
 
   protected void process(final CalendarQueryPars cqp,
@@ -408,20 +460,50 @@ public class CaldavReportMethod extends ReportMethod {
     final Collection<String> badHrefs = new ArrayList<>();
 
     if (reportType == reportTypeQuery) {
-      nodes = doNodeAndChildren(cqp, node);
+      /* Query results are streamed. Nothing is written until the first
+         result so a failure before then still gets its own status, but
+         check what we can up front.
+       */
+      if (!(node instanceof CaldavComponentNode) &&
+              !(node instanceof CaldavCalNode)) {
+        throw new WebdavBadRequest();
+      }
+
+      if (cqp.filter != null) {
+        Filters.getQuery(cqp.filter);
+      }
     } else if (reportType == reportTypeMultiGet) {
       nodes = getMgetNodes(hrefs, badHrefs);
     }
 
-    openTag(WebdavTags.multistatus);
+    final QueryResponder responder = new QueryResponder();
+
+    if (reportType != reportTypeQuery) {
+      responder.open();
+    }
 
     if (status != HttpServletResponse.SC_OK) {
       if (debug()) {
         debug("REPORT status " + status);
       }
       // Entire request failed.
+      responder.open();
       node.setStatus(status);
       doNodeProperties(node);
+    } else if (reportType == reportTypeQuery) {
+      try {
+        doNodeAndChildren(cqp, node, responder);
+      } catch (final WebdavException we) {
+        if (!responder.opened) {
+          // Nothing written - the request gets the error status
+          throw we;
+        }
+
+        responder.error(node, we);
+      }
+
+      // Empty if nothing matched
+      responder.open();
     } else if (nodes != null) {
       for (final WebdavNsNode curnode: nodes) {
         doNodeProperties(curnode);
@@ -442,6 +524,190 @@ public class CaldavReportMethod extends ReportMethod {
     flush();
   }
 
+  /* Parse a sync-collection (RFC 6578)
+
+       <!ELEMENT sync-collection (sync-token, sync-level, limit?, prop)>
+   */
+  private void processSyncDoc(final Collection<Element> children) throws Throwable {
+    boolean gotToken = false;
+
+    for (final Element curnode: children) {
+      if (XmlUtil.nodeMatches(curnode, syncTokenTag)) {
+        syncToken = getElementContent(curnode);
+        if ((syncToken != null) && (syncToken.trim().length() == 0)) {
+          syncToken = null;
+        }
+        gotToken = true;
+        continue;
+      }
+
+      if (XmlUtil.nodeMatches(curnode, syncLevel)) {
+        final String lvl = getElementContent(curnode);
+
+        if ("infinite".equals(lvl)) {
+          syncRecurse = true;
+        } else if (!"1".equals(lvl)) {
+          throw new WebdavBadRequest("Bad sync-level " + lvl);
+        }
+        continue;
+      }
+
+      if (XmlUtil.nodeMatches(curnode, limit)) {
+        final Element nr = getOnlyChild(curnode);
+
+        if (!XmlUtil.nodeMatches(nr, nresults)) {
+          throw new WebdavBadRequest("Expected nresults");
+        }
+
+        try {
+          syncLimit = Integer.parseInt(getElementContent(nr).trim());
+        } catch (final Throwable t) {
+          throw new WebdavBadRequest("Bad nresults");
+        }
+
+        if (syncLimit <= 0) {
+          throw new WebdavBadRequest("Bad nresults");
+        }
+        continue;
+      }
+
+      final PropRequest pr = pm.tryPropRequest(curnode);
+
+      if (pr == null) {
+        throw new WebdavBadRequest("REPORT: unexpected element " +
+                                           curnode.getNodeName());
+      }
+
+      preq = pr;
+    }
+
+    if (!gotToken) {
+      throw new WebdavBadRequest("Expected sync-token");
+    }
+
+    if (debug()) {
+      debug("REPORT: sync-collection token=" + syncToken +
+                    " recurse=" + syncRecurse +
+                    " limit=" + syncLimit);
+    }
+  }
+
+  /* Write the sync-collection response as the items are read. At most
+     the client limit or the configured page size items are returned
+     whatever the cursor delivers. If there are more the request uri gets
+     a 507 and the token continues from the last item sent.
+   */
+  private void processSyncResp(final HttpServletRequest req,
+                               final HttpServletResponse resp) throws WebdavException {
+    final CaldavBWIntf intf = (CaldavBWIntf)getNsIntf();
+    final String resourceUri = getResourceUri(req);
+
+    final WebdavNsNode node = intf.getNode(resourceUri,
+                                           WebdavNsIntf.existanceMust,
+                                           WebdavNsIntf.nodeTypeCollection,
+                                           false);
+
+    if ((node == null) || !node.isCollection()) {
+      throw new WebdavBadRequest("Not a collection");
+    }
+
+    final CaldavStats.Timer timer = CaldavStats.start(StatsType.reportSync);
+
+    try {
+      final int limit = SynchReports.getLimit(syncLimit);
+      final SynchCursor cursor =
+              intf.getSysi().getSyncCursor(resourceUri, syncToken,
+                                           limit, syncRecurse);
+
+      startSyncResp(resp);
+
+      long count = 0;
+      boolean truncated = false;
+      String token = null;
+
+      if (cursor != null) {
+        try {
+          String lastToken = null;
+
+          for (;;) {
+            final SynchReportDataItem srdi = cursor.next();
+
+            if (srdi == null) {
+              truncated = cursor.getTruncated();
+              token = cursor.getToken();
+              break;
+            }
+
+            /* Items with the same token can't be split across pages */
+            if ((limit >= 0) && (count >= limit) &&
+                    ((lastToken == null) ||
+                             !lastToken.equals(srdi.getToken()))) {
+              truncated = true;
+              token = lastToken;
+              break;
+            }
+
+            emitSyncItem(intf, intf.getSynchNode(srdi));
+
+            count++;
+            lastToken = srdi.getToken();
+          }
+        } finally {
+          cursor.close();
+        }
+      }
+
+      if (truncated) {
+        openTag(WebdavTags.response);
+        property(WebdavTags.href,
+                 intf.getSysi().getUrlHandler().prefix(resourceUri));
+        property(WebdavTags.status,
+                 "HTTP/1.1 " + insufficientStorage);
+        closeTag(WebdavTags.response);
+      }
+
+      if (token == null) {
+        // Nothing to report - the collection's current token
+        token = node.getSyncToken();
+      }
+
+      property(syncTokenTag, token);
+
+      closeTag(WebdavTags.multistatus);
+
+      flush();
+
+      SynchReports.reported(count, truncated);
+      timer.ok();
+    } finally {
+      timer.stop();
+    }
+  }
+
+  private void emitSyncItem(final CaldavBWIntf intf,
+                            final WebdavNsNode n) throws WebdavException {
+    if (n.getDeleted()) {
+      openTag(WebdavTags.response);
+      property(WebdavTags.href,
+               intf.getSysi().getUrlHandler().prefix(n.getUri()));
+      property(WebdavTags.status,
+               "HTTP/1.1 " + HttpServletResponse.SC_NOT_FOUND);
+      closeTag(WebdavTags.response);
+      return;
+    }
+
+    doNodeProperties(n);
+  }
+
+  private void startSyncResp(final HttpServletResponse resp) throws WebdavException {
+    resp.setStatus(WebdavStatusCode.SC_MULTI_STATUS);
+    resp.setContentType("text/xml;charset=utf-8");
+
+    startEmit(resp);
+
+    openTag(WebdavTags.multistatus);
+  }
+
   /** Return collection of nodes specified by list of hrefs.
    *
    * @param hrefs hrefs to find
@@ -458,29 +724,23 @@ public class CaldavReportMethod extends ReportMethod {
       return nodes;
     }
 
-    for (String hr: hrefs) {
-      WebdavNsNode n;
-      try {
-        n = intf.getNode(intf.getUri(hr),
-                         WebdavNsIntf.existanceMust,
-                         WebdavNsIntf.nodeTypeUnknown,
-                         false);
-      } catch (WebdavException we) {
-        if (hr.endsWith("/")) {
-          n = new CaldavCalNode(intf.getSysi(),
-                                we.getStatusCode(),
-                                intf.getUri(hr));
-        } else {
-          n = new CaldavComponentNode(intf.getSysi(),
-                                      we.getStatusCode(),
-                                      intf.getUri(hr));
-        }
-      }
+    final List<String> hrefList = new ArrayList<>(hrefs);
+    final List<String> uris = new ArrayList<>(hrefList.size());
+
+    for (final String hr: hrefList) {
+      uris.add(intf.getUri(hr));
+    }
+
+    /* Entities in the same collection are fetched together */
+    final List<WebdavNsNode> found = intf.getEntityNodes(uris);
+
+    for (int i = 0; i < hrefList.size(); i++) {
+      final WebdavNsNode n = found.get(i);
 
       if (n != null) {
         nodes.add(n);
       } else {
-        badHrefs.add(hr);
+        badHrefs.add(hrefList.get(i));
       }
     }
 
@@ -490,6 +750,24 @@ public class CaldavReportMethod extends ReportMethod {
   protected Collection<WebdavNsNode> doNodeAndChildren(
           final CalendarQueryPars cqp,
           final WebdavNsNode node) throws WebdavException {
+    final Collection<WebdavNsNode> nodes = new ArrayList<>();
+
+    doNodeAndChildren(cqp, node, nodes::add);
+
+    return nodes;
+  }
+
+  /** Process the query for the node and its children passing each result
+   * node to the handler as it is produced.
+   *
+   * @param cqp query parameters
+   * @param node target of the query
+   * @param handler called for each result node
+   * @throws WebdavException on error
+   */
+  protected void doNodeAndChildren(final CalendarQueryPars cqp,
+                                   final WebdavNsNode node,
+                                   final NodeHandler handler) throws WebdavException {
     List<String> retrieveList = null;
     CalData caldata = null;
 
@@ -575,7 +853,7 @@ public class CaldavReportMethod extends ReportMethod {
       retrieveList = null;
     }
 
-    return doNodeAndChildren(cqp, node, expand, lrs, retrieveList);
+    doNodeAndChildren(cqp, node, expand, lrs, retrieveList, handler);
   }
 
   protected Collection<WebdavNsNode> doNodeAndChildren(final CalendarQueryPars cqp,
@@ -583,6 +861,19 @@ public class CaldavReportMethod extends ReportMethod {
                                     final ExpandType expand,
                                     final LimitRecurrenceSetType lrs,
                                     final List<String> retrieveList) throws WebdavException {
+    final Collection<WebdavNsNode> nodes = new ArrayList<>();
+
+    doNodeAndChildren(cqp, node, expand, lrs, retrieveList, nodes::add);
+
+    return nodes;
+  }
+
+  protected void doNodeAndChildren(final CalendarQueryPars cqp,
+                                   final WebdavNsNode node,
+                                   final ExpandType expand,
+                                   final LimitRecurrenceSetType lrs,
+                                   final List<String> retrieveList,
+                                   final NodeHandler handler) throws WebdavException {
     RetrievalMode rm = null;
 
     if (expand != null) {
@@ -595,32 +886,31 @@ public class CaldavReportMethod extends ReportMethod {
       rm.setLimitRecurrenceSet(lrs);
     }
 
-    return doNodeAndChildren(cqp, node, 0, defaultDepth(cqp.depth, 0),
-                             rm, retrieveList);
+    doNodeAndChildren(cqp, node, 0, defaultDepth(cqp.depth, 0),
+                      rm, retrieveList, handler);
   }
 
   /* ====================================================================
    *                   Private methods
    * ==================================================================== */
 
-  private Collection<WebdavNsNode> doNodeAndChildren(
+  private void doNodeAndChildren(
           final CalendarQueryPars cqp,
           final WebdavNsNode node,
           int curDepth,
           final int maxDepth,
           final RetrievalMode rm,
-          final List<String> retrieveList) throws WebdavException {
+          final List<String> retrieveList,
+          final NodeHandler handler) throws WebdavException {
     if (debug()) {
       debug("doNodeAndChildren: curDepth=" + curDepth +
             " maxDepth=" + maxDepth + " uri=" + node.getUri());
     }
 
-    final Collection<WebdavNsNode> nodes = new ArrayList<>();
-
     if (node instanceof CaldavComponentNode) {
       // Targetted directly at component
-      nodes.add(node);
-      return nodes;
+      handler.handle(node);
+      return;
     }
 
     if (!(node instanceof CaldavCalNode)) {
@@ -635,13 +925,123 @@ public class CaldavReportMethod extends ReportMethod {
     curDepth++;
 
     if (curDepth > maxDepth) {
-      return nodes;
+      return;
     }
 
     if (calnode.isCalendarCollection()) {
-      return getNodes(cqp, node, rm, retrieveList);
+      getNodes(cqp, node, rm, retrieveList, handler);
+      return;
+    }
+
+    final CaldavBWIntf intf = (CaldavBWIntf)getNsIntf();
+
+    if (QueryExecutor.isEnabled() &&
+            intf.getSysi().allowsConcurrentQueries()) {
+      /* Find all the calendars first so that they can be queried
+         concurrently.
+       */
+      final List<WebdavNsNode> cals = new ArrayList<>();
+
+      getCalendars(cqp, node, curDepth, maxDepth, cals, handler);
+
+      intf.query(cals, retrieveList, rm, cqp.filter, handler);
+      return;
     }
 
+    for (final WebdavNsNode child:
+            getNsIntf().getChildren(node, getFilters(cqp))) {
+      try {
+        doNodeAndChildren(cqp,
+                          child,
+                          curDepth,
+                          maxDepth,
+                          rm,
+                          retrieveList,
+                          handler);
+      } catch (final WebdavException we) {
+        handler.error(child, we);
+      }
+    }
+  }
+
+  /* Add the calendar collections at or below the children of node to cals.
+     Components found on the way are passed directly to the handler.
+   */
+  private void getCalendars(final CalendarQueryPars cqp,
+                            final WebdavNsNode node,
+                            final int curDepth,
+                            final int maxDepth,
+                            final List<WebdavNsNode> cals,
+                            final NodeHandler handler) throws WebdavException {
+    for (final WebdavNsNode child:
+            getNsIntf().getChildren(node, getFilters(cqp))) {
+      if (child instanceof CaldavComponentNode) {
+        handler.handle(child);
+        continue;
+      }
+
+      if (!(child instanceof CaldavCalNode)) {
+        throw new WebdavBadRequest();
+      }
+
+      if (curDepth + 1 > maxDepth) {
+        continue;
+      }
+
+      if (((CaldavCalNode)child).isCalendarCollection()) {
+        cals.add(child);
+        continue;
+      }
+
+      try {
+        getCalendars(cqp, child, curDepth + 1, maxDepth, cals, handler);
+      } catch (final WebdavException we) {
+        handler.error(child, we);
+      }
+    }
+  }
+
+  /* Emits the nodes of a streamed query. The multistatus is opened on
+     the first output. After that a collection whose query fails is
+     reported in a DAV:response with the status for its href, so the
+     response stays well formed.
+   */
+  private class QueryResponder implements NodeHandler {
+    boolean opened;
+
+    @Override
+    public void handle(final WebdavNsNode node) throws WebdavException {
+      open();
+      doNodeProperties(node);
+    }
+
+    @Override
+    public void error(final WebdavNsNode node,
+                      final WebdavException we) throws WebdavException {
+      final int status = we.getStatusCode();
+
+      if (status >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR) {
+        CaldavReportMethod.this.error(we);
+      } else if (debug()) {
+        debug("Query of " + node.getUri() + " failed with status " +
+                      status);
+      }
+
+      open();
+      node.setStatus(status);
+      doNodeProperties(node);
+    }
+
+    void open() throws WebdavException {
+      if (!opened) {
+        openTag(WebdavTags.multistatus);
+        opened = true;
+      }
+    }
+  }
+
+  private Supplier<Object> getFilters(final CalendarQueryPars cqp)
+          throws WebdavException {
     final EventQuery eq;
 
     if (cqp.filter == null) {
@@ -650,31 +1050,20 @@ public class CaldavReportMethod extends ReportMethod {
       eq = Filters.getQuery(cqp.filter);
     }
 
-    final Supplier<Object> filters = () -> {
+    return () -> {
       if (eq == null) {
         return null;
       }
 
       return eq.filter;
     };
-
-    for (final WebdavNsNode child:
-            getNsIntf().getChildren(node, filters)) {
-      nodes.addAll(doNodeAndChildren(cqp,
-                                     child,
-                                     curDepth,
-                                     maxDepth,
-                                     rm,
-                                     retrieveList));
-    }
-
-    return nodes;
   }
 
-  private Collection<WebdavNsNode> getNodes(final CalendarQueryPars cqp,
-                                            final WebdavNsNode node,
-                                            final RetrievalMode rm,
-                                            final List<String> retrieveList)
+  private void getNodes(final CalendarQueryPars cqp,
+                        final WebdavNsNode node,
+                        final RetrievalMode rm,
+                        final List<String> retrieveList,
+                        final NodeHandler handler)
           throws WebdavException {
     if (debug()) {
       debug("getNodes: " + node.getUri());
@@ -682,7 +1071,7 @@ public class CaldavReportMethod extends ReportMethod {
 
     CaldavBWIntf intf = (CaldavBWIntf)getNsIntf();
 
-    return intf.query(node, retrieveList, rm, cqp.filter);
+    intf.query(node, retrieveList, rm, cqp.filter, handler);
   }
 
   private boolean addPropname(final QName tag,
@@ -692,6 +1081,13 @@ public class CaldavReportMethod extends ReportMethod {
       return true;
     }
 
+    final CaldavBWIntf intf = (CaldavBWIntf)getNsIntf();
+
+    if (intf.getSysi().metadataProperties().contains(tag.toString())) {
+      retrieveList.add(tag.toString());
+      return true;
+    }
+
     return false;
   }
 
@@ -163,6 +163,7 @@ public class CaldavResourceNode extends CaldavBwNode {
   public void update() throws WebdavException {
     if (resource != null) {
       getSysi().updateFile(resource, true);
+      updated();
     }
   }
 
@@ -0,0 +1,126 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server;
+
+import org.bedework.util.jmx.ConfBase;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Paging of sync-collection reports. A report returns at most the
+ * client limit or, failing that, pageSize items. If there are more it is
+ * marked as truncated and its token continues from the last item sent,
+ * so an initial sync of a large collection takes several bounded
+ * requests.
+ *
+ * <p>pageSize is 0, i.e. off, by default so only a client limit truncates
+ * a report. Setting it changes what clients see - a report without a
+ * limit may now end with a 507 for the collection and the client has to
+ * repeat it with the returned token until it has everything.
+ *
+ * <p>Configuration is static so it applies whether or not the bean has
+ * been registered.
+ */
+public class SynchReports extends ConfBase
+        implements SynchReportsMBean {
+  /* Name of the property holding the location of the config data */
+  public static final String confuriPname = "org.bedework.caldav.confuri";
+
+  private static volatile int pageSize;
+
+  private static final LongAdder reports = new LongAdder();
+  private static final LongAdder truncated = new LongAdder();
+  private static final LongAdder items = new LongAdder();
+
+  /**
+   */
+  public SynchReports() {
+    super(serviceName);
+
+    setConfigName(configName);
+
+    setConfigPname(confuriPname);
+  }
+
+  /**
+   * @param clientLimit from the request - negative for none
+   * @return the number of items to ask for - negative for no limit
+   */
+  public static int getLimit(final int clientLimit) {
+    final int ps = pageSize;
+
+    if (ps <= 0) {
+      return clientLimit;
+    }
+
+    if ((clientLimit < 0) || (clientLimit > ps)) {
+      return ps;
+    }
+
+    return clientLimit;
+  }
+
+  /** Record a report
+   *
+   * @param numItems items returned
+   * @param wasTruncated true if there were more
+   */
+  public static void reported(final long numItems,
+                              final boolean wasTruncated) {
+    reports.increment();
+    items.add(numItems);
+
+    if (wasTruncated) {
+      truncated.increment();
+    }
+  }
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  @Override
+  public void setPageSize(final int val) {
+    pageSize = val;
+  }
+
+  @Override
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  @Override
+  public long getReports() {
+    return reports.sum();
+  }
+
+  @Override
+  public long getTruncated() {
+    return truncated.sum();
+  }
+
+  @Override
+  public long getItems() {
+    return items.sum();
+  }
+
+  @Override
+  public String loadConfig() {
+    return "No config to load";
+  }
+}
@@ -0,0 +1,67 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server;
+
+import org.bedework.util.jmx.ConfBaseMBean;
+import org.bedework.util.jmx.MBeanInfo;
+
+/** Configure and monitor paging of sync-collection reports.
+ */
+public interface SynchReportsMBean extends ConfBaseMBean {
+  static final String configName = "SynchReports";
+
+  static final String serviceName =
+          "org.bedework.caldav:service=" + configName;
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  /**
+   * @param val max number of items in one sync-collection response
+   */
+  void setPageSize(int val);
+
+  /**
+   * @return max number of items in one sync-collection response
+   */
+  @MBeanInfo("Max number of items returned by one sync-collection " +
+          "report when the client sets no smaller limit. 0, the default, " +
+          "for no limit")
+  int getPageSize();
+
+  /**
+   * @return number of reports
+   */
+  @MBeanInfo("Number of sync-collection reports")
+  long getReports();
+
+  /**
+   * @return number of truncated reports
+   */
+  @MBeanInfo("Number of sync-collection reports returned as a page " +
+          "with a continuation token")
+  long getTruncated();
+
+  /**
+   * @return number of items reported
+   */
+  @MBeanInfo("Number of items returned by sync-collection reports")
+  long getItems();
+}
@@ -0,0 +1,303 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server;
+
+import org.bedework.caldav.server.soap.SoapCodec;
+import org.bedework.caldav.server.soap.SoapHandler;
+import org.bedework.caldav.server.soap.calws.CalwsHandler;
+import org.bedework.caldav.server.soap.synch.SynchwsHandler;
+import org.bedework.caldav.util.filter.parse.Filters;
+import org.bedework.synch.wsmessages.KeepAliveResponseType;
+import org.bedework.synch.wsmessages.ObjectFactory;
+import org.bedework.util.jmx.ConfBase;
+import org.bedework.util.logging.BwLogger;
+import org.bedework.util.timezones.Timezones;
+
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
+import org.oasis_open.docs.ws_calendar.ns.soap.StatusType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Builds the expensive shared objects before the first request so a
+ * freshly started node doesn't pay for them in its first responses:
+ * <ul>
+ * <li>JAXB contexts for CalDAV filters, CalWS-SOAP and SynchWS</li>
+ * <li>The SOAP codec, with a round trip</li>
+ * <li>ical4j classes, by parsing a small calendar</li>
+ * <li>The ical4j and bedework timezone registries</li>
+ * <li>A calendar-query filter, parsed and compiled</li>
+ * </ul>
+ *
+ * <p>The warm up runs in the background. Load balancers can watch the
+ * Ready attribute and only send traffic once it is true. Until then the
+ * servlet answers 503 with a Retry-After header unless GateRequests is
+ * off. A step which fails is reported but does not stop the node
+ * becoming ready.
+ */
+public class Warmup extends ConfBase implements WarmupMBean {
+  /* Name of the property holding the location of the config data */
+  public static final String confuriPname = "org.bedework.caldav.confuri";
+
+  private interface Step {
+    void run() throws Throwable;
+  }
+
+  private static final String filterXml =
+          "<C:filter xmlns:C=\"urn:ietf:params:xml:ns:caldav\">" +
+          "<C:comp-filter name=\"VCALENDAR\">" +
+          "<C:comp-filter name=\"VEVENT\">" +
+          "<C:time-range start=\"20060104T000000Z\" " +
+                        "end=\"20060105T000000Z\"/>" +
+          "</C:comp-filter>" +
+          "</C:comp-filter>" +
+          "</C:filter>";
+
+  private static final String ical =
+          "BEGIN:VCALENDAR\r\n" +
+          "VERSION:2.0\r\n" +
+          "PRODID:-//Bedework//CalDAV warmup//EN\r\n" +
+          "BEGIN:VEVENT\r\n" +
+          "UID:warmup@bedework.org\r\n" +
+          "DTSTAMP:20060101T000000Z\r\n" +
+          "DTSTART:20060104T100000Z\r\n" +
+          "DURATION:PT1H\r\n" +
+          "RRULE:FREQ=WEEKLY;COUNT=2\r\n" +
+          "SUMMARY:Warmup\r\n" +
+          "ATTENDEE;PARTSTAT=NEEDS-ACTION:mailto:a@example.org\r\n" +
+          "ORGANIZER:mailto:o@example.org\r\n" +
+          "BEGIN:VALARM\r\n" +
+          "ACTION:DISPLAY\r\n" +
+          "TRIGGER:-PT10M\r\n" +
+          "DESCRIPTION:Warmup\r\n" +
+          "END:VALARM\r\n" +
+          "END:VEVENT\r\n" +
+          "END:VCALENDAR\r\n";
+
+  private static volatile boolean enabled = true;
+
+  private static volatile boolean gateRequests = true;
+
+  /** Seconds a client is asked to wait while we warm up */
+  public static final int retryAfter = 5;
+
+  private static volatile String tzid = "America/New_York";
+
+  private static boolean started;
+
+  private static volatile boolean ready;
+
+  private static volatile long warmupMillis;
+
+  private static List<String> steps = new ArrayList<>();
+
+  private static final BwLogger logger = new BwLogger();
+
+  static {
+    logger.setLoggedClass(Warmup.class);
+  }
+
+  /**
+   */
+  public Warmup() {
+    super(serviceName);
+
+    setConfigName(configName);
+
+    setConfigPname(confuriPname);
+  }
+
+  /** Start the warm up in the background. If it is disabled we are
+   * ready at once. Only the first call has any effect.
+   */
+  public static void start() {
+    synchronized (Warmup.class) {
+      if (started) {
+        return;
+      }
+
+      started = true;
+    }
+
+    if (!enabled) {
+      ready = true;
+      return;
+    }
+
+    ready = false;
+
+    final Thread t = new Thread(Warmup::warm, "caldav-warmup");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * @return true once warm up has completed
+   */
+  public static boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * @return true if requests should be turned away until we are ready
+   */
+  public static boolean holdRequests() {
+    return gateRequests && !ready;
+  }
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  @Override
+  public void setEnabled(final boolean val) {
+    enabled = val;
+  }
+
+  @Override
+  public boolean getEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setGateRequests(final boolean val) {
+    gateRequests = val;
+  }
+
+  @Override
+  public boolean getGateRequests() {
+    return gateRequests;
+  }
+
+  @Override
+  public void setTzid(final String val) {
+    tzid = val;
+  }
+
+  @Override
+  public String getTzid() {
+    return tzid;
+  }
+
+  @Override
+  public boolean getReady() {
+    return ready;
+  }
+
+  @Override
+  public long getWarmupMillis() {
+    return warmupMillis;
+  }
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  @Override
+  public List<String> showSteps() {
+    synchronized (Warmup.class) {
+      return new ArrayList<>(steps);
+    }
+  }
+
+  @Override
+  public void rewarm() {
+    warm();
+  }
+
+  @Override
+  public String loadConfig() {
+    return "No config to load";
+  }
+
+  /* ========================================================================
+   * Private methods
+   * ======================================================================== */
+
+  private static void warm() {
+    synchronized (Warmup.class) {
+      final long start = System.currentTimeMillis();
+
+      steps = new ArrayList<>();
+
+      step("filter context", () -> {
+        Filters.compileQuery(Filters.parse(filterXml));
+      });
+
+      step("calws context", () -> {
+        SoapHandler.getCodec(CalwsHandler.jaxbContextPath);
+      });
+
+      step("synchws round trip", Warmup::soapRoundTrip);
+
+      step("ical4j", () -> {
+        new CalendarBuilder().build(new StringReader(ical));
+      });
+
+      step("ical4j timezones", () -> {
+        TimeZoneRegistryFactory.getInstance().createRegistry()
+                               .getTimeZone(tzid);
+      });
+
+      step("timezones", () -> {
+        Timezones.getTz(tzid);
+      });
+
+      warmupMillis = System.currentTimeMillis() - start;
+      ready = true;
+
+      logger.info("Warm up completed in " + warmupMillis + " ms");
+    }
+  }
+
+  /* Marshal a message into a SOAP envelope, write it, read it back and
+     unmarshal it - the same path a keepalive takes. */
+  private static void soapRoundTrip() throws Throwable {
+    final SoapCodec codec =
+            SoapHandler.getCodec(SynchwsHandler.jaxbContextPath);
+    final ObjectFactory of = new ObjectFactory();
+
+    final KeepAliveResponseType kar = of.createKeepAliveResponseType();
+    kar.setStatus(StatusType.OK);
+
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    codec.write(of.createKeepAliveResponse(kar), baos);
+
+    codec.read(new ByteArrayInputStream(baos.toByteArray()));
+  }
+
+  private static void step(final String name,
+                           final Step step) {
+    final long start = System.currentTimeMillis();
+
+    try {
+      step.run();
+
+      steps.add(name + ": " + (System.currentTimeMillis() - start) + " ms");
+    } catch (final Throwable t) {
+      steps.add(name + ": failed - " + t.getMessage());
+
+      logger.warn("Warm up step " + name + " failed: " + t.getMessage());
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server;
+
+import org.bedework.util.jmx.ConfBaseMBean;
+import org.bedework.util.jmx.MBeanInfo;
+
+import java.util.List;
+
+/** Warm up shared machinery at startup and report readiness.
+ */
+public interface WarmupMBean extends ConfBaseMBean {
+  static final String configName = "Warmup";
+
+  static final String serviceName =
+          "org.bedework.caldav:service=" + configName;
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  /**
+   * @param val true to warm up at startup
+   */
+  void setEnabled(boolean val);
+
+  /**
+   * @return true if we warm up at startup
+   */
+  @MBeanInfo("True if JAXB, SOAP, ical4j and timezones are warmed " +
+          "up at startup")
+  boolean getEnabled();
+
+  /**
+   * @param val true to answer 503 until warm up completes
+   */
+  void setGateRequests(boolean val);
+
+  /**
+   * @return true to answer 503 until warm up completes
+   */
+  @MBeanInfo("True if requests get a 503 with Retry-After until the " +
+          "node is ready")
+  boolean getGateRequests();
+
+  /**
+   * @param val timezone id used to load the registry
+   */
+  void setTzid(String val);
+
+  /**
+   * @return timezone id used to load the registry
+   */
+  @MBeanInfo("Timezone id fetched to load the timezone registry")
+  String getTzid();
+
+  /**
+   * @return true once warm up has completed
+   */
+  @MBeanInfo("True once the node is warm and ready for traffic")
+  boolean getReady();
+
+  /**
+   * @return milliseconds taken by the last warm up
+   */
+  @MBeanInfo("Milliseconds taken by the last warm up")
+  long getWarmupMillis();
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  /** Display the result of each step
+   *
+   * @return list of step results
+   */
+  @MBeanInfo("Show the time taken or the failure for each step")
+  List<String> showSteps();
+
+  /** Run the warm up again
+   *
+   */
+  @MBeanInfo("Run the warm up again")
+  void rewarm();
+}
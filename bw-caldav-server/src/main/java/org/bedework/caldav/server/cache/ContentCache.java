@@ -0,0 +1,324 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.cache;
+
+import org.bedework.util.jmx.ConfBase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A bounded cache of serialized entity bodies held as UTF-8 bytes.
+ * Entries are keyed by href, etag, content type, scheduling method and
+ * the principal they were rendered for so a changed entity can never be
+ * served from the cache - its etag changes. Old entries are evicted in
+ * least recently used order when the total size exceeds the maximum.
+ *
+ * <p>The cache is static so it is shared by all requests whether or not
+ * the bean has been registered.
+ */
+public class ContentCache extends ConfBase
+        implements ContentCacheMBean {
+  /* Name of the property holding the location of the config data */
+  public static final String confuriPname = "org.bedework.caldav.confuri";
+
+  /** A cached body. We keep the encoded form for bodies written straight
+   * to the response and the character form for bodies embedded in XML,
+   * so neither is converted on each request.
+   */
+  public static class Entry {
+    private final byte[] content;
+    private final String string;
+    private final String contentType;
+
+    /**
+     * @param content UTF-8 encoded
+     * @param contentType actual content type
+     */
+    public Entry(final byte[] content,
+                 final String contentType) {
+      this(content, null, contentType);
+    }
+
+    /**
+     * @param content string form
+     * @param contentType actual content type
+     */
+    public Entry(final String content,
+                 final String contentType) {
+      this(content.getBytes(StandardCharsets.UTF_8), content, contentType);
+    }
+
+    private Entry(final byte[] content,
+                  final String string,
+                  final String contentType) {
+      this.content = content;
+      this.string = string;
+      this.contentType = contentType;
+    }
+
+    /**
+     * @return UTF-8 encoded content - must not be modified
+     */
+    public byte[] getContent() {
+      return content;
+    }
+
+    /**
+     * @return length in bytes
+     */
+    public int getLength() {
+      return content.length;
+    }
+
+    /**
+     * @return actual content type
+     */
+    public String getContentType() {
+      return contentType;
+    }
+
+    /**
+     * @return content as a String
+     */
+    public String getString() {
+      if (string != null) {
+        return string;
+      }
+
+      return new String(content, StandardCharsets.UTF_8);
+    }
+
+    /* Approximate memory held - the string is about the same size
+       as the bytes for the mostly ASCII content we hold.
+     */
+    int getSize() {
+      if (string == null) {
+        return content.length;
+      }
+
+      return 2 * content.length;
+    }
+  }
+
+  private static volatile long maxSize = 32 * 1024 * 1024;
+
+  private static volatile int maxEntrySize = 256 * 1024;
+
+  private static final LinkedHashMap<String, Entry> cache =
+          new LinkedHashMap<>(1024, 0.75f, true);
+
+  private static long size;
+  private static long hits;
+  private static long misses;
+  private static long evictions;
+
+  /**
+   */
+  public ContentCache() {
+    super(serviceName);
+
+    setConfigName(configName);
+
+    setConfigPname(confuriPname);
+  }
+
+  /**
+   * @param href of entity
+   * @param etag current etag
+   * @param contentType requested type
+   * @param method scheduling method emitted
+   * @param principal for whom we are rendering - may be null
+   * @return key for the cache or null if the entity cannot be cached
+   */
+  public static String makeKey(final String href,
+                               final String etag,
+                               final String contentType,
+                               final String method,
+                               final String principal) {
+    if ((href == null) || (etag == null) || (maxSize <= 0)) {
+      return null;
+    }
+
+    return href + "\t" + etag + "\t" + contentType + "\t" + method +
+            "\t" + principal;
+  }
+
+  /**
+   * @param key from makeKey - may be null
+   * @return entry or null
+   */
+  public static Entry get(final String key) {
+    if (key == null) {
+      return null;
+    }
+
+    synchronized (cache) {
+      final Entry e = cache.get(key);
+
+      if (e == null) {
+        misses++;
+      } else {
+        hits++;
+      }
+
+      return e;
+    }
+  }
+
+  /**
+   * @param key from makeKey - may be null
+   * @param val entry to cache
+   */
+  public static void put(final String key,
+                         final Entry val) {
+    if ((key == null) || (val.getLength() > maxEntrySize)) {
+      return;
+    }
+
+    synchronized (cache) {
+      final Entry old = cache.put(key, val);
+
+      if (old != null) {
+        size -= old.getSize();
+      }
+
+      size += val.getSize();
+
+      final Iterator<Map.Entry<String, Entry>> it =
+              cache.entrySet().iterator();
+
+      while ((size > maxSize) && it.hasNext()) {
+        final Entry e = it.next().getValue();
+
+        it.remove();
+        size -= e.getSize();
+        evictions++;
+      }
+    }
+  }
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  @Override
+  public void setMaxSize(final long val) {
+    maxSize = val;
+
+    if (val <= 0) {
+      flush();
+    }
+  }
+
+  @Override
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  @Override
+  public void setMaxEntrySize(final int val) {
+    maxEntrySize = val;
+  }
+
+  @Override
+  public int getMaxEntrySize() {
+    return maxEntrySize;
+  }
+
+  @Override
+  public long getSize() {
+    synchronized (cache) {
+      return size;
+    }
+  }
+
+  @Override
+  public int getEntries() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  @Override
+  public long getHits() {
+    synchronized (cache) {
+      return hits;
+    }
+  }
+
+  @Override
+  public long getMisses() {
+    synchronized (cache) {
+      return misses;
+    }
+  }
+
+  @Override
+  public long getEvictions() {
+    synchronized (cache) {
+      return evictions;
+    }
+  }
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  @Override
+  public List<String> showStats() {
+    final List<String> res = new ArrayList<>();
+
+    synchronized (cache) {
+      final long total = hits + misses;
+
+      res.add("entries: " + cache.size());
+      res.add("size: " + size + " of " + maxSize + " bytes");
+      res.add("hits: " + hits);
+      res.add("misses: " + misses);
+
+      if (total > 0) {
+        res.add("hit rate: " + ((hits * 100) / total) + "%");
+      }
+
+      res.add("evictions: " + evictions);
+    }
+
+    return res;
+  }
+
+  @Override
+  public void flush() {
+    synchronized (cache) {
+      cache.clear();
+      size = 0;
+      hits = 0;
+      misses = 0;
+      evictions = 0;
+    }
+  }
+
+  @Override
+  public String loadConfig() {
+    return "No config to load";
+  }
+}
@@ -0,0 +1,294 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.cache;
+
+import org.bedework.util.jmx.ConfBase;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A bounded cache of gzipped web calendar feeds. Entries are keyed by
+ * collection path, period, content type and principal and hold the etag
+ * they were rendered for. An entry is only used if its etag matches the
+ * current one, which is derived from the collection sync token.
+ *
+ * <p>The cache is static so it is shared by all requests whether or not
+ * the bean has been registered.
+ */
+public class WebcalCache extends ConfBase
+        implements WebcalCacheMBean {
+  /* Name of the property holding the location of the config data */
+  public static final String confuriPname = "org.bedework.caldav.confuri";
+
+  /** A cached feed */
+  public static class Entry {
+    private final String etag;
+    private final byte[] gzipped;
+
+    /**
+     * @param etag the feed was rendered for
+     * @param gzipped compressed body - UTF-8 before compression
+     */
+    public Entry(final String etag,
+                 final byte[] gzipped) {
+      this.etag = etag;
+      this.gzipped = gzipped;
+    }
+
+    /**
+     * @return etag the feed was rendered for
+     */
+    public String getEtag() {
+      return etag;
+    }
+
+    /**
+     * @return compressed body - must not be modified
+     */
+    public byte[] getGzipped() {
+      return gzipped;
+    }
+  }
+
+  private static volatile long maxSize = 16 * 1024 * 1024;
+
+  private static volatile int maxEntrySize = 2 * 1024 * 1024;
+
+  private static final LinkedHashMap<String, Entry> cache =
+          new LinkedHashMap<>(64, 0.75f, true);
+
+  private static long size;
+  private static long hits;
+  private static long misses;
+  private static long notModified;
+  private static long evictions;
+
+  /**
+   */
+  public WebcalCache() {
+    super(serviceName);
+
+    setConfigName(configName);
+
+    setConfigPname(confuriPname);
+  }
+
+  /**
+   * @param calPath collection path
+   * @param start of period
+   * @param end of period
+   * @param contentType of feed
+   * @param principal for whom we are rendering - may be null
+   * @return key for the cache
+   */
+  public static String makeKey(final String calPath,
+                               final String start,
+                               final String end,
+                               final String contentType,
+                               final String principal) {
+    return calPath + "\t" + start + "\t" + end + "\t" + contentType +
+            "\t" + principal;
+  }
+
+  /**
+   * @return true if caching is enabled
+   */
+  public static boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  /**
+   * @return largest compressed feed we will cache
+   */
+  public static int entryLimit() {
+    return maxEntrySize;
+  }
+
+  /**
+   * @param key from makeKey
+   * @param etag current etag
+   * @return entry or null if absent or stale
+   */
+  public static Entry get(final String key,
+                          final String etag) {
+    synchronized (cache) {
+      final Entry e = cache.get(key);
+
+      if ((e == null) || !e.getEtag().equals(etag)) {
+        misses++;
+        return null;
+      }
+
+      hits++;
+      return e;
+    }
+  }
+
+  /**
+   * @param key from makeKey
+   * @param val entry to cache
+   */
+  public static void put(final String key,
+                         final Entry val) {
+    final int len = val.getGzipped().length;
+
+    if (!isEnabled() || (len > maxEntrySize)) {
+      return;
+    }
+
+    synchronized (cache) {
+      final Entry old = cache.put(key, val);
+
+      if (old != null) {
+        size -= old.getGzipped().length;
+      }
+
+      size += len;
+
+      final Iterator<Map.Entry<String, Entry>> it =
+              cache.entrySet().iterator();
+
+      while ((size > maxSize) && it.hasNext()) {
+        final Entry e = it.next().getValue();
+
+        it.remove();
+        size -= e.getGzipped().length;
+        evictions++;
+      }
+    }
+  }
+
+  /** Count a not modified response
+   */
+  public static void notModified() {
+    synchronized (cache) {
+      notModified++;
+    }
+  }
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  @Override
+  public void setMaxSize(final long val) {
+    maxSize = val;
+
+    if (val <= 0) {
+      flush();
+    }
+  }
+
+  @Override
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  @Override
+  public void setMaxEntrySize(final int val) {
+    maxEntrySize = val;
+  }
+
+  @Override
+  public int getMaxEntrySize() {
+    return maxEntrySize;
+  }
+
+  @Override
+  public long getSize() {
+    synchronized (cache) {
+      return size;
+    }
+  }
+
+  @Override
+  public int getEntries() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  @Override
+  public long getHits() {
+    synchronized (cache) {
+      return hits;
+    }
+  }
+
+  @Override
+  public long getMisses() {
+    synchronized (cache) {
+      return misses;
+    }
+  }
+
+  @Override
+  public long getNotModified() {
+    synchronized (cache) {
+      return notModified;
+    }
+  }
+
+  @Override
+  public long getEvictions() {
+    synchronized (cache) {
+      return evictions;
+    }
+  }
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  @Override
+  public List<String> showStats() {
+    final List<String> res = new ArrayList<>();
+
+    synchronized (cache) {
+      res.add("entries: " + cache.size());
+      res.add("size: " + size + " of " + maxSize + " bytes");
+      res.add("hits: " + hits);
+      res.add("misses: " + misses);
+      res.add("not modified: " + notModified);
+      res.add("evictions: " + evictions);
+    }
+
+    return res;
+  }
+
+  @Override
+  public void flush() {
+    synchronized (cache) {
+      cache.clear();
+      size = 0;
+      hits = 0;
+      misses = 0;
+      notModified = 0;
+      evictions = 0;
+    }
+  }
+
+  @Override
+  public String loadConfig() {
+    return "No config to load";
+  }
+}
@@ -0,0 +1,112 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.cache;
+
+import org.bedework.util.jmx.ConfBaseMBean;
+import org.bedework.util.jmx.MBeanInfo;
+
+import java.util.List;
+
+/** Cache of compressed web calendar feeds.
+ */
+public interface WebcalCacheMBean extends ConfBaseMBean {
+  static final String configName = "WebcalCache";
+
+  static final String serviceName =
+          "org.bedework.caldav:service=" + configName;
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  /**
+   * @param val max total size of cached feeds in bytes. 0 to disable
+   */
+  void setMaxSize(long val);
+
+  /**
+   * @return max total size of cached feeds in bytes
+   */
+  @MBeanInfo("Max total size of compressed feeds in bytes. 0 disables caching")
+  long getMaxSize();
+
+  /**
+   * @param val largest single compressed feed we will cache in bytes
+   */
+  void setMaxEntrySize(int val);
+
+  /**
+   * @return largest single compressed feed we will cache in bytes
+   */
+  @MBeanInfo("Largest single compressed feed we will cache in bytes")
+  int getMaxEntrySize();
+
+  /**
+   * @return current total size of cached feeds in bytes
+   */
+  @MBeanInfo("Current total size of compressed feeds in bytes")
+  long getSize();
+
+  /**
+   * @return number of entries
+   */
+  @MBeanInfo("Number of cached feeds")
+  int getEntries();
+
+  /**
+   * @return number of hits
+   */
+  @MBeanInfo("Number of feeds served from the cache")
+  long getHits();
+
+  /**
+   * @return number of misses
+   */
+  @MBeanInfo("Number of feeds rendered")
+  long getMisses();
+
+  /**
+   * @return number of not modified responses
+   */
+  @MBeanInfo("Number of 304 not modified responses")
+  long getNotModified();
+
+  /**
+   * @return number of evictions
+   */
+  @MBeanInfo("Number of feeds evicted to make room")
+  long getEvictions();
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  /** Display the statistics
+   *
+   * @return list of formatted statistics
+   */
+  @MBeanInfo("Show the cache statistics")
+  List<String> showStats();
+
+  /** Empty the cache
+   *
+   */
+  @MBeanInfo("Empty the cache and reset statistics")
+  void flush();
+}
@@ -145,6 +145,9 @@ public class CalData extends WebdavProperty implements Logged {
    */
   private CalendarDataType calendarData;
 
+  /* Compiled form of the comp element */
+  private CalDataProjection projection;
+
   /** Constructor
    *
    * @param tag  QName name
@@ -290,15 +293,32 @@ public class CalData extends WebdavProperty implements Logged {
       throw new WebdavBadRequest();
     }
 
-    if (comp.getAllcomp() != null) {
+    if ((comp.getAllcomp() != null) || comp.getComp().isEmpty()) {
       node.writeContent(xml, null, contentType);
       return;
     }
 
-    // Assume all properties for that level.
+    String ctype = contentType;
+    if (ctype == null) {
+      ctype = node.getSysi().getDefaultContentType();
+    }
 
-    // Currently we only handle VEVENT -
-    // If there's no VEVENT element what does that imply?
+    if (CalDataProjection.supports(ctype) &&
+            CalDataProjection.supports(comp)) {
+      if (projection == null) {
+        projection = CalDataProjection.compile(comp);
+      }
+
+      projection.write(node.getIcal(), xml, ctype);
+      return;
+    }
+
+    /* Some other content type - transform via the SysIntf.
+       Assume all properties for that level.
+
+       Currently we only handle VEVENT -
+       If there's no VEVENT element what does that imply?
+     */
 
     for (final CompType subcomp : comp.getComp()) {
       final String nm = subcomp.getName().toUpperCase();
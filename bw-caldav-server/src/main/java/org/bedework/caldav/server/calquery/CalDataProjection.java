@@ -0,0 +1,837 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.calquery;
+
+import org.bedework.util.misc.Util;
+import org.bedework.util.xml.XmlEmit;
+import org.bedework.util.xml.tagdefs.XcalTags;
+import org.bedework.webdav.servlet.shared.WebdavException;
+
+import ietf.params.xml.ns.caldav.AllcompType;
+import ietf.params.xml.ns.caldav.CompType;
+import ietf.params.xml.ns.caldav.PropType;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.Parameter;
+import net.fortuna.ical4j.model.ParameterList;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.component.VAvailability;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.component.VTimeZone;
+import net.fortuna.ical4j.model.component.VToDo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+/** A compiled form of the calendar-data comp element. This writes only the
+ * selected properties and components of a calendar straight to the output
+ * stream as iCalendar text, jCal or xCal. No projected copy of the
+ * calendar or of the serialized form is built.
+ *
+ * <p>Following RFC 4791 9.6.1 a component with neither allprop nor prop
+ * elements returns all its properties, and sub-components are returned
+ * only if named by a comp element or allcomp is present.
+ *
+ * <p>A compiled projection may be shared but not written concurrently.
+ */
+public class CalDataProjection {
+  /** Content type for iCalendar text */
+  public static final String textCalendar = "text/calendar";
+
+  /** Content type for jCal */
+  public static final String jsonCalendar = "application/calendar+json";
+
+  /* Components we know how to descend into */
+  private static final String[] knownComponents = {
+          "VCALENDAR", "VEVENT", "VTODO", "VJOURNAL", "VAVAILABILITY",
+          "AVAILABLE", "VALARM", "VTIMEZONE", "STANDARD", "DAYLIGHT",
+          "VFREEBUSY"
+  };
+
+  /* Default value types - RFC 5545 section 3.8 */
+  private static final Map<String, String> defaultTypes = new HashMap<>();
+
+  static {
+    for (final String nm: new String[]{"DTSTART", "DTEND", "DUE",
+                                       "DTSTAMP", "CREATED",
+                                       "LAST-MODIFIED", "COMPLETED",
+                                       "RECURRENCE-ID", "EXDATE",
+                                       "RDATE"}) {
+      defaultTypes.put(nm, "date-time");
+    }
+
+    for (final String nm: new String[]{"SEQUENCE", "PRIORITY",
+                                       "PERCENT-COMPLETE", "REPEAT"}) {
+      defaultTypes.put(nm, "integer");
+    }
+
+    for (final String nm: new String[]{"ATTENDEE", "ORGANIZER"}) {
+      defaultTypes.put(nm, "cal-address");
+    }
+
+    for (final String nm: new String[]{"URL", "TZURL", "ATTACH"}) {
+      defaultTypes.put(nm, "uri");
+    }
+
+    defaultTypes.put("DURATION", "duration");
+    defaultTypes.put("TRIGGER", "duration");
+    defaultTypes.put("TZOFFSETFROM", "utc-offset");
+    defaultTypes.put("TZOFFSETTO", "utc-offset");
+    defaultTypes.put("RRULE", "recur");
+    defaultTypes.put("EXRULE", "recur");
+    defaultTypes.put("GEO", "float");
+    defaultTypes.put("FREEBUSY", "period");
+  }
+
+  /* Properties which may have a comma separated list of values */
+  private static final List<String> multiValued = List.of(
+          "EXDATE", "RDATE", "CATEGORIES", "RESOURCES", "FREEBUSY");
+
+  /* Numeric recurrence rule parts */
+  private static final List<String> numericRecurParts = List.of(
+          "count", "interval", "bysecond", "byminute", "byhour",
+          "bymonthday", "byyearday", "byweekno", "bymonth", "bysetpos");
+
+  private static final int flushSize = 4096;
+
+  private final String name;
+
+  private final boolean allProps;
+
+  /* Upper cased name -> true for novalue */
+  private final Map<String, Boolean> props;
+
+  private final boolean allComps;
+
+  /* Upper cased name -> projection */
+  private final Map<String, CalDataProjection> comps;
+
+  /* Output state */
+  private XmlEmit xml;
+  private String format;
+  private final StringBuilder buf = new StringBuilder();
+
+  /**
+   * @param contentType a content type
+   * @return true if we can write a projection as this type
+   */
+  public static boolean supports(final String contentType) {
+    return textCalendar.equals(contentType) ||
+            jsonCalendar.equals(contentType) ||
+            XcalTags.mimetype.equals(contentType);
+  }
+
+  /**
+   * @param comp the outer comp element - normally VCALENDAR
+   * @return true if all the named components are ones we handle
+   */
+  public static boolean supports(final CompType comp) {
+    boolean known = false;
+    final String nm = comp.getName().toUpperCase(Locale.ROOT);
+
+    for (final String kc: knownComponents) {
+      if (kc.equals(nm)) {
+        known = true;
+        break;
+      }
+    }
+
+    if (!known) {
+      return false;
+    }
+
+    for (final CompType sub: comp.getComp()) {
+      if (!supports(sub)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /** Compile the comp element.
+   *
+   * @param comp the outer comp element - normally VCALENDAR
+   * @return compiled projection
+   */
+  public static CalDataProjection compile(final CompType comp) {
+    return new CalDataProjection(comp);
+  }
+
+  private CalDataProjection(final CompType comp) {
+    name = comp.getName().toUpperCase(Locale.ROOT);
+
+    allProps = (comp.getAllprop() != null) || Util.isEmpty(comp.getProp());
+
+    if (allProps) {
+      props = null;
+    } else {
+      props = new HashMap<>();
+
+      for (final PropType p: comp.getProp()) {
+        props.put(p.getName().toUpperCase(Locale.ROOT),
+                  "yes".equalsIgnoreCase(p.getNovalue()));
+      }
+    }
+
+    allComps = comp.getAllcomp() != null;
+    comps = new HashMap<>();
+
+    for (final CompType sub: comp.getComp()) {
+      comps.put(sub.getName().toUpperCase(Locale.ROOT),
+                new CalDataProjection(sub));
+    }
+  }
+
+  /** Write the selected parts of the calendar.
+   *
+   * @param ical calendar to project
+   * @param xml where to write it
+   * @param contentType one of the supported types
+   * @throws WebdavException on error
+   */
+  public void write(final Calendar ical,
+                    final XmlEmit xml,
+                    final String contentType) throws WebdavException {
+    this.xml = xml;
+    format = contentType;
+    buf.setLength(0);
+
+    try {
+      if (XcalTags.mimetype.equals(format)) {
+        xml.openTag(xcalTag("icalendar"));
+      }
+
+      writeComponent("VCALENDAR", ical.getProperties().iterator(),
+                     ical.getComponents());
+
+      if (XcalTags.mimetype.equals(format)) {
+        xml.closeTag(xcalTag("icalendar"));
+      }
+
+      flush();
+    } catch (final WebdavException we) {
+      throw we;
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    } finally {
+      this.xml = null;
+    }
+  }
+
+  /* ====================================================================
+   *                   Private methods
+   * ==================================================================== */
+
+  private void writeComponent(final String compName,
+                              final Iterator<?> propIt,
+                              final ComponentList<?> subComps)
+          throws Throwable {
+    final String lname = compName.toLowerCase(Locale.ROOT);
+
+    switch (format) {
+      case textCalendar:
+        line().append("BEGIN:").append(compName);
+        endLine();
+        break;
+
+      case jsonCalendar:
+        append("[\"").append(lname).append("\",[");
+        break;
+
+      default:
+        flush();
+        xml.openTag(xcalTag(lname));
+        xml.openTag(xcalTag("properties"));
+    }
+
+    boolean first = true;
+
+    while (propIt.hasNext()) {
+      final Property p = (Property)propIt.next();
+      final Boolean novalue;
+
+      if (allProps) {
+        novalue = false;
+      } else {
+        novalue = props.get(p.getName());
+        if (novalue == null) {
+          continue;
+        }
+      }
+
+      if (jsonCalendar.equals(format) && !first) {
+        append(",");
+      }
+
+      first = false;
+      writeProperty(p, novalue);
+
+      if (buf.length() > flushSize) {
+        flush();
+      }
+    }
+
+    switch (format) {
+      case textCalendar:
+        break;
+
+      case jsonCalendar:
+        append("],[");
+        break;
+
+      default:
+        xml.closeTag(xcalTag("properties"));
+        xml.openTag(xcalTag("components"));
+    }
+
+    first = true;
+
+    if (subComps != null) {
+      for (final Object o: subComps) {
+        final Component c = (Component)o;
+        CalDataProjection cp = comps.get(c.getName());
+
+        if (cp == null) {
+          if (!allComps) {
+            continue;
+          }
+
+          cp = allOf(c.getName());
+          comps.put(c.getName(), cp);
+        }
+
+        if (jsonCalendar.equals(format) && !first) {
+          append(",");
+        }
+
+        first = false;
+
+        cp.xml = xml;
+        cp.format = format;
+
+        /* Share our buffer by flushing before and after */
+        flush();
+        cp.writeComponent(c.getName(),
+                          c.getProperties().iterator(),
+                          getSubComponents(c));
+        cp.flush();
+        cp.xml = null;
+      }
+    }
+
+    switch (format) {
+      case textCalendar:
+        line().append("END:").append(compName);
+        endLine();
+        break;
+
+      case jsonCalendar:
+        append("]]");
+        break;
+
+      default:
+        flush();
+        xml.closeTag(xcalTag("components"));
+        xml.closeTag(xcalTag(lname));
+    }
+  }
+
+  /* A projection returning everything for components under allcomp */
+  private static CalDataProjection allOf(final String compName) {
+    final CompType ct = new CompType();
+
+    ct.setName(compName);
+    ct.setAllcomp(new AllcompType());
+
+    return new CalDataProjection(ct);
+  }
+
+  private static ComponentList<?> getSubComponents(final Component c) {
+    if (c instanceof VEvent) {
+      return ((VEvent)c).getAlarms();
+    }
+
+    if (c instanceof VToDo) {
+      return ((VToDo)c).getAlarms();
+    }
+
+    if (c instanceof VAvailability) {
+      return ((VAvailability)c).getAvailable();
+    }
+
+    if (c instanceof VTimeZone) {
+      return ((VTimeZone)c).getObservances();
+    }
+
+    return null;
+  }
+
+  private void writeProperty(final Property p,
+                             final boolean novalue) throws Throwable {
+    if (textCalendar.equals(format)) {
+      if (novalue) {
+        final ParameterList pars = p.getParameters();
+
+        line().append(p.getName());
+
+        if ((pars != null) && (pars.size() > 0)) {
+          buf.append(pars.toString());
+        }
+
+        buf.append(':');
+      } else {
+        /* toString gives us the escaped value */
+        final String s = p.toString();
+
+        line().append(s, 0, trimEol(s));
+      }
+
+      endLine();
+      return;
+    }
+
+    final String pname = p.getName().toLowerCase(Locale.ROOT);
+    final String type = getType(p);
+    final List<String> values;
+
+    if (novalue) {
+      values = List.of("");
+    } else if (multiValued.contains(p.getName())) {
+      values = splitList(p.getValue());
+    } else {
+      values = List.of(p.getValue());
+    }
+
+    if (jsonCalendar.equals(format)) {
+      append("[");
+      jsonString(pname).append(",{");
+
+      boolean first = true;
+
+      final Iterator<?> it = p.getParameters().iterator();
+
+      while (it.hasNext()) {
+        final Parameter par = (Parameter)it.next();
+
+        if ("VALUE".equals(par.getName())) {
+          continue;
+        }
+
+        if (!first) {
+          append(",");
+        }
+        first = false;
+
+        jsonString(par.getName().toLowerCase(Locale.ROOT)).append(":");
+        jsonString(par.getValue());
+      }
+
+      append("},");
+      jsonString(type);
+
+      for (final String val: values) {
+        append(",");
+        jsonValue(pname, type, val, novalue);
+      }
+
+      append("]");
+      return;
+    }
+
+    /* xCal */
+    final QName ptag = xcalTag(pname);
+
+    xml.openTag(ptag);
+
+    boolean parsOpen = false;
+
+    final Iterator<?> it = p.getParameters().iterator();
+
+    while (it.hasNext()) {
+      final Parameter par = (Parameter)it.next();
+
+      if ("VALUE".equals(par.getName())) {
+        continue;
+      }
+
+      if (!parsOpen) {
+        xml.openTag(xcalTag("parameters"));
+        parsOpen = true;
+      }
+
+      final QName partag = xcalTag(par.getName().toLowerCase(Locale.ROOT));
+
+      xml.openTag(partag);
+      xml.property(xcalTag("text"), par.getValue());
+      xml.closeTag(partag);
+    }
+
+    if (parsOpen) {
+      xml.closeTag(xcalTag("parameters"));
+    }
+
+    for (final String val: values) {
+      xmlValue(pname, type, val, novalue);
+    }
+
+    xml.closeTag(ptag);
+  }
+
+  private void jsonValue(final String pname,
+                         final String type,
+                         final String val,
+                         final boolean novalue) {
+    if (novalue) {
+      append("\"\"");
+      return;
+    }
+
+    if ("geo".equals(pname)) {
+      final String[] ll = val.split(";");
+      append("[").append(ll[0]);
+      if (ll.length > 1) {
+        append(",").append(ll[1]);
+      }
+      append("]");
+      return;
+    }
+
+    switch (type) {
+      case "integer":
+      case "float":
+        append(val);
+        return;
+
+      case "boolean":
+        append(val.toLowerCase(Locale.ROOT));
+        return;
+
+      case "recur":
+        append("{");
+
+        boolean first = true;
+
+        for (final String part: val.split(";")) {
+          final int pos = part.indexOf('=');
+          if (pos < 0) {
+            continue;
+          }
+
+          final String rname = part.substring(0, pos).toLowerCase(Locale.ROOT);
+          final String[] rvals = part.substring(pos + 1).split(",");
+
+          if (!first) {
+            append(",");
+          }
+          first = false;
+
+          jsonString(rname).append(":");
+
+          if (rvals.length > 1) {
+            append("[");
+          }
+
+          for (int i = 0; i < rvals.length; i++) {
+            if (i > 0) {
+              append(",");
+            }
+
+            if (numericRecurParts.contains(rname)) {
+              append(rvals[i]);
+            } else if ("until".equals(rname)) {
+              jsonString(formatDate(rvals[i]));
+            } else {
+              jsonString(rvals[i]);
+            }
+          }
+
+          if (rvals.length > 1) {
+            append("]");
+          }
+        }
+
+        append("}");
+        return;
+
+      default:
+        jsonString(formatValue(type, val));
+    }
+  }
+
+  private void xmlValue(final String pname,
+                        final String type,
+                        final String val,
+                        final boolean novalue) throws Throwable {
+    if (novalue) {
+      xml.emptyTag(xcalTag(type));
+      return;
+    }
+
+    if ("geo".equals(pname)) {
+      final String[] ll = val.split(";");
+      xml.openTag(xcalTag("geo"));
+      xml.property(xcalTag("latitude"), ll[0]);
+      if (ll.length > 1) {
+        xml.property(xcalTag("longitude"), ll[1]);
+      }
+      xml.closeTag(xcalTag("geo"));
+      return;
+    }
+
+    if ("recur".equals(type)) {
+      xml.openTag(xcalTag("recur"));
+
+      for (final String part: val.split(";")) {
+        final int pos = part.indexOf('=');
+        if (pos < 0) {
+          continue;
+        }
+
+        final QName rtag = xcalTag(
+                part.substring(0, pos).toLowerCase(Locale.ROOT));
+
+        for (final String rval: part.substring(pos + 1).split(",")) {
+          if ("until".equals(rtag.getLocalPart())) {
+            xml.property(rtag, formatDate(rval));
+          } else {
+            xml.property(rtag, rval);
+          }
+        }
+      }
+
+      xml.closeTag(xcalTag("recur"));
+      return;
+    }
+
+    if ("period".equals(type)) {
+      final int pos = val.indexOf('/');
+      xml.openTag(xcalTag("period"));
+      xml.property(xcalTag("start"), formatDate(val.substring(0, pos)));
+
+      final String end = val.substring(pos + 1);
+      if (end.startsWith("P") || end.startsWith("-") ||
+              end.startsWith("+")) {
+        xml.property(xcalTag("duration"), end);
+      } else {
+        xml.property(xcalTag("end"), formatDate(end));
+      }
+
+      xml.closeTag(xcalTag("period"));
+      return;
+    }
+
+    xml.property(xcalTag(type), formatValue(type, val));
+  }
+
+  private static String getType(final Property p) {
+    final Parameter par = p.getParameter("VALUE");
+
+    if (par != null) {
+      return par.getValue().toLowerCase(Locale.ROOT);
+    }
+
+    final String type = defaultTypes.get(p.getName());
+
+    if (type == null) {
+      return "text";
+    }
+
+    return type;
+  }
+
+  private static String formatValue(final String type,
+                                    final String val) {
+    switch (type) {
+      case "date":
+      case "date-time":
+        return formatDate(val);
+
+      case "period":
+        final int pos = val.indexOf('/');
+        if (pos < 0) {
+          return val;
+        }
+
+        final String end = val.substring(pos + 1);
+
+        if (end.startsWith("P") || end.startsWith("-") ||
+                end.startsWith("+")) {
+          return formatDate(val.substring(0, pos)) + "/" + end;
+        }
+
+        return formatDate(val.substring(0, pos)) + "/" + formatDate(end);
+
+      case "utc-offset":
+        if (val.length() < 5) {
+          return val;
+        }
+
+        final StringBuilder sb = new StringBuilder(9);
+        sb.append(val, 0, 3).append(':').append(val, 3, 5);
+        if (val.length() >= 7) {
+          sb.append(':').append(val, 5, 7);
+        }
+
+        return sb.toString();
+
+      default:
+        return val;
+    }
+  }
+
+  /* 20200101 -> 2020-01-01, 20200101T100000Z -> 2020-01-01T10:00:00Z */
+  private static String formatDate(final String val) {
+    if ((val.length() < 8) || (val.indexOf('-') >= 0)) {
+      return val;
+    }
+
+    final StringBuilder sb = new StringBuilder(20);
+
+    sb.append(val, 0, 4).append('-')
+      .append(val, 4, 6).append('-')
+      .append(val, 6, 8);
+
+    if (val.length() >= 15) {
+      sb.append('T')
+        .append(val, 9, 11).append(':')
+        .append(val, 11, 13).append(':')
+        .append(val, 13, 15);
+      sb.append(val, 15, val.length());
+    }
+
+    return sb.toString();
+  }
+
+  /* Split on unescaped commas and remove text escapes */
+  private static List<String> splitList(final String val) {
+    final List<String> res = new ArrayList<>();
+    final StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < val.length(); i++) {
+      final char ch = val.charAt(i);
+
+      if ((ch == '\\') && (i + 1 < val.length())) {
+        sb.append(val.charAt(++i));
+        continue;
+      }
+
+      if (ch == ',') {
+        res.add(sb.toString());
+        sb.setLength(0);
+        continue;
+      }
+
+      sb.append(ch);
+    }
+
+    res.add(sb.toString());
+
+    return res;
+  }
+
+  private static int trimEol(final String s) {
+    int end = s.length();
+
+    while ((end > 0) &&
+            ((s.charAt(end - 1) == '\n') || (s.charAt(end - 1) == '\r'))) {
+      end--;
+    }
+
+    return end;
+  }
+
+  private static QName xcalTag(final String name) {
+    return new QName(XcalTags.namespace, name);
+  }
+
+  /* ---------------------- text output -------------------------------- */
+
+  private int lineStart;
+
+  private StringBuilder line() {
+    lineStart = buf.length();
+    return buf;
+  }
+
+  /* Fold the line just appended and terminate it */
+  private void endLine() throws Throwable {
+    ContentLines.fold(buf, lineStart);
+
+    if (buf.length() > flushSize) {
+      flush();
+    }
+  }
+
+  /* ---------------------- json output -------------------------------- */
+
+  private StringBuilder append(final String val) {
+    return buf.append(val);
+  }
+
+  private StringBuilder jsonString(final String val) {
+    buf.append('"');
+
+    for (int i = 0; i < val.length(); i++) {
+      final char ch = val.charAt(i);
+
+      switch (ch) {
+        case '"':
+          buf.append("\\\"");
+          break;
+        case '\\':
+          buf.append("\\\\");
+          break;
+        case '\n':
+          buf.append("\\n");
+          break;
+        case '\r':
+          buf.append("\\r");
+          break;
+        case '\t':
+          buf.append("\\t");
+          break;
+        default:
+          if (ch < 0x20) {
+            buf.append(String.format("\\u%04x", (int)ch));
+          } else {
+            buf.append(ch);
+          }
+      }
+    }
+
+    return buf.append('"');
+  }
+
+  private void flush() throws Throwable {
+    if (buf.length() == 0) {
+      return;
+    }
+
+    xml.value(buf.toString());
+    buf.setLength(0);
+  }
+}
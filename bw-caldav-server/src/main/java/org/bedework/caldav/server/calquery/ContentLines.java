@@ -0,0 +1,97 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.calquery;
+
+/** Folds iCalendar content lines as RFC 5545 3.1 requires: no line may be
+ * longer than 75 octets, excluding the line break, when UTF-8 encoded.
+ * Lines are only broken between characters so a multi-octet character is
+ * never split.
+ *
+ * <p>Used by everything here which writes icalendar text itself.
+ */
+final class ContentLines {
+  private static final int maxOctets = 75;
+
+  private ContentLines() {
+  }
+
+  /** Append the unfolded content line, folded and terminated.
+   *
+   * @param sb to append to
+   * @param line content line without the terminating CRLF
+   */
+  static void append(final StringBuilder sb,
+                     final CharSequence line) {
+    int octets = 0;
+    int max = maxOctets;
+
+    for (int i = 0; i < line.length(); i++) {
+      final char ch = line.charAt(i);
+      final int len = octets(ch);
+
+      if ((octets + len) > max) {
+        sb.append("\r\n ");
+        octets = 0;
+        max = maxOctets - 1; // The leading space counts
+      }
+
+      sb.append(ch);
+      octets += len;
+    }
+
+    sb.append("\r\n");
+  }
+
+  /** Fold and terminate the content line which starts at start and runs
+   * to the end of the buffer.
+   *
+   * @param sb holding the line
+   * @param start of the line
+   */
+  static void fold(final StringBuilder sb,
+                   final int start) {
+    final String line = sb.substring(start);
+
+    sb.setLength(start);
+    append(sb, line);
+  }
+
+  /* Octets in the UTF-8 encoding - a surrogate pair counts 4 for the
+     high and nothing for the low surrogate so we never fold between them.
+   */
+  private static int octets(final char ch) {
+    if (ch < 0x80) {
+      return 1;
+    }
+
+    if (ch < 0x800) {
+      return 2;
+    }
+
+    if (Character.isHighSurrogate(ch)) {
+      return 4;
+    }
+
+    if (Character.isLowSurrogate(ch)) {
+      return 0;
+    }
+
+    return 3;
+  }
+}
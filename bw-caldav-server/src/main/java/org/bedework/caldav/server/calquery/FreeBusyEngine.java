@@ -0,0 +1,935 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.calquery;
+
+import org.bedework.access.AccessPrincipal;
+import org.bedework.caldav.server.CalDAVCollection;
+import org.bedework.caldav.server.CalDAVEvent;
+import org.bedework.caldav.server.Organizer;
+import org.bedework.caldav.server.sysinterface.CalPrincipalInfo;
+import org.bedework.caldav.server.sysinterface.SysIntf;
+import org.bedework.caldav.server.sysinterface.SysIntf.IcalResultType;
+import org.bedework.caldav.server.sysinterface.SysIntf.SchedRecipientResult;
+import org.bedework.caldav.util.TimeRange;
+import org.bedework.util.calendar.ScheduleMethods;
+import org.bedework.util.jmx.ConfBase;
+import org.bedework.webdav.servlet.shared.WebdavException;
+
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Parameter;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.property.DateProperty;
+import net.fortuna.ical4j.model.property.FreeBusy;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Answers free-busy queries from merged busy intervals held per
+ * requesting principal and either a collection or a calendar user.
+ *
+ * <p>Collection entries answer free-busy REPORTs. Calendar user entries
+ * answer scheduling free-busy requests, whether they arrive as a POST to
+ * the outbox, over iSchedule or through calws, and the free-busy GET.
+ * The requesting principal and originator are part of the key as the
+ * backend may give them different views of the same calendar user.
+ *
+ * <p>On a miss we ask the backend for free-busy over a window at least
+ * windowDays long, aligned to whole days, and keep the periods for each
+ * FBTYPE as a sorted array of merged [start, end) pairs. Any query which
+ * falls inside the window is answered by slicing those arrays.
+ *
+ * <p>Entries are discarded when a change is made through this server to
+ * the collection or one of its ancestors or descendants. Calendar user
+ * entries are treated as entries for the user's home. Changes made
+ * elsewhere, e.g. scheduling messages delivered to another principal,
+ * are only seen when the entry expires so the engine is disabled by
+ * default and the ttl should be kept short.
+ *
+ * <p>Configuration and the cache are static so they apply whether or
+ * not the bean has been registered.
+ */
+public class FreeBusyEngine extends ConfBase
+        implements FreeBusyEngineMBean {
+  /* Name of the property holding the location of the config data */
+  public static final String confuriPname = "org.bedework.caldav.confuri";
+
+  private static final long millisPerDay = 24 * 60 * 60 * 1000L;
+
+  private static final DateTimeFormatter utcFormat =
+          DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+                           .withZone(ZoneOffset.UTC);
+
+  private static final String defaultFbtype = "BUSY";
+
+  /* Fetches free-busy covering the window from the backend */
+  private interface Loader {
+    Calendar load(TimeRange window) throws WebdavException;
+  }
+
+  /* Merged intervals for one principal and collection or calendar user */
+  private static class Entry {
+    /* Null if there is no local home for the calendar user */
+    private final String colPath;
+    private final long created;
+
+    /* The window we fetched */
+    private final long start;
+    private final long end;
+
+    /* Folded VCALENDAR and VFREEBUSY properties we pass through */
+    private final String calProps;
+    private final String fbProps;
+    private final String uid;
+
+    /* fbtype -> [start0, end0, start1, end1...] sorted and merged */
+    private final Map<String, long[]> periods;
+
+    Entry(final String colPath,
+          final long start,
+          final long end,
+          final String calProps,
+          final String fbProps,
+          final String uid,
+          final Map<String, long[]> periods) {
+      this.colPath = colPath;
+      this.start = start;
+      this.end = end;
+      this.calProps = calProps;
+      this.fbProps = fbProps;
+      this.uid = uid;
+      this.periods = periods;
+      created = System.currentTimeMillis();
+    }
+
+    boolean covers(final long qstart,
+                   final long qend) {
+      return (qstart >= start) && (qend <= end) &&
+              ((System.currentTimeMillis() - created) < (ttl * 1000L));
+    }
+
+    /* uid replaces the one we fetched if non-null */
+    String render(final long qstart,
+                  final long qend,
+                  final String uid) {
+      final StringBuilder sb = new StringBuilder(256);
+
+      sb.append("BEGIN:VCALENDAR\r\n");
+      sb.append(calProps);
+      sb.append("BEGIN:VFREEBUSY\r\n");
+      sb.append(fbProps);
+
+      if (uid != null) {
+        ContentLines.append(sb, "UID:" + uid);
+      } else if (this.uid != null) {
+        ContentLines.append(sb, "UID:" + this.uid);
+      }
+
+      ContentLines.append(sb, "DTSTAMP:" + utc(System.currentTimeMillis()));
+      ContentLines.append(sb, "DTSTART:" + utc(qstart));
+      ContentLines.append(sb, "DTEND:" + utc(qend));
+
+      for (final Map.Entry<String, long[]> me: periods.entrySet()) {
+        final String fb = slice(me.getValue(), qstart, qend);
+
+        if (fb == null) {
+          continue;
+        }
+
+        ContentLines.append(sb, "FREEBUSY;FBTYPE=" + me.getKey() + ":" + fb);
+      }
+
+      sb.append("END:VFREEBUSY\r\n");
+      sb.append("END:VCALENDAR\r\n");
+
+      return sb.toString();
+    }
+  }
+
+  /* Periods of one type as they come from the backend */
+  private static class Intervals {
+    private long[] starts = new long[16];
+    private long[] ends = new long[16];
+    private int num;
+
+    void add(final long start,
+             final long end) {
+      if (end <= start) {
+        return;
+      }
+
+      if (num == starts.length) {
+        starts = Arrays.copyOf(starts, num * 2);
+        ends = Arrays.copyOf(ends, num * 2);
+      }
+
+      starts[num] = start;
+      ends[num] = end;
+      num++;
+    }
+
+    /* The union of a set of intervals only depends on the sorted starts
+       and the sorted ends so we sort them separately and sweep.
+     */
+    long[] merge() {
+      Arrays.sort(starts, 0, num);
+      Arrays.sort(ends, 0, num);
+
+      final long[] res = new long[num * 2];
+      int r = 0;
+      int open = 0;
+      int e = 0;
+
+      for (int s = 0; s < num; s++) {
+        while (ends[e] < starts[s]) {
+          open--;
+          if (open == 0) {
+            res[r++] = ends[e];
+          }
+          e++;
+        }
+
+        if (open == 0) {
+          res[r++] = starts[s];
+        }
+        open++;
+      }
+
+      if (num > 0) {
+        res[r++] = ends[num - 1];
+      }
+
+      return Arrays.copyOf(res, r);
+    }
+  }
+
+  private static volatile boolean enabled;
+
+  private static volatile int maxEntries = 1000;
+
+  private static volatile int ttl = 60;
+
+  private static volatile int windowDays = 7;
+
+  private static final Map<String, Entry> cache =
+          new LinkedHashMap<>(16, 0.75f, true);
+
+  /* Bumped on every change so we don't store results fetched before it */
+  private static long generation;
+
+  private static long hits;
+  private static long misses;
+  private static long invalidations;
+
+  /**
+   */
+  public FreeBusyEngine() {
+    super(serviceName);
+
+    setConfigName(configName);
+
+    setConfigPname(confuriPname);
+  }
+
+  /**
+   * @return true if the engine is enabled
+   */
+  public static boolean isEnabled() {
+    return enabled && (maxEntries > 0) && (ttl > 0);
+  }
+
+  /** Return free-busy for the collection as a text/calendar object or
+   * null if the engine cannot answer the query. The caller should then
+   * ask the backend.
+   *
+   * @param sysi interface
+   * @param col collection - already dereferenced
+   * @param depth to go
+   * @param timeRange of the query
+   * @param principal href of current principal - may be null
+   * @return text/calendar VFREEBUSY or null
+   * @throws WebdavException on fatal error
+   */
+  public static String getFreeBusy(final SysIntf sysi,
+                                   final CalDAVCollection<?> col,
+                                   final int depth,
+                                   final TimeRange timeRange,
+                                   final String principal)
+          throws WebdavException {
+    if (!isEnabled() || !bounded(timeRange) ||
+            (col.getPath() == null)) {
+      return null;
+    }
+
+    return cached("col\t" + principal + "\t" + col.getPath() + "\t" + depth,
+                  col.getPath(),
+                  timeRange.getStart().getTime(),
+                  timeRange.getEnd().getTime(),
+                  null,
+                  window -> {
+                    final CalDAVEvent<?> ev =
+                            sysi.getFreeBusy(col, depth, window);
+                    if (ev == null) {
+                      return null;
+                    }
+
+                    return sysi.toCalendar(ev, false);
+                  });
+  }
+
+  /** Handle a free-busy GET for a calendar user. Writes the same
+   * response as SysIntf.getSpecialFreeBusy, from the cache if possible.
+   *
+   * @param sysi interface
+   * @param cua calendar user we want free-busy for
+   * @param recipients values of Recipient headers
+   * @param originator value of the Originator header
+   * @param tr time range of the query
+   * @param wtr for the response
+   * @throws WebdavException on fatal error
+   */
+  public static void getSpecialFreeBusy(final SysIntf sysi,
+                                        final String cua,
+                                        final Set<String> recipients,
+                                        final String originator,
+                                        final TimeRange tr,
+                                        final Writer wtr)
+          throws WebdavException {
+    String fb = null;
+
+    if (isEnabled() && bounded(tr) && (cua != null)) {
+      fb = cached("special\t" + principalHref(sysi) + "\t" + originator +
+                          "\t" + recipients + "\t" + cua,
+                  homePath(sysi, cua),
+                  tr.getStart().getTime(),
+                  tr.getEnd().getTime(),
+                  null,
+                  window -> {
+                    final StringWriter sw = new StringWriter();
+
+                    sysi.getSpecialFreeBusy(cua, recipients, originator,
+                                            window, sw);
+
+                    try {
+                      return new CalendarBuilder().build(
+                              new StringReader(sw.toString()));
+                    } catch (final Throwable t) {
+                      throw new WebdavException(t);
+                    }
+                  });
+    }
+
+    if (fb == null) {
+      sysi.getSpecialFreeBusy(cua, recipients, originator, tr, wtr);
+      return;
+    }
+
+    try {
+      wtr.write(fb);
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    }
+  }
+
+  /** Answer a scheduling free-busy request for one recipient, from the
+   * cache if possible. The request is not modified so may be shared by
+   * concurrent calls for different recipients.
+   *
+   * <p>If the SysIntf does not allow concurrent scheduling the backend is
+   * called with a request addressed only to this recipient.
+   *
+   * @param sysi interface
+   * @param ev the VFREEBUSY request
+   * @param originator of the request - null for none
+   * @param recipient the one to get free-busy for
+   * @param iSchedule true if this is from an ischedule request
+   * @return result for the recipient - never null
+   * @throws WebdavException on fatal error
+   */
+  public static SchedRecipientResult requestFreeBusy(
+          final SysIntf sysi,
+          final CalDAVEvent<?> ev,
+          final String originator,
+          final String recipient,
+          final boolean iSchedule) throws WebdavException {
+    if (!isEnabled()) {
+      return request(sysi, ev, recipient, iSchedule);
+    }
+
+    final Calendar reqCal = sysi.toCalendar(ev, false);
+    final Component vfb = reqCal.getComponent(Component.VFREEBUSY);
+    final long start = dateProperty(vfb, Property.DTSTART);
+    final long end = dateProperty(vfb, Property.DTEND);
+    final Organizer org = ev.getOrganizer();
+
+    if ((start < 0) || (end <= start) || (org == null)) {
+      return request(sysi, ev, recipient, iSchedule);
+    }
+
+    final String orgUri = org.getOrganizerUri();
+    final String uid = ev.getUid();
+    final SchedRecipientResult[] loaded = new SchedRecipientResult[1];
+
+    final String fb = cached(
+            "sched\t" + principalHref(sysi) + "\t" + orgUri + "\t" +
+                    originator + "\t" + recipient + "\t" + iSchedule,
+            homePath(sysi, recipient),
+            start, end, uid,
+            window -> {
+              final SchedRecipientResult srr = request(
+                      sysi,
+                      makeRequest(sysi, uid, orgUri, originator, recipient,
+                                  window),
+                      recipient, iSchedule);
+
+              loaded[0] = srr;
+
+              if ((srr.status != SchedRecipientResult.scheduleOk) ||
+                      (srr.freeBusy == null)) {
+                return null;
+              }
+
+              return sysi.toCalendar(srr.freeBusy, false);
+            });
+
+    if (fb == null) {
+      if (loaded[0] != null) {
+        return loaded[0];
+      }
+
+      return request(sysi, ev, recipient, iSchedule);
+    }
+
+    final SchedRecipientResult srr = new SchedRecipientResult();
+
+    srr.recipient = recipient;
+    srr.status = SchedRecipientResult.scheduleOk;
+    srr.freeBusy = sysi.fromIcal(null, new StringReader(fb),
+                                 "text/calendar",
+                                 IcalResultType.OneComponent,
+                                 false).getEvent();
+
+    return srr;
+  }
+
+  /** Discard any entries affected by a change to the given path.
+   *
+   * @param path of changed collection - null for everything
+   */
+  public static void invalidate(final String path) {
+    synchronized (cache) {
+      generation++;
+
+      if (cache.isEmpty()) {
+        return;
+      }
+
+      if (path == null) {
+        invalidations += cache.size();
+        cache.clear();
+        return;
+      }
+
+      final String p = trimSlash(path);
+
+      final Iterator<Entry> it = cache.values().iterator();
+      while (it.hasNext()) {
+        final String colPath = it.next().colPath;
+
+        if (colPath == null) {
+          continue;
+        }
+
+        final String cp = trimSlash(colPath);
+
+        if (cp.equals(p) ||
+                p.startsWith(cp + "/") ||
+                cp.startsWith(p + "/")) {
+          it.remove();
+          invalidations++;
+        }
+      }
+    }
+  }
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  @Override
+  public void setEnabled(final boolean val) {
+    enabled = val;
+
+    if (!val) {
+      flush();
+    }
+  }
+
+  @Override
+  public boolean getEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setMaxEntries(final int val) {
+    maxEntries = val;
+  }
+
+  @Override
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  @Override
+  public void setTtl(final int val) {
+    ttl = val;
+  }
+
+  @Override
+  public int getTtl() {
+    return ttl;
+  }
+
+  @Override
+  public void setWindowDays(final int val) {
+    windowDays = val;
+  }
+
+  @Override
+  public int getWindowDays() {
+    return windowDays;
+  }
+
+  @Override
+  public int getEntries() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  @Override
+  public long getHits() {
+    return hits;
+  }
+
+  @Override
+  public long getMisses() {
+    return misses;
+  }
+
+  @Override
+  public long getInvalidations() {
+    return invalidations;
+  }
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  @Override
+  public List<String> showStats() {
+    final List<String> res = new ArrayList<>();
+
+    synchronized (cache) {
+      res.add("entries: " + cache.size() + " of " + maxEntries);
+      res.add("hits: " + hits);
+      res.add("misses: " + misses);
+      res.add("invalidations: " + invalidations);
+    }
+
+    return res;
+  }
+
+  @Override
+  public void flush() {
+    synchronized (cache) {
+      generation++;
+      cache.clear();
+      hits = 0;
+      misses = 0;
+      invalidations = 0;
+    }
+  }
+
+  @Override
+  public String loadConfig() {
+    return "No config to load";
+  }
+
+  /* ========================================================================
+   * Private methods
+   * ======================================================================== */
+
+  private static boolean bounded(final TimeRange tr) {
+    return (tr != null) && (tr.getStart() != null) &&
+            (tr.getEnd() != null);
+  }
+
+  /* Render from the entry for key, loading it if needed. Null if the
+     loader gives us nothing.
+   */
+  private static String cached(final String key,
+                               final String colPath,
+                               final long start,
+                               final long end,
+                               final String uid,
+                               final Loader loader) throws WebdavException {
+    if (end <= start) {
+      return null;
+    }
+
+    final long gen;
+
+    synchronized (cache) {
+      final Entry ent = cache.get(key);
+
+      if ((ent != null) && ent.covers(start, end)) {
+        hits++;
+        return ent.render(start, end, uid);
+      }
+
+      misses++;
+      gen = generation;
+    }
+
+    final Entry ent = load(colPath, start, end, loader);
+
+    if (ent == null) {
+      return null;
+    }
+
+    synchronized (cache) {
+      if (gen == generation) {
+        cache.put(key, ent);
+
+        final Iterator<Entry> it = cache.values().iterator();
+        while ((cache.size() > maxEntries) && it.hasNext()) {
+          it.next();
+          it.remove();
+        }
+      }
+    }
+
+    return ent.render(start, end, uid);
+  }
+
+  private static Entry load(final String colPath,
+                            final long start,
+                            final long end,
+                            final Loader loader) throws WebdavException {
+    try {
+      final long wstart = Math.floorDiv(start, millisPerDay) * millisPerDay;
+      final long wend = Math.max(
+              Math.floorDiv(end + millisPerDay - 1, millisPerDay) *
+                      millisPerDay,
+              wstart + Math.max(windowDays, 1) * millisPerDay);
+
+      final Calendar cal = loader.load(
+              new TimeRange(utcDateTime(wstart), utcDateTime(wend)));
+      if (cal == null) {
+        return null;
+      }
+
+      final Component vfb = cal.getComponent(Component.VFREEBUSY);
+
+      if (vfb == null) {
+        return null;
+      }
+
+      final StringBuilder calProps = new StringBuilder();
+
+      for (final Property p: cal.getProperties()) {
+        if (Property.METHOD.equals(p.getName())) {
+          continue;
+        }
+
+        foldProperty(calProps, p);
+      }
+
+      final StringBuilder fbProps = new StringBuilder();
+      String uid = null;
+      final Map<String, Intervals> byType = new TreeMap<>();
+
+      for (final Property p: vfb.getProperties()) {
+        final String name = p.getName();
+
+        if (Property.DTSTAMP.equals(name) ||
+                Property.DTSTART.equals(name) ||
+                Property.DTEND.equals(name)) {
+          continue;
+        }
+
+        if (Property.UID.equals(name)) {
+          uid = p.getValue();
+          continue;
+        }
+
+        if (!Property.FREEBUSY.equals(name)) {
+          foldProperty(fbProps, p);
+          continue;
+        }
+
+        final Parameter fbtype = p.getParameter(Parameter.FBTYPE);
+        final String type;
+
+        if (fbtype == null) {
+          type = defaultFbtype;
+        } else {
+          type = fbtype.getValue();
+        }
+
+        final Intervals ivs = byType.computeIfAbsent(type,
+                                                     k -> new Intervals());
+
+        for (final Period per: ((FreeBusy)p).getPeriods()) {
+          ivs.add(per.getStart().getTime(), per.getEnd().getTime());
+        }
+      }
+
+      final Map<String, long[]> periods = new TreeMap<>();
+
+      for (final Map.Entry<String, Intervals> me: byType.entrySet()) {
+        periods.put(me.getKey(), me.getValue().merge());
+      }
+
+      return new Entry(colPath, wstart, wend,
+                       calProps.toString(), fbProps.toString(), uid,
+                       periods);
+    } catch (final WebdavException we) {
+      throw we;
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    }
+  }
+
+  /* A request like ev but for the one recipient over the window */
+  private static CalDAVEvent<?> makeRequest(final SysIntf sysi,
+                                            final String uid,
+                                            final String orgUri,
+                                            final String originator,
+                                            final String recipient,
+                                            final TimeRange window)
+          throws WebdavException {
+    final StringBuilder sb = new StringBuilder(256);
+
+    sb.append("BEGIN:VCALENDAR\r\n");
+    sb.append("VERSION:2.0\r\n");
+    sb.append("PRODID:-//Bedework//CalDAV free-busy//EN\r\n");
+    sb.append("METHOD:REQUEST\r\n");
+    sb.append("BEGIN:VFREEBUSY\r\n");
+
+    if (uid != null) {
+      ContentLines.append(sb, "UID:" + uid);
+    }
+
+    ContentLines.append(sb, "DTSTAMP:" + utc(System.currentTimeMillis()));
+    ContentLines.append(sb, "DTSTART:" + utc(window.getStart().getTime()));
+    ContentLines.append(sb, "DTEND:" + utc(window.getEnd().getTime()));
+    ContentLines.append(sb, "ORGANIZER:" + orgUri);
+    ContentLines.append(sb, "ATTENDEE:" + recipient);
+    sb.append("END:VFREEBUSY\r\n");
+    sb.append("END:VCALENDAR\r\n");
+
+    final CalDAVEvent<?> req =
+            sysi.fromIcal(null, new StringReader(sb.toString()),
+                          "text/calendar",
+                          IcalResultType.OneComponent,
+                          false).getEvent();
+
+    final Set<String> recipients = new TreeSet<>();
+    recipients.add(recipient);
+
+    req.setRecipients(recipients);
+    req.setScheduleMethod(ScheduleMethods.methodTypeRequest);
+
+    if (originator != null) {
+      req.setOriginator(originator);
+    }
+
+    return req;
+  }
+
+  /* Ask the backend for one recipient of ev */
+  private static SchedRecipientResult request(final SysIntf sysi,
+                                              final CalDAVEvent<?> ev,
+                                              final String recipient,
+                                              final boolean iSchedule)
+          throws WebdavException {
+    if (sysi.allowsConcurrentScheduling()) {
+      return sysi.requestFreeBusy(ev, recipient, iSchedule);
+    }
+
+    SchedRecipientResult res = null;
+
+    for (final SchedRecipientResult srr:
+            sysi.requestFreeBusy(ev, iSchedule)) {
+      if (recipient.equals(srr.recipient)) {
+        return srr;
+      }
+
+      res = srr;
+    }
+
+    if ((res != null) && (ev.getRecipients().size() == 1)) {
+      return res;
+    }
+
+    res = new SchedRecipientResult();
+    res.recipient = recipient;
+    res.status = SchedRecipientResult.scheduleError;
+
+    return res;
+  }
+
+  private static String principalHref(final SysIntf sysi) {
+    final AccessPrincipal p = sysi.getPrincipal();
+
+    if (p == null) {
+      return null;
+    }
+
+    return p.getPrincipalRef();
+  }
+
+  /* Home of the calendar user or null if not local */
+  private static String homePath(final SysIntf sysi,
+                                 final String cua) {
+    try {
+      final AccessPrincipal p = sysi.caladdrToPrincipal(cua);
+
+      if (p == null) {
+        return null;
+      }
+
+      final CalPrincipalInfo cpi = sysi.getCalPrincipalInfo(p);
+
+      if (cpi == null) {
+        return null;
+      }
+
+      return cpi.userHomePath;
+    } catch (final WebdavException we) {
+      return null;
+    }
+  }
+
+  /* Millis for the property or -1 */
+  private static long dateProperty(final Component comp,
+                                   final String name) {
+    if (comp == null) {
+      return -1;
+    }
+
+    final Property p = comp.getProperty(name);
+
+    if (!(p instanceof DateProperty) ||
+            (((DateProperty)p).getDate() == null)) {
+      return -1;
+    }
+
+    return ((DateProperty)p).getDate().getTime();
+  }
+
+  /* Return the periods which overlap the range clipped to it or null */
+  private static String slice(final long[] ivs,
+                              final long qstart,
+                              final long qend) {
+    final int num = ivs.length / 2;
+
+    /* Find the first interval ending after the start */
+    int lo = 0;
+    int hi = num;
+
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+
+      if (ivs[(mid * 2) + 1] <= qstart) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+
+    StringBuilder sb = null;
+
+    for (int i = lo; (i < num) && (ivs[i * 2] < qend); i++) {
+      if (sb == null) {
+        sb = new StringBuilder();
+      } else {
+        sb.append(',');
+      }
+
+      sb.append(utc(Math.max(ivs[i * 2], qstart)));
+      sb.append('/');
+      sb.append(utc(Math.min(ivs[(i * 2) + 1], qend)));
+    }
+
+    if (sb == null) {
+      return null;
+    }
+
+    return sb.toString();
+  }
+
+  private static void foldProperty(final StringBuilder sb,
+                                   final Property p) {
+    String s = p.toString();
+
+    if (s.endsWith("\r\n")) {
+      s = s.substring(0, s.length() - 2);
+    }
+
+    ContentLines.append(sb, s);
+  }
+
+  private static String utc(final long millis) {
+    return utcFormat.format(Instant.ofEpochMilli(millis));
+  }
+
+  private static DateTime utcDateTime(final long millis) {
+    final DateTime dt = new DateTime(millis);
+    dt.setUtc(true);
+
+    return dt;
+  }
+
+  private static String trimSlash(final String path) {
+    if ((path.length() > 1) && path.endsWith("/")) {
+      return path.substring(0, path.length() - 1);
+    }
+
+    return path;
+  }
+}
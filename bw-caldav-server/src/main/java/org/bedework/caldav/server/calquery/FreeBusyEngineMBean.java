@@ -0,0 +1,123 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.calquery;
+
+import org.bedework.util.jmx.ConfBaseMBean;
+import org.bedework.util.jmx.MBeanInfo;
+
+import java.util.List;
+
+/** Configure and monitor the free/busy interval cache.
+ */
+public interface FreeBusyEngineMBean extends ConfBaseMBean {
+  static final String configName = "FreeBusyEngine";
+
+  static final String serviceName =
+          "org.bedework.caldav:service=" + configName;
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  /**
+   * @param val true to answer free-busy queries from cached intervals
+   */
+  void setEnabled(boolean val);
+
+  /**
+   * @return true if we answer free-busy queries from cached intervals
+   */
+  @MBeanInfo("True if free-busy queries are answered from cached intervals")
+  boolean getEnabled();
+
+  /**
+   * @param val max number of cached principal/collection or calendar user entries
+   */
+  void setMaxEntries(int val);
+
+  /**
+   * @return max number of cached principal/collection or calendar user entries
+   */
+  @MBeanInfo("Max number of cached principal/collection or calendar user entries")
+  int getMaxEntries();
+
+  /**
+   * @param val seconds an entry may be used for
+   */
+  void setTtl(int val);
+
+  /**
+   * @return seconds an entry may be used for
+   */
+  @MBeanInfo("Seconds an entry may be used for. Bounds the staleness " +
+          "caused by changes made elsewhere, e.g. by scheduling")
+  int getTtl();
+
+  /**
+   * @param val minimum number of days fetched from the backend
+   */
+  void setWindowDays(int val);
+
+  /**
+   * @return minimum number of days fetched from the backend
+   */
+  @MBeanInfo("Minimum number of days fetched from the backend on a miss")
+  int getWindowDays();
+
+  /**
+   * @return number of entries
+   */
+  @MBeanInfo("Number of cached entries")
+  int getEntries();
+
+  /**
+   * @return number of hits
+   */
+  @MBeanInfo("Number of queries answered from cached intervals")
+  long getHits();
+
+  /**
+   * @return number of misses
+   */
+  @MBeanInfo("Number of queries passed to the backend")
+  long getMisses();
+
+  /**
+   * @return number of invalidated entries
+   */
+  @MBeanInfo("Number of entries discarded because of a change")
+  long getInvalidations();
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  /** Display the statistics
+   *
+   * @return list of formatted statistics
+   */
+  @MBeanInfo("Show the cache statistics")
+  List<String> showStats();
+
+  /** Empty the cache
+   *
+   */
+  @MBeanInfo("Empty the cache and reset statistics")
+  void flush();
+}
@@ -72,6 +72,13 @@ public class FreeBusyQuery implements Logged {
     }
   }
 
+  /**
+   * @return the parsed time range - null before parse
+   */
+  public TimeRange getTimeRange() {
+    return timeRange;
+  }
+
   /**
    * @param sysi interface
    * @param col collection
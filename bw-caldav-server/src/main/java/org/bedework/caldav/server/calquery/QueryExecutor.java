@@ -0,0 +1,416 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.calquery;
+
+import org.bedework.caldav.server.sysinterface.SysIntf;
+import org.bedework.caldav.server.sysinterface.SysIntfFactory;
+import org.bedework.util.jmx.ConfBase;
+import org.bedework.webdav.servlet.shared.WebdavException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Runs a number of independent queries for a single request on a shared
+ * pool of threads. The pool size is the global cap, the parallelism is
+ * the number of queries a single request may have outstanding.
+ *
+ * <p>Results are always delivered in the order the tasks were supplied
+ * whatever order they complete in. Each is delivered as soon as it and
+ * all before it have completed and is not referenced once handled.
+ *
+ * <p>Each task holds the SysIntf it uses so that it is not recycled for
+ * another request while the task runs. No task is left running once
+ * invokeOrdered returns - on an error outstanding tasks are cancelled
+ * and waited for - so the SysIntf may be closed afterwards.
+ *
+ * <p>Concurrent execution is disabled by default. Configuration is static
+ * so it applies whether or not the bean has been registered.
+ */
+public class QueryExecutor extends ConfBase
+        implements QueryExecutorMBean {
+  /* Name of the property holding the location of the config data */
+  public static final String confuriPname = "org.bedework.caldav.confuri";
+
+  /** Called with each result in task order
+   *
+   * @param <T> result type
+   */
+  public interface ResultHandler<T> {
+    /**
+     * @param index of the task
+     * @param result of the task
+     * @throws WebdavException on error - terminates processing
+     */
+    void handle(int index, T result) throws WebdavException;
+  }
+
+  private static volatile boolean enabled;
+
+  private static volatile int parallelism = 4;
+
+  private static volatile int maxThreads = 16;
+
+  private static ThreadPoolExecutor executor;
+
+  private static final ThreadLocal<Boolean> inExecutor =
+          ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+  private static final LongAdder concurrentRequests = new LongAdder();
+  private static final LongAdder concurrentQueries = new LongAdder();
+
+  /**
+   */
+  public QueryExecutor() {
+    super(serviceName);
+
+    setConfigName(configName);
+
+    setConfigPname(confuriPname);
+  }
+
+  /**
+   * @return true if concurrent execution is enabled
+   */
+  public static boolean isEnabled() {
+    return enabled && (parallelism > 1) && (maxThreads > 1);
+  }
+
+  /**
+   * @return true if called from one of our tasks
+   */
+  public static boolean inExecutor() {
+    return inExecutor.get();
+  }
+
+  /** Run the tasks and pass each result to the handler in task order.
+   * If concurrent execution is disabled or there is only one task they
+   * are run in the current thread.
+   *
+   * <p>Tasks must not touch state belonging to the request other than
+   * that they were explicitly given.
+   *
+   * @param sysi used by the tasks - held until each task is done
+   * @param tasks to run
+   * @param handler for results
+   * @param <T> result type
+   * @throws WebdavException from a task or the handler
+   */
+  public static <T> void invokeOrdered(final SysIntf sysi,
+                                       final List<Callable<T>> tasks,
+                                       final ResultHandler<T> handler)
+          throws WebdavException {
+    /* A task which itself calls us runs its tasks inline. Waiting on the
+       pool from inside the pool could use up every thread. */
+    if (!isEnabled() || (tasks.size() < 2) || inExecutor.get()) {
+      for (int i = 0; i < tasks.size(); i++) {
+        handler.handle(i, call(tasks.get(i)));
+      }
+
+      return;
+    }
+
+    concurrentRequests.increment();
+
+    final ThreadPoolExecutor exec = getExecutor();
+    final int window = parallelism;
+    final List<Future<T>> futures = new ArrayList<>(tasks.size());
+    final List<Pending<T>> pending = new ArrayList<>(tasks.size());
+
+    try {
+      /* Keep at most window tasks outstanding - submit the next as we
+         consume each result.
+       */
+      for (int i = 0; (i < window) && (i < tasks.size()); i++) {
+        submit(exec, sysi, tasks.get(i), futures, pending);
+      }
+
+      for (int i = 0; i < tasks.size(); i++) {
+        final T res = get(futures.get(i));
+
+        // Done with it - don't hold on to the result
+        futures.set(i, null);
+        pending.set(i, null);
+
+        if (futures.size() < tasks.size()) {
+          submit(exec, sysi, tasks.get(futures.size()), futures, pending);
+        }
+
+        concurrentQueries.increment();
+        handler.handle(i, res);
+      }
+    } finally {
+      /* Only reached with tasks outstanding on an error. Cancel them
+         all before waiting for any.
+       */
+      for (int i = 0; i < futures.size(); i++) {
+        final Future<T> f = futures.get(i);
+
+        if (f != null) {
+          f.cancel(true);
+          pending.get(i).dropIfQueued();
+        }
+      }
+
+      for (final Pending<T> p: pending) {
+        if (p != null) {
+          p.awaitEnd();
+        }
+      }
+    }
+  }
+
+  /** Stop the executor. A new one is created if needed.
+   */
+  public static void shutdown() {
+    synchronized (QueryExecutor.class) {
+      if (executor != null) {
+        executor.shutdownNow();
+        executor = null;
+      }
+    }
+  }
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  @Override
+  public void setEnabled(final boolean val) {
+    enabled = val;
+  }
+
+  @Override
+  public boolean getEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setParallelism(final int val) {
+    parallelism = val;
+  }
+
+  @Override
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  @Override
+  public void setMaxThreads(final int val) {
+    synchronized (QueryExecutor.class) {
+      maxThreads = val;
+
+      if ((executor != null) && (val > 0)) {
+        if (val > executor.getMaximumPoolSize()) {
+          executor.setMaximumPoolSize(val);
+          executor.setCorePoolSize(val);
+        } else {
+          executor.setCorePoolSize(val);
+          executor.setMaximumPoolSize(val);
+        }
+      }
+    }
+  }
+
+  @Override
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  @Override
+  public long getConcurrentRequests() {
+    return concurrentRequests.sum();
+  }
+
+  @Override
+  public long getConcurrentQueries() {
+    return concurrentQueries.sum();
+  }
+
+  @Override
+  public int getQueued() {
+    synchronized (QueryExecutor.class) {
+      if (executor == null) {
+        return 0;
+      }
+
+      return executor.getQueue().size();
+    }
+  }
+
+  @Override
+  public String loadConfig() {
+    return "No config to load";
+  }
+
+  /* ========================================================================
+   * Private methods
+   * ======================================================================== */
+
+  private static final int queued = 0;
+  private static final int running = 1;
+  private static final int done = 2;
+
+  private static class Pending<T> implements Callable<T> {
+    final SysIntf sysi;
+    final Callable<T> task;
+
+    /* Whoever moves it out of queued is responsible for the hold */
+    final AtomicInteger state = new AtomicInteger(queued);
+
+    /* Counted down when the task will no longer use the SysIntf */
+    final CountDownLatch ended = new CountDownLatch(1);
+
+    Pending(final SysIntf sysi,
+            final Callable<T> task) {
+      this.sysi = sysi;
+      this.task = task;
+    }
+
+    @Override
+    public T call() throws Exception {
+      if (!state.compareAndSet(queued, running)) {
+        return null;
+      }
+
+      try {
+        return task.call();
+      } finally {
+        state.set(done);
+        unhold();
+        ended.countDown();
+      }
+    }
+
+    /* Called when cancelled - the task will not run if still queued */
+    void dropIfQueued() {
+      if (state.compareAndSet(queued, done)) {
+        unhold();
+        ended.countDown();
+      }
+    }
+
+    /* Interrupts are ignored - the caller may close the SysIntf as soon
+       as we return - but preserved.
+     */
+    void awaitEnd() {
+      boolean interrupted = false;
+
+      try {
+        while (true) {
+          try {
+            ended.await();
+            return;
+          } catch (final InterruptedException ie) {
+            interrupted = true;
+          }
+        }
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    private void unhold() {
+      if (sysi != null) {
+        SysIntfFactory.unhold(sysi);
+      }
+    }
+  }
+
+  private static <T> void submit(final ThreadPoolExecutor exec,
+                                 final SysIntf sysi,
+                                 final Callable<T> task,
+                                 final List<Future<T>> futures,
+                                 final List<Pending<T>> pending) {
+    final Pending<T> p = new Pending<>(sysi, task);
+
+    if (sysi != null) {
+      SysIntfFactory.hold(sysi);
+    }
+
+    try {
+      futures.add(exec.submit(p));
+    } catch (final RuntimeException re) {
+      p.dropIfQueued();
+      throw re;
+    }
+
+    pending.add(p);
+  }
+
+  private static ThreadPoolExecutor getExecutor() {
+    synchronized (QueryExecutor.class) {
+      if (executor == null) {
+        final AtomicInteger threadNum = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                                          60, TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<>(),
+                                          r -> {
+          final Thread t = new Thread(() -> {
+            inExecutor.set(Boolean.TRUE);
+            r.run();
+          }, "caldav-query-" + threadNum.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+      }
+
+      return executor;
+    }
+  }
+
+  private static <T> T call(final Callable<T> task) throws WebdavException {
+    try {
+      return task.call();
+    } catch (final WebdavException we) {
+      throw we;
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    }
+  }
+
+  private static <T> T get(final Future<T> f) throws WebdavException {
+    try {
+      return f.get();
+    } catch (final InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new WebdavException(ie);
+    } catch (final ExecutionException ee) {
+      final Throwable t = ee.getCause();
+
+      if (t instanceof WebdavException) {
+        throw (WebdavException)t;
+      }
+
+      throw new WebdavException(t);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.calquery;
+
+import org.bedework.util.jmx.ConfBaseMBean;
+import org.bedework.util.jmx.MBeanInfo;
+
+/** Configure and monitor concurrent execution of calendar queries.
+ */
+public interface QueryExecutorMBean extends ConfBaseMBean {
+  static final String configName = "QueryExecutor";
+
+  static final String serviceName =
+          "org.bedework.caldav:service=" + configName;
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  /**
+   * @param val true to query calendar collections concurrently
+   */
+  void setEnabled(boolean val);
+
+  /**
+   * @return true if we query calendar collections concurrently
+   */
+  @MBeanInfo("True if depth infinity queries run against calendar " +
+          "collections concurrently")
+  boolean getEnabled();
+
+  /**
+   * @param val max number of concurrent collection queries per request
+   */
+  void setParallelism(int val);
+
+  /**
+   * @return max number of concurrent collection queries per request
+   */
+  @MBeanInfo("Max number of concurrent collection queries per request")
+  int getParallelism();
+
+  /**
+   * @param val max number of query threads for all requests
+   */
+  void setMaxThreads(int val);
+
+  /**
+   * @return max number of query threads for all requests
+   */
+  @MBeanInfo("Max number of query threads shared by all requests")
+  int getMaxThreads();
+
+  /**
+   * @return number of requests executed concurrently
+   */
+  @MBeanInfo("Number of requests which queried collections concurrently")
+  long getConcurrentRequests();
+
+  /**
+   * @return number of collection queries run by the executor
+   */
+  @MBeanInfo("Number of collection queries run by the executor")
+  long getConcurrentQueries();
+
+  /**
+   * @return number of collection queries currently waiting for a thread
+   */
+  @MBeanInfo("Number of collection queries waiting for a thread")
+  int getQueued();
+}
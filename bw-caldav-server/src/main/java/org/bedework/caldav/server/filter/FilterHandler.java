@@ -22,14 +22,14 @@ import org.bedework.caldav.server.CalDAVCollection;
 import org.bedework.caldav.server.CalDAVEvent;
 import org.bedework.caldav.server.CaldavBwNode;
 import org.bedework.caldav.server.CaldavComponentNode;
+import org.bedework.caldav.server.sysinterface.EntityTag;
 import org.bedework.caldav.server.sysinterface.RetrievalMode;
-import org.bedework.caldav.util.filter.FilterUtil;
+import org.bedework.caldav.util.filter.FilterBase;
+import org.bedework.caldav.util.filter.FilterMatcher;
 import org.bedework.caldav.util.filter.parse.EventQuery;
 import org.bedework.caldav.util.filter.parse.Filters;
-import org.bedework.util.calendar.IcalDefs;
 import org.bedework.util.logging.BwLogger;
 import org.bedework.util.logging.Logged;
-import org.bedework.webdav.servlet.common.WebdavUtils;
 import org.bedework.webdav.servlet.shared.WebdavBadRequest;
 import org.bedework.webdav.servlet.shared.WebdavException;
 import org.bedework.webdav.servlet.shared.WebdavForbidden;
@@ -37,11 +37,11 @@ import org.bedework.webdav.servlet.shared.WebdavNsNode;
 
 import ietf.params.xml.ns.caldav.CompFilterType;
 import ietf.params.xml.ns.caldav.FilterType;
-import ietf.params.xml.ns.caldav.PropFilterType;
-import net.fortuna.ical4j.model.Component;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.servlet.http.HttpServletResponse;
@@ -192,6 +192,87 @@ public class FilterHandler implements Logged {
     }
   }
 
+  /** As query but returns an iterator over the results so that they may
+   * be processed one at a time.
+   *
+   * @param wdnode    WebdavNsNode defining root of search
+   * @param retrieveList   If non-null limit required fields.
+   * @param retrieveRecur  How we retrieve recurring events
+   * @return Iterator over event objects - never null
+   * @throws WebdavException
+   */
+  public Iterator<CalDAVEvent<?>> queryIterator(final CaldavBwNode wdnode,
+                                                final List<String> retrieveList,
+                                                final RetrievalMode retrieveRecur) throws WebdavException {
+    try {
+      eventq = Filters.getQuery(f);
+
+      final CalDAVCollection<?> c =
+              (CalDAVCollection<?>)wdnode.getCollection(false);
+      if (c == null) {
+        return Collections.emptyIterator();
+      }
+
+      return wdnode.getSysi().getEventsIterator(c,
+                                                eventq.filter,
+                                                retrieveList,
+                                                retrieveRecur);
+    } catch (final WebdavBadRequest | WebdavForbidden wd) {
+      throw wd;
+    } catch (final Throwable t) {
+      error(t);
+      throw new WebdavException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  /** As query but returns only the names and tags of the matching
+   * entities. Returns null if that is not possible, e.g. we need the
+   * entities to carry out post filtering.
+   *
+   * @param wdnode    WebdavNsNode defining root of search
+   * @return tags or null if the full query is needed
+   * @throws WebdavException
+   */
+  public Collection<EntityTag> queryTags(final CaldavBwNode wdnode)
+          throws WebdavException {
+    try {
+      eventq = Filters.getQuery(f);
+
+      if (eventq.postFilter) {
+        return null;
+      }
+
+      final CalDAVCollection<?> c =
+              (CalDAVCollection<?>)wdnode.getCollection(false);
+      if (c == null) {
+        return Collections.emptyList();
+      }
+
+      if (c.isAlias()) {
+        // Results are named by the target collection
+        return null;
+      }
+
+      return wdnode.getSysi().getEntityTags(c, eventq.filter);
+    } catch (final WebdavBadRequest | WebdavForbidden wd) {
+      throw wd;
+    } catch (final Throwable t) {
+      error(t);
+      throw new WebdavException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  /**
+   * @return the filter from the last query or null
+   */
+  public FilterBase getQueryFilter() {
+    if (eventq == null) {
+      return null;
+    }
+
+    return eventq.filter;
+  }
+
   /** Carry out any postfiltering on the collection of initialised nodes,
    *
    * @param nodes     Collection of initialised CaldavBwNode
@@ -208,50 +289,48 @@ public class FilterHandler implements Logged {
       trace("post filtering needed");
     }
 
-    CompFilterType cfltr = f.getCompFilter();
-
-    // Currently only handle VCALENDAR for top level.
-    if (!"VCALENDAR".equals(cfltr.getName())) {
-      return new ArrayList<>();
-    }
-
     ArrayList<WebdavNsNode> filtered = new ArrayList<>();
 
     for (WebdavNsNode node: nodes) {
-      CaldavComponentNode curnode;
-
-      if (!(node instanceof CaldavComponentNode)) {
-        // Cannot match to anything - don't pass it?
-        continue;
+      if (postFilter(node)) {
+        filtered.add(node);
       }
+    }
 
-      curnode = (CaldavComponentNode)node;
-
-      int entityType = curnode.getEvent().getEntityType();
+    return filtered;
+  }
 
-      Collection<PropFilterType> pfs = null;
+  /** Carry out any postfiltering on a single initialised node.
+   *
+   * @param node     initialised CaldavBwNode
+   * @return true if the node passes the filter
+   * @throws WebdavException
+   */
+  public boolean postFilter(final WebdavNsNode node) throws WebdavException {
+    if (!eventq.postFilter) {
+      return true;
+    }
 
-      if (entityType == IcalDefs.entityTypeEvent) {
-        pfs = eventq.eventFilters;
-      } else if (entityType == IcalDefs.entityTypeTodo) {
-        pfs = eventq.todoFilters;
-      } else if (entityType == IcalDefs.entityTypeJournal) {
-        pfs = eventq.journalFilters;
-      }
+    CompFilterType cfltr = f.getCompFilter();
 
-      if (!WebdavUtils.emptyCollection(pfs)) {
-        Component comp = curnode.getComponent();
+    // Currently only handle VCALENDAR for top level.
+    if (!"VCALENDAR".equals(cfltr.getName())) {
+      return false;
+    }
 
-        for (PropFilterType pf: pfs) {
-          if (FilterUtil.filter(pf, comp)) {
-            filtered.add(curnode);
-            break;
-          }
-        }
-      }
+    if (!(node instanceof CaldavComponentNode)) {
+      // Cannot match to anything - don't pass it?
+      return false;
     }
 
-    return filtered;
+    CaldavComponentNode curnode = (CaldavComponentNode)node;
+
+    int entityType = curnode.getEvent().getEntityType();
+
+    /* Test the master and any overrides */
+    return FilterMatcher.matchInstances(eventq.getPostFilter(entityType),
+                                        curnode.getIcal(),
+                                        entityType);
   }
 
   /* ====================================================================
@@ -20,6 +20,7 @@ package org.bedework.caldav.server.get;
 
 import org.bedework.caldav.server.CaldavBWIntf;
 import org.bedework.caldav.server.RequestPars;
+import org.bedework.caldav.server.calquery.FreeBusyEngine;
 import org.bedework.caldav.server.sysinterface.CalDAVAuthProperties;
 import org.bedework.caldav.util.ParseUtil;
 import org.bedework.caldav.util.TimeRange;
@@ -94,9 +95,9 @@ public class FreeBusyGetHandler extends GetHandler {
       resp.setContentType("text/calendar;charset=utf-8");
       recipients.add(cua);
 
-      getSysi().getSpecialFreeBusy(cua, recipients,
-                                   originator,
-                                   tr, resp.getWriter());
+      FreeBusyEngine.getSpecialFreeBusy(getSysi(), cua, recipients,
+                                        originator,
+                                        tr, resp.getWriter());
     } catch (final WebdavForbidden wdf) {
       resp.setStatus(HttpServletResponse.SC_FORBIDDEN);
     } catch (final WebdavException wde) {
@@ -20,6 +20,7 @@ package org.bedework.caldav.server.get;
 
 import org.bedework.caldav.server.CaldavBWIntf;
 import org.bedework.caldav.server.RequestPars;
+import org.bedework.caldav.server.scheduling.IscheduleKeys;
 import org.bedework.caldav.server.sysinterface.CalDAVAuthProperties;
 import org.bedework.util.misc.Util;
 import org.bedework.util.xml.tagdefs.IscheduleTags;
@@ -27,7 +28,7 @@ import org.bedework.webdav.servlet.shared.WebdavException;
 
 import org.apache.commons.codec.binary.Base64;
 
-import java.io.Writer;
+import java.io.StringWriter;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -57,7 +58,7 @@ public class IscheduleGetHandler extends GetHandler {
         final String query = req.getParameter("action");
 
         if (Util.equalsString(query, "capabilities")) {
-          doCapabilities(resp);
+          doCapabilities(req, resp);
           return;
         }
 
@@ -72,7 +73,7 @@ public class IscheduleGetHandler extends GetHandler {
           return;
         }
 
-        makeDomainKey(resp, pe[1], pe[2]);
+        makeDomainKey(req, resp, pe[1], pe[2]);
         return;
       }
 
@@ -85,10 +86,19 @@ public class IscheduleGetHandler extends GetHandler {
     }
   }
 
-  private void makeDomainKey(final HttpServletResponse resp,
+  private void makeDomainKey(final HttpServletRequest req,
+                             final HttpServletResponse resp,
                              final String domain,
                              final String service) throws WebdavException {
     try {
+      final String cacheKey = "domainkey/" + domain + "/" + service;
+      IscheduleKeys.Rendered r = IscheduleKeys.getRendered(cacheKey);
+
+      if (r != null) {
+        r.send(req, resp);
+        return;
+      }
+
       final byte[] key = intf.getSysi().getPublicKey(domain, service);
 
       if ((key == null) || (key.length == 0)) {
@@ -96,26 +106,35 @@ public class IscheduleGetHandler extends GetHandler {
         return;
       }
 
-      resp.setContentType("text/plain");
-
-      final Writer wtr = resp.getWriter();
-
-      wtr.write("v=DKIM1;p=");
-      wtr.write(new String(new Base64().encode(key)));
-      wtr.close();
+      r = IscheduleKeys.putRendered(cacheKey,
+                                    "v=DKIM1;p=" +
+                                            new String(new Base64().encode(key)),
+                                    "text/plain");
+      r.send(req, resp);
     } catch (final Throwable t) {
       throw new WebdavException(t);
     }
   }
 
-  /** Generate an ischedule capabilities response
+  /** Generate an ischedule capabilities response. The document only
+   * changes with the configuration so is rendered once and cached.
    *
+   * @param req the request
    * @param resp the response
    * @throws WebdavException
    */
-  private void doCapabilities(final HttpServletResponse resp) throws WebdavException {
+  private void doCapabilities(final HttpServletRequest req,
+                              final HttpServletResponse resp) throws WebdavException {
     try {
-      startEmit(resp);
+      IscheduleKeys.Rendered r = IscheduleKeys.getRendered("capabilities");
+
+      if (r != null) {
+        r.send(req, resp);
+        return;
+      }
+
+      final StringWriter sw = new StringWriter();
+      xml.startEmit(sw);
 
       openTag(IscheduleTags.queryResult);
       openTag(IscheduleTags.capabilities);
@@ -200,6 +219,11 @@ public class IscheduleGetHandler extends GetHandler {
 
       closeTag(IscheduleTags.capabilities);
       closeTag(IscheduleTags.queryResult);
+      xml.flush();
+
+      r = IscheduleKeys.putRendered("capabilities", sw.toString(),
+                                    "application/xml;charset=utf-8");
+      r.send(req, resp);
     } catch (final WebdavException wde) {
       throw wde;
     } catch (final Throwable t) {
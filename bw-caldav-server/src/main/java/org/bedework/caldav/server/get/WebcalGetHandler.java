@@ -18,10 +18,14 @@
 */
 package org.bedework.caldav.server.get;
 
+import org.bedework.access.AccessPrincipal;
+import org.bedework.caldav.server.CalDAVCollection;
 import org.bedework.caldav.server.CalDAVEvent;
 import org.bedework.caldav.server.CaldavBWIntf;
-import org.bedework.caldav.server.CaldavComponentNode;
 import org.bedework.caldav.server.RequestPars;
+import org.bedework.caldav.server.cache.WebcalCache;
+import org.bedework.caldav.server.stats.CaldavStats;
+import org.bedework.caldav.server.stats.CaldavStats.StatsType;
 import org.bedework.caldav.server.sysinterface.CalDAVAuthProperties;
 import org.bedework.caldav.server.sysinterface.SysIntf.MethodEmitted;
 import org.bedework.caldav.util.ParseUtil;
@@ -33,9 +37,23 @@ import org.bedework.webdav.servlet.shared.WebdavException;
 import org.bedework.webdav.servlet.shared.WebdavNsIntf;
 import org.bedework.webdav.servlet.shared.WebdavNsNode;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.function.Supplier;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -59,6 +77,8 @@ public class WebcalGetHandler extends GetHandler {
   public void process(final HttpServletRequest req,
                       final HttpServletResponse resp,
                       final RequestPars pars) throws WebdavException {
+    final CaldavStats.Timer timer = CaldavStats.start(StatsType.webcalGet);
+
     try {
       final CalDAVAuthProperties authp = getSysi().getAuthProperties();
 
@@ -102,26 +122,53 @@ public class WebcalGetHandler extends GetHandler {
         return;
       }
 
-      final Collection<CalDAVEvent<?>> evs = new ArrayList<>();
+      final String suffix;
+      String acceptType = pars.getAcceptType();
+      if (acceptType == null) {
+        acceptType = getSysi().getDefaultContentType();
+      }
 
-      final EntityTimeRangeFilter etrf =
-              new EntityTimeRangeFilter(null,
-                                        IcalDefs.entityTypeEvent,
-                                        tr);
+      /* The feed changes only when the collection does - derive an etag
+         from the sync token and the request.
+       */
+      final CalDAVCollection<?> col =
+              (CalDAVCollection<?>)node.getCollection(false); // don't deref
+      final CalDAVCollection<?> target =
+              (CalDAVCollection<?>)node.getCollection(true); // deref
 
-      final Supplier<Object> filters = () -> etrf;
+      final AccessPrincipal principal = getSysi().getPrincipal();
+      final String key = WebcalCache.makeKey(
+              calPath,
+              tr.getStart().toString(),
+              tr.getEnd().toString(),
+              acceptType,
+              (principal == null) ? null : principal.getPrincipalRef());
 
-      for (final WebdavNsNode child: getChildren(node, filters)) {
-        if (child instanceof CaldavComponentNode) {
-          evs.add(((CaldavComponentNode)child).getEvent());
-        }
-      }
+      final String etag = makeEtag(target, key);
 
+      /* The body may go out gzipped or not - each encoding is a
+         different representation and gets its own etag.
+       */
+      resp.setHeader("Vary", "Accept-Encoding");
 
-      final String suffix;
-      String acceptType = pars.getAcceptType();
-      if (acceptType == null) {
-        acceptType = getSysi().getDefaultContentType();
+      if (etag != null) {
+        final String matched;
+
+        if (ifNoneMatch(req, etag)) {
+          matched = etag;
+        } else if (ifNoneMatch(req, gzipEtag(etag))) {
+          matched = gzipEtag(etag);
+        } else {
+          matched = null;
+        }
+
+        if (matched != null) {
+          WebcalCache.notModified();
+          resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+          resp.setHeader("ETag", matched);
+          timer.ok();
+          return;
+        }
       }
 
       if (acceptType.equals(XcalTags.mimetype)) {
@@ -137,14 +184,265 @@ public class WebcalGetHandler extends GetHandler {
                      "Attachment; Filename=\"" +
                      node.getDisplayname() + suffix + "\"");
 
-      getSysi().writeCalendar(evs, MethodEmitted.publish,
+      if ((etag != null) && WebcalCache.isEnabled()) {
+        final WebcalCache.Entry entry = WebcalCache.get(key, etag);
+
+        if (entry != null) {
+          writeCached(req, resp, entry, etag);
+          timer.ok();
+          return;
+        }
+      }
+
+      if (etag != null) {
+        // Streamed bodies are never compressed
+        resp.setHeader("ETag", etag);
+      }
+
+      /* Stream the events from the backend as they are delivered. */
+      final Iterator<CalDAVEvent<?>> events;
+
+      if ((target == null) || !target.entitiesAllowed()) {
+        events = Collections.emptyIterator();
+      } else {
+        final EntityTimeRangeFilter etrf =
+                new EntityTimeRangeFilter(null,
+                                          IcalDefs.entityTypeEvent,
+                                          tr);
+
+        events = getSysi().getEventsIterator(col, etrf, null, null);
+      }
+
+      if ((etag == null) || !WebcalCache.isEnabled()) {
+        getSysi().writeCalendar(new StreamedEvents(events),
+                                MethodEmitted.publish,
+                                null,
+                                resp.getWriter(),
+                                acceptType);
+        timer.ok();
+        return;
+      }
+
+      /* Keep a compressed copy as we go */
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      final TeeWriter tee = new TeeWriter(resp.getWriter(), bos);
+
+      getSysi().writeCalendar(new StreamedEvents(events),
+                              MethodEmitted.publish,
                               null,
-                              resp.getWriter(),
+                              tee,
                               acceptType);
+
+      tee.flush();
+
+      if (tee.finish()) {
+        WebcalCache.put(key, new WebcalCache.Entry(etag, bos.toByteArray()));
+      }
+
+      timer.ok();
     } catch (final WebdavException wde) {
       throw wde;
     } catch (final Throwable t) {
       throw new WebdavException(t);
+    } finally {
+      timer.stop();
+    }
+  }
+
+  /* Returns null if we have no sync token */
+  private String makeEtag(final CalDAVCollection<?> target,
+                          final String key) throws Throwable {
+    if (target == null) {
+      return null;
+    }
+
+    final String token = getSysi().getSyncToken(target);
+    if (token == null) {
+      return null;
+    }
+
+    final MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+    md.update(token.getBytes(StandardCharsets.UTF_8));
+    md.update((byte)0);
+    md.update(key.getBytes(StandardCharsets.UTF_8));
+
+    final byte[] digest = md.digest();
+    final StringBuilder sb = new StringBuilder("\"");
+
+    for (int i = 0; i < 16; i++) {
+      sb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(digest[i] & 0xf, 16));
+    }
+
+    return sb.append('"').toString();
+  }
+
+  /* The etag for the gzip encoded form of the entity with the given etag */
+  private static String gzipEtag(final String etag) {
+    return etag.substring(0, etag.length() - 1) + "-gz\"";
+  }
+
+  private static boolean ifNoneMatch(final HttpServletRequest req,
+                                     final String etag) {
+    final Enumeration<String> hdrs = req.getHeaders("If-None-Match");
+
+    if (hdrs == null) {
+      return false;
+    }
+
+    while (hdrs.hasMoreElements()) {
+      for (String val: hdrs.nextElement().split(",")) {
+        val = val.trim();
+
+        if (val.startsWith("W/")) {
+          val = val.substring(2);
+        }
+
+        if (val.equals("*") || val.equals(etag)) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean acceptsGzip(final HttpServletRequest req) {
+    final String ae = req.getHeader("Accept-Encoding");
+
+    return (ae != null) && ae.toLowerCase().contains("gzip");
+  }
+
+  private static void writeCached(final HttpServletRequest req,
+                                  final HttpServletResponse resp,
+                                  final WebcalCache.Entry entry,
+                                  final String etag)
+          throws Throwable {
+    final byte[] gzipped = entry.getGzipped();
+
+    if (acceptsGzip(req)) {
+      resp.setHeader("ETag", gzipEtag(etag));
+      resp.setHeader("Content-Encoding", "gzip");
+      resp.setContentLength(gzipped.length);
+      resp.getOutputStream().write(gzipped);
+      return;
+    }
+
+    resp.setHeader("ETag", etag);
+
+    try (final InputStream in =
+                 new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+      final OutputStream out = resp.getOutputStream();
+      final byte[] buff = new byte[8192];
+
+      for (;;) {
+        final int len = in.read(buff);
+        if (len < 0) {
+          break;
+        }
+
+        out.write(buff, 0, len);
+      }
+    }
+  }
+
+  /* Presents the backend iterator as a collection for writeCalendar.
+     Iterating delivers the events as they are produced. If anything asks
+     for the size, the remaining events are read into a list.
+   */
+  private static class StreamedEvents
+          extends AbstractCollection<CalDAVEvent<?>> {
+    private final Iterator<CalDAVEvent<?>> it;
+    private List<CalDAVEvent<?>> list;
+
+    StreamedEvents(final Iterator<CalDAVEvent<?>> it) {
+      this.it = it;
+    }
+
+    @Override
+    public Iterator<CalDAVEvent<?>> iterator() {
+      if (list != null) {
+        return list.iterator();
+      }
+
+      return it;
+    }
+
+    @Override
+    public int size() {
+      if (list == null) {
+        list = new ArrayList<>();
+
+        while (it.hasNext()) {
+          list.add(it.next());
+        }
+      }
+
+      return list.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      if (list != null) {
+        return list.isEmpty();
+      }
+
+      return !it.hasNext();
+    }
+  }
+
+  /* Writes to the response and to a compressed copy. The copy is dropped
+     if it grows too large.
+   */
+  private static class TeeWriter extends Writer {
+    private final Writer out;
+    private final ByteArrayOutputStream bos;
+    private Writer copy;
+
+    TeeWriter(final Writer out,
+              final ByteArrayOutputStream bos) throws IOException {
+      this.out = out;
+      this.bos = bos;
+      copy = new OutputStreamWriter(new GZIPOutputStream(bos),
+                                    StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(final char[] cbuf,
+                      final int off,
+                      final int len) throws IOException {
+      out.write(cbuf, off, len);
+
+      if (copy != null) {
+        copy.write(cbuf, off, len);
+
+        if (bos.size() > WebcalCache.entryLimit()) {
+          copy = null;
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+
+    /* Complete the compressed copy - false if it was dropped */
+    boolean finish() throws IOException {
+      if (copy == null) {
+        return false;
+      }
+
+      copy.close();
+      copy = null;
+
+      return bos.size() <= WebcalCache.entryLimit();
     }
   }
 }
@@ -0,0 +1,555 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.scheduling;
+
+import org.bedework.util.jmx.ConfBase;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/** Admission control and replay for inbound iSchedule messages.
+ *
+ * <p>A remote server which does not see our response will retry with
+ * the same iSchedule-Message-Id. The response to each signed message is
+ * remembered keyed by originator, message id and the body hash from the
+ * DKIM signature. The key is only formed once the body has been read
+ * and the signature, including that body hash, verified so a repeat is
+ * answered with the same response without delivering it again. A repeat
+ * which arrives while the original is still being processed gets a 503.
+ *
+ * <p>At most concurrency messages are processed at once. Up to
+ * queueDepth more may wait up to maxWait for a slot. Anything else gets
+ * a 503 with a Retry-After header so a burst from remote servers
+ * cannot tie up all the container's threads.
+ *
+ * <p>Configuration and state are static so they apply whether or not
+ * the bean has been registered.
+ */
+public class IscheduleInbound extends ConfBase
+        implements IscheduleInboundMBean {
+  /* Name of the property holding the location of the config data */
+  public static final String confuriPname = "org.bedework.caldav.confuri";
+
+  /** A remembered response
+   */
+  public static class Response {
+    /** Returned by begin when the message is still being processed */
+    public static final Response inProgress =
+            new Response(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                         null, null, null);
+
+    private final int status;
+    private final String contentType;
+    private final List<String[]> headers;
+    private final String body;
+
+    private final long created = System.currentTimeMillis();
+
+    Response(final int status,
+             final String contentType,
+             final List<String[]> headers,
+             final String body) {
+      this.status = status;
+      this.contentType = contentType;
+      this.headers = headers;
+      this.body = body;
+    }
+
+    /** Send the remembered response
+     *
+     * @param resp response
+     * @throws IOException on write error
+     */
+    public void replay(final HttpServletResponse resp) throws IOException {
+      resp.setStatus(status);
+
+      if (contentType != null) {
+        resp.setContentType(contentType);
+      }
+
+      if (headers != null) {
+        for (final String[] h: headers) {
+          resp.addHeader(h[0], h[1]);
+        }
+      }
+
+      if (body != null) {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        resp.setContentLength(bytes.length);
+        resp.getOutputStream().write(bytes);
+      }
+    }
+  }
+
+  /** Passes everything through and keeps a copy of what was sent.
+   */
+  public static class CapturingResponse extends HttpServletResponseWrapper {
+    private int status = HttpServletResponse.SC_OK;
+    private final List<String[]> headers = new ArrayList<>();
+    private final StringWriter copy = new StringWriter();
+    private PrintWriter writer;
+
+    /**
+     * @param resp the real response
+     */
+    public CapturingResponse(final HttpServletResponse resp) {
+      super(resp);
+    }
+
+    @Override
+    public void setStatus(final int sc) {
+      status = sc;
+      super.setStatus(sc);
+    }
+
+    @Override
+    public void setHeader(final String name,
+                          final String value) {
+      headers.removeIf(h -> h[0].equalsIgnoreCase(name));
+      headers.add(new String[]{name, value});
+      super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(final String name,
+                          final String value) {
+      headers.add(new String[]{name, value});
+      super.addHeader(name, value);
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      if (writer == null) {
+        writer = new PrintWriter(new TeeWriter(super.getWriter(), copy));
+      }
+
+      return writer;
+    }
+
+    Response getCaptured() {
+      if (writer != null) {
+        writer.flush();
+      }
+
+      return new Response(status, getContentType(), headers,
+                          copy.toString());
+    }
+  }
+
+  private static volatile int maxEntries = 1000;
+
+  private static volatile int ttl = 60 * 60;
+
+  private static volatile int concurrency = 8;
+
+  private static volatile int queueDepth = 32;
+
+  private static volatile long maxWait = 5000;
+
+  private static volatile int retryAfter = 5;
+
+  private static final Map<String, Response> responses =
+          new LinkedHashMap<>();
+
+  private static final Object admitLock = new Object();
+
+  private static int active;
+  private static int waiting;
+
+  private static long processed;
+  private static long replayed;
+  private static long rejected;
+
+  /**
+   */
+  public IscheduleInbound() {
+    super(serviceName);
+
+    setConfigName(configName);
+
+    setConfigPname(confuriPname);
+  }
+
+  /** Unsigned messages are not replayed - we have no body hash.
+   *
+   * @param originator from the request
+   * @param messageId from the request
+   * @param bodyHash from the verified DKIM signature - may be null
+   * @return key for replay or null if the message cannot be replayed
+   */
+  public static String makeKey(final String originator,
+                               final String messageId,
+                               final byte[] bodyHash) {
+    if ((maxEntries <= 0) || (ttl <= 0) || (bodyHash == null)) {
+      return null;
+    }
+
+    return originator + "\t" + messageId + "\t" +
+            Base64.getEncoder().encodeToString(bodyHash);
+  }
+
+  /** Look for a remembered response. If there is none the message is
+   * marked as in progress and the caller must call complete or abandon.
+   *
+   * @param key from makeKey - may be null
+   * @return null to process, a Response to replay or Response.inProgress
+   */
+  public static Response begin(final String key) {
+    if (key == null) {
+      return null;
+    }
+
+    synchronized (responses) {
+      expire();
+
+      final Response r = responses.get(key);
+
+      if (r != null) {
+        if (r != Response.inProgress) {
+          replayed++;
+        }
+
+        return r;
+      }
+
+      responses.put(key, Response.inProgress);
+      return null;
+    }
+  }
+
+  /** Remember the response if it was successful.
+   *
+   * @param key from makeKey - may be null
+   * @param resp wrapping the real response
+   */
+  public static void complete(final String key,
+                              final CapturingResponse resp) {
+    if (key == null) {
+      return;
+    }
+
+    final Response r = resp.getCaptured();
+
+    synchronized (responses) {
+      if ((r.status / 100) != 2) {
+        responses.remove(key);
+        return;
+      }
+
+      /* Reinsert so the map stays in creation order */
+      responses.remove(key);
+      responses.put(key, r);
+
+      final Iterator<Response> it = responses.values().iterator();
+      while ((responses.size() > maxEntries) && it.hasNext()) {
+        it.next();
+        it.remove();
+      }
+    }
+  }
+
+  /** Forget that the message was in progress - it failed.
+   *
+   * @param key from makeKey - may be null
+   */
+  public static void abandon(final String key) {
+    if (key == null) {
+      return;
+    }
+
+    synchronized (responses) {
+      if (responses.get(key) == Response.inProgress) {
+        responses.remove(key);
+      }
+    }
+  }
+
+  /** Wait for a slot to process a message.
+   *
+   * @return true if admitted - caller must call release
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public static boolean admit() throws InterruptedException {
+    synchronized (admitLock) {
+      if ((concurrency <= 0) || (active < concurrency)) {
+        active++;
+        processed++;
+        return true;
+      }
+
+      if (waiting >= queueDepth) {
+        rejected++;
+        return false;
+      }
+
+      final long deadline = System.currentTimeMillis() + maxWait;
+
+      waiting++;
+      try {
+        while (active >= concurrency) {
+          final long wait = deadline - System.currentTimeMillis();
+
+          if (wait <= 0) {
+            rejected++;
+            return false;
+          }
+
+          admitLock.wait(wait);
+        }
+
+        active++;
+        processed++;
+        return true;
+      } finally {
+        waiting--;
+      }
+    }
+  }
+
+  /** Give up the slot obtained by admit
+   */
+  public static void release() {
+    synchronized (admitLock) {
+      active--;
+      admitLock.notify();
+    }
+  }
+
+  /** Send a 503 asking the sender to retry later.
+   *
+   * @param resp response
+   */
+  public static void reject(final HttpServletResponse resp) {
+    resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    resp.setHeader("Retry-After", String.valueOf(retryAfter));
+  }
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  @Override
+  public void setMaxEntries(final int val) {
+    maxEntries = val;
+  }
+
+  @Override
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  @Override
+  public void setTtl(final int val) {
+    ttl = val;
+  }
+
+  @Override
+  public int getTtl() {
+    return ttl;
+  }
+
+  @Override
+  public void setConcurrency(final int val) {
+    synchronized (admitLock) {
+      concurrency = val;
+      admitLock.notifyAll();
+    }
+  }
+
+  @Override
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  @Override
+  public void setQueueDepth(final int val) {
+    queueDepth = val;
+  }
+
+  @Override
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  @Override
+  public void setMaxWait(final long val) {
+    maxWait = val;
+  }
+
+  @Override
+  public long getMaxWait() {
+    return maxWait;
+  }
+
+  @Override
+  public void setRetryAfter(final int val) {
+    retryAfter = val;
+  }
+
+  @Override
+  public int getRetryAfter() {
+    return retryAfter;
+  }
+
+  @Override
+  public int getActive() {
+    synchronized (admitLock) {
+      return active;
+    }
+  }
+
+  @Override
+  public int getWaiting() {
+    synchronized (admitLock) {
+      return waiting;
+    }
+  }
+
+  @Override
+  public int getEntries() {
+    synchronized (responses) {
+      return responses.size();
+    }
+  }
+
+  @Override
+  public long getProcessed() {
+    synchronized (admitLock) {
+      return processed;
+    }
+  }
+
+  @Override
+  public long getReplayed() {
+    synchronized (responses) {
+      return replayed;
+    }
+  }
+
+  @Override
+  public long getRejected() {
+    synchronized (admitLock) {
+      return rejected;
+    }
+  }
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  @Override
+  public List<String> showStats() {
+    final List<String> res = new ArrayList<>();
+
+    res.add("active: " + getActive() + " of " + concurrency);
+    res.add("waiting: " + getWaiting() + " of " + queueDepth);
+    res.add("processed: " + getProcessed());
+    res.add("rejected: " + getRejected());
+    res.add("remembered: " + getEntries() + " of " + maxEntries);
+    res.add("replayed: " + getReplayed());
+
+    return res;
+  }
+
+  @Override
+  public void flush() {
+    synchronized (responses) {
+      /* Keep in progress markers - their owners will remove them */
+      responses.values().removeIf(r -> r != Response.inProgress);
+      replayed = 0;
+    }
+
+    synchronized (admitLock) {
+      processed = 0;
+      rejected = 0;
+    }
+  }
+
+  @Override
+  public String loadConfig() {
+    return "No config to load";
+  }
+
+  /* ========================================================================
+   * Private methods
+   * ======================================================================== */
+
+  /* Called holding responses lock. Entries are in creation order apart
+     from in progress markers which we leave alone.
+   */
+  private static void expire() {
+    final long limit = System.currentTimeMillis() - (ttl * 1000L);
+    final Iterator<Response> it = responses.values().iterator();
+
+    while (it.hasNext()) {
+      final Response r = it.next();
+
+      if (r == Response.inProgress) {
+        continue;
+      }
+
+      if (r.created > limit) {
+        break;
+      }
+
+      it.remove();
+    }
+  }
+
+  private static class TeeWriter extends Writer {
+    private final Writer out;
+    private final Writer copy;
+
+    TeeWriter(final Writer out,
+              final Writer copy) {
+      this.out = out;
+      this.copy = copy;
+    }
+
+    @Override
+    public void write(final char[] cbuf,
+                      final int off,
+                      final int len) throws IOException {
+      out.write(cbuf, off, len);
+      copy.write(cbuf, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+}
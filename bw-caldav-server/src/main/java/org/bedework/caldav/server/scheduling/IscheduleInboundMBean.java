@@ -0,0 +1,159 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.scheduling;
+
+import org.bedework.util.jmx.ConfBaseMBean;
+import org.bedework.util.jmx.MBeanInfo;
+
+import java.util.List;
+
+/** Configure and monitor inbound iSchedule admission and replay.
+ */
+public interface IscheduleInboundMBean extends ConfBaseMBean {
+  static final String configName = "IscheduleInbound";
+
+  static final String serviceName =
+          "org.bedework.caldav:service=" + configName;
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  /**
+   * @param val max number of remembered responses
+   */
+  void setMaxEntries(int val);
+
+  /**
+   * @return max number of remembered responses
+   */
+  @MBeanInfo("Max number of responses remembered for replay. " +
+          "0 disables replay")
+  int getMaxEntries();
+
+  /**
+   * @param val seconds a response is remembered for
+   */
+  void setTtl(int val);
+
+  /**
+   * @return seconds a response is remembered for
+   */
+  @MBeanInfo("Seconds a response is remembered for replay")
+  int getTtl();
+
+  /**
+   * @param val max number of messages processed at once
+   */
+  void setConcurrency(int val);
+
+  /**
+   * @return max number of messages processed at once
+   */
+  @MBeanInfo("Max number of inbound messages processed at once. " +
+          "0 for no limit")
+  int getConcurrency();
+
+  /**
+   * @param val max number of messages waiting to be processed
+   */
+  void setQueueDepth(int val);
+
+  /**
+   * @return max number of messages waiting to be processed
+   */
+  @MBeanInfo("Max number of inbound messages waiting to be processed")
+  int getQueueDepth();
+
+  /**
+   * @param val max millis a message waits to be processed
+   */
+  void setMaxWait(long val);
+
+  /**
+   * @return max millis a message waits to be processed
+   */
+  @MBeanInfo("Max milliseconds a message waits before it is rejected")
+  long getMaxWait();
+
+  /**
+   * @param val seconds sent in Retry-After
+   */
+  void setRetryAfter(int val);
+
+  /**
+   * @return seconds sent in Retry-After
+   */
+  @MBeanInfo("Seconds sent in the Retry-After header with a 503")
+  int getRetryAfter();
+
+  /**
+   * @return number being processed
+   */
+  @MBeanInfo("Number of messages being processed")
+  int getActive();
+
+  /**
+   * @return number waiting
+   */
+  @MBeanInfo("Number of messages waiting to be processed")
+  int getWaiting();
+
+  /**
+   * @return number of responses remembered
+   */
+  @MBeanInfo("Number of responses remembered for replay")
+  int getEntries();
+
+  /**
+   * @return number processed
+   */
+  @MBeanInfo("Number of messages processed")
+  long getProcessed();
+
+  /**
+   * @return number replayed
+   */
+  @MBeanInfo("Number of repeated messages answered from a remembered " +
+          "response")
+  long getReplayed();
+
+  /**
+   * @return number rejected
+   */
+  @MBeanInfo("Number of messages rejected with a 503")
+  long getRejected();
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  /** Display the statistics
+   *
+   * @return list of formatted statistics
+   */
+  @MBeanInfo("Show the statistics")
+  List<String> showStats();
+
+  /** Forget remembered responses
+   *
+   */
+  @MBeanInfo("Forget remembered responses and reset statistics")
+  void flush();
+}
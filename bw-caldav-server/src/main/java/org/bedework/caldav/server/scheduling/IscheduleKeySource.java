@@ -0,0 +1,46 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.scheduling;
+
+import org.apache.james.jdkim.exceptions.PermFailException;
+import org.apache.james.jdkim.exceptions.TempFailException;
+
+import java.util.List;
+
+/** Retrieves the raw public key records used to verify a DKIM signed
+ * iSchedule message. The records are cached as retrieved and parsed and
+ * checked against each signature by the verifier. The default is the
+ * verifier's DNS lookup. An alternative, e.g. one which adds HTTP
+ * well-known lookups or a local stand-in for testing, can be configured
+ * through the IscheduleKeys bean or set directly.
+ */
+public interface IscheduleKeySource {
+  /**
+   * @param method lookup method from the signature, e.g. dns/txt
+   * @param selector from the signature
+   * @param token signing domain from the signature
+   * @return the records as retrieved - null or empty if there are none
+   * @throws TempFailException if the records may be found later
+   * @throws PermFailException if the lookup cannot be done
+   */
+  List<String> getRecords(String method,
+                          String selector,
+                          String token)
+          throws TempFailException, PermFailException;
+}
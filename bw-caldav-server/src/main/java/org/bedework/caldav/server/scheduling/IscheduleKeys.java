@@ -0,0 +1,514 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.scheduling;
+
+import org.bedework.util.jmx.ConfBase;
+import org.bedework.util.logging.BwLogger;
+
+import org.apache.james.jdkim.DKIMVerifier;
+import org.apache.james.jdkim.IscheduleDKIMVerifier;
+import org.apache.james.jdkim.api.PublicKeyRecordRetriever;
+import org.apache.james.jdkim.exceptions.PermFailException;
+import org.apache.james.jdkim.exceptions.TempFailException;
+import org.apache.james.jdkim.impl.DNSPublicKeyRecordRetriever;
+import org.apache.james.jdkim.impl.MultiplexingPublicKeyRecordRetriever;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Caches for the keys and capabilities used by iSchedule.
+ *
+ * <p>Outbound - our domain keys and capabilities document are rendered
+ * once and served as bytes with an ETag and a Cache-Control max-age for
+ * renderTtl seconds.
+ *
+ * <p>Inbound - the raw public key records of remote domains are kept
+ * for keyTtl seconds. The verifier parses them and checks them against
+ * every signature, e.g. the key type, hash algorithms and identity
+ * granularity, so a cached record is never accepted for a signature it
+ * would not have been accepted for when fetched. A lookup which finds
+ * no records is remembered for negativeTtl seconds so a bad sender does
+ * not cost us a DNS or HTTP lookup per message. Failed lookups are not
+ * remembered. Records are retrieved through an IscheduleKeySource, by
+ * default the verifier's DNS lookup.
+ *
+ * <p>Configuration and the caches are static so they apply whether or
+ * not the bean has been registered.
+ */
+public class IscheduleKeys extends ConfBase
+        implements IscheduleKeysMBean {
+  /* Name of the property holding the location of the config data */
+  public static final String confuriPname = "org.bedework.caldav.confuri";
+
+  /** A response rendered once and served many times
+   */
+  public static class Rendered {
+    private final byte[] content;
+    private final String contentType;
+    private final String etag;
+    private final long created = System.currentTimeMillis();
+
+    Rendered(final byte[] content,
+             final String contentType) {
+      this.content = content;
+      this.contentType = contentType;
+      etag = makeEtag(content);
+    }
+
+    /** Send the response or a 304 if the client has it
+     *
+     * @param req request
+     * @param resp response
+     * @throws IOException on write error
+     */
+    public void send(final HttpServletRequest req,
+                     final HttpServletResponse resp) throws IOException {
+      resp.setHeader("ETag", etag);
+      resp.setHeader("Cache-Control", "max-age=" + renderTtl);
+
+      final String inm = req.getHeader("If-None-Match");
+
+      if ((inm != null) &&
+              (inm.trim().equals("*") || inm.contains(etag))) {
+        synchronized (rendered) {
+          notModified++;
+        }
+
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+
+      resp.setContentType(contentType);
+      resp.setContentLength(content.length);
+      resp.getOutputStream().write(content);
+    }
+  }
+
+  /* Remote key records - null if there are none */
+  private static class KeyEntry {
+    final List<String> records;
+    final long expires;
+
+    KeyEntry(final List<String> records,
+             final long expires) {
+      this.records = records;
+      this.expires = expires;
+    }
+  }
+
+  /* Gives the verifier the records through the cache */
+  private static class CachingRetriever
+          implements PublicKeyRecordRetriever {
+    @Override
+    public List<String> getRecords(final CharSequence methodAndOptions,
+                                   final CharSequence selector,
+                                   final CharSequence token)
+            throws TempFailException, PermFailException {
+      return records(methodAndOptions.toString(),
+                     selector.toString(),
+                     token.toString());
+    }
+  }
+
+  /* As the verifier does by default */
+  private static class DefaultKeySource implements IscheduleKeySource {
+    private final PublicKeyRecordRetriever retriever =
+            new MultiplexingPublicKeyRecordRetriever(
+                    "dns", new DNSPublicKeyRecordRetriever());
+
+    @Override
+    public List<String> getRecords(final String method,
+                                   final String selector,
+                                   final String token)
+            throws TempFailException, PermFailException {
+      return retriever.getRecords(method, selector, token);
+    }
+  }
+
+  private static final IscheduleKeySource defaultKeySource =
+          new DefaultKeySource();
+
+  private static final PublicKeyRecordRetriever cachingRetriever =
+          new CachingRetriever();
+
+  private static volatile int renderTtl = 300;
+
+  private static volatile int keyTtl = 60 * 60;
+
+  private static volatile int negativeTtl = 300;
+
+  private static volatile int maxKeys = 1000;
+
+  private static volatile String keySourceClass;
+
+  private static volatile IscheduleKeySource keySource;
+
+  private static final Map<String, Rendered> rendered = new HashMap<>();
+
+  private static final Map<String, KeyEntry> keys =
+          new LinkedHashMap<>(16, 0.75f, true);
+
+  private static long renderHits;
+  private static long renderMisses;
+  private static long notModified;
+
+  private static long keyHits;
+  private static long keyMisses;
+  private static long negativeHits;
+
+  private static final BwLogger logger = new BwLogger();
+
+  static {
+    logger.setLoggedClass(IscheduleKeys.class);
+  }
+
+  /**
+   */
+  public IscheduleKeys() {
+    super(serviceName);
+
+    setConfigName(configName);
+
+    setConfigPname(confuriPname);
+  }
+
+  /* ========================================================================
+   * Outbound
+   * ======================================================================== */
+
+  /**
+   * @param key identifies the response
+   * @return rendered response or null if we need to render it
+   */
+  public static Rendered getRendered(final String key) {
+    synchronized (rendered) {
+      final Rendered r = rendered.get(key);
+
+      if ((r == null) ||
+              ((System.currentTimeMillis() - r.created) >=
+                       (renderTtl * 1000L))) {
+        renderMisses++;
+        return null;
+      }
+
+      renderHits++;
+      return r;
+    }
+  }
+
+  /**
+   * @param key identifies the response
+   * @param content as rendered
+   * @param contentType of the content
+   * @return the response to send
+   */
+  public static Rendered putRendered(final String key,
+                                     final String content,
+                                     final String contentType) {
+    final Rendered r =
+            new Rendered(content.getBytes(StandardCharsets.UTF_8),
+                         contentType);
+
+    if (renderTtl > 0) {
+      synchronized (rendered) {
+        rendered.put(key, r);
+      }
+    }
+
+    return r;
+  }
+
+  /* ========================================================================
+   * Inbound
+   * ======================================================================== */
+
+  /**
+   * @return a verifier which looks up keys through the cache
+   */
+  public static DKIMVerifier newVerifier() {
+    return new IscheduleDKIMVerifier(cachingRetriever);
+  }
+
+  /** Set the source of remote keys - e.g. for testing
+   *
+   * @param val source - null for the default
+   */
+  public static void setKeySource(final IscheduleKeySource val) {
+    keySource = val;
+
+    synchronized (keys) {
+      keys.clear();
+    }
+  }
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  @Override
+  public void setRenderTtl(final int val) {
+    renderTtl = val;
+  }
+
+  @Override
+  public int getRenderTtl() {
+    return renderTtl;
+  }
+
+  @Override
+  public void setKeyTtl(final int val) {
+    keyTtl = val;
+  }
+
+  @Override
+  public int getKeyTtl() {
+    return keyTtl;
+  }
+
+  @Override
+  public void setNegativeTtl(final int val) {
+    negativeTtl = val;
+  }
+
+  @Override
+  public int getNegativeTtl() {
+    return negativeTtl;
+  }
+
+  @Override
+  public void setMaxKeys(final int val) {
+    maxKeys = val;
+  }
+
+  @Override
+  public int getMaxKeys() {
+    return maxKeys;
+  }
+
+  @Override
+  public void setKeySourceClass(final String val) {
+    if ((val == null) || (val.length() == 0)) {
+      keySourceClass = null;
+      setKeySource(null);
+      return;
+    }
+
+    try {
+      final Object o = Class.forName(val).getDeclaredConstructor()
+                            .newInstance();
+
+      if (!(o instanceof IscheduleKeySource)) {
+        logger.error("Class " + val + " is not an IscheduleKeySource");
+        return;
+      }
+
+      keySourceClass = val;
+      setKeySource((IscheduleKeySource)o);
+    } catch (final Throwable t) {
+      logger.error("Unable to load key source " + val);
+      logger.error(t);
+    }
+  }
+
+  @Override
+  public String getKeySourceClass() {
+    return keySourceClass;
+  }
+
+  @Override
+  public long getRenderHits() {
+    synchronized (rendered) {
+      return renderHits;
+    }
+  }
+
+  @Override
+  public long getRenderMisses() {
+    synchronized (rendered) {
+      return renderMisses;
+    }
+  }
+
+  @Override
+  public long getNotModified() {
+    synchronized (rendered) {
+      return notModified;
+    }
+  }
+
+  @Override
+  public long getKeyHits() {
+    synchronized (keys) {
+      return keyHits;
+    }
+  }
+
+  @Override
+  public long getKeyMisses() {
+    synchronized (keys) {
+      return keyMisses;
+    }
+  }
+
+  @Override
+  public long getNegativeHits() {
+    synchronized (keys) {
+      return negativeHits;
+    }
+  }
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  @Override
+  public List<String> showStats() {
+    final List<String> res = new ArrayList<>();
+
+    synchronized (rendered) {
+      res.add("rendered: " + rendered.size());
+      res.add("render hits: " + renderHits);
+      res.add("render misses: " + renderMisses);
+      res.add("not modified: " + notModified);
+    }
+
+    synchronized (keys) {
+      res.add("keys: " + keys.size() + " of " + maxKeys);
+      res.add("key hits: " + keyHits);
+      res.add("key misses: " + keyMisses);
+      res.add("negative hits: " + negativeHits);
+    }
+
+    return res;
+  }
+
+  @Override
+  public void flush() {
+    synchronized (rendered) {
+      rendered.clear();
+      renderHits = 0;
+      renderMisses = 0;
+      notModified = 0;
+    }
+
+    synchronized (keys) {
+      keys.clear();
+      keyHits = 0;
+      keyMisses = 0;
+      negativeHits = 0;
+    }
+  }
+
+  @Override
+  public String loadConfig() {
+    return "No config to load";
+  }
+
+  /* ========================================================================
+   * Private methods
+   * ======================================================================== */
+
+  private static List<String> records(final String method,
+                                      final String selector,
+                                      final String token)
+          throws TempFailException, PermFailException {
+    final IscheduleKeySource ks = keySource;
+    final IscheduleKeySource src = (ks == null) ? defaultKeySource : ks;
+
+    if (keyTtl <= 0) {
+      return src.getRecords(method, selector, token);
+    }
+
+    final String key = method + "\t" + selector + "\t" + token;
+
+    synchronized (keys) {
+      final KeyEntry ke = keys.get(key);
+
+      if ((ke != null) && (ke.expires > System.currentTimeMillis())) {
+        if (ke.records != null) {
+          keyHits++;
+        } else {
+          negativeHits++;
+        }
+
+        return ke.records;
+      }
+
+      keyMisses++;
+    }
+
+    /* Failures are thrown past us and not remembered */
+    final List<String> recs = src.getRecords(method, selector, token);
+
+    if ((recs == null) || recs.isEmpty()) {
+      if (negativeTtl > 0) {
+        putKey(key, new KeyEntry(null,
+                                 System.currentTimeMillis() +
+                                         (negativeTtl * 1000L)));
+      }
+
+      return recs;
+    }
+
+    final List<String> res = List.copyOf(recs);
+
+    putKey(key, new KeyEntry(res,
+                             System.currentTimeMillis() +
+                                     (keyTtl * 1000L)));
+
+    return res;
+  }
+
+  private static void putKey(final String key,
+                             final KeyEntry ke) {
+    synchronized (keys) {
+      keys.put(key, ke);
+
+      final Iterator<KeyEntry> it = keys.values().iterator();
+      while ((keys.size() > maxKeys) && it.hasNext()) {
+        it.next();
+        it.remove();
+      }
+    }
+  }
+
+  private static String makeEtag(final byte[] content) {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+      return "\"" + Base64.getUrlEncoder().withoutPadding()
+                          .encodeToString(md.digest(content)) + "\"";
+    } catch (final Throwable t) {
+      return "\"" + content.length + "-" +
+              Arrays.hashCode(content) + "\"";
+    }
+  }
+}
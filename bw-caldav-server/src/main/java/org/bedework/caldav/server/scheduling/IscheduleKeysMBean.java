@@ -0,0 +1,148 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.scheduling;
+
+import org.bedework.util.jmx.ConfBaseMBean;
+import org.bedework.util.jmx.MBeanInfo;
+
+import java.util.List;
+
+/** Configure and monitor the iSchedule key and capabilities caches.
+ */
+public interface IscheduleKeysMBean extends ConfBaseMBean {
+  static final String configName = "IscheduleKeys";
+
+  static final String serviceName =
+          "org.bedework.caldav:service=" + configName;
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  /**
+   * @param val seconds we serve our own keys and capabilities for
+   */
+  void setRenderTtl(int val);
+
+  /**
+   * @return seconds we serve our own keys and capabilities for
+   */
+  @MBeanInfo("Seconds our rendered domain keys and capabilities are " +
+          "served for. Also sent as max-age. 0 disables")
+  int getRenderTtl();
+
+  /**
+   * @param val seconds we keep remote keys for
+   */
+  void setKeyTtl(int val);
+
+  /**
+   * @return seconds we keep remote keys for
+   */
+  @MBeanInfo("Seconds remote domain key records are kept. 0 disables")
+  int getKeyTtl();
+
+  /**
+   * @param val seconds we remember a remote domain has no key records
+   */
+  void setNegativeTtl(int val);
+
+  /**
+   * @return seconds we remember a remote domain has no key records
+   */
+  @MBeanInfo("Seconds a remote domain with no key records is remembered")
+  int getNegativeTtl();
+
+  /**
+   * @param val max number of remote keys
+   */
+  void setMaxKeys(int val);
+
+  /**
+   * @return max number of remote keys
+   */
+  @MBeanInfo("Max number of remote keys kept")
+  int getMaxKeys();
+
+  /**
+   * @param val class implementing IscheduleKeySource - null for default
+   */
+  void setKeySourceClass(String val);
+
+  /**
+   * @return class implementing IscheduleKeySource
+   */
+  @MBeanInfo("Class implementing IscheduleKeySource. Empty for the " +
+          "verifier's DNS lookup")
+  String getKeySourceClass();
+
+  /**
+   * @return number of responses served from the cache
+   */
+  @MBeanInfo("Number of key and capabilities responses served from " +
+          "the cache")
+  long getRenderHits();
+
+  /**
+   * @return number of responses rendered
+   */
+  @MBeanInfo("Number of key and capabilities responses rendered")
+  long getRenderMisses();
+
+  /**
+   * @return number of not modified responses
+   */
+  @MBeanInfo("Number of 304 not modified responses")
+  long getNotModified();
+
+  /**
+   * @return number of remote keys found in the cache
+   */
+  @MBeanInfo("Number of remote key lookups answered from the cache")
+  long getKeyHits();
+
+  /**
+   * @return number of remote keys fetched
+   */
+  @MBeanInfo("Number of remote keys fetched")
+  long getKeyMisses();
+
+  /**
+   * @return number of lookups failed from the cache
+   */
+  @MBeanInfo("Number of remote key lookups failed from the cache")
+  long getNegativeHits();
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  /** Display the statistics
+   *
+   * @return list of formatted statistics
+   */
+  @MBeanInfo("Show the cache statistics")
+  List<String> showStats();
+
+  /** Empty the caches
+   *
+   */
+  @MBeanInfo("Empty the caches and reset statistics")
+  void flush();
+}
@@ -0,0 +1,42 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.scheduling;
+
+import org.bedework.webdav.servlet.shared.WebdavException;
+
+/** Delivers queued outbound scheduling messages. Supplied by the
+ * SysIntf implementation and called from the queue's worker threads so
+ * it must be thread safe and must not depend on any request.
+ */
+public interface OutboundDeliverer {
+  /** Deliver the iTIP message for the current state of the entity to
+   * the recipient. For the delete kinds the entity no longer exists and
+   * the message carries the iCalendar form it had when deleted.
+   *
+   * <p>Return one of the SchedRecipientResult statuses. scheduleOk is
+   * success, scheduleDeferred and scheduleError are retried,
+   * scheduleNoAccess and scheduleUnprocessed are permanent failures.
+   * An exception is treated as scheduleError.
+   *
+   * @param msg to deliver
+   * @return a SchedRecipientResult status
+   * @throws WebdavException on error
+   */
+  int deliver(OutboundMessage msg) throws WebdavException;
+}
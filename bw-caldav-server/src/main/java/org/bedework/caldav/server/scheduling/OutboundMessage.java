@@ -0,0 +1,293 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.scheduling;
+
+import org.bedework.util.misc.ToString;
+
+/** An outbound scheduling message waiting to be delivered. Messages
+ * name the entity rather than carry it - the deliverer sends the
+ * current state of the entity when the message is delivered. That means
+ * a later change by the same owner for the same uid and recipient can
+ * simply replace an undelivered message.
+ *
+ * <p>Entities which have been deleted cannot be reloaded so messages
+ * for a deletion carry the iCalendar form of the entity as it was. So
+ * do messages to attendees the organizer has removed - they get the
+ * CANCEL form of the entity as it was before the change.
+ */
+public class OutboundMessage {
+  /** What the change was */
+  public enum Kind {
+    /** Organizer added or changed the entity */
+    organizerChange,
+
+    /** Organizer deleted the entity or removed the recipient */
+    organizerDelete,
+
+    /** Attendee changed their copy */
+    attendeeChange,
+
+    /** Attendee deleted their copy */
+    attendeeDelete
+  }
+
+  private final long id;
+  private final Kind kind;
+  private final String owner;
+  private final String href;
+  private final String uid;
+  private final String recipient;
+  private final String icalendar;
+  private final long enqueued;
+
+  private int attempts;
+
+  /**
+   * @param id unique within the queue
+   * @param kind of change
+   * @param owner href of principal who made the change
+   * @param href of the entity
+   * @param uid of the entity
+   * @param recipient calendar user address to deliver to
+   * @param icalendar deleted entity - null for changes
+   * @param enqueued time in millis
+   */
+  public OutboundMessage(final long id,
+                         final Kind kind,
+                         final String owner,
+                         final String href,
+                         final String uid,
+                         final String recipient,
+                         final String icalendar,
+                         final long enqueued) {
+    this.id = id;
+    this.kind = kind;
+    this.owner = owner;
+    this.href = href;
+    this.uid = uid;
+    this.recipient = recipient;
+    this.icalendar = icalendar;
+    this.enqueued = enqueued;
+  }
+
+  /**
+   * @return unique within the queue
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * @return kind of change
+   */
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * @return href of principal who made the change
+   */
+  public String getOwner() {
+    return owner;
+  }
+
+  /**
+   * @return href of the entity
+   */
+  public String getHref() {
+    return href;
+  }
+
+  /**
+   * @return uid of the entity
+   */
+  public String getUid() {
+    return uid;
+  }
+
+  /**
+   * @return calendar user address to deliver to
+   */
+  public String getRecipient() {
+    return recipient;
+  }
+
+  /**
+   * @return deleted entity as iCalendar - null for changes
+   */
+  public String getIcalendar() {
+    return icalendar;
+  }
+
+  /**
+   * @return time in millis the message was queued
+   */
+  public long getEnqueued() {
+    return enqueued;
+  }
+
+  /**
+   * @return number of failed delivery attempts
+   */
+  public int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * @return incremented number of failed delivery attempts
+   */
+  int failed() {
+    attempts++;
+    return attempts;
+  }
+
+  /**
+   * @return key used to coalesce messages
+   */
+  String getKey() {
+    return owner + "\t" + uid + "\t" + recipient;
+  }
+
+  /* ========================================================================
+   * Journal encoding
+   * ======================================================================== */
+
+  /** Encode as a single line for the journal
+   *
+   * @return tab separated fields with no line breaks
+   */
+  String encode() {
+    final StringBuilder sb = new StringBuilder();
+
+    sb.append(id);
+    field(sb, kind.name());
+    field(sb, owner);
+    field(sb, href);
+    field(sb, uid);
+    field(sb, recipient);
+    field(sb, icalendar);
+    field(sb, String.valueOf(enqueued));
+
+    return sb.toString();
+  }
+
+  /** Decode a line produced by encode
+   *
+   * @param line from journal
+   * @return message or null if malformed
+   */
+  static OutboundMessage decode(final String line) {
+    final String[] f = line.split("\t", -1);
+
+    if (f.length != 8) {
+      return null;
+    }
+
+    try {
+      return new OutboundMessage(Long.parseLong(f[0]),
+                                 Kind.valueOf(f[1]),
+                                 unescape(f[2]),
+                                 unescape(f[3]),
+                                 unescape(f[4]),
+                                 unescape(f[5]),
+                                 unescape(f[6]),
+                                 Long.parseLong(f[7]));
+    } catch (final IllegalArgumentException iae) {
+      return null;
+    }
+  }
+
+  private static void field(final StringBuilder sb,
+                            final String val) {
+    sb.append('\t');
+
+    if (val == null) {
+      sb.append("\\0");
+      return;
+    }
+
+    for (int i = 0; i < val.length(); i++) {
+      final char ch = val.charAt(i);
+
+      switch (ch) {
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        default:
+          sb.append(ch);
+      }
+    }
+  }
+
+  private static String unescape(final String val) {
+    if ("\\0".equals(val)) {
+      return null;
+    }
+
+    if (val.indexOf('\\') < 0) {
+      return val;
+    }
+
+    final StringBuilder sb = new StringBuilder(val.length());
+
+    for (int i = 0; i < val.length(); i++) {
+      char ch = val.charAt(i);
+
+      if ((ch == '\\') && ((i + 1) < val.length())) {
+        i++;
+        ch = val.charAt(i);
+
+        if (ch == 't') {
+          ch = '\t';
+        } else if (ch == 'n') {
+          ch = '\n';
+        } else if (ch == 'r') {
+          ch = '\r';
+        }
+      }
+
+      sb.append(ch);
+    }
+
+    return sb.toString();
+  }
+
+  @Override
+  public String toString() {
+    final ToString ts = new ToString(this);
+
+    ts.append("id", id);
+    ts.append("kind", kind);
+    ts.append("href", href);
+    ts.append("uid", uid);
+    ts.append("recipient", recipient);
+    ts.append("attempts", attempts);
+
+    return ts.toString();
+  }
+}
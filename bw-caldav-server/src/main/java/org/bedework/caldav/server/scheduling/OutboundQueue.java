@@ -0,0 +1,736 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.scheduling;
+
+import org.bedework.caldav.server.scheduling.OutboundMessage.Kind;
+import org.bedework.caldav.server.sysinterface.SysIntf.SchedRecipientResult;
+import org.bedework.util.jmx.ConfBase;
+import org.bedework.util.logging.BwLogger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/** A durable queue of outbound scheduling messages delivered by a pool
+ * of worker threads after the request which caused them has completed.
+ *
+ * <p>Messages are only queued once the changes which caused them have
+ * been committed. They are keyed by owner, uid and recipient. A message
+ * queued while an earlier one for the same key is still waiting
+ * replaces it - the deliverer always sends the current state of the
+ * entity so only the latest matters. Failed deliveries are retried
+ * with exponential backoff up to maxAttempts.
+ *
+ * <p>Every message is appended to a journal before it is accepted and
+ * a completion record is appended when it is delivered, replaced or
+ * dropped. Undelivered messages are read back when the queue next
+ * starts. The journal is compacted at start and when completion records
+ * dominate. Attempt counts are not journaled.
+ *
+ * <p>The queue starts when the first deliverer is supplied and is
+ * disabled by default. It also stays off until a journal directory has
+ * been configured - a temporary directory could be cleared and lose
+ * accepted messages. Configuration and state are static so they apply
+ * whether or not the bean has been registered.
+ */
+public class OutboundQueue extends ConfBase
+        implements OutboundQueueMBean {
+  /* Name of the property holding the location of the config data */
+  public static final String confuriPname = "org.bedework.caldav.confuri";
+
+  private static final String journalName = "outbound.journal";
+
+  private static volatile boolean enabled;
+
+  /* Must be configured - the queue stays off until it is */
+  private static volatile String journalDir;
+
+  private static volatile boolean syncJournal;
+
+  private static volatile int workers = 4;
+
+  private static volatile int maxAttempts = 10;
+
+  private static volatile long retryDelay = 5000;
+
+  private static volatile long maxRetryDelay = 60 * 60 * 1000;
+
+  /* Everything below is protected by lock */
+  private static final Object lock = new Object();
+
+  private static OutboundDeliverer deliverer;
+
+  private static boolean warnedNoJournal;
+
+  private static Journal journal;
+
+  private static List<Thread> workerThreads;
+
+  private static final Map<String, Slot> slots = new HashMap<>();
+
+  private static final DelayQueue<Due> due = new DelayQueue<>();
+
+  private static long nextId;
+
+  private static int depth;
+  private static int inFlight;
+
+  private static long enqueued;
+  private static long coalesced;
+  private static long delivered;
+  private static long retries;
+  private static long failures;
+  private static long totalLatency;
+  private static long maxLatency;
+
+  private static final BwLogger logger = new BwLogger();
+
+  static {
+    logger.setLoggedClass(OutboundQueue.class);
+  }
+
+  /* State for one owner, uid and recipient */
+  private static class Slot {
+    /* Waiting for delivery */
+    OutboundMessage queued;
+
+    /* Being delivered */
+    OutboundMessage current;
+
+    /* Don't deliver queued before this */
+    long notBefore;
+  }
+
+  /* A slot which may be ready for delivery */
+  private static class Due implements Delayed {
+    final String key;
+    final long time;
+
+    Due(final String key,
+        final long time) {
+      this.key = key;
+      this.time = time;
+    }
+
+    @Override
+    public long getDelay(final TimeUnit unit) {
+      return unit.convert(time - System.currentTimeMillis(),
+                          TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(final Delayed o) {
+      return Long.compare(time, ((Due)o).time);
+    }
+  }
+
+  /**
+   */
+  public OutboundQueue() {
+    super(serviceName);
+
+    setConfigName(configName);
+
+    setConfigPname(confuriPname);
+  }
+
+  /**
+   * @return true if outbound messages should be queued
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Start the queue if it is enabled and not already started. Messages
+   * left in the journal are read back and queued.
+   *
+   * @param val deliverer to use for all messages
+   * @return true if the queue is running and messages may be queued
+   */
+  public static boolean start(final OutboundDeliverer val) {
+    synchronized (lock) {
+      if (!enabled || (val == null)) {
+        return false;
+      }
+
+      if (journalDir == null) {
+        if (!warnedNoJournal) {
+          logger.warn("Outbound queue enabled but no JournalDir " +
+                              "configured - messages are not queued");
+          warnedNoJournal = true;
+        }
+
+        return false;
+      }
+
+      if (deliverer != null) {
+        return true;
+      }
+
+      deliverer = val;
+
+      journal = new Journal(new File(journalDir, journalName));
+
+      for (final OutboundMessage msg: journal.open()) {
+        nextId = Math.max(nextId, msg.getId() + 1);
+        add(msg);
+      }
+
+      workerThreads = new ArrayList<>();
+
+      for (int i = 0; i < Math.max(workers, 1); i++) {
+        final Thread t = new Thread(OutboundQueue::work,
+                                    "caldav-outbound-" + (i + 1));
+        t.setDaemon(true);
+        t.start();
+        workerThreads.add(t);
+      }
+
+      return true;
+    }
+  }
+
+  /** Queue a message. start must have returned true.
+   *
+   * @param kind of change
+   * @param owner href of principal who made the change
+   * @param href of the entity
+   * @param uid of the entity
+   * @param recipient calendar user address to deliver to
+   * @param icalendar deleted entity - null for changes
+   */
+  public static void enqueue(final Kind kind,
+                             final String owner,
+                             final String href,
+                             final String uid,
+                             final String recipient,
+                             final String icalendar) {
+    synchronized (lock) {
+      final OutboundMessage msg =
+              new OutboundMessage(nextId, kind, owner, href, uid,
+                                  recipient, icalendar,
+                                  System.currentTimeMillis());
+      nextId++;
+      enqueued++;
+
+      journal.add(msg);
+      add(msg);
+    }
+  }
+
+  /** Stop the workers. Undelivered messages remain in the journal.
+   */
+  public static void shutdown() {
+    synchronized (lock) {
+      if (workerThreads != null) {
+        for (final Thread t: workerThreads) {
+          t.interrupt();
+        }
+
+        workerThreads = null;
+      }
+
+      if (journal != null) {
+        journal.close();
+        journal = null;
+      }
+
+      deliverer = null;
+      slots.clear();
+      due.clear();
+      depth = 0;
+      inFlight = 0;
+    }
+  }
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  @Override
+  public void setEnabled(final boolean val) {
+    enabled = val;
+  }
+
+  @Override
+  public boolean getEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setJournalDir(final String val) {
+    journalDir = val;
+  }
+
+  @Override
+  public String getJournalDir() {
+    return journalDir;
+  }
+
+  @Override
+  public void setSyncJournal(final boolean val) {
+    syncJournal = val;
+  }
+
+  @Override
+  public boolean getSyncJournal() {
+    return syncJournal;
+  }
+
+  @Override
+  public void setWorkers(final int val) {
+    workers = val;
+  }
+
+  @Override
+  public int getWorkers() {
+    return workers;
+  }
+
+  @Override
+  public void setMaxAttempts(final int val) {
+    maxAttempts = val;
+  }
+
+  @Override
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  @Override
+  public void setRetryDelay(final long val) {
+    retryDelay = val;
+  }
+
+  @Override
+  public long getRetryDelay() {
+    return retryDelay;
+  }
+
+  @Override
+  public void setMaxRetryDelay(final long val) {
+    maxRetryDelay = val;
+  }
+
+  @Override
+  public long getMaxRetryDelay() {
+    return maxRetryDelay;
+  }
+
+  @Override
+  public boolean getStarted() {
+    synchronized (lock) {
+      return deliverer != null;
+    }
+  }
+
+  @Override
+  public int getDepth() {
+    synchronized (lock) {
+      return depth;
+    }
+  }
+
+  @Override
+  public int getInFlight() {
+    synchronized (lock) {
+      return inFlight;
+    }
+  }
+
+  @Override
+  public long getEnqueued() {
+    synchronized (lock) {
+      return enqueued;
+    }
+  }
+
+  @Override
+  public long getCoalesced() {
+    synchronized (lock) {
+      return coalesced;
+    }
+  }
+
+  @Override
+  public long getDelivered() {
+    synchronized (lock) {
+      return delivered;
+    }
+  }
+
+  @Override
+  public long getRetries() {
+    synchronized (lock) {
+      return retries;
+    }
+  }
+
+  @Override
+  public long getFailures() {
+    synchronized (lock) {
+      return failures;
+    }
+  }
+
+  @Override
+  public long getMeanLatency() {
+    synchronized (lock) {
+      if (delivered == 0) {
+        return 0;
+      }
+
+      return totalLatency / delivered;
+    }
+  }
+
+  @Override
+  public long getMaxLatency() {
+    synchronized (lock) {
+      return maxLatency;
+    }
+  }
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  @Override
+  public List<String> showStats() {
+    final List<String> res = new ArrayList<>();
+
+    synchronized (lock) {
+      res.add("started: " + (deliverer != null));
+      res.add("depth: " + depth);
+      res.add("in flight: " + inFlight);
+      res.add("enqueued: " + enqueued);
+      res.add("coalesced: " + coalesced);
+      res.add("delivered: " + delivered);
+      res.add("retries: " + retries);
+      res.add("failures: " + failures);
+      res.add("mean latency: " + getMeanLatency() + " ms");
+      res.add("max latency: " + maxLatency + " ms");
+    }
+
+    return res;
+  }
+
+  @Override
+  public String loadConfig() {
+    return "No config to load";
+  }
+
+  /* ========================================================================
+   * Private methods
+   * ======================================================================== */
+
+  /* Called holding lock */
+  private static void add(final OutboundMessage msg) {
+    final String key = msg.getKey();
+    final Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+
+    final OutboundMessage replaced = slot.queued;
+
+    /* Replace first - done may compact the journal from the slots */
+    slot.queued = msg;
+    slot.notBefore = 0;
+
+    if (replaced != null) {
+      journal.done(replaced.getId());
+      coalesced++;
+    } else {
+      depth++;
+    }
+
+    if (slot.current == null) {
+      due.add(new Due(key, System.currentTimeMillis()));
+    }
+  }
+
+  private static void work() {
+    while (!Thread.currentThread().isInterrupted()) {
+      final Due d;
+
+      try {
+        d = due.take();
+      } catch (final InterruptedException ie) {
+        return;
+      }
+
+      final OutboundMessage msg;
+      final OutboundDeliverer dlvr;
+
+      synchronized (lock) {
+        final Slot slot = slots.get(d.key);
+
+        /* Stale entries are left behind by coalescing and retries */
+        if ((slot == null) || (slot.current != null) ||
+                (slot.queued == null) ||
+                (slot.notBefore > System.currentTimeMillis())) {
+          continue;
+        }
+
+        msg = slot.queued;
+        slot.queued = null;
+        slot.current = msg;
+        depth--;
+        inFlight++;
+        dlvr = deliverer;
+      }
+
+      if (dlvr == null) {
+        // Shut down
+        return;
+      }
+
+      int status;
+
+      try {
+        status = dlvr.deliver(msg);
+      } catch (final Throwable t) {
+        logger.error(t);
+        status = SchedRecipientResult.scheduleError;
+      }
+
+      completed(msg, status);
+    }
+  }
+
+  private static void completed(final OutboundMessage msg,
+                                final int status) {
+    synchronized (lock) {
+      final String key = msg.getKey();
+      final Slot slot = slots.get(key);
+
+      if ((slot == null) || (slot.current != msg)) {
+        // Queue was shut down
+        return;
+      }
+
+      slot.current = null;
+      inFlight--;
+
+      final long now = System.currentTimeMillis();
+
+      if (status == SchedRecipientResult.scheduleOk) {
+        journal.done(msg.getId());
+        delivered++;
+
+        final long latency = now - msg.getEnqueued();
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+      } else if ((status == SchedRecipientResult.scheduleNoAccess) ||
+              (status == SchedRecipientResult.scheduleUnprocessed)) {
+        journal.done(msg.getId());
+        failures++;
+        logger.warn("Dropped undeliverable message " + msg);
+      } else if (slot.queued != null) {
+        // Superseded while we were trying
+        journal.done(msg.getId());
+      } else if (msg.failed() >= maxAttempts) {
+        journal.done(msg.getId());
+        failures++;
+        logger.warn("Dropped message after " + msg.getAttempts() +
+                            " attempts: " + msg);
+      } else {
+        retries++;
+
+        final long delay = Math.min(
+                retryDelay << Math.min(msg.getAttempts() - 1, 30),
+                maxRetryDelay);
+
+        slot.queued = msg;
+        slot.notBefore = now + delay;
+        depth++;
+        due.add(new Due(key, slot.notBefore));
+
+        return;
+      }
+
+      if (slot.queued == null) {
+        slots.remove(key);
+      } else {
+        due.add(new Due(key, now));
+      }
+    }
+  }
+
+  /* Append only file of added and completed messages. Called holding
+     lock. IO errors are logged - the queue carries on in memory.
+   */
+  private static class Journal {
+    private final File file;
+    private FileOutputStream fos;
+    private BufferedWriter out;
+
+    private int live;
+    private int dead;
+
+    Journal(final File file) {
+      this.file = file;
+    }
+
+    /* Read back and compact. Return the undelivered messages */
+    Collection<OutboundMessage> open() {
+      final Map<Long, OutboundMessage> msgs = new LinkedHashMap<>();
+
+      if (file.exists()) {
+        try (final BufferedReader rdr = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file),
+                                      StandardCharsets.UTF_8))) {
+          String line;
+
+          while ((line = rdr.readLine()) != null) {
+            if (line.startsWith("A\t")) {
+              final OutboundMessage msg =
+                      OutboundMessage.decode(line.substring(2));
+
+              if (msg != null) {
+                msgs.put(msg.getId(), msg);
+              }
+            } else if (line.startsWith("D\t")) {
+              try {
+                msgs.remove(Long.valueOf(line.substring(2)));
+              } catch (final NumberFormatException ignored) {
+                // Torn write
+              }
+            }
+          }
+        } catch (final IOException ioe) {
+          logger.error(ioe);
+        }
+      }
+
+      rewrite(msgs.values());
+
+      return msgs.values();
+    }
+
+    void add(final OutboundMessage msg) {
+      live++;
+      write("A\t" + msg.encode());
+    }
+
+    void done(final long id) {
+      live--;
+      dead++;
+      write("D\t" + id);
+
+      if ((dead > 1000) && (dead > (live * 4))) {
+        final List<OutboundMessage> msgs = new ArrayList<>();
+
+        for (final Slot slot: slots.values()) {
+          if (slot.current != null) {
+            msgs.add(slot.current);
+          }
+
+          if (slot.queued != null) {
+            msgs.add(slot.queued);
+          }
+        }
+
+        rewrite(msgs);
+      }
+    }
+
+    void close() {
+      try {
+        if (out != null) {
+          out.close();
+        }
+      } catch (final IOException ioe) {
+        logger.error(ioe);
+      }
+
+      out = null;
+      fos = null;
+    }
+
+    private void write(final String line) {
+      if (out == null) {
+        return;
+      }
+
+      try {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+
+        if (syncJournal) {
+          fos.getFD().sync();
+        }
+      } catch (final IOException ioe) {
+        logger.error(ioe);
+      }
+    }
+
+    /* Write the live messages to a new file and switch to it */
+    private void rewrite(final Collection<OutboundMessage> msgs) {
+      close();
+
+      try {
+        final File dir = file.getParentFile();
+        if ((dir != null) && !dir.exists() && !dir.mkdirs()) {
+          throw new IOException("Unable to create " + dir);
+        }
+
+        final File tmp = new File(file.getPath() + ".tmp");
+
+        try (final BufferedWriter w = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(tmp),
+                                       StandardCharsets.UTF_8))) {
+          for (final OutboundMessage msg: msgs) {
+            w.write("A\t");
+            w.write(msg.encode());
+            w.write('\n');
+          }
+        }
+
+        Files.move(tmp.toPath(), file.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+
+        fos = new FileOutputStream(file, true);
+        out = new BufferedWriter(
+                new OutputStreamWriter(fos, StandardCharsets.UTF_8));
+        live = msgs.size();
+        dead = 0;
+      } catch (final IOException ioe) {
+        logger.error(ioe);
+      }
+    }
+  }
+}
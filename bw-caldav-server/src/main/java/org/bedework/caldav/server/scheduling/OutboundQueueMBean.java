@@ -0,0 +1,192 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.scheduling;
+
+import org.bedework.util.jmx.ConfBaseMBean;
+import org.bedework.util.jmx.MBeanInfo;
+
+import java.util.List;
+
+/** Configure and monitor the outbound scheduling queue.
+ */
+public interface OutboundQueueMBean extends ConfBaseMBean {
+  static final String configName = "OutboundQueue";
+
+  static final String serviceName =
+          "org.bedework.caldav:service=" + configName;
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  /**
+   * @param val true to queue outbound scheduling messages
+   */
+  void setEnabled(boolean val);
+
+  /**
+   * @return true if we queue outbound scheduling messages
+   */
+  @MBeanInfo("True if outbound scheduling messages are queued and " +
+          "delivered after the request completes")
+  boolean getEnabled();
+
+  /**
+   * @param val directory holding the journal
+   */
+  void setJournalDir(String val);
+
+  /**
+   * @return directory holding the journal
+   */
+  @MBeanInfo("Directory holding the queue journal. Required - the " +
+          "queue stays off until it is set. Takes effect when the " +
+          "queue starts")
+  String getJournalDir();
+
+  /**
+   * @param val true to sync the journal to disk on every write
+   */
+  void setSyncJournal(boolean val);
+
+  /**
+   * @return true if we sync the journal to disk on every write
+   */
+  @MBeanInfo("True if the journal is synced to disk on every write")
+  boolean getSyncJournal();
+
+  /**
+   * @param val number of delivery threads
+   */
+  void setWorkers(int val);
+
+  /**
+   * @return number of delivery threads
+   */
+  @MBeanInfo("Number of delivery threads. Takes effect when the queue " +
+          "starts")
+  int getWorkers();
+
+  /**
+   * @param val number of attempts before we give up
+   */
+  void setMaxAttempts(int val);
+
+  /**
+   * @return number of attempts before we give up
+   */
+  @MBeanInfo("Number of delivery attempts before a message is dropped")
+  int getMaxAttempts();
+
+  /**
+   * @param val millis before first retry
+   */
+  void setRetryDelay(long val);
+
+  /**
+   * @return millis before first retry
+   */
+  @MBeanInfo("Milliseconds before the first retry - doubled for each " +
+          "further attempt")
+  long getRetryDelay();
+
+  /**
+   * @param val max millis between retries
+   */
+  void setMaxRetryDelay(long val);
+
+  /**
+   * @return max millis between retries
+   */
+  @MBeanInfo("Max milliseconds between retries")
+  long getMaxRetryDelay();
+
+  /**
+   * @return true if workers are running
+   */
+  @MBeanInfo("True if the queue has been started")
+  boolean getStarted();
+
+  /**
+   * @return number of messages waiting
+   */
+  @MBeanInfo("Number of messages waiting for delivery")
+  int getDepth();
+
+  /**
+   * @return number of messages being delivered
+   */
+  @MBeanInfo("Number of messages being delivered")
+  int getInFlight();
+
+  /**
+   * @return number of messages queued
+   */
+  @MBeanInfo("Number of messages queued")
+  long getEnqueued();
+
+  /**
+   * @return number of messages replaced by a later one
+   */
+  @MBeanInfo("Number of undelivered messages replaced by a later " +
+          "change to the same uid and recipient")
+  long getCoalesced();
+
+  /**
+   * @return number of messages delivered
+   */
+  @MBeanInfo("Number of messages delivered")
+  long getDelivered();
+
+  /**
+   * @return number of retries
+   */
+  @MBeanInfo("Number of failed attempts which were retried")
+  long getRetries();
+
+  /**
+   * @return number of messages dropped
+   */
+  @MBeanInfo("Number of messages dropped after a permanent failure or " +
+          "too many attempts")
+  long getFailures();
+
+  /**
+   * @return mean millis from queue to delivery
+   */
+  @MBeanInfo("Mean milliseconds from queueing to delivery")
+  long getMeanLatency();
+
+  /**
+   * @return max millis from queue to delivery
+   */
+  @MBeanInfo("Max milliseconds from queueing to delivery")
+  long getMaxLatency();
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  /** Display the statistics
+   *
+   * @return list of formatted statistics
+   */
+  @MBeanInfo("Show the queue statistics")
+  List<String> showStats();
+}
@@ -0,0 +1,590 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.scheduling;
+
+import org.bedework.caldav.server.sysinterface.SysIntf;
+import org.bedework.caldav.server.sysinterface.SysIntf.SchedRecipientResult;
+import org.bedework.caldav.server.sysinterface.SysIntfFactory;
+import org.bedework.util.jmx.ConfBase;
+import org.bedework.util.logging.BwLogger;
+import org.bedework.webdav.servlet.shared.WebdavException;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Processes the recipients of a scheduling request on a shared pool of
+ * threads. The pool size is the global cap, the parallelism is the
+ * number of recipients a single request may have outstanding.
+ *
+ * <p>Results are delivered to the handler in the calling thread in the
+ * order the recipients complete so the response can be written as we
+ * go. A recipient which has not completed within the timeout of its
+ * task starting is reported as deferred - time spent waiting for a
+ * thread does not count. Unless the caller asks for it to be cancelled
+ * the task is left to run until the request ends - it may already have
+ * delivered - but the result is discarded. Each task holds the
+ * SysIntf it uses so that it is not recycled for another request until
+ * the task is finished.
+ *
+ * <p>A task must not use the SysIntf once it has been closed. Callers
+ * call {@link #finish(SysIntf)} before closing it to cancel any tasks
+ * still running and wait for them to end.
+ *
+ * <p>Concurrent processing is disabled by default. Configuration is
+ * static so it applies whether or not the bean has been registered.
+ */
+public class RecipientExecutor extends ConfBase
+        implements RecipientExecutorMBean {
+  /* Name of the property holding the location of the config data */
+  public static final String confuriPname = "org.bedework.caldav.confuri";
+
+  /** Process a single recipient
+   */
+  public interface RecipientTask {
+    /**
+     * @param recipient to process
+     * @return result for the recipient
+     * @throws WebdavException on error
+     */
+    SchedRecipientResult process(String recipient) throws WebdavException;
+  }
+
+  /** Called in the calling thread with each result as it completes
+   */
+  public interface ResultHandler {
+    /**
+     * @param srr result for one recipient
+     * @throws WebdavException on error - terminates processing
+     */
+    void handle(SchedRecipientResult srr) throws WebdavException;
+  }
+
+  private static volatile boolean enabled;
+
+  private static volatile int parallelism = 8;
+
+  private static volatile int maxThreads = 32;
+
+  private static volatile long timeout = 10000;
+
+  private static ThreadPoolExecutor executor;
+
+  private static final LongAdder concurrentRequests = new LongAdder();
+  private static final LongAdder recipients = new LongAdder();
+  private static final LongAdder timeouts = new LongAdder();
+  private static final LongAdder errors = new LongAdder();
+
+  /* Tasks left running after timing out, by the SysIntf they use */
+  private static final Map<SysIntf, Map<Future<SchedRecipientResult>, Pending>>
+          outstanding = new IdentityHashMap<>();
+
+  private static final BwLogger logger = new BwLogger();
+
+  static {
+    logger.setLoggedClass(RecipientExecutor.class);
+  }
+
+  /**
+   */
+  public RecipientExecutor() {
+    super(serviceName);
+
+    setConfigName(configName);
+
+    setConfigPname(confuriPname);
+  }
+
+  /**
+   * @return true if concurrent processing is enabled
+   */
+  public static boolean isEnabled() {
+    return enabled && (parallelism > 1) && (maxThreads > 1);
+  }
+
+  /** Process each recipient with the task and pass each result to the
+   * handler as it completes. Timed out tasks are left to run until
+   * finish is called.
+   *
+   * @param sysi used by the task
+   * @param recips recipients to process
+   * @param task to run for each recipient
+   * @param handler for results
+   * @throws WebdavException from the handler
+   */
+  public static void process(final SysIntf sysi,
+                             final Iterable<String> recips,
+                             final RecipientTask task,
+                             final ResultHandler handler)
+          throws WebdavException {
+    process(sysi, recips, task, handler, false);
+  }
+
+  /** Process each recipient with the task and pass each result to the
+   * handler as it completes. A recipient whose task fails is reported
+   * with scheduleError, one which times out with scheduleDeferred.
+   *
+   * <p>Tasks must not touch state belonging to the request other than
+   * that they were explicitly given.
+   *
+   * @param sysi used by the task - held until each task is done
+   * @param recips recipients to process
+   * @param task to run for each recipient
+   * @param handler for results
+   * @param cancelOnTimeout true to interrupt a task which times out -
+   *                        for tasks with no lasting effect such as
+   *                        free-busy lookups
+   * @throws WebdavException from the handler
+   */
+  public static void process(final SysIntf sysi,
+                             final Iterable<String> recips,
+                             final RecipientTask task,
+                             final ResultHandler handler,
+                             final boolean cancelOnTimeout)
+          throws WebdavException {
+    concurrentRequests.increment();
+
+    final ExecutorCompletionService<SchedRecipientResult> ecs =
+            new ExecutorCompletionService<>(getExecutor());
+
+    /* Outstanding tasks in submission order */
+    final Map<Future<SchedRecipientResult>, Pending> pending =
+            new LinkedHashMap<>();
+    final Iterator<String> it = recips.iterator();
+    final int window = parallelism;
+
+    try {
+      while (it.hasNext() && (pending.size() < window)) {
+        submit(ecs, pending, sysi, it.next(), task);
+      }
+
+      while (!pending.isEmpty()) {
+        final long wait = nextDeadline(pending.values()) -
+                System.currentTimeMillis();
+
+        final Future<SchedRecipientResult> f;
+
+        if (wait <= 0) {
+          f = null;
+        } else {
+          f = ecs.poll(wait, TimeUnit.MILLISECONDS);
+        }
+
+        if (f != null) {
+          final Pending p = pending.remove(f);
+
+          if (p == null) {
+            // Already reported as deferred
+            continue;
+          }
+
+          handler.handle(result(f, p.recipient));
+        } else {
+          final long now = System.currentTimeMillis();
+          final Iterator<Map.Entry<Future<SchedRecipientResult>, Pending>> pit =
+                  pending.entrySet().iterator();
+
+          while (pit.hasNext()) {
+            final Map.Entry<Future<SchedRecipientResult>, Pending> ent =
+                    pit.next();
+            final Pending p = ent.getValue();
+
+            if (p.deadline() > now) {
+              continue;
+            }
+
+            pit.remove();
+            timeouts.increment();
+
+            if (cancelOnTimeout) {
+              cancel(ent.getKey(), p);
+            } else {
+              leaveRunning(sysi, ent.getKey(), p);
+            }
+
+            final SchedRecipientResult srr = new SchedRecipientResult();
+            srr.recipient = p.recipient;
+            srr.status = SchedRecipientResult.scheduleDeferred;
+
+            handler.handle(srr);
+          }
+        }
+
+        while (it.hasNext() && (pending.size() < window)) {
+          submit(ecs, pending, sysi, it.next(), task);
+        }
+      }
+    } catch (final InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new WebdavException(ie);
+    } finally {
+      /* Only reached with tasks pending on an error - they are of no
+         further use.
+       */
+      for (final Map.Entry<Future<SchedRecipientResult>, Pending> ent:
+              pending.entrySet()) {
+        cancel(ent.getKey(), ent.getValue());
+      }
+    }
+  }
+
+  /** Cancel any tasks for the SysIntf which were left running after
+   * timing out and wait for them to end. Must be called before the
+   * SysIntf is closed.
+   *
+   * @param sysi the tasks were given
+   */
+  public static void finish(final SysIntf sysi) {
+    if (sysi == null) {
+      return;
+    }
+
+    final Map<Future<SchedRecipientResult>, Pending> left;
+
+    synchronized (outstanding) {
+      left = outstanding.remove(sysi);
+    }
+
+    if (left == null) {
+      return;
+    }
+
+    for (final Map.Entry<Future<SchedRecipientResult>, Pending> ent:
+            left.entrySet()) {
+      cancel(ent.getKey(), ent.getValue());
+    }
+
+    for (final Pending p: left.values()) {
+      p.awaitEnd();
+    }
+  }
+
+  /** Stop the executor. A new one is created if needed.
+   */
+  public static void shutdown() {
+    synchronized (RecipientExecutor.class) {
+      if (executor != null) {
+        executor.shutdownNow();
+        executor = null;
+      }
+    }
+  }
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  @Override
+  public void setEnabled(final boolean val) {
+    enabled = val;
+  }
+
+  @Override
+  public boolean getEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setParallelism(final int val) {
+    parallelism = val;
+  }
+
+  @Override
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  @Override
+  public void setMaxThreads(final int val) {
+    synchronized (RecipientExecutor.class) {
+      maxThreads = val;
+
+      if ((executor != null) && (val > 0)) {
+        if (val > executor.getMaximumPoolSize()) {
+          executor.setMaximumPoolSize(val);
+          executor.setCorePoolSize(val);
+        } else {
+          executor.setCorePoolSize(val);
+          executor.setMaximumPoolSize(val);
+        }
+      }
+    }
+  }
+
+  @Override
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  @Override
+  public void setTimeout(final long val) {
+    timeout = val;
+  }
+
+  @Override
+  public long getTimeout() {
+    return timeout;
+  }
+
+  @Override
+  public long getConcurrentRequests() {
+    return concurrentRequests.sum();
+  }
+
+  @Override
+  public long getRecipients() {
+    return recipients.sum();
+  }
+
+  @Override
+  public long getTimeouts() {
+    return timeouts.sum();
+  }
+
+  @Override
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  @Override
+  public String loadConfig() {
+    return "No config to load";
+  }
+
+  /* ========================================================================
+   * Private methods
+   * ======================================================================== */
+
+  private static final int queued = 0;
+  private static final int running = 1;
+  private static final int done = 2;
+
+  private static class Pending {
+    final SysIntf sysi;
+    final String recipient;
+    final long timeout;
+
+    /* Whoever moves it out of queued is responsible for the hold */
+    final AtomicInteger state = new AtomicInteger(queued);
+
+    /* Set by the pool thread when the task starts - 0 until then */
+    volatile long started;
+
+    /* Counted down when the task will no longer use the SysIntf */
+    final CountDownLatch ended = new CountDownLatch(1);
+
+    Pending(final SysIntf sysi,
+            final String recipient,
+            final long timeout) {
+      this.sysi = sysi;
+      this.recipient = recipient;
+      this.timeout = timeout;
+    }
+
+    boolean start() {
+      return state.compareAndSet(queued, running);
+    }
+
+    /* Called by the task when it finishes */
+    void finished() {
+      state.set(done);
+      unhold();
+      ended.countDown();
+    }
+
+    /* Called when cancelled - the task will not run if still queued */
+    void dropIfQueued() {
+      if (state.compareAndSet(queued, done)) {
+        unhold();
+        ended.countDown();
+      }
+    }
+
+    /* Wait for the task to end. Interrupts are ignored - the SysIntf
+       must not be closed under the task - but preserved.
+     */
+    void awaitEnd() {
+      boolean interrupted = false;
+
+      try {
+        while (true) {
+          try {
+            if (ended.await(timeout, TimeUnit.MILLISECONDS)) {
+              return;
+            }
+
+            logger.warn("Still waiting for cancelled task for " +
+                                recipient);
+          } catch (final InterruptedException ie) {
+            interrupted = true;
+          }
+        }
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    private void unhold() {
+      if (sysi != null) {
+        SysIntfFactory.unhold(sysi);
+      }
+    }
+
+    /* Long.MAX_VALUE while still queued */
+    long deadline() {
+      final long st = started;
+
+      if (st == 0) {
+        return Long.MAX_VALUE;
+      }
+
+      return st + timeout;
+    }
+  }
+
+  /* The earliest deadline of the started tasks. If none have started we
+     wait a whole timeout - nothing started after now can expire sooner.
+   */
+  private static long nextDeadline(final Iterable<Pending> pending) {
+    final long now = System.currentTimeMillis();
+    long next = now + timeout;
+
+    for (final Pending p: pending) {
+      next = Math.min(next, p.deadline());
+    }
+
+    return next;
+  }
+
+  private static void submit(
+          final ExecutorCompletionService<SchedRecipientResult> ecs,
+          final Map<Future<SchedRecipientResult>, Pending> pending,
+          final SysIntf sysi,
+          final String recipient,
+          final RecipientTask task) {
+    recipients.increment();
+
+    final Pending p = new Pending(sysi, recipient, timeout);
+
+    if (sysi != null) {
+      SysIntfFactory.hold(sysi);
+    }
+
+    final Future<SchedRecipientResult> f;
+
+    try {
+      f = ecs.submit(() -> {
+        if (!p.start()) {
+          return null;
+        }
+
+        try {
+          p.started = System.currentTimeMillis();
+          return task.process(recipient);
+        } finally {
+          p.finished();
+        }
+      });
+    } catch (final RuntimeException re) {
+      p.dropIfQueued();
+      throw re;
+    }
+
+    pending.put(f, p);
+  }
+
+  private static void leaveRunning(final SysIntf sysi,
+                                   final Future<SchedRecipientResult> f,
+                                   final Pending p) {
+    if (sysi == null) {
+      return;
+    }
+
+    synchronized (outstanding) {
+      outstanding.computeIfAbsent(sysi, k -> new LinkedHashMap<>())
+                 .put(f, p);
+    }
+  }
+
+  private static void cancel(final Future<SchedRecipientResult> f,
+                             final Pending p) {
+    f.cancel(true);
+
+    /* A running task drops its own hold when it finishes */
+    p.dropIfQueued();
+  }
+
+  private static SchedRecipientResult result(
+          final Future<SchedRecipientResult> f,
+          final String recipient) throws InterruptedException {
+    try {
+      final SchedRecipientResult srr = f.get();
+
+      if (srr != null) {
+        if (srr.recipient == null) {
+          srr.recipient = recipient;
+        }
+
+        return srr;
+      }
+    } catch (final ExecutionException ee) {
+      errors.increment();
+      logger.error(ee.getCause());
+    }
+
+    final SchedRecipientResult srr = new SchedRecipientResult();
+    srr.recipient = recipient;
+    srr.status = SchedRecipientResult.scheduleError;
+
+    return srr;
+  }
+
+  private static ThreadPoolExecutor getExecutor() {
+    synchronized (RecipientExecutor.class) {
+      if (executor == null) {
+        final AtomicInteger threadNum = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                                          60, TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<>(),
+                                          r -> {
+          final Thread t = new Thread(r, "caldav-recipient-" +
+                  threadNum.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+      }
+
+      return executor;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.scheduling;
+
+import org.bedework.util.jmx.ConfBaseMBean;
+import org.bedework.util.jmx.MBeanInfo;
+
+/** Configure and monitor concurrent processing of scheduling
+ * recipients.
+ */
+public interface RecipientExecutorMBean extends ConfBaseMBean {
+  static final String configName = "RecipientExecutor";
+
+  static final String serviceName =
+          "org.bedework.caldav:service=" + configName;
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  /**
+   * @param val true to process recipients concurrently
+   */
+  void setEnabled(boolean val);
+
+  /**
+   * @return true if we process recipients concurrently
+   */
+  @MBeanInfo("True if scheduling recipients are processed concurrently")
+  boolean getEnabled();
+
+  /**
+   * @param val max number of concurrent recipients per request
+   */
+  void setParallelism(int val);
+
+  /**
+   * @return max number of concurrent recipients per request
+   */
+  @MBeanInfo("Max number of recipients processed concurrently per request")
+  int getParallelism();
+
+  /**
+   * @param val max number of threads for all requests
+   */
+  void setMaxThreads(int val);
+
+  /**
+   * @return max number of threads for all requests
+   */
+  @MBeanInfo("Max number of recipient threads shared by all requests")
+  int getMaxThreads();
+
+  /**
+   * @param val millis we wait for a recipient
+   */
+  void setTimeout(long val);
+
+  /**
+   * @return millis we wait for a recipient
+   */
+  @MBeanInfo("Milliseconds we wait for a single recipient before " +
+          "reporting it as deferred")
+  long getTimeout();
+
+  /**
+   * @return number of requests processed concurrently
+   */
+  @MBeanInfo("Number of requests which processed recipients concurrently")
+  long getConcurrentRequests();
+
+  /**
+   * @return number of recipients processed by the executor
+   */
+  @MBeanInfo("Number of recipients processed by the executor")
+  long getRecipients();
+
+  /**
+   * @return number of recipients reported as deferred
+   */
+  @MBeanInfo("Number of recipients which timed out and were deferred")
+  long getTimeouts();
+
+  /**
+   * @return number of recipients which failed
+   */
+  @MBeanInfo("Number of recipients which failed with an error")
+  long getErrors();
+}
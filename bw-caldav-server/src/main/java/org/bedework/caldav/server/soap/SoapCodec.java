@@ -0,0 +1,229 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.soap;
+
+import org.bedework.caldav.server.soap.SoapHandler.UnmarshalResult;
+import org.bedework.webdav.servlet.shared.WebdavException;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/** Reads and writes SOAP 1.1 envelopes with StAX. The header and body
+ * are unmarshalled straight from the parser and responses are marshalled
+ * straight to the output stream so no DOM is built in either direction.
+ *
+ * <p>One codec is shared per JAXB context. Marshallers and unmarshallers
+ * are not thread safe so each thread keeps its own.
+ */
+public class SoapCodec {
+  /** SOAP 1.1 envelope namespace */
+  public static final String soapNs =
+          "http://schemas.xmlsoap.org/soap/envelope/";
+
+  /** SOAP 1.2 envelope namespace - accepted on input */
+  public static final String soap12Ns =
+          "http://www.w3.org/2003/05/soap-envelope";
+
+  private static final XMLInputFactory inFactory;
+
+  private static final XMLOutputFactory outFactory =
+          XMLOutputFactory.newInstance();
+
+  static {
+    inFactory = XMLInputFactory.newInstance();
+    inFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    inFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    inFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                          false);
+  }
+
+  private final ThreadLocal<Marshaller> marshallers;
+
+  private final ThreadLocal<Unmarshaller> unmarshallers;
+
+  /**
+   * @param jc the context for the message bodies
+   */
+  public SoapCodec(final JAXBContext jc) {
+    marshallers = ThreadLocal.withInitial(() -> {
+      try {
+        final Marshaller m = jc.createMarshaller();
+
+        // We write the envelope and document
+        m.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+
+        return m;
+      } catch (final Throwable t) {
+        throw new RuntimeException(t);
+      }
+    });
+
+    unmarshallers = ThreadLocal.withInitial(() -> {
+      try {
+        return jc.createUnmarshaller();
+      } catch (final Throwable t) {
+        throw new RuntimeException(t);
+      }
+    });
+  }
+
+  /** Read an envelope. At most one header element is unmarshalled.
+   *
+   * @param in the request stream
+   * @return header and body
+   * @throws WebdavException on a bad envelope or unmarshal error
+   */
+  public UnmarshalResult read(final InputStream in) throws WebdavException {
+    XMLStreamReader rdr = null;
+
+    try {
+      final UnmarshalResult res = new UnmarshalResult();
+      final Unmarshaller u = unmarshallers.get();
+
+      rdr = inFactory.createXMLStreamReader(in);
+
+      rdr.nextTag();
+      expect(rdr, "Envelope");
+
+      rdr.nextTag();
+
+      if (isSoap(rdr, "Header")) {
+        rdr.nextTag();
+
+        // Only expect one header at most.
+        if (rdr.isStartElement()) {
+          res.hdrs = new Object[1];
+          res.hdrs[0] = u.unmarshal(rdr);
+        }
+
+        skipToEnd(rdr);
+        rdr.nextTag();
+      }
+
+      expect(rdr, "Body");
+      rdr.nextTag();
+
+      if (!rdr.isStartElement()) {
+        throw new WebdavException("Empty SOAP body");
+      }
+
+      res.body = u.unmarshal(rdr);
+
+      return res;
+    } catch (final WebdavException we) {
+      throw we;
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    } finally {
+      if (rdr != null) {
+        try {
+          rdr.close();
+        } catch (final Throwable ignored) {}
+      }
+    }
+  }
+
+  /** Write an envelope holding the given body. The stream is flushed
+   * but not closed.
+   *
+   * @param o body - an element or object with a root element annotation
+   * @param out the response stream
+   * @throws WebdavException on marshal or write error
+   */
+  public void write(final Object o,
+                    final OutputStream out) throws WebdavException {
+    try {
+      final XMLStreamWriter wtr =
+              outFactory.createXMLStreamWriter(out, "UTF-8");
+
+      wtr.writeStartDocument("UTF-8", "1.0");
+      wtr.setPrefix("soap", soapNs);
+      wtr.writeStartElement("soap", "Envelope", soapNs);
+      wtr.writeNamespace("soap", soapNs);
+      wtr.writeStartElement("soap", "Body", soapNs);
+
+      marshallers.get().marshal(o, wtr);
+
+      wtr.writeEndElement();
+      wtr.writeEndElement();
+      wtr.writeEndDocument();
+      wtr.flush();
+      wtr.close();
+
+      out.flush();
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    }
+  }
+
+  /* ====================================================================
+   *                   Private methods
+   * ==================================================================== */
+
+  private static boolean isSoap(final XMLStreamReader rdr,
+                                final String name) {
+    if (!rdr.isStartElement() || !name.equals(rdr.getLocalName())) {
+      return false;
+    }
+
+    final String ns = rdr.getNamespaceURI();
+
+    return soapNs.equals(ns) || soap12Ns.equals(ns);
+  }
+
+  private static void expect(final XMLStreamReader rdr,
+                             final String name) throws WebdavException {
+    if (!isSoap(rdr, name)) {
+      throw new WebdavException("Expected SOAP " + name);
+    }
+  }
+
+  /* Skip anything left in the current element, leaving the reader on
+     its end tag */
+  private static void skipToEnd(final XMLStreamReader rdr)
+          throws Throwable {
+    int depth = 0;
+
+    while (true) {
+      final int ev = rdr.getEventType();
+
+      if (ev == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (ev == XMLStreamConstants.END_ELEMENT) {
+        if (depth == 0) {
+          return;
+        }
+        depth--;
+      } else if (ev == XMLStreamConstants.END_DOCUMENT) {
+        throw new WebdavException("Unexpected end of SOAP message");
+      }
+
+      rdr.next();
+    }
+  }
+}
@@ -34,19 +34,17 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
 import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.soap.MessageFactory;
-import javax.xml.soap.SOAPBody;
-import javax.xml.soap.SOAPHeader;
-import javax.xml.soap.SOAPMessage;
 
 /** Class extended by classes which handle special SOAP requests, e.g. the
  * exchange synch service etc.
@@ -54,11 +52,18 @@ import javax.xml.soap.SOAPMessage;
  * @author Mike Douglass
  */
 public abstract class SoapHandler extends MethodBase {
-  private MessageFactory soapMsgFactory;
   protected JAXBContext jc;
 
+  protected SoapCodec codec;
+
   protected static final Object monitor = new Object();
 
+  private static final Map<String, JAXBContext> contexts =
+          new ConcurrentHashMap<>();
+
+  private static final Map<String, SoapCodec> codecs =
+          new ConcurrentHashMap<>();
+
   /**
    * @param intf
    * @throws WebdavException on soap error
@@ -67,22 +72,60 @@ public abstract class SoapHandler extends MethodBase {
     nsIntf = intf;
 
     try {
-      if (soapMsgFactory == null) {
-        soapMsgFactory = MessageFactory.newInstance();
-      }
-
       if (jc == null) {
-        jc = JAXBContext.newInstance(getJaxbContextPath());
-
-//        if (debug()) {
-  //        debug("Created JAXBContext: " + jc);
-    //    }
+        jc = getJaxbContext(getJaxbContextPath());
       }
+
+      codec = getCodec(getJaxbContextPath());
     } catch(Throwable t) {
       throw new WebdavException(t);
     }
   }
 
+  /** Codecs hold per-thread marshallers for their context so we share
+   * one per context path between all handlers.
+   *
+   * @param contextPath for JAXBContext.newInstance
+   * @return shared codec
+   * @throws JAXBException on error
+   */
+  public static SoapCodec getCodec(final String contextPath)
+          throws JAXBException {
+    final SoapCodec c = codecs.get(contextPath);
+    if (c != null) {
+      return c;
+    }
+
+    final JAXBContext ctx = getJaxbContext(contextPath);
+
+    return codecs.computeIfAbsent(contextPath, p -> new SoapCodec(ctx));
+  }
+
+  /** Contexts are thread safe and expensive to create so we share one
+   * per context path between all handlers.
+   *
+   * @param contextPath for JAXBContext.newInstance
+   * @return shared context
+   * @throws JAXBException on error
+   */
+  public static JAXBContext getJaxbContext(final String contextPath)
+          throws JAXBException {
+    final JAXBContext ctx = contexts.get(contextPath);
+    if (ctx != null) {
+      return ctx;
+    }
+
+    synchronized (contexts) {
+      JAXBContext newCtx = contexts.get(contextPath);
+      if (newCtx == null) {
+        newCtx = JAXBContext.newInstance(contextPath);
+        contexts.put(contextPath, newCtx);
+      }
+
+      return newCtx;
+    }
+  }
+
   /**
    * @return String required to for JAXBContext.newInstance
    */
@@ -116,30 +159,15 @@ public abstract class SoapHandler extends MethodBase {
 
   protected UnmarshalResult unmarshal(final HttpServletRequest req) throws WebdavException {
     try {
-      UnmarshalResult res = new UnmarshalResult();
-
-      SOAPMessage msg = soapMsgFactory.createMessage(null, // headers
-                                                     req.getInputStream());
-
-      SOAPBody body = msg.getSOAPBody();
-      SOAPHeader hdrMsg = msg.getSOAPHeader();
-
-      Unmarshaller u = jc.createUnmarshaller();
-
-      // Only expect one header at most.
-      if ((hdrMsg != null) && hdrMsg.hasChildNodes()) {
-        res.hdrs = new Object[1];
-        res.hdrs[0] = u.unmarshal(hdrMsg.getFirstChild());
-      }
-
-      res.body = u.unmarshal(body.getFirstChild());
-
-      return res;
+      return codec.read(req.getInputStream());
+    } catch (final WebdavException we) {
+      throw we;
     } catch(Throwable t) {
       throw new WebdavException(t);
     }
   }
 
+
   /**
    * @return current account
    */
@@ -162,7 +190,6 @@ public abstract class SoapHandler extends MethodBase {
                              final Object o) throws WebdavException {
     try {
       Marshaller marshaller = jc.createMarshaller();
-      marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
 
       DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
       dbf.setNamespaceAware(true);
@@ -182,26 +209,10 @@ public abstract class SoapHandler extends MethodBase {
 
   protected void marshal(final Object o,
                          final OutputStream out) throws WebdavException {
-    try {
-      Marshaller marshaller = jc.createMarshaller();
-      marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-
-      DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-      dbf.setNamespaceAware(true);
-      Document doc = dbf.newDocumentBuilder().newDocument();
-
-      SOAPMessage msg = soapMsgFactory.createMessage();
-      msg.getSOAPBody().addDocument(doc);
-
-      marshaller.marshal(o,
-                         msg.getSOAPBody());
-
-      msg.writeTo(out);
-    } catch(Throwable t) {
-      throw new WebdavException(t);
-    }
+    codec.write(o, out);
   }
 
+
   @SuppressWarnings("unchecked")
   protected JAXBElement makeJAXBElement(final QName name,
                                         final Class cl,
@@ -26,6 +26,8 @@ import org.bedework.caldav.server.CaldavComponentNode;
 import org.bedework.caldav.server.CaldavPrincipalNode;
 import org.bedework.caldav.server.RequestPars;
 import org.bedework.caldav.server.SysiIcalendar;
+import org.bedework.caldav.server.calquery.FreeBusyEngine;
+import org.bedework.caldav.server.calquery.QueryExecutor;
 import org.bedework.caldav.server.soap.SoapHandler;
 import org.bedework.caldav.server.sysinterface.CalDAVAuthProperties;
 import org.bedework.caldav.server.sysinterface.SysIntf.IcalResultType;
@@ -98,8 +100,10 @@ import org.oasis_open.docs.ws_calendar.ns.soap.UpdateItemType;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -116,6 +120,11 @@ public class CalwsHandler extends SoapHandler {
 
   static ObjectFactory of = new ObjectFactory();
 
+  /** The JAXB context path for CalWS-SOAP messages */
+  public static final String jaxbContextPath =
+          "org.oasis_open.docs.ws_calendar.ns.soap:" +
+          XRDType.class.getPackage().getName();
+
   /**
    * @param intf the interface
    * @throws WebdavException on soap error
@@ -126,8 +135,7 @@ public class CalwsHandler extends SoapHandler {
 
   @Override
   protected String getJaxbContextPath() {
-    return "org.oasis_open.docs.ws_calendar.ns.soap:" +
-           XRDType.class.getPackage().getName();
+    return jaxbContextPath;
   }
 
   /**
@@ -228,11 +236,28 @@ public class CalwsHandler extends SoapHandler {
       ArrayOfResponses aor = new ArrayOfResponses();
       mor.setResponses(aor);
 
+      /* Runs of read only operations may execute concurrently. Anything
+         else runs here, in order, once the reads before it are done so
+         it sees - and its changes are seen by - everything in order.
+       */
+      final boolean concurrent = QueryExecutor.isEnabled() &&
+              getSysi().allowsConcurrentReads();
+      final List<Callable<JAXBElement<? extends BaseResponseType>>> reads =
+              new ArrayList<>();
+
       for (BaseRequestType breq:
            mo.getOperations().getGetPropertiesOrFreebusyReportOrCalendarQuery()) {
+        if (concurrent && isConcurrentRead(breq)) {
+          reads.add(() -> processRequest(req, resp, breq, pars, true));
+          continue;
+        }
+
+        runReads(reads, aor);
         aor.getBaseResponse().add(processRequest(req, resp, breq, pars, true));
       }
 
+      runReads(reads, aor);
+
       marshal(jax, resp.getOutputStream());
 
       return jax;
@@ -243,6 +268,27 @@ public class CalwsHandler extends SoapHandler {
     }
   }
 
+  /* Operations which only read from the backend */
+  private static boolean isConcurrentRead(final BaseRequestType breq) {
+    return (breq instanceof GetPropertiesType) ||
+            (breq instanceof FreebusyReportType) ||
+            (breq instanceof CalendarQueryType) ||
+            (breq instanceof CalendarMultigetType) ||
+            (breq instanceof FetchItemType);
+  }
+
+  /* Run the reads, adding the responses in request order */
+  private void runReads(final List<Callable<JAXBElement<? extends BaseResponseType>>> reads,
+                        final ArrayOfResponses aor) throws WebdavException {
+    if (reads.isEmpty()) {
+      return;
+    }
+
+    QueryExecutor.invokeOrdered(getSysi(), reads,
+                                (i, res) -> aor.getBaseResponse().add(res));
+    reads.clear();
+  }
+
   private JAXBElement<GetPropertiesResponseType> doGetProperties(final GetPropertiesType gp,
                                final HttpServletResponse resp,
                                final boolean multi) throws WebdavException {
@@ -411,16 +457,16 @@ public class CalwsHandler extends SoapHandler {
         recipients.add(cua);
         ev.setRecipients(recipients);
 
-        Collection<SchedRecipientResult> srrs = getSysi().requestFreeBusy(ev, false);
+        SchedRecipientResult sr =
+                FreeBusyEngine.requestFreeBusy(getSysi(), ev, null,
+                                               cua, false);
 
-        if (srrs.size() != 1) {
+        if (sr.freeBusy == null) {
           frr.setStatus(StatusType.ERROR);
           frr.setMessage("No data returned");
           break buildResponse;
         }
 
-        SchedRecipientResult sr = srrs.iterator().next();
-
         frr.setIcalendar(getSysi().toIcalendar(sr.freeBusy, false, null));
         frr.setStatus(StatusType.OK);
       } // buildResponse
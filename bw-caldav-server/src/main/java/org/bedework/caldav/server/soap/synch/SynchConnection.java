@@ -19,9 +19,12 @@
 package org.bedework.caldav.server.soap.synch;
 
 import java.util.Date;
-
+import java.util.concurrent.atomic.AtomicLong;
 
 /** This represents an active connection to a synch engine.
+ *
+ * <p>Connections are shared between request threads so the token and
+ * ping time are volatile and the counters atomic.
  *
  * @author douglm
  */
@@ -30,9 +33,15 @@ public class SynchConnection {
 
   private String subscribeUrl;
 
-  private String synchToken;
+  private volatile String synchToken;
+
+  private volatile long lastPing;
+
+  private final long created = System.currentTimeMillis();
 
-  private long lastPing;
+  private final AtomicLong pings = new AtomicLong();
+
+  private final AtomicLong badTokens = new AtomicLong();
 
   /**
    * @param connectorId
@@ -103,6 +112,42 @@ public class SynchConnection {
     return lastPing;
   }
 
+  /**
+   * @return when this connection was created
+   */
+  public long getCreated() {
+    return created;
+  }
+
+  /** Record a successful keepalive
+   *
+   * @param val time of the ping
+   */
+  public void ping(final long val) {
+    lastPing = val;
+    pings.incrementAndGet();
+  }
+
+  /**
+   * @return number of successful keepalives
+   */
+  public long getPings() {
+    return pings.get();
+  }
+
+  /** Record a keepalive or request with the wrong token
+   */
+  public void badToken() {
+    badTokens.incrementAndGet();
+  }
+
+  /**
+   * @return number of keepalives or requests with the wrong token
+   */
+  public long getBadTokens() {
+    return badTokens.get();
+  }
+
   /**
    * @return short string for display
    */
@@ -119,12 +164,19 @@ public class SynchConnection {
 
     sb.append("\", token: \"");
     sb.append(getSynchToken());
+    sb.append("\"");
 
     if (getLastPing() != 0) {
-      sb.append("\", ping: ");
+      sb.append(", ping: ");
       sb.append(new Date(getLastPing()).toString());
     }
 
+    sb.append(", pings: ");
+    sb.append(getPings());
+
+    sb.append(", badTokens: ");
+    sb.append(getBadTokens());
+
     sb.append("}");
 
     return sb.toString();
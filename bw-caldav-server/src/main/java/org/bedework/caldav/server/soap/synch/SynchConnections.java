@@ -19,11 +19,15 @@
 package org.bedework.caldav.server.soap.synch;
 
 import org.bedework.util.jmx.ConfBase;
-import org.bedework.util.misc.Util;
+import org.bedework.util.logging.BwLogger;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** This is a simple bean to handle the dynamic connections made between the
  * CalDAV server and synch engines. These connections are defined by no more
@@ -35,6 +39,10 @@ import java.util.Map;
  * <p>At this point I'm not sure how there can be more than one useful callback
  * url. How do we select which one to callback to?
  *
+ * <p>Both tables are concurrent and are only updated while holding the
+ * url entry so they stay in step without a global lock. A reaper removes
+ * connections which have not pinged within the connection ttl.
+ *
  * @author douglm
  */
 public class SynchConnections extends ConfBase
@@ -43,12 +51,27 @@ public class SynchConnections extends ConfBase
   public static final String confuriPname = "org.bedework.caldav.confuri";
 
   /* A map indexed by the url which identifies 'open' connections */
-  static Map<String, SynchConnection> activeConnections =
-      new HashMap<>();
+  static final ConcurrentHashMap<String, SynchConnection> activeConnections =
+      new ConcurrentHashMap<>();
 
   /* A map indexed by the id which identifies 'open' connections */
-  static Map<String, SynchConnection> activeConnectionsById =
-      new HashMap<>();
+  static final ConcurrentHashMap<String, SynchConnection> activeConnectionsById =
+      new ConcurrentHashMap<>();
+
+  private static volatile int connectionTtl = 10 * 60;
+
+  private static volatile int reapInterval = 60;
+
+  private static ScheduledExecutorService reaper;
+
+  private static final AtomicLong connectionsAdded = new AtomicLong();
+  private static final AtomicLong connectionsReaped = new AtomicLong();
+
+  private static final BwLogger logger = new BwLogger();
+
+  static {
+    logger.setLoggedClass(SynchConnections.class);
+  }
 
   public SynchConnections() {
     super(serviceName);
@@ -63,18 +86,103 @@ public class SynchConnections extends ConfBase
     return "No config to load";
   }
 
+  /** Stop the reaper. It is restarted when a connection is set.
+   */
+  public static void shutdown() {
+    synchronized (SynchConnections.class) {
+      if (reaper != null) {
+        reaper.shutdownNow();
+        reaper = null;
+      }
+    }
+  }
+
   /* ========================================================================
    * Attributes
    * ======================================================================== */
 
+  @Override
+  public void setConnectionTtl(final int val) {
+    connectionTtl = val;
+  }
+
+  @Override
+  public int getConnectionTtl() {
+    return connectionTtl;
+  }
+
+  @Override
+  public void setReapInterval(final int val) {
+    reapInterval = val;
+
+    // Pick up the new interval next time round
+    shutdown();
+    if (!activeConnections.isEmpty()) {
+      startReaper();
+    }
+  }
+
+  @Override
+  public int getReapInterval() {
+    return reapInterval;
+  }
+
+  @Override
+  public int getConnectionCount() {
+    return activeConnections.size();
+  }
+
+  @Override
+  public long getConnectionsAdded() {
+    return connectionsAdded.get();
+  }
+
+  @Override
+  public long getConnectionsReaped() {
+    return connectionsReaped.get();
+  }
+
+  @Override
+  public long getPings() {
+    long res = 0;
+
+    for (final SynchConnection sc: activeConnections.values()) {
+      res += sc.getPings();
+    }
+
+    return res;
+  }
+
+  @Override
+  public long getBadTokens() {
+    long res = 0;
+
+    for (final SynchConnection sc: activeConnections.values()) {
+      res += sc.getBadTokens();
+    }
+
+    return res;
+  }
+
   /* ========================================================================
    * Operations
    * ======================================================================== */
 
   @Override
   public void setConnection(final SynchConnection val) {
-    activeConnections.put(val.getSubscribeUrl(), val);
-    activeConnectionsById.put(val.getConnectorId(), val);
+    activeConnections.compute(val.getSubscribeUrl(), (url, old) -> {
+      if (old == null) {
+        connectionsAdded.incrementAndGet();
+      } else if (old != val) {
+        activeConnectionsById.remove(old.getConnectorId(), old);
+      }
+
+      activeConnectionsById.put(val.getConnectorId(), val);
+
+      return val;
+    });
+
+    startReaper();
   }
 
   @Override
@@ -89,20 +197,87 @@ public class SynchConnections extends ConfBase
 
   @Override
   public String[] activeConnectionInfo() {
-    Collection<SynchConnection> conns = activeConnections.values();
+    final List<String> res = new ArrayList<>();
 
-    if (Util.isEmpty(conns)) {
-      return new String[0];
+    for (final SynchConnection sc: activeConnections.values()) {
+      res.add(sc.shortToString());
     }
 
-    String[] res = new String[conns.size()];
+    return res.toArray(new String[0]);
+  }
 
-    int i = 0;
-    for (SynchConnection sc: conns) {
-      res[i] = sc.shortToString();
-      i++;
+  @Override
+  public int reap() {
+    final int ttl = connectionTtl;
+
+    if (ttl <= 0) {
+      return 0;
     }
 
-    return res;
+    final long limit = System.currentTimeMillis() - (ttl * 1000L);
+    int reaped = 0;
+
+    for (final SynchConnection sc: activeConnections.values()) {
+      if (lastActive(sc) >= limit) {
+        continue;
+      }
+
+      final boolean[] removed = {false};
+
+      /* Recheck under the entry - it may have pinged or been replaced */
+      activeConnections.computeIfPresent(sc.getSubscribeUrl(), (url, c) -> {
+        if ((c != sc) || (lastActive(c) >= limit)) {
+          return c;
+        }
+
+        activeConnectionsById.remove(c.getConnectorId(), c);
+        removed[0] = true;
+        return null;
+      });
+
+      if (removed[0]) {
+        reaped++;
+
+        if (logger.debug()) {
+          logger.debug("Reaped synch connection " + sc.shortToString());
+        }
+      }
+    }
+
+    connectionsReaped.addAndGet(reaped);
+
+    return reaped;
+  }
+
+  /* ========================================================================
+   * Private methods
+   * ======================================================================== */
+
+  private static long lastActive(final SynchConnection sc) {
+    return Math.max(sc.getLastPing(), sc.getCreated());
+  }
+
+  private void startReaper() {
+    synchronized (SynchConnections.class) {
+      if (reaper != null) {
+        return;
+      }
+
+      final int interval = Math.max(1, reapInterval);
+
+      reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "caldav-synch-reaper");
+        t.setDaemon(true);
+        return t;
+      });
+
+      reaper.scheduleWithFixedDelay(() -> {
+        try {
+          reap();
+        } catch (final Throwable t) {
+          logger.error(t);
+        }
+      }, interval, interval, TimeUnit.SECONDS);
+    }
   }
 }
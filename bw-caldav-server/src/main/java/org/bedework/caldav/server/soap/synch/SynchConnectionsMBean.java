@@ -35,6 +35,59 @@ public interface SynchConnectionsMBean extends ConfBaseMBean {
    * Attributes
    * ======================================================================== */
 
+  /**
+   * @param val seconds without a ping before a connection is dropped
+   */
+  void setConnectionTtl(int val);
+
+  /**
+   * @return seconds without a ping before a connection is dropped
+   */
+  @MBeanInfo("Seconds without a keepalive before a connection is " +
+          "dropped. 0 keeps connections forever")
+  int getConnectionTtl();
+
+  /**
+   * @param val seconds between reaper runs
+   */
+  void setReapInterval(int val);
+
+  /**
+   * @return seconds between reaper runs
+   */
+  @MBeanInfo("Seconds between runs of the connection reaper")
+  int getReapInterval();
+
+  /**
+   * @return number of active connections
+   */
+  @MBeanInfo("Number of active connections")
+  int getConnectionCount();
+
+  /**
+   * @return number of connections added
+   */
+  @MBeanInfo("Number of connections added")
+  long getConnectionsAdded();
+
+  /**
+   * @return number of connections reaped
+   */
+  @MBeanInfo("Number of connections dropped for lack of a keepalive")
+  long getConnectionsReaped();
+
+  /**
+   * @return keepalives for active connections
+   */
+  @MBeanInfo("Total keepalives received by active connections")
+  long getPings();
+
+  /**
+   * @return bad tokens for active connections
+   */
+  @MBeanInfo("Total bad tokens received by active connections")
+  long getBadTokens();
+
   /* ========================================================================
    * Operations
    * ======================================================================== */
@@ -67,4 +120,11 @@ public interface SynchConnectionsMBean extends ConfBaseMBean {
    */
   @MBeanInfo("List of connections")
   String[] activeConnectionInfo();
+
+  /** Drop connections which have not pinged within the ttl
+   *
+   * @return number dropped
+   */
+  @MBeanInfo("Drop connections which have not pinged within the ttl")
+  int reap();
 }
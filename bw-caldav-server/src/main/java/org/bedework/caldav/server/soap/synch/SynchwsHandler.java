@@ -44,6 +44,10 @@ import javax.xml.bind.JAXBElement;
  * @author Mike Douglass
  */
 public class SynchwsHandler extends CalwsHandler {
+  /** The JAXB context path for synch messages */
+  public static final String jaxbContextPath =
+          "org.bedework.synch.wsmessages";
+
   private final ObjectFactory of = new ObjectFactory();
 
   /**
@@ -56,7 +60,7 @@ public class SynchwsHandler extends CalwsHandler {
 
   @Override
   protected String getJaxbContextPath() {
-    return "org.bedework.synch.wsmessages";
+    return jaxbContextPath;
   }
 
   /**
@@ -159,26 +163,29 @@ public class SynchwsHandler extends CalwsHandler {
             "\n                token=" + kan.getToken());
     }
 
+    /* No global lock - the connection table is concurrent and the
+       connection fields are safe to update from many threads. */
     try {
-      synchronized (monitor) {
-        final KeepAliveResponseType kar = of.createKeepAliveResponseType();
-
-        final SynchConnection sc = getActiveConnection(kan.getSubscribeUrl());
-
-        if (sc == null) {
-          kar.setStatus(StatusType.NOT_FOUND);
-        } else if (!sc.getSynchToken().equals(kan.getToken())) {
-          kar.setStatus(StatusType.ERROR);
-        } else {
-          kar.setStatus(StatusType.OK);
-          sc.setLastPing(System.currentTimeMillis());
-          setActiveConnection(sc);
-        }
+      final KeepAliveResponseType kar = of.createKeepAliveResponseType();
+
+      final SynchConnection sc = getActiveConnection(kan.getSubscribeUrl());
 
-        final JAXBElement<KeepAliveResponseType> jax = of.createKeepAliveResponse(kar);
+      if (sc == null) {
+        kar.setStatus(StatusType.NOT_FOUND);
+      } else if (!sc.getSynchToken().equals(kan.getToken())) {
+        sc.badToken();
+        kar.setStatus(StatusType.ERROR);
+      } else {
+        kar.setStatus(StatusType.OK);
+        sc.ping(System.currentTimeMillis());
 
-        marshal(jax, resp.getOutputStream());
+        // Puts it back if the reaper got there first
+        setActiveConnection(sc);
       }
+
+      final JAXBElement<KeepAliveResponseType> jax = of.createKeepAliveResponse(kar);
+
+      marshal(jax, resp.getOutputStream());
     } catch (final WebdavException we) {
       throw we;
     } catch(final Throwable t) {
@@ -202,6 +209,10 @@ public class SynchwsHandler extends CalwsHandler {
         return;
       }
 
+      if (sc != null) {
+        sc.badToken();
+      }
+
       throw new WebdavException(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
                                 "Invalid synch token");
     } catch (final WebdavException we) {
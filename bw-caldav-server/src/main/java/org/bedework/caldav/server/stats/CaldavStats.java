@@ -0,0 +1,290 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.stats;
+
+import org.bedework.util.jmx.ConfBase;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Accumulates counts, elapsed time and (where the JVM allows it) bytes
+ * allocated for the hot CalDAV request paths. All of those paths end in
+ * calls to the SysIntf implementation so these figures give us a baseline
+ * for comparing changes to the server side of the request.
+ *
+ * <p>Usage is<pre>
+ *   final CaldavStats.Timer t = CaldavStats.start(StatsType.reportQuery);
+ *   try {
+ *     ...
+ *   } finally {
+ *     t.stop();
+ *   }
+ * </pre>
+ *
+ * <p>The counters are static so they can be updated whether or not the
+ * bean has been registered.
+ */
+public class CaldavStats extends ConfBase
+        implements CaldavStatsMBean {
+  /* Name of the property holding the location of the config data */
+  public static final String confuriPname = "org.bedework.caldav.confuri";
+
+  /** The operations we measure
+   */
+  public enum StatsType {
+    /** calendar-query REPORT */
+    reportQuery("REPORT calendar-query"),
+
+    /** calendar-multiget REPORT */
+    reportMultiget("REPORT calendar-multiget"),
+
+    /** sync-collection REPORT */
+    reportSync("REPORT sync-collection"),
+
+    /** PUT of calendar data */
+    putContent("PUT calendar data"),
+
+    /** Fetch children of a collection - PROPFIND Depth:1 etc */
+    getChildren("collection children"),
+
+    /** Web calendar GET */
+    webcalGet("webcal GET");
+
+    private final String descr;
+
+    StatsType(final String descr) {
+      this.descr = descr;
+    }
+
+    /**
+     * @return description for display
+     */
+    public String getDescr() {
+      return descr;
+    }
+  }
+
+  private static class OpStats {
+    final LongAdder count = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LongAdder nanos = new LongAdder();
+    final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+    final LongAdder allocated = new LongAdder();
+
+    void reset() {
+      count.reset();
+      errors.reset();
+      nanos.reset();
+      maxNanos.reset();
+      allocated.reset();
+    }
+  }
+
+  private static final OpStats[] opStats =
+          new OpStats[StatsType.values().length];
+
+  static {
+    for (int i = 0; i < opStats.length; i++) {
+      opStats[i] = new OpStats();
+    }
+  }
+
+  private static final com.sun.management.ThreadMXBean allocBean;
+
+  static {
+    final ThreadMXBean tb = ManagementFactory.getThreadMXBean();
+
+    com.sun.management.ThreadMXBean ab = null;
+    if (tb instanceof com.sun.management.ThreadMXBean) {
+      ab = (com.sun.management.ThreadMXBean)tb;
+
+      try {
+        if (!ab.isThreadAllocatedMemorySupported()) {
+          ab = null;
+        } else if (!ab.isThreadAllocatedMemoryEnabled()) {
+          ab.setThreadAllocatedMemoryEnabled(true);
+        }
+      } catch (final Throwable ignored) {
+        ab = null;
+      }
+    }
+
+    allocBean = ab;
+  }
+
+  private static volatile long resetTime = System.nanoTime();
+
+  /** Measures a single operation. Obtained from start and MUST be
+   * stopped in a finally block.
+   */
+  public static class Timer {
+    private final OpStats os;
+    private final long start;
+    private final long startAlloc;
+    private boolean failed = true;
+
+    Timer(final OpStats os) {
+      this.os = os;
+      startAlloc = allocatedBytes();
+      start = System.nanoTime();
+    }
+
+    /** Mark the operation as completed normally. If not called before
+     * stop the operation is counted as an error.
+     */
+    public void ok() {
+      failed = false;
+    }
+
+    /** End of the measured operation
+     */
+    public void stop() {
+      final long elapsed = System.nanoTime() - start;
+
+      os.count.increment();
+      os.nanos.add(elapsed);
+      os.maxNanos.accumulate(elapsed);
+
+      if (failed) {
+        os.errors.increment();
+      }
+
+      if (startAlloc >= 0) {
+        final long endAlloc = allocatedBytes();
+
+        if (endAlloc >= startAlloc) {
+          os.allocated.add(endAlloc - startAlloc);
+        }
+      }
+    }
+  }
+
+  /**
+   */
+  public CaldavStats() {
+    super(serviceName);
+
+    setConfigName(configName);
+
+    setConfigPname(confuriPname);
+  }
+
+  /** Start measuring an operation
+   *
+   * @param type of operation
+   * @return a timer which must be stopped
+   */
+  public static Timer start(final StatsType type) {
+    return new Timer(opStats[type.ordinal()]);
+  }
+
+  @Override
+  public String loadConfig() {
+    return "No config to load";
+  }
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  @Override
+  public boolean getAllocationMeasured() {
+    return allocBean != null;
+  }
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  @Override
+  public List<String> showStats() {
+    final List<String> res = new ArrayList<>();
+    final double secs = (System.nanoTime() - resetTime) / 1.0e9;
+
+    for (final StatsType st: StatsType.values()) {
+      final OpStats os = opStats[st.ordinal()];
+      final long count = os.count.sum();
+
+      final StringBuilder sb = new StringBuilder(st.getDescr());
+
+      sb.append(": count=");
+      sb.append(count);
+      sb.append(", errors=");
+      sb.append(os.errors.sum());
+
+      if (secs > 0) {
+        sb.append(", ops/s=");
+        sb.append(String.format("%.2f", count / secs));
+      }
+
+      if (count > 0) {
+        sb.append(", avg ms=");
+        sb.append(String.format("%.3f", os.nanos.sum() / (count * 1.0e6)));
+        sb.append(", max ms=");
+        sb.append(String.format("%.3f", os.maxNanos.get() / 1.0e6));
+
+        if (allocBean != null) {
+          final long alloc = os.allocated.sum();
+
+          sb.append(", avg alloc bytes=");
+          sb.append(alloc / count);
+
+          if (secs > 0) {
+            sb.append(", alloc MB/s=");
+            sb.append(String.format("%.2f", alloc / (secs * 1024 * 1024)));
+          }
+        }
+      }
+
+      res.add(sb.toString());
+    }
+
+    return res;
+  }
+
+  @Override
+  public void resetStats() {
+    for (final OpStats os: opStats) {
+      os.reset();
+    }
+
+    resetTime = System.nanoTime();
+  }
+
+  /* ====================================================================
+   *                   Private methods
+   * ==================================================================== */
+
+  private static long allocatedBytes() {
+    if (allocBean == null) {
+      return -1;
+    }
+
+    try {
+      return allocBean.getThreadAllocatedBytes(
+              Thread.currentThread().getId());
+    } catch (final Throwable ignored) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.stats;
+
+import org.bedework.util.jmx.ConfBaseMBean;
+import org.bedework.util.jmx.MBeanInfo;
+
+import java.util.List;
+
+/** Statistics for the CalDAV request paths that dominate server load -
+ * REPORT, PUT, PROPFIND and webcal GET.
+ */
+public interface CaldavStatsMBean extends ConfBaseMBean {
+  static final String configName = "CaldavStats";
+
+  static final String serviceName =
+          "org.bedework.caldav:service=" + configName;
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  /**
+   * @return true if we are measuring per-operation allocation
+   */
+  @MBeanInfo("true if the JVM supports measuring allocation per operation")
+  boolean getAllocationMeasured();
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  /** Display the statistics - one line per measured operation
+   *
+   * @return list of formatted statistics
+   */
+  @MBeanInfo("Show the request path statistics")
+  List<String> showStats();
+
+  /** Zero all counters
+   *
+   */
+  @MBeanInfo("Reset the request path statistics")
+  void resetStats();
+}
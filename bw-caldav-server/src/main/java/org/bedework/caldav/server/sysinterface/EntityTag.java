@@ -0,0 +1,81 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.sysinterface;
+
+import org.bedework.util.misc.ToString;
+
+import java.io.Serializable;
+
+/** The metadata for an entity needed by clients polling for changes: the
+ * name, etag and schedule tag. Returned by SysIntf.getEntityTags so that
+ * we can answer requests for only those properties without retrieving
+ * the entities.
+ */
+public class EntityTag implements Serializable {
+  private final String name;
+
+  private final String etag;
+
+  private final String scheduleTag;
+
+  /**
+   * @param name of the entity within its collection
+   * @param etag strong etag - quoted as returned by CalDAVEvent.getEtag
+   * @param scheduleTag schedule tag or null
+   */
+  public EntityTag(final String name,
+                   final String etag,
+                   final String scheduleTag) {
+    this.name = name;
+    this.etag = etag;
+    this.scheduleTag = scheduleTag;
+  }
+
+  /**
+   * @return name of the entity within its collection
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return strong etag
+   */
+  public String getEtag() {
+    return etag;
+  }
+
+  /**
+   * @return schedule tag or null
+   */
+  public String getScheduleTag() {
+    return scheduleTag;
+  }
+
+  @Override
+  public String toString() {
+    final ToString ts = new ToString(this);
+
+    ts.append("name", name);
+    ts.append("etag", etag);
+    ts.append("scheduleTag", scheduleTag);
+
+    return ts.toString();
+  }
+}
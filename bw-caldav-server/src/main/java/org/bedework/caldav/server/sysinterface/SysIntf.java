@@ -27,6 +27,7 @@ import org.bedework.caldav.server.CalDAVResource;
 import org.bedework.caldav.server.PropertyHandler;
 import org.bedework.caldav.server.PropertyHandler.PropertyType;
 import org.bedework.caldav.server.SysiIcalendar;
+import org.bedework.caldav.server.scheduling.OutboundDeliverer;
 import org.bedework.caldav.util.TimeRange;
 import org.bedework.caldav.util.filter.FilterBase;
 import org.bedework.caldav.util.notifications.NotificationType;
@@ -36,6 +37,7 @@ import org.bedework.caldav.util.sharing.ShareResultType;
 import org.bedework.caldav.util.sharing.ShareType;
 import org.bedework.util.calendar.ScheduleStates;
 import org.bedework.util.xml.XmlEmit;
+import org.bedework.util.xml.tagdefs.WebdavTags;
 import org.bedework.webdav.servlet.shared.PrincipalPropertySearch;
 import org.bedework.webdav.servlet.shared.UrlHandler;
 import org.bedework.webdav.servlet.shared.WdEntity;
@@ -48,11 +50,17 @@ import org.oasis_open.docs.ws_calendar.ns.soap.ComponentSelectionType;
 
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.xml.namespace.QName;
 
 /** All interactions with the underlying calendar system are made via this
@@ -426,6 +434,52 @@ public interface SysIntf extends WdSysIntf {
   public Collection<SchedRecipientResult> schedule(CalDAVEvent<?> ev)
                 throws WebdavException;
 
+  /** Return true if the single recipient forms of schedule and
+   * requestFreeBusy are implemented and may be called from more than one
+   * thread at the same time on this object. This allows a request with
+   * many recipients to process them concurrently.
+   *
+   * <p>The default is false.
+   *
+   * @return true if concurrent per recipient scheduling is supported
+   */
+  default boolean allowsConcurrentScheduling() {
+    return false;
+  }
+
+  /** Called when the outbound scheduling queue is enabled, before
+   * changes are made. An implementation which returns non-null must not
+   * itself deliver the iTIP messages resulting from changes made
+   * through addEvent, updateEvent and deleteEvent for the rest of the
+   * request - they are queued and delivered later through the returned
+   * object.
+   *
+   * <p>The default returns null - messages are delivered within the
+   * request as before.
+   *
+   * @return thread safe deliverer or null
+   * @throws WebdavException on fatal error
+   */
+  default OutboundDeliverer getOutboundDeliverer() throws WebdavException {
+    return null;
+  }
+
+  /** As schedule but for a single recipient of the event. The event
+   * is shared by all recipients and must not be modified.
+   *
+   * <p>Only called if allowsConcurrentScheduling returns true.
+   *
+   * @param ev         Event object
+   * @param recipient  the one to deliver to
+   * @return result for the recipient
+   * @throws WebdavException on fatal error
+   */
+  default SchedRecipientResult schedule(final CalDAVEvent<?> ev,
+                                        final String recipient)
+          throws WebdavException {
+    throw new WebdavException(HttpServletResponse.SC_NOT_IMPLEMENTED);
+  }
+
   /* ====================================================================
    *                   Events
    * ==================================================================== */
@@ -533,6 +587,157 @@ public interface SysIntf extends WdSysIntf {
                                               RetrievalMode recurRetrieval)
           throws WebdavException;
 
+  /** Iterating form of getEvents. Events are delivered one at a time so
+   * that the caller can process and discard each one before asking for
+   * the next. This allows results to be streamed to the client without
+   * holding the entire result set in memory.
+   *
+   * <p>The default implementation simply wraps the collection returned by
+   * getEvents. Implementations backed by a cursor or a paged search
+   * should override this. Errors during iteration should be thrown as
+   * RuntimeException.
+   *
+   * @param col
+   * @param filter - if non-null defines a search filter
+   * @param retrieveList List of properties to retrieve or null for a full event.
+   * @param recurRetrieval How recurring event is returned.
+   * @return Iterator over populated event value objects - never null
+   * @throws WebdavException
+   */
+  default Iterator<CalDAVEvent<?>> getEventsIterator(
+          final CalDAVCollection<?> col,
+          final FilterBase filter,
+          final List<String> retrieveList,
+          final RetrievalMode recurRetrieval)
+          throws WebdavException {
+    final Collection<CalDAVEvent<?>> evs =
+            getEvents(col, filter, retrieveList, recurRetrieval);
+
+    if (evs == null) {
+      return Collections.emptyIterator();
+    }
+
+    return evs.iterator();
+  }
+
+  /** Return true if getEvents may be called for different collections
+   * from more than one thread at the same time on this object. This
+   * allows a query spanning many calendar collections to run the
+   * collection queries concurrently.
+   *
+   * <p>The default is false - most implementations hold non-thread-safe
+   * per-request state such as a database session.
+   *
+   * @return true if concurrent getEvents calls are supported
+   */
+  default boolean allowsConcurrentQueries() {
+    return false;
+  }
+
+  /** Return true if any of the methods which only read - fetching
+   * collections, events and principals, freebusy and the conversions
+   * to and from icalendar without storing - may be called from more
+   * than one thread at the same time on this object. This allows the
+   * read only operations of a CalWS multi-op to run concurrently.
+   *
+   * <p>The default is false.
+   *
+   * @return true if concurrent reads are supported
+   */
+  default boolean allowsConcurrentReads() {
+    return false;
+  }
+
+  /** The properties, as retrieve list entries, which this implementation
+   * can deliver in an EntityTag and accepts in a retrieve list. DAV:getetag
+   * is always supported. Implementations which fill in the schedule tag of
+   * an EntityTag - and handle it in a retrieve list - should add
+   * CALDAV:schedule-tag.
+   *
+   * @return unmodifiable list of retrieve list entries
+   */
+  default List<String> metadataProperties() {
+    return List.of(WebdavTags.getetag.toString());
+  }
+
+  /** Lightweight form of getEvents returning only the name, etag and
+   * schedule tag of each matching entity. Used when a client asks only for
+   * those properties - typically when polling a collection for changes.
+   *
+   * <p>The default implementation calls getEvents with a retrieve list
+   * naming only those properties. Implementations which can list the tags
+   * without retrieving the entities should override this.
+   *
+   * @param col
+   * @param filter - if non-null defines a search filter
+   * @return Collection of tags - never null
+   * @throws WebdavException
+   */
+  default Collection<EntityTag> getEntityTags(
+          final CalDAVCollection<?> col,
+          final FilterBase filter) throws WebdavException {
+    final Collection<CalDAVEvent<?>> evs =
+            getEvents(col, filter, metadataProperties(), null);
+
+    if (evs == null) {
+      return Collections.emptyList();
+    }
+
+    final List<EntityTag> tags = new ArrayList<>(evs.size());
+
+    for (final CalDAVEvent<?> ev: evs) {
+      String name = ev.getName();
+      if (name == null) {
+        name = ev.getUid() + ".ics";
+      }
+
+      tags.add(new EntityTag(name,
+                             ev.getEtag(),
+                             ev.getScheduleTag()));
+    }
+
+    return tags;
+  }
+
+  /** Return true if getEntityTags is significantly cheaper than getEvents,
+   * e.g. it is answered from an index without retrieving the entities.
+   * If so, collection listings are built from the tags and the entities
+   * retrieved only when some other property is required.
+   *
+   * @return true if getEntityTags is overridden with a cheap listing
+   */
+  default boolean listsEntityTags() {
+    return false;
+  }
+
+  /** Bulk form of getEvent. Fetch the named events from the collection.
+   * Names which are not found are absent from the result.
+   *
+   * <p>The default implementation calls getEvent for each name.
+   * Implementations should override this to fetch all of the events
+   * with a single query.
+   *
+   * @param col        CalDAVCollection object
+   * @param names      possible names
+   * @return map of name to event - never null
+   * @throws WebdavException
+   */
+  default Map<String, CalDAVEvent<?>> getEvents(final CalDAVCollection<?> col,
+                                                final Collection<String> names)
+          throws WebdavException {
+    final Map<String, CalDAVEvent<?>> evs = new HashMap<>();
+
+    for (final String name: names) {
+      final CalDAVEvent<?> ev = getEvent(col, name);
+
+      if (ev != null) {
+        evs.put(name, ev);
+      }
+    }
+
+    return evs;
+  }
+
   /** Get events given the collection and String name. Return null for not
    * found. There should be only one event or none. For recurring, the
    * overrides and possibly the instances will be attached.
@@ -567,6 +772,24 @@ public interface SysIntf extends WdSysIntf {
                                                           boolean iSchedule)
           throws WebdavException;
 
+  /** As requestFreeBusy but for a single recipient of the request. The
+   * request is shared by all recipients and must not be modified.
+   *
+   * <p>Only called if allowsConcurrentScheduling returns true.
+   *
+   * @param val    A representation of a scheduling freebusy request
+   * @param recipient  the one to get free busy for
+   * @param iSchedule true if this is from an ischedule request
+   * @return result for the recipient
+   * @throws WebdavException on fatal error
+   */
+  default SchedRecipientResult requestFreeBusy(final CalDAVEvent<?> val,
+                                               final String recipient,
+                                               final boolean iSchedule)
+          throws WebdavException {
+    throw new WebdavException(HttpServletResponse.SC_NOT_IMPLEMENTED);
+  }
+
   /** Handle the special freebusy resquests, i.e. non-CalDAV
    *
    * @param cua
@@ -983,6 +1206,89 @@ public interface SysIntf extends WdSysIntf {
                                        int limit,
                                        boolean recurse) throws WebdavException;
 
+  /** Sequential access to the items of a sync report. Items are
+   * delivered in token order. Once next has returned null the token and
+   * truncated flag are set. If the report stopped short the token marks
+   * the point reached so that a request with that token continues from
+   * there.
+   */
+  interface SynchCursor {
+    /**
+     * @return next item or null when there are no more
+     * @throws WebdavException on error
+     */
+    SynchReportDataItem next() throws WebdavException;
+
+    /**
+     * @return true if items were left out
+     */
+    boolean getTruncated();
+
+    /**
+     * @return token for the next request
+     */
+    String getToken();
+
+    /** Release any resources. Always called.
+     */
+    default void close() {
+    }
+  }
+
+  /** Open a cursor over the changes since token. At most limit items will
+   * be delivered. An implementation should only hold a page of items at
+   * a time and must not split items with the same token across pages.
+   *
+   * <p>The default calls getSyncReport with the same parameters and
+   * steps through the result.
+   *
+   * @param path of collection
+   * @param token from the client - null for an initial sync
+   * @param limit - negative for no limit on result set size
+   * @param recurse true for sync-level infinite
+   * @return cursor or null if there is nothing to report
+   * @throws WebdavException
+   */
+  default SynchCursor getSyncCursor(final String path,
+                                    final String token,
+                                    final int limit,
+                                    final boolean recurse) throws WebdavException {
+    final SynchReportData srd = getSyncReport(path, token, limit, recurse);
+
+    if (srd == null) {
+      return null;
+    }
+
+    final Iterator<SynchReportDataItem> it;
+
+    if (srd.items == null) {
+      it = Collections.emptyIterator();
+    } else {
+      it = srd.items.iterator();
+    }
+
+    return new SynchCursor() {
+      @Override
+      public SynchReportDataItem next() {
+        if (!it.hasNext()) {
+          return null;
+        }
+
+        return it.next();
+      }
+
+      @Override
+      public boolean getTruncated() {
+        return srd.truncated;
+      }
+
+      @Override
+      public String getToken() {
+        return srd.token;
+      }
+    };
+  }
+
   /* ====================================================================
    *                   Misc
    * ==================================================================== */
@@ -1129,4 +1435,25 @@ public interface SysIntf extends WdSysIntf {
    * @throws WebdavException
    */
   public void close() throws WebdavException;
+
+  /** Can this object be pooled and used for another request? If so,
+   * after close it must hold nothing which belongs to the request and
+   * init must fully bind it to the next one.
+   *
+   * <p>The default is false - a new object is created for every request.
+   *
+   * @return true if this object may be reused
+   */
+  default boolean isReusable() {
+    return false;
+  }
+
+  /** Called after close when a reusable object is about to be pooled.
+   * Drop any per-request state here.
+   *
+   * @return false if the object should be discarded instead
+   */
+  default boolean recycle() {
+    return true;
+  }
 }
@@ -0,0 +1,406 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.sysinterface;
+
+import org.bedework.util.jmx.ConfBase;
+import org.bedework.util.logging.BwLogger;
+import org.bedework.webdav.servlet.shared.WebdavException;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Creates the SysIntf object for each request.
+ *
+ * <p>The implementation class and its constructor are resolved once per
+ * class name. Implementations which say they are reusable are closed at
+ * the end of a request, recycled and kept in a bounded pool. The next
+ * request binds to them by calling init as usual.
+ *
+ * <p>Work handed to other threads - e.g. scheduling recipients which
+ * timed out - may still be using the object when the request ends. Such
+ * work holds the object and it is only recycled and pooled when the
+ * last hold is dropped.
+ *
+ * <p>Configuration and the pools are static so they apply whether or not
+ * the bean has been registered.
+ */
+public class SysIntfFactory extends ConfBase
+        implements SysIntfFactoryMBean {
+  /* Name of the property holding the location of the config data */
+  public static final String confuriPname = "org.bedework.caldav.confuri";
+
+  /* The resolved class and the idle objects */
+  private static class Pool {
+    final Constructor<? extends SysIntf> ctor;
+    final LinkedBlockingDeque<SysIntf> idle = new LinkedBlockingDeque<>();
+    final boolean reusable;
+
+    Pool(final Constructor<? extends SysIntf> ctor,
+         final boolean reusable) {
+      this.ctor = ctor;
+      this.reusable = reusable;
+    }
+  }
+
+  private static volatile int poolSize = 16;
+
+  private static volatile int warmup = 4;
+
+  /* Indexed by class name */
+  private static final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+  /* Indexed by implementation class - for release */
+  private static final Map<Class<?>, Pool> poolsByClass =
+          new ConcurrentHashMap<>();
+
+  /* Objects in use by tasks on other threads */
+  private static class Holds {
+    int tasks;
+
+    /* release has been called - do it when the last task is done */
+    boolean released;
+  }
+
+  private static final Map<SysIntf, Holds> held = new IdentityHashMap<>();
+
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+  private static final AtomicLong released = new AtomicLong();
+  private static final AtomicLong discarded = new AtomicLong();
+  private static final AtomicLong deferred = new AtomicLong();
+
+  private static final BwLogger logger = new BwLogger();
+
+  static {
+    logger.setLoggedClass(SysIntfFactory.class);
+  }
+
+  /**
+   */
+  public SysIntfFactory() {
+    super(serviceName);
+
+    setConfigName(configName);
+
+    setConfigPname(confuriPname);
+  }
+
+  /** Get an object for a request. It must be initialised with init
+   * before use and passed to release after it is closed.
+   *
+   * @param className implementation class
+   * @return SysIntf object
+   * @throws WebdavException on a bad class or constructor failure
+   */
+  public static SysIntf acquire(final String className)
+          throws WebdavException {
+    final Pool pool = getPool(className);
+
+    final SysIntf sysi = pool.idle.pollFirst();
+    if (sysi != null) {
+      hits.incrementAndGet();
+      return sysi;
+    }
+
+    misses.incrementAndGet();
+    return newInstance(pool);
+  }
+
+  /** Return a closed object. It is pooled if the implementation is
+   * reusable, it recycles successfully and there is room. If it is held
+   * by tasks on other threads that happens when the last is done.
+   *
+   * @param sysi closed object - may be null
+   */
+  public static void release(final SysIntf sysi) {
+    if (sysi == null) {
+      return;
+    }
+
+    synchronized (held) {
+      final Holds h = held.get(sysi);
+
+      if (h != null) {
+        h.released = true;
+        deferred.incrementAndGet();
+        return;
+      }
+    }
+
+    pool(sysi);
+  }
+
+  /** Called before handing work which uses the object to another
+   * thread. Each call must be matched by a call to unhold when the work
+   * is finished, or will never start.
+   *
+   * @param sysi in use
+   */
+  public static void hold(final SysIntf sysi) {
+    synchronized (held) {
+      held.computeIfAbsent(sysi, k -> new Holds()).tasks++;
+    }
+  }
+
+  /** Drop a hold. If it is the last and the request has released the
+   * object it is now pooled.
+   *
+   * @param sysi no longer in use by the caller
+   */
+  public static void unhold(final SysIntf sysi) {
+    synchronized (held) {
+      final Holds h = held.get(sysi);
+
+      if (h == null) {
+        return;
+      }
+
+      h.tasks--;
+
+      if (h.tasks > 0) {
+        return;
+      }
+
+      held.remove(sysi);
+
+      if (!h.released) {
+        return;
+      }
+    }
+
+    pool(sysi);
+  }
+
+  /** Resolve the class and, for reusable implementations, fill the pool
+   * up to the warmup count. Called at servlet start.
+   *
+   * @param className implementation class - ignored if null
+   */
+  public static void warmUp(final String className) {
+    if (className == null) {
+      return;
+    }
+
+    try {
+      final Pool pool = getPool(className);
+
+      if (!pool.reusable) {
+        return;
+      }
+
+      final int num = Math.min(warmup, poolSize);
+
+      while (pool.idle.size() < num) {
+        pool.idle.offerLast(newInstance(pool));
+      }
+    } catch (final Throwable t) {
+      logger.error("Unable to warm up " + className);
+      logger.error(t);
+    }
+  }
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  @Override
+  public void setPoolSize(final int val) {
+    poolSize = val;
+
+    for (final Pool pool: pools.values()) {
+      while (pool.idle.size() > poolSize) {
+        if (pool.idle.pollLast() == null) {
+          break;
+        }
+      }
+    }
+  }
+
+  @Override
+  public int getPoolSize() {
+    return poolSize;
+  }
+
+  @Override
+  public void setWarmup(final int val) {
+    warmup = val;
+  }
+
+  @Override
+  public int getWarmup() {
+    return warmup;
+  }
+
+  @Override
+  public long getHits() {
+    return hits.get();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public long getReleased() {
+    return released.get();
+  }
+
+  @Override
+  public long getDiscarded() {
+    return discarded.get();
+  }
+
+  @Override
+  public long getDeferred() {
+    return deferred.get();
+  }
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  @Override
+  public List<String> showStats() {
+    final List<String> res = new ArrayList<>();
+
+    for (final Map.Entry<String, Pool> ent: pools.entrySet()) {
+      final Pool pool = ent.getValue();
+
+      res.add(ent.getKey() + ": " +
+                      (pool.reusable ?
+                       pool.idle.size() + " idle" : "not reusable"));
+    }
+
+    res.add("hits: " + hits.get());
+    res.add("misses: " + misses.get());
+    res.add("released: " + released.get());
+    res.add("discarded: " + discarded.get());
+    res.add("deferred: " + deferred.get());
+
+    return res;
+  }
+
+  @Override
+  public void flush() {
+    for (final Pool pool: pools.values()) {
+      pool.idle.clear();
+    }
+  }
+
+  @Override
+  public String loadConfig() {
+    return "No config to load";
+  }
+
+  /* ========================================================================
+   * Private methods
+   * ======================================================================== */
+
+  private static void pool(final SysIntf sysi) {
+    final Pool pool = poolsByClass.get(sysi.getClass());
+
+    if ((pool == null) || !pool.reusable ||
+            (pool.idle.size() >= poolSize)) {
+      discarded.incrementAndGet();
+      return;
+    }
+
+    try {
+      if (!sysi.recycle()) {
+        discarded.incrementAndGet();
+        return;
+      }
+    } catch (final Throwable t) {
+      logger.error(t);
+      discarded.incrementAndGet();
+      return;
+    }
+
+    /* Most recently used first - it's most likely to be warm */
+    pool.idle.offerFirst(sysi);
+    released.incrementAndGet();
+  }
+
+  private static Pool getPool(final String className)
+          throws WebdavException {
+    final Pool pool = pools.get(className);
+    if (pool != null) {
+      return pool;
+    }
+
+    synchronized (pools) {
+      Pool newPool = pools.get(className);
+      if (newPool != null) {
+        return newPool;
+      }
+
+      try {
+        final Class<?> cl = Class.forName(className);
+
+        if (!SysIntf.class.isAssignableFrom(cl)) {
+          throw new WebdavException("Class " + className +
+                                            " is not a subclass of " +
+                                            SysIntf.class.getName());
+        }
+
+        final Constructor<? extends SysIntf> ctor =
+                cl.asSubclass(SysIntf.class).getDeclaredConstructor();
+
+        /* Construct one to find out if it can be pooled */
+        final SysIntf sysi = ctor.newInstance();
+
+        newPool = new Pool(ctor, sysi.isReusable());
+
+        if (newPool.reusable) {
+          newPool.idle.offerFirst(sysi);
+        }
+      } catch (final WebdavException we) {
+        throw we;
+      } catch (final ClassNotFoundException cnfe) {
+        throw new WebdavException("Class " + className + " not found");
+      } catch (final Throwable t) {
+        throw new WebdavException(t);
+      }
+
+      pools.put(className, newPool);
+      poolsByClass.put(newPool.ctor.getDeclaringClass(), newPool);
+
+      return newPool;
+    }
+  }
+
+  private static SysIntf newInstance(final Pool pool)
+          throws WebdavException {
+    try {
+      return pool.ctor.newInstance();
+    } catch (final InvocationTargetException ite) {
+      throw new WebdavException(ite.getCause());
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    }
+  }
+}
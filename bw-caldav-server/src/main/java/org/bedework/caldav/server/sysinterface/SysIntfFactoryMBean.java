@@ -0,0 +1,108 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.server.sysinterface;
+
+import org.bedework.util.jmx.ConfBaseMBean;
+import org.bedework.util.jmx.MBeanInfo;
+
+import java.util.List;
+
+/** Configure and monitor creation and pooling of SysIntf objects.
+ */
+public interface SysIntfFactoryMBean extends ConfBaseMBean {
+  static final String configName = "SysIntfFactory";
+
+  static final String serviceName =
+          "org.bedework.caldav:service=" + configName;
+
+  /* ========================================================================
+   * Attributes
+   * ======================================================================== */
+
+  /**
+   * @param val max number of idle objects kept per implementation
+   */
+  void setPoolSize(int val);
+
+  /**
+   * @return max number of idle objects kept per implementation
+   */
+  @MBeanInfo("Max number of idle SysIntf objects kept per " +
+          "implementation. 0 disables pooling")
+  int getPoolSize();
+
+  /**
+   * @param val number of objects created at servlet start
+   */
+  void setWarmup(int val);
+
+  /**
+   * @return number of objects created at servlet start
+   */
+  @MBeanInfo("Number of pooled SysIntf objects created at servlet start")
+  int getWarmup();
+
+  /**
+   * @return number of objects taken from the pool
+   */
+  @MBeanInfo("Number of requests served by a pooled SysIntf")
+  long getHits();
+
+  /**
+   * @return number of objects constructed for a request
+   */
+  @MBeanInfo("Number of requests which constructed a new SysIntf")
+  long getMisses();
+
+  /**
+   * @return number of objects returned to the pool
+   */
+  @MBeanInfo("Number of SysIntf objects returned to the pool")
+  long getReleased();
+
+  /**
+   * @return number of objects discarded
+   */
+  @MBeanInfo("Number of closed SysIntf objects which were not pooled")
+  long getDiscarded();
+
+  /**
+   * @return number of releases deferred
+   */
+  @MBeanInfo("Number of closed SysIntf objects still in use by other " +
+          "threads when released")
+  long getDeferred();
+
+  /* ========================================================================
+   * Operations
+   * ======================================================================== */
+
+  /** Display the statistics
+   *
+   * @return list of formatted statistics
+   */
+  @MBeanInfo("Show the pool statistics")
+  List<String> showStats();
+
+  /** Empty the pools
+   *
+   */
+  @MBeanInfo("Discard all idle SysIntf objects")
+  void flush();
+}
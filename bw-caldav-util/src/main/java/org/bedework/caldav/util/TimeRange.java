@@ -22,10 +22,22 @@ import org.bedework.util.logging.BwLogger;
 import org.bedework.util.logging.Logged;
 import org.bedework.util.misc.ToString;
 
+import net.fortuna.ical4j.model.Component;
 import net.fortuna.ical4j.model.DateTime;
 import net.fortuna.ical4j.model.Dur;
+import net.fortuna.ical4j.model.Parameter;
+import net.fortuna.ical4j.model.Period;
 import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.PropertyList;
+import net.fortuna.ical4j.model.parameter.Related;
 import net.fortuna.ical4j.model.property.DateProperty;
+import net.fortuna.ical4j.model.property.Duration;
+import net.fortuna.ical4j.model.property.FreeBusy;
+import net.fortuna.ical4j.model.property.Repeat;
+import net.fortuna.ical4j.model.property.Trigger;
+
+import java.util.Calendar;
+import java.util.Date;
 
 /** Express the CalDAV time-range element.
  * @author douglm
@@ -47,6 +59,9 @@ public class TimeRange implements Logged {
   private static final Dur oneDayForward = new Dur(1, 0, 0, 0);
   private static final Dur oneDayBack = new Dur(-1, 0, 0, 0);
 
+  /** How far we expand recurrences for an open ended range */
+  public static final int maxExpansionYears = 5;
+
   /**
    * @param start of range
    * @param end of range
@@ -112,7 +127,8 @@ public class TimeRange implements Logged {
     return tzid;
   }
 
-  /** Test if the given property falls in the timerange
+  /** Test if the given property falls in the timerange, that is, the
+   * value is at or after the start and before the end.
    *
    * @param candidate for test
    * @return boolean true if in range
@@ -122,10 +138,439 @@ public class TimeRange implements Logged {
       return false;
     }
 
-    // XXX later
+    final Date dt = ((DateProperty)candidate).getDate();
+
+    if (dt == null) {
+      return false;
+    }
+
+    return matches(dt.getTime());
+  }
+
+  /**
+   * @param dt time in millis
+   * @return true if start &lt;= dt &lt; end
+   */
+  public boolean matches(final long dt) {
+    return (lo() <= dt) && (hi() > dt);
+  }
+
+  /** Test if the period overlaps the range using the rules of
+   * RFC4791 section 9.9. A zero length period matches if it starts in
+   * the range.
+   *
+   * @param periodStart in millis
+   * @param periodEnd in millis
+   * @return true if the period overlaps
+   */
+  public boolean overlaps(final long periodStart,
+                          final long periodEnd) {
+    if (periodEnd <= periodStart) {
+      return matches(periodStart);
+    }
+
+    return (lo() < periodEnd) && (hi() > periodStart);
+  }
+
+  /** Test if the component overlaps the range using the rules of
+   * RFC4791 section 9.9. Recurring components are expanded - if the
+   * range is open ended the expansion stops after
+   * {@link #maxExpansionYears} years.
+   *
+   * @param comp the component
+   * @return true if the component or any instance overlaps
+   */
+  public boolean overlaps(final Component comp) {
+    return overlaps(comp, null);
+  }
+
+  /** As overlaps(Component) but for a component which may be a VALARM
+   * with a trigger relative to its parent. The trigger times of the
+   * alarm in each instance of the parent are tested.
+   *
+   * @param comp the component
+   * @param parent of a VALARM - ignored for other components. If null
+   *               a relative trigger never matches.
+   * @return true if the component or any instance overlaps
+   */
+  public boolean overlaps(final Component comp,
+                          final Component parent) {
+    if (Component.VALARM.equals(comp.getName())) {
+      return overlapsAlarm(comp, parent);
+    }
+
+    final DateProperty dtstart = dateProp(comp, Property.DTSTART);
+
+    if ((dtstart != null) &&
+            ((comp.getProperty(Property.RRULE) != null) ||
+                     (comp.getProperty(Property.RDATE) != null))) {
+      final DateTime rstart;
+      if (start == null) {
+        rstart = new DateTime(dtstart.getDate().getTime());
+      } else {
+        rstart = start;
+      }
+
+      final DateTime rend;
+      if (end == null) {
+        final Calendar cal = Calendar.getInstance();
+        cal.setTime(rstart);
+        cal.add(Calendar.YEAR, maxExpansionYears);
+        rend = new DateTime(cal.getTime());
+      } else {
+        rend = end;
+      }
+
+      if (!rend.after(rstart)) {
+        return false;
+      }
+
+      return !comp.calculateRecurrenceSet(new Period(rstart, rend)).isEmpty();
+    }
+
+    final String name = comp.getName();
+
+    if (Component.VEVENT.equals(name)) {
+      if (dtstart == null) {
+        return false;
+      }
+
+      final long st = millis(dtstart);
+      final DateProperty dtend = dateProp(comp, Property.DTEND);
+
+      if (dtend != null) {
+        return (lo() < millis(dtend)) && (hi() > st);
+      }
+
+      final Duration dur = (Duration)comp.getProperty(Property.DURATION);
+
+      if (dur != null) {
+        return overlaps(st, dur.getDuration().getTime(dtstart.getDate()).getTime());
+      }
+
+      if (!(dtstart.getDate() instanceof DateTime)) {
+        // All day
+        return overlaps(st, oneDayForward.getTime(dtstart.getDate()).getTime());
+      }
+
+      return matches(st);
+    }
+
+    if (Component.VTODO.equals(name)) {
+      return overlapsTodo(comp, dtstart);
+    }
+
+    if (Component.VJOURNAL.equals(name)) {
+      if (dtstart == null) {
+        return false;
+      }
+
+      if (!(dtstart.getDate() instanceof DateTime)) {
+        return overlaps(millis(dtstart),
+                        oneDayForward.getTime(dtstart.getDate()).getTime());
+      }
+
+      return matches(millis(dtstart));
+    }
+
+    if (Component.VFREEBUSY.equals(name)) {
+      final PropertyList fbs = comp.getProperties(Property.FREEBUSY);
+
+      if (!fbs.isEmpty()) {
+        for (final Object o: fbs) {
+          for (final Object po: ((FreeBusy)o).getPeriods()) {
+            final Period p = (Period)po;
+
+            if ((lo() < p.getEnd().getTime()) &&
+                    (hi() > p.getStart().getTime())) {
+              return true;
+            }
+          }
+        }
+
+        return false;
+      }
+
+      final DateProperty dtend = dateProp(comp, Property.DTEND);
+
+      if ((dtstart == null) || (dtend == null)) {
+        return false;
+      }
+
+      return (lo() <= millis(dtend)) && (hi() > millis(dtstart));
+    }
+
+    if (dtstart == null) {
+      return true;
+    }
+
+    final DateProperty dtend = dateProp(comp, Property.DTEND);
+
+    if (dtend == null) {
+      return hi() > millis(dtstart);
+    }
+
+    return overlaps(millis(dtstart), millis(dtend));
+  }
+
+  /* RFC4791 9.9 - the alarm matches if any trigger time, including
+   * repetitions, is in the range.
+   */
+  private boolean overlapsAlarm(final Component alarm,
+                                final Component parent) {
+    final Trigger tr = (Trigger)alarm.getProperty(Property.TRIGGER);
+
+    if (tr == null) {
+      return false;
+    }
+
+    final Repeat rpt = (Repeat)alarm.getProperty(Property.REPEAT);
+    final Duration rptDur = (Duration)alarm.getProperty(Property.DURATION);
+    final int repeats;
+
+    if ((rpt == null) || (rptDur == null)) {
+      repeats = 0;
+    } else {
+      repeats = rpt.getCount();
+    }
+
+    if (tr.getDateTime() != null) {
+      return matchesTrigger(tr.getDateTime(), repeats, rptDur);
+    }
+
+    if ((parent == null) || (tr.getDuration() == null)) {
+      return false;
+    }
+
+    final boolean related = Related.END.equals(
+            tr.getParameter(Parameter.RELATED));
+
+    final DateProperty dtstart = dateProp(parent, Property.DTSTART);
+
+    if (dtstart == null) {
+      // Only a VTODO with a DUE can have an alarm related to its end
+      final DateProperty due = dateProp(parent, Property.DUE);
+
+      if (!related || (due == null)) {
+        return false;
+      }
+
+      return matchesTrigger(tr.getDuration().getTime(due.getDate()),
+                            repeats, rptDur);
+    }
+
+    /* Offset of the time the trigger is related to from the start of
+       each instance.
+     */
+    final long rel;
+
+    if (related) {
+      final Long en = parentEnd(parent, dtstart);
+
+      if (en == null) {
+        return false;
+      }
+
+      rel = en - millis(dtstart);
+    } else {
+      rel = 0;
+    }
+
+    if ((parent.getProperty(Property.RRULE) == null) &&
+            (parent.getProperty(Property.RDATE) == null)) {
+      return matchesTrigger(
+              tr.getDuration().getTime(new Date(millis(dtstart) + rel)),
+              repeats, rptDur);
+    }
+
+    /* Expand the parent over the range moved back by the largest
+       distance from an instance start to a trigger time.
+     */
+    long span = Math.abs(rel) +
+            Math.abs(tr.getDuration().getTime(new Date(0)).getTime());
+
+    if (repeats > 0) {
+      span += repeats *
+              Math.abs(rptDur.getDuration().getTime(new Date(0)).getTime());
+    }
+
+    // Allow for daylight saving changes in day based durations
+    span += oneDayForward.getTime(new Date(0)).getTime();
+
+    final DateTime rstart;
+    if (start == null) {
+      rstart = new DateTime(millis(dtstart));
+    } else {
+      rstart = new DateTime(start.getTime() - span);
+    }
+
+    final DateTime rend;
+    if (end == null) {
+      final Calendar cal = Calendar.getInstance();
+      cal.setTime(rstart);
+      cal.add(Calendar.YEAR, maxExpansionYears);
+      rend = new DateTime(cal.getTime());
+    } else {
+      rend = new DateTime(end.getTime() + span);
+    }
+
+    if (!rend.after(rstart)) {
+      return false;
+    }
+
+    for (final Object o:
+            parent.calculateRecurrenceSet(new Period(rstart, rend))) {
+      final long st = ((Period)o).getStart().getTime();
+
+      if (matchesTrigger(tr.getDuration().getTime(new Date(st + rel)),
+                         repeats, rptDur)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private boolean matchesTrigger(final Date trigger,
+                                 final int repeats,
+                                 final Duration rptDur) {
+    Date t = trigger;
+
+    for (int i = 0; i <= repeats; i++) {
+      if (matches(t.getTime())) {
+        return true;
+      }
+
+      if (i < repeats) {
+        t = rptDur.getDuration().getTime(t);
+      }
+    }
+
+    return false;
+  }
+
+  /* End of a VEVENT or VTODO for an alarm related to the end, or null if
+   * it has none.
+   */
+  private static Long parentEnd(final Component parent,
+                                final DateProperty dtstart) {
+    final DateProperty en;
+
+    if (Component.VTODO.equals(parent.getName())) {
+      en = dateProp(parent, Property.DUE);
+    } else {
+      en = dateProp(parent, Property.DTEND);
+    }
+
+    if (en != null) {
+      return millis(en);
+    }
+
+    final Duration dur = (Duration)parent.getProperty(Property.DURATION);
+
+    if (dur != null) {
+      return dur.getDuration().getTime(dtstart.getDate()).getTime();
+    }
+
+    if (!Component.VEVENT.equals(parent.getName())) {
+      return null;
+    }
+
+    if (!(dtstart.getDate() instanceof DateTime)) {
+      // All day
+      return oneDayForward.getTime(dtstart.getDate()).getTime();
+    }
+
+    return millis(dtstart);
+  }
+
+  /* RFC4791 9.9 table for VTODO */
+  private boolean overlapsTodo(final Component comp,
+                               final DateProperty dtstart) {
+    final long lo = lo();
+    final long hi = hi();
+    final DateProperty due = dateProp(comp, Property.DUE);
+    final Duration dur = (Duration)comp.getProperty(Property.DURATION);
+
+    if (dtstart != null) {
+      final long st = millis(dtstart);
+
+      if (dur != null) {
+        final long en = dur.getDuration().getTime(dtstart.getDate()).getTime();
+
+        return (lo <= en) && ((hi > st) || (hi >= en));
+      }
+
+      if (due != null) {
+        final long dt = millis(due);
+
+        return ((lo < dt) || (lo <= st)) && ((hi > st) || (hi >= dt));
+      }
+
+      return (lo <= st) && (hi > st);
+    }
+
+    if (due != null) {
+      final long dt = millis(due);
+
+      return (lo < dt) && (hi >= dt);
+    }
+
+    final DateProperty completed = dateProp(comp, Property.COMPLETED);
+    final DateProperty created = dateProp(comp, Property.CREATED);
+
+    if ((completed != null) && (created != null)) {
+      final long cr = millis(created);
+      final long co = millis(completed);
+
+      return ((lo <= cr) || (lo <= co)) && ((hi >= cr) || (hi >= co));
+    }
+
+    if (completed != null) {
+      final long co = millis(completed);
+
+      return (lo <= co) && (hi >= co);
+    }
+
+    if (created != null) {
+      return hi > millis(created);
+    }
+
     return true;
   }
 
+  private long lo() {
+    if (start == null) {
+      return Long.MIN_VALUE;
+    }
+
+    return start.getTime();
+  }
+
+  private long hi() {
+    if (end == null) {
+      return Long.MAX_VALUE;
+    }
+
+    return end.getTime();
+  }
+
+  private static DateProperty dateProp(final Component comp,
+                                       final String name) {
+    final Property p = comp.getProperty(name);
+
+    if (!(p instanceof DateProperty) ||
+            (((DateProperty)p).getDate() == null)) {
+      return null;
+    }
+
+    return (DateProperty)p;
+  }
+
+  private static long millis(final DateProperty p) {
+    return p.getDate().getTime();
+  }
+
   protected void toStringSegment(final ToString ts) {
     ts.append("start", start);
     ts.append("end", end);
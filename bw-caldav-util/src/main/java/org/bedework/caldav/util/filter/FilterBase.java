@@ -21,9 +21,13 @@ package org.bedework.caldav.util.filter;
 import org.bedework.util.misc.ToString;
 import org.bedework.webdav.servlet.shared.WebdavException;
 
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * A filter selects events (and possibly other entities) that fulfill
@@ -43,7 +47,7 @@ import java.util.List;
  * @author Mike Douglass
  * @version 1.1
  */
-public class FilterBase implements Serializable {
+public class FilterBase implements Serializable, Cloneable {
   /** The internal name of the filter
    */
   protected String name;
@@ -65,6 +69,8 @@ public class FilterBase implements Serializable {
   /** The children of the filter */
   protected List<FilterBase> children;
 
+  private transient volatile Predicate<Component> predicate;
+
   /**
    * @param name for filter
    */
@@ -207,12 +213,47 @@ public class FilterBase implements Serializable {
     val.setParent(this);
   }
 
+  /** Copy this filter and, recursively, its children. The copy has its
+   * own children lists and no parent so it may be changed - e.g. with
+   * addAndChild - without affecting this filter. Values such as the
+   * entity of an ObjectFilter are shared and must not be changed in place.
+   *
+   * @return a copy of the tree rooted at this filter
+   */
+  public FilterBase copy() {
+    final FilterBase f;
+
+    try {
+      f = (FilterBase)super.clone();
+    } catch (final CloneNotSupportedException cnse) {
+      throw new RuntimeException(cnse);
+    }
+
+    f.parent = null;
+    f.predicate = null;
+    f.children = null;
+
+    final List<FilterBase> c = getChildren();
+
+    if (c != null) {
+      f.setChildren(new ArrayList<>(c.size()));
+
+      for (final FilterBase child: c) {
+        f.addChild(child.copy());
+      }
+    }
+
+    return f;
+  }
+
   /* ====================================================================
    *                   matching methods
    * ==================================================================== */
 
-  /** Overridden by filters which attempt to match the object with the
-   * requirements.
+  /** Attempt to match the object with the requirements. The object may
+   * be an ical4j Calendar, in which case any component may match, or a
+   * Component. For a Calendar the instances of a recurring master which
+   * are overridden are tested through their overrides.
    *
    * @param o object to match
    * @param userHref - for whom we are matching
@@ -221,7 +262,41 @@ public class FilterBase implements Serializable {
    */
   public boolean match(final Object o,
                        final String userHref) throws WebdavException {
-    return false;
+    if (o instanceof Calendar) {
+      // Match if any non-timezone component matches
+      try {
+        return FilterMatcher.matchInstances(getPredicate(),
+                                            (Calendar)o, -1);
+      } catch (final Throwable t) {
+        throw new WebdavException(t);
+      }
+    }
+
+    if (!(o instanceof Component)) {
+      return false;
+    }
+
+    try {
+      return getPredicate().test((Component)o);
+    } catch (final Throwable t) {
+      throw new WebdavException(t);
+    }
+  }
+
+  /** The filter compiled by FilterMatcher. This is built on first use
+   * so the filter should not be changed after matching starts.
+   *
+   * @return predicate implementing this filter
+   */
+  public Predicate<Component> getPredicate() {
+    Predicate<Component> p = predicate;
+
+    if (p == null) {
+      p = FilterMatcher.compile(this);
+      predicate = p;
+    }
+
+    return p;
   }
 
   /* ====================================================================
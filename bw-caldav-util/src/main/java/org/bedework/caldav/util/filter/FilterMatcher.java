@@ -0,0 +1,649 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.util.filter;
+
+import org.bedework.caldav.util.TimeRange;
+import org.bedework.util.calendar.IcalDefs;
+import org.bedework.util.calendar.PropertyIndex.PropertyInfoIndex;
+import org.bedework.util.misc.Util;
+
+import ietf.params.xml.ns.caldav.ParamFilterType;
+import ietf.params.xml.ns.caldav.PropFilterType;
+import ietf.params.xml.ns.caldav.TextMatchType;
+import ietf.params.xml.ns.caldav.UTCTimeRangeType;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.ComponentList;
+import net.fortuna.ical4j.model.Date;
+import net.fortuna.ical4j.model.DateList;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Parameter;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.PropertyList;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.component.VJournal;
+import net.fortuna.ical4j.model.component.VTimeZone;
+import net.fortuna.ical4j.model.component.VToDo;
+import net.fortuna.ical4j.model.parameter.Value;
+import net.fortuna.ical4j.model.property.ExDate;
+import net.fortuna.ical4j.model.property.RecurrenceId;
+import net.fortuna.ical4j.model.property.Uid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/** Compile a FilterBase tree into predicates which can be applied to
+ * ical4j components in memory. And and or filters short circuit.
+ *
+ * <p>Property filters are applied to the properties of the component
+ * being tested. A PropertyFilter with a parent property index tests the
+ * parameters of the parent property.
+ *
+ * <p>For PresenceFilter the test is given by testPresent and the not
+ * flag is ignored. For all others the not flag negates the result.
+ *
+ * <p>CalDAV prop-filters which were not translated into the query are
+ * compiled here for post-filtering. Text matchers and time ranges are
+ * built once when the predicate is compiled.
+ *
+ * <p>A calendar object resource may hold a recurring master and
+ * overrides for some of its instances. Use matchInstances to test those so
+ * overridden instances of the master are not matched.
+ */
+public class FilterMatcher {
+  private static final Predicate<Component> matchAll = c -> true;
+
+  private FilterMatcher() {
+  }
+
+  /**
+   * @param f the filter - null matches everything
+   * @return a predicate implementing the filter
+   */
+  public static Predicate<Component> compile(final FilterBase f) {
+    if (f == null) {
+      return matchAll;
+    }
+
+    final Predicate<Component> p = compileFilter(f);
+
+    if (f.getNot() && !(f instanceof PresenceFilter)) {
+      return p.negate();
+    }
+
+    return p;
+  }
+
+  /** Compile the prop-filters of a comp-filter. As RFC4791 9.7.1
+   * requires, the result matches only if all of the prop-filters match.
+   *
+   * @param pfs prop-filters - null or empty matches nothing
+   * @return a predicate implementing the prop-filters
+   */
+  public static Predicate<Component> compileAll(
+          final List<PropFilterType> pfs) {
+    if (Util.isEmpty(pfs)) {
+      return c -> false;
+    }
+
+    @SuppressWarnings("unchecked")
+    final Predicate<Component>[] ps =
+            (Predicate<Component>[])new Predicate[pfs.size()];
+
+    for (int i = 0; i < ps.length; i++) {
+      ps[i] = compile(pfs.get(i));
+    }
+
+    return c -> {
+      for (final Predicate<Component> p: ps) {
+        if (!p.test(c)) {
+          return false;
+        }
+      }
+
+      return true;
+    };
+  }
+
+  /** Compile a CalDAV prop-filter as defined by RFC4791 9.7.2
+   *
+   * @param pf the prop-filter
+   * @return a predicate implementing the prop-filter
+   */
+  public static Predicate<Component> compile(final PropFilterType pf) {
+    final String pname = pf.getName().toUpperCase();
+
+    if (pf.getIsNotDefined() != null) {
+      return c -> c.getProperties().getProperty(pname) == null;
+    }
+
+    final Predicate<Property> pp = compileProperty(pf);
+
+    return c -> {
+      for (final Object o: c.getProperties().getProperties(pname)) {
+        if (pp.test((Property)o)) {
+          return true;
+        }
+      }
+
+      return false;
+    };
+  }
+
+  /** Test the components of a calendar object resource of the given type.
+   *
+   * @param p the predicate
+   * @param cal the calendar object
+   * @param entityType IcalDefs.entityTypeXXX or -1 for any non-timezone
+   *                   component
+   * @return true if any instance matches
+   */
+  public static boolean matchInstances(final Predicate<Component> p,
+                                       final Calendar cal,
+                                       final int entityType) {
+    final List<Component> comps = new ArrayList<>();
+
+    for (final Object o: cal.getComponents()) {
+      final Component c = (Component)o;
+
+      if (c instanceof VTimeZone) {
+        continue;
+      }
+
+      if ((entityType < 0) || (getEntityType(c) == entityType)) {
+        comps.add(c);
+      }
+    }
+
+    return matchInstances(p, comps);
+  }
+
+  /** Test a set of components which may include recurring masters and
+   * overrides. An override is tested as it is. A master is tested with
+   * the instances which have been overridden excluded - as if they were
+   * in an EXDATE. The set matches if any component matches.
+   *
+   * @param p the predicate
+   * @param comps the components
+   * @return true if any instance matches
+   */
+  public static boolean matchInstances(final Predicate<Component> p,
+                                       final List<Component> comps) {
+    for (final Component c: comps) {
+      if (c.getProperty(Property.RECURRENCE_ID) != null) {
+        if (p.test(c)) {
+          return true;
+        }
+
+        continue;
+      }
+
+      if (p.test(excludeOverrides(c, comps))) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * @param comp the component
+   * @return entity type (IcalDefs.entityTypeXXX) or -1 if unknown
+   */
+  public static int getEntityType(final Component comp) {
+    final String name = comp.getName();
+    final String[] names = IcalDefs.entityTypeIcalNames;
+
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equalsIgnoreCase(name)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private static Predicate<Component> compileFilter(final FilterBase f) {
+    if (f instanceof BooleanFilter) {
+      final boolean val = ((BooleanFilter)f).getValue();
+
+      return c -> val;
+    }
+
+    if (f instanceof AndFilter) {
+      final Predicate<Component>[] ps = compileChildren(f);
+
+      return c -> {
+        for (final Predicate<Component> p: ps) {
+          if (!p.test(c)) {
+            return false;
+          }
+        }
+
+        return true;
+      };
+    }
+
+    if (f instanceof OrFilter) {
+      final Predicate<Component>[] ps = compileChildren(f);
+
+      return c -> {
+        for (final Predicate<Component> p: ps) {
+          if (p.test(c)) {
+            return true;
+          }
+        }
+
+        return false;
+      };
+    }
+
+    if (f instanceof NotFilter) {
+      final Predicate<Component>[] ps = compileChildren(f);
+
+      if (ps.length == 0) {
+        return matchAll;
+      }
+
+      return ps[0].negate();
+    }
+
+    if (f instanceof EntityTypeFilter) {
+      final Integer type = ((EntityTypeFilter)f).getEntity();
+
+      if (type == null) {
+        return matchAll;
+      }
+
+      final int t = type;
+      return c -> getEntityType(c) == t;
+    }
+
+    if (f instanceof EntityTimeRangeFilter) {
+      return compileEntityTimeRange((EntityTimeRangeFilter)f);
+    }
+
+    if (f instanceof TimeRangeFilter) {
+      final TimeRangeFilter trf = (TimeRangeFilter)f;
+      final TimeRange tr = trf.getEntity();
+      final String pname = propName(trf.getPropertyIndex());
+
+      if ((tr == null) || (pname == null)) {
+        return c -> false;
+      }
+
+      return c -> {
+        for (final Object o: c.getProperties().getProperties(pname)) {
+          if (tr.matches((Property)o)) {
+            return true;
+          }
+        }
+
+        return false;
+      };
+    }
+
+    if (f instanceof PresenceFilter) {
+      final PresenceFilter pf = (PresenceFilter)f;
+      final boolean testPresent = pf.getTestPresent();
+      final Predicate<Component> present = compilePresence(pf);
+
+      return c -> present.test(c) == testPresent;
+    }
+
+    if (f instanceof ObjectFilter) {
+      return compileObject((ObjectFilter<?>)f);
+    }
+
+    if (f instanceof PropertyFilter) {
+      return compilePresence((PropertyFilter)f);
+    }
+
+    if (f instanceof ParameterFilter) {
+      final ParameterFilter pf = (ParameterFilter)f;
+      final String parent = propName(pf.getParentPropertyIndex());
+
+      if ((parent == null) || (pf.getParameterIndex() == null)) {
+        return c -> false;
+      }
+
+      final String parname = pf.getParameterIndex().name().replace('_', '-');
+
+      return c -> {
+        for (final Object o: c.getProperties().getProperties(parent)) {
+          if (((Property)o).getParameter(parname) != null) {
+            return true;
+          }
+        }
+
+        return false;
+      };
+    }
+
+    // Unknown filter class
+    return c -> false;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Predicate<Component>[] compileChildren(final FilterBase f) {
+    final List<FilterBase> children = f.getChildren();
+
+    if (children == null) {
+      return (Predicate<Component>[])new Predicate[0];
+    }
+
+    final Predicate<Component>[] ps =
+            (Predicate<Component>[])new Predicate[children.size()];
+
+    for (int i = 0; i < ps.length; i++) {
+      ps[i] = compile(children.get(i));
+    }
+
+    return ps;
+  }
+
+  private static Predicate<Component> compileEntityTimeRange(
+          final EntityTimeRangeFilter f) {
+    final TimeRange tr = f.getEntity();
+    final int type = f.getEntityType();
+
+    if (tr == null) {
+      return c -> getEntityType(c) == type;
+    }
+
+    return c -> {
+      if (getEntityType(c) == type) {
+        return tr.overlaps(c);
+      }
+
+      if (type != IcalDefs.entityTypeAlarm) {
+        return false;
+      }
+
+      // Alarm time range applied to the parent
+      for (final Object o: getAlarms(c)) {
+        if (tr.overlaps((Component)o, c)) {
+          return true;
+        }
+      }
+
+      return false;
+    };
+  }
+
+  private static Predicate<Component> compilePresence(final PropertyFilter f) {
+    final String pname = propName(f.getPropertyIndex());
+    final String parent = propName(f.getParentPropertyIndex());
+
+    if (pname == null) {
+      return c -> false;
+    }
+
+    if (parent != null) {
+      // Parameter of parent
+      return c -> {
+        for (final Object o: c.getProperties().getProperties(parent)) {
+          if (((Property)o).getParameter(pname) != null) {
+            return true;
+          }
+        }
+
+        return false;
+      };
+    }
+
+    return c -> {
+      if (c.getProperty(pname) != null) {
+        return true;
+      }
+
+      // May be a sub-component, e.g. VALARM
+      for (final Object o: getAlarms(c)) {
+        if (pname.equals(((Component)o).getName())) {
+          return true;
+        }
+      }
+
+      return false;
+    };
+  }
+
+  private static Predicate<Component> compileObject(final ObjectFilter<?> f) {
+    final Object entity = f.getEntity();
+    final String pname = propName(f.getPropertyIndex());
+    final String parent = propName(f.getParentPropertyIndex());
+
+    if ((entity == null) || (pname == null)) {
+      return c -> false;
+    }
+
+    final TextMatcher matcher;
+
+    if (f.getMatcher() != null) {
+      matcher = f.getMatcher();
+    } else {
+      matcher = new TextMatcher(entity.toString(), false,
+                                TextMatcher.MatchType.equals, false);
+    }
+
+    if (parent != null) {
+      return c -> {
+        for (final Object o: c.getProperties().getProperties(parent)) {
+          final Parameter par = ((Property)o).getParameter(pname);
+
+          if ((par != null) && matcher.matches(par.getValue())) {
+            return true;
+          }
+        }
+
+        return false;
+      };
+    }
+
+    return c -> {
+      for (final Object o: c.getProperties().getProperties(pname)) {
+        if (matcher.matches(((Property)o).getValue())) {
+          return true;
+        }
+      }
+
+      return false;
+    };
+  }
+
+  private static Predicate<Property> compileProperty(final PropFilterType pf) {
+    final List<Predicate<Property>> tests = new ArrayList<>();
+
+    final TextMatchType tm = pf.getTextMatch();
+    if (tm != null) {
+      final TextMatcher matcher = TextMatcher.fromTextMatch(tm);
+
+      tests.add(p -> matcher.matches(p.getValue()));
+    }
+
+    final UTCTimeRangeType utr = pf.getTimeRange();
+    if (utr != null) {
+      final TimeRange tr = FilterUtil.getTimeRange(utr);
+
+      if (tr == null) {
+        // Invalid time range
+        return p -> false;
+      }
+
+      tests.add(tr::matches);
+    }
+
+    final List<ParamFilterType> parfs = pf.getParamFilter();
+
+    if (!Util.isEmpty(parfs)) {
+      final List<Predicate<Property>> pars = new ArrayList<>(parfs.size());
+
+      for (final ParamFilterType parf: parfs) {
+        pars.add(compileParam(parf));
+      }
+
+      if ("allof".equals(pf.getTest())) {
+        tests.add(p -> {
+          for (final Predicate<Property> par: pars) {
+            if (!par.test(p)) {
+              return false;
+            }
+          }
+
+          return true;
+        });
+      } else {
+        tests.add(p -> {
+          for (final Predicate<Property> par: pars) {
+            if (par.test(p)) {
+              return true;
+            }
+          }
+
+          return false;
+        });
+      }
+    }
+
+    return p -> {
+      for (final Predicate<Property> t: tests) {
+        if (!t.test(p)) {
+          return false;
+        }
+      }
+
+      return true;
+    };
+  }
+
+  private static Predicate<Property> compileParam(final ParamFilterType parf) {
+    final String parname = parf.getName().toUpperCase();
+
+    if (parf.getIsNotDefined() != null) {
+      return p -> p.getParameter(parname) == null;
+    }
+
+    final TextMatchType tm = parf.getTextMatch();
+
+    if (tm == null) {
+      return p -> p.getParameter(parname) != null;
+    }
+
+    final TextMatcher matcher = TextMatcher.fromTextMatch(tm);
+
+    return p -> {
+      final Parameter par = p.getParameter(parname);
+
+      return (par != null) && matcher.matches(par.getValue());
+    };
+  }
+
+  /* If there are overrides for this master return a view of it with the
+     overridden instances excluded, otherwise return the master.
+   */
+  private static Component excludeOverrides(final Component master,
+                                            final List<Component> comps) {
+    if ((master.getProperty(Property.RRULE) == null) &&
+            (master.getProperty(Property.RDATE) == null)) {
+      return master;
+    }
+
+    final Uid uid = (Uid)master.getProperty(Property.UID);
+    DateList rids = null;
+
+    for (final Component c: comps) {
+      final RecurrenceId rid =
+              (RecurrenceId)c.getProperty(Property.RECURRENCE_ID);
+
+      if ((rid == null) || (rid.getDate() == null)) {
+        continue;
+      }
+
+      if ((uid != null) && !uid.equals(c.getProperty(Property.UID))) {
+        continue;
+      }
+
+      if (rids == null) {
+        if (rid.getDate() instanceof DateTime) {
+          rids = new DateList(Value.DATE_TIME);
+        } else {
+          rids = new DateList(Value.DATE);
+        }
+      }
+
+      // Copies - adding to the list may change the timezone
+      if (rid.getDate() instanceof DateTime) {
+        rids.add(new DateTime(rid.getDate()));
+      } else {
+        rids.add(new Date(rid.getDate()));
+      }
+    }
+
+    if (rids == null) {
+      return master;
+    }
+
+    /* Share the properties - we only add to the new list */
+    final PropertyList props = new PropertyList();
+    props.addAll(master.getProperties());
+    props.add(new ExDate(rids));
+
+    final Component view;
+
+    if (master instanceof VEvent) {
+      view = new VEvent(props);
+    } else if (master instanceof VToDo) {
+      view = new VToDo(props);
+    } else if (master instanceof VJournal) {
+      view = new VJournal(props);
+    } else {
+      return master;
+    }
+
+    if (master instanceof VEvent) {
+      ((VEvent)view).getAlarms().addAll(((VEvent)master).getAlarms());
+    } else if (master instanceof VToDo) {
+      ((VToDo)view).getAlarms().addAll(((VToDo)master).getAlarms());
+    }
+
+    return view;
+  }
+
+  private static ComponentList getAlarms(final Component c) {
+    if (c instanceof VEvent) {
+      return ((VEvent)c).getAlarms();
+    }
+
+    if (c instanceof VToDo) {
+      return ((VToDo)c).getAlarms();
+    }
+
+    return new ComponentList();
+  }
+
+  /* iCalendar name for the index */
+  private static String propName(final PropertyInfoIndex pi) {
+    if (pi == null) {
+      return null;
+    }
+
+    return pi.name().replace('_', '-');
+  }
+}
@@ -18,14 +18,22 @@
 */
 package org.bedework.caldav.util.filter;
 
+import org.bedework.caldav.util.TimeRange;
+import org.bedework.util.calendar.XcalUtil;
+import org.bedework.util.misc.Util;
+
+import ietf.params.xml.ns.caldav.ParamFilterType;
 import ietf.params.xml.ns.caldav.PropFilterType;
 import ietf.params.xml.ns.caldav.TextMatchType;
 import ietf.params.xml.ns.caldav.UTCTimeRangeType;
 import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Parameter;
 import net.fortuna.ical4j.model.Property;
-import net.fortuna.ical4j.model.PropertyList;
 import net.fortuna.ical4j.model.property.DateProperty;
 
+import java.util.List;
+
 /**
  * Help for filtering
  *
@@ -33,10 +41,7 @@ import net.fortuna.ical4j.model.property.DateProperty;
  * @version 2.0
  */
 public class FilterUtil {
-
   /** Return true if the given component matches the property filter
-   *
-   * NOTE *********** Not handling params yet
    *
    * @param pf
    * @param c
@@ -44,58 +49,83 @@ public class FilterUtil {
    */
   public static boolean filter(final PropFilterType pf,
                                final Component c) {
-    PropertyList pl = c.getProperties();
+    return FilterMatcher.compile(pf).test(c);
+  }
 
-    if (pl == null) {
+  /** Return true if the given property matches the property filter
+   *
+   * @param pf
+   * @param prop
+   * @return boolean true if the property matches
+   */
+  public static boolean filter(final PropFilterType pf,
+                               final Property prop) {
+    final TextMatchType match = pf.getTextMatch();
+    if ((match != null) && !matches(match, prop.getValue())) {
       return false;
     }
 
-    Property prop = pl.getProperty(pf.getName());
-
-    if (prop == null) {
-      return pf.getIsNotDefined() != null;
+    final UTCTimeRangeType tr = pf.getTimeRange();
+    if ((tr != null) && !matches(tr, prop)) {
+      return false;
     }
 
-    TextMatchType match = pf.getTextMatch();
-    if (match != null) {
-      return matches(match, prop.getValue());
-    }
+    final List<ParamFilterType> parfs = pf.getParamFilter();
 
-    UTCTimeRangeType tr = pf.getTimeRange();
-    if (tr == null) {
-      // invalid state?
+    if (Util.isEmpty(parfs)) {
       return true;
     }
 
-    return matches(tr, prop);
-  }
+    final boolean allOf = "allof".equals(pf.getTest());
 
-  /**
-   * @param tm
-   * @param candidate
-   * @return boolean true if matches
-   */
-  public static boolean matches(final TextMatchType tm,
-                                final String candidate) {
-    if (candidate == null) {
-      return false;
+    for (final ParamFilterType parf: parfs) {
+      final boolean matched = filter(parf, prop);
+
+      if (allOf && !matched) {
+        return false;
+      }
+
+      if (!allOf && matched) {
+        return true;
+      }
     }
 
-    boolean isThere;
+    return allOf;
+  }
 
-    boolean upperMatch = tm.getCollation().equals("i;ascii-casemap");
+  /** Return true if the given property matches the parameter filter
+   *
+   * @param parf
+   * @param prop
+   * @return boolean true if the property matches
+   */
+  public static boolean filter(final ParamFilterType parf,
+                               final Property prop) {
+    final Parameter par = prop.getParameter(parf.getName());
 
-    if (!upperMatch) {
-      isThere = candidate.contains(tm.getValue());
-    } else {
-      isThere = candidate.toUpperCase().contains(tm.getValue());
+    if (parf.getIsNotDefined() != null) {
+      return par == null;
     }
 
-    if (tm.getNegateCondition().equals("yes")) {
-      return !isThere;
+    if (par == null) {
+      return false;
     }
 
-    return isThere;
+    final TextMatchType match = parf.getTextMatch();
+
+    return (match == null) || matches(match, par.getValue());
+  }
+
+  /** Builds a matcher for each call. Code which matches repeatedly
+   * should compile the filter with FilterMatcher.
+   *
+   * @param tm
+   * @param candidate
+   * @return boolean true if matches
+   */
+  public static boolean matches(final TextMatchType tm,
+                                final String candidate) {
+    return TextMatcher.fromTextMatch(tm).matches(candidate);
   }
 
   /** Test if the given property falls in the timerange
@@ -110,7 +140,32 @@ public class FilterUtil {
       return false;
     }
 
-    // XXX later
-    return true;
+    final TimeRange range = getTimeRange(tr);
+
+    return (range != null) && range.matches(candidate);
+  }
+
+  /**
+   * @param tr time-range element
+   * @return TimeRange or null if the element is invalid
+   */
+  public static TimeRange getTimeRange(final UTCTimeRangeType tr) {
+    try {
+      DateTime st = null;
+      DateTime et = null;
+
+      if (tr.getStart() != null) {
+        st = new DateTime(XcalUtil.getIcalFormatDateTime(tr.getStart()));
+      }
+
+      if (tr.getEnd() != null) {
+        et = new DateTime(XcalUtil.getIcalFormatDateTime(tr.getEnd()));
+      }
+
+      return new TimeRange(st, et);
+    } catch (final Throwable t) {
+      // Invalid time range
+      return null;
+    }
   }
 }
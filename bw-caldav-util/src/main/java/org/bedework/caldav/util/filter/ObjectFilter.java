@@ -43,6 +43,8 @@ public class ObjectFilter<T> extends PropertyFilter {
 
   private boolean prefix;
 
+  private transient TextMatcher matcher;
+
   /** Match on any of the entities.
    *
    * @param name - null one will be created
@@ -108,6 +110,7 @@ public class ObjectFilter<T> extends PropertyFilter {
    */
   public void setEntity(final T val) {
     entity = val;
+    matcher = null;
   }
 
   /** Get the entity we're filtering on
@@ -124,6 +127,7 @@ public class ObjectFilter<T> extends PropertyFilter {
    */
   public void setExact(final boolean val) {
     exact = val;
+    matcher = null;
   }
 
   /** See if we do exact match
@@ -140,6 +144,7 @@ public class ObjectFilter<T> extends PropertyFilter {
    */
   public void setCaseless(final boolean val) {
     caseless = val;
+    matcher = null;
   }
 
   /** See if we do caseless match
@@ -156,6 +161,7 @@ public class ObjectFilter<T> extends PropertyFilter {
    */
   public void setPrefixMatch(final boolean val) {
     prefix = val;
+    matcher = null;
   }
 
   /**
@@ -166,6 +172,36 @@ public class ObjectFilter<T> extends PropertyFilter {
     return prefix;
   }
 
+  /** Matcher for String entities. Built on first use and kept until the
+   * entity or a match flag changes. Filters.getQuery builds it when the
+   * filter is translated.
+   *
+   * @return compiled matcher or null if the entity is not a String
+   */
+  public TextMatcher getMatcher() {
+    if (matcher != null) {
+      return matcher;
+    }
+
+    if (!(entity instanceof String)) {
+      return null;
+    }
+
+    final TextMatcher.MatchType mt;
+
+    if (exact) {
+      mt = TextMatcher.MatchType.equals;
+    } else if (prefix) {
+      mt = TextMatcher.MatchType.startsWith;
+    } else {
+      mt = TextMatcher.MatchType.contains;
+    }
+
+    matcher = new TextMatcher((String)entity, caseless, mt, false);
+
+    return matcher;
+  }
+
   /* * Create a filter for the given index and value
    *
    * @param name
@@ -0,0 +1,188 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.util.filter;
+
+import ietf.params.xml.ns.caldav.TextMatchType;
+
+import java.io.Serializable;
+
+/** A precompiled text match. Matching compares characters in place so
+ * no garbage is produced per candidate.
+ *
+ * <p>Supports the i;ascii-casemap and i;octet collations. Any other
+ * collation is treated as i;octet.
+ */
+public class TextMatcher implements Serializable {
+  /** Collation names */
+  public static final String asciiCasemap = "i;ascii-casemap";
+
+  /** */
+  public static final String octet = "i;octet";
+
+  /** How the value is compared with the candidate */
+  public enum MatchType {
+    /** Whole value */
+    equals,
+
+    /** Anywhere in the candidate */
+    contains,
+
+    /** Candidate starts with the value */
+    startsWith,
+
+    /** Candidate ends with the value */
+    endsWith
+  }
+
+  private final char[] val;
+
+  private final boolean caseless;
+
+  private final MatchType matchType;
+
+  private final boolean negate;
+
+  /**
+   * @param val value we are looking for
+   * @param caseless true for i;ascii-casemap
+   * @param matchType how we match
+   * @param negate true to negate the result
+   */
+  public TextMatcher(final String val,
+                     final boolean caseless,
+                     final MatchType matchType,
+                     final boolean negate) {
+    this.caseless = caseless;
+    this.matchType = matchType;
+    this.negate = negate;
+
+    this.val = val.toCharArray();
+
+    if (caseless) {
+      for (int i = 0; i < this.val.length; i++) {
+        this.val[i] = fold(this.val[i]);
+      }
+    }
+  }
+
+  /** A CalDAV text-match is always a substring match.
+   *
+   * @param tm the text-match element
+   * @return a matcher
+   */
+  public static TextMatcher fromTextMatch(final TextMatchType tm) {
+    return new TextMatcher(tm.getValue(),
+                           asciiCasemap.equals(tm.getCollation()),
+                           MatchType.contains,
+                           "yes".equals(tm.getNegateCondition()));
+  }
+
+  /**
+   * @return true for i;ascii-casemap
+   */
+  public boolean getCaseless() {
+    return caseless;
+  }
+
+  /**
+   * @return how we match
+   */
+  public MatchType getMatchType() {
+    return matchType;
+  }
+
+  /**
+   * @return true if the result is negated
+   */
+  public boolean getNegate() {
+    return negate;
+  }
+
+  /** A null candidate never matches - even when negated.
+   *
+   * @param candidate value to test
+   * @return true for a match
+   */
+  public boolean matches(final String candidate) {
+    if (candidate == null) {
+      return false;
+    }
+
+    return found(candidate) != negate;
+  }
+
+  private boolean found(final String candidate) {
+    final int vlen = val.length;
+    final int clen = candidate.length();
+
+    if (vlen > clen) {
+      return false;
+    }
+
+    switch (matchType) {
+      case equals:
+        return (vlen == clen) && regionMatches(candidate, 0);
+
+      case startsWith:
+        return regionMatches(candidate, 0);
+
+      case endsWith:
+        return regionMatches(candidate, clen - vlen);
+
+      default:
+        for (int i = 0; i <= clen - vlen; i++) {
+          if (regionMatches(candidate, i)) {
+            return true;
+          }
+        }
+
+        return false;
+    }
+  }
+
+  private boolean regionMatches(final String candidate,
+                                final int offset) {
+    if (caseless) {
+      for (int i = 0; i < val.length; i++) {
+        if (fold(candidate.charAt(offset + i)) != val[i]) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    for (int i = 0; i < val.length; i++) {
+      if (candidate.charAt(offset + i) != val[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /* i;ascii-casemap - only a-z are folded */
+  private static char fold(final char c) {
+    if ((c >= 'a') && (c <= 'z')) {
+      return (char)(c - ('a' - 'A'));
+    }
+
+    return c;
+  }
+}
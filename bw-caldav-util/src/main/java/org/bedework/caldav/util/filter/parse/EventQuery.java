@@ -18,14 +18,25 @@
 */
 package org.bedework.caldav.util.filter.parse;
 
+import org.bedework.caldav.util.TimeRange;
 import org.bedework.caldav.util.filter.FilterBase;
+import org.bedework.caldav.util.filter.FilterMatcher;
+import org.bedework.util.calendar.IcalDefs;
 
 import ietf.params.xml.ns.caldav.PropFilterType;
+import net.fortuna.ical4j.model.Component;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
 
-/**
+/** The result of translating a CalDAV filter. Translated filters are
+ * cached by Filters.getQuery which hands each caller its own copy of the
+ * filter tree, so the filter may be changed by the caller or backend.
+ * The post filter lists, entity types and time range are shared and are
+ * unmodifiable.
+ *
  * @author Mike Douglass
  *
  */
@@ -52,4 +63,84 @@ public class EventQuery implements Serializable {
   /** PostFilter: If non-null apply to retrieved alarm components
    */
   public List<PropFilterType> alarmFilters;
+
+  /** Entity types (IcalDefs.entityTypeXXX) the query can match. Null
+   * if it may match any type.
+   */
+  public Set<Integer> entityTypes;
+
+  /** A time range covering all the component time ranges in the query.
+   * Null if any selected component type is not limited by time. Backends
+   * may use this to pick an index - the filter must still be applied.
+   */
+  public TimeRange timeRange;
+
+  /* Compiled post filters - shared by copies */
+  private transient PostFilters compiled;
+
+  private static class PostFilters {
+    final Predicate<Component> event;
+    final Predicate<Component> todo;
+    final Predicate<Component> journal;
+
+    PostFilters(final EventQuery eq) {
+      event = FilterMatcher.compileAll(eq.eventFilters);
+      todo = FilterMatcher.compileAll(eq.todoFilters);
+      journal = FilterMatcher.compileAll(eq.journalFilters);
+    }
+  }
+
+  /** The post filter for components of the given type, compiled on
+   * first use. The post filter lists must not be changed after this is
+   * called.
+   *
+   * @param entityType IcalDefs.entityTypeXXX
+   * @return predicate - matches nothing if there are no filters for the
+   *         type
+   */
+  public Predicate<Component> getPostFilter(final int entityType) {
+    PostFilters pf = compiled;
+
+    if (pf == null) {
+      pf = new PostFilters(this);
+      compiled = pf;
+    }
+
+    if (entityType == IcalDefs.entityTypeEvent) {
+      return pf.event;
+    }
+
+    if (entityType == IcalDefs.entityTypeTodo) {
+      return pf.todo;
+    }
+
+    if (entityType == IcalDefs.entityTypeJournal) {
+      return pf.journal;
+    }
+
+    return c -> false;
+  }
+
+  /** A copy of this query with its own copy of the filter tree
+   *
+   * @return new EventQuery
+   */
+  public EventQuery copy() {
+    final EventQuery eq = new EventQuery();
+
+    if (filter != null) {
+      eq.filter = filter.copy();
+    }
+
+    eq.postFilter = postFilter;
+    eq.eventFilters = eventFilters;
+    eq.todoFilters = todoFilters;
+    eq.journalFilters = journalFilters;
+    eq.alarmFilters = alarmFilters;
+    eq.entityTypes = entityTypes;
+    eq.timeRange = timeRange;
+    eq.compiled = compiled;
+
+    return eq;
+  }
 }
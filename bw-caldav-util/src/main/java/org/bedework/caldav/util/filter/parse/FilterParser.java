@@ -0,0 +1,388 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.util.filter.parse;
+
+import org.bedework.util.xml.XmlUtil;
+import org.bedework.util.xml.tagdefs.CaldavTags;
+import org.bedework.webdav.servlet.shared.WebdavException;
+
+import ietf.params.xml.ns.caldav.CompFilterType;
+import ietf.params.xml.ns.caldav.FilterType;
+import ietf.params.xml.ns.caldav.IsNotDefinedType;
+import ietf.params.xml.ns.caldav.ParamFilterType;
+import ietf.params.xml.ns.caldav.PropFilterType;
+import ietf.params.xml.ns.caldav.TextMatchType;
+import ietf.params.xml.ns.caldav.UTCTimeRangeType;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/** Shared parsing of CalDAV filters.
+ *
+ * <p>Creating a JAXBContext involves reflection over the whole generated
+ * package so we create one for the process. Unmarshallers and
+ * DocumentBuilders are not thread safe so we keep a small pool of each.
+ *
+ * <p>Filters are small and have a fixed structure so the usual path
+ * builds the FilterType directly from the DOM. If we find anything we
+ * don't recognize we fall back to JAXB which will behave as it always
+ * has.
+ */
+public class FilterParser {
+  private static final String jaxbContextPath = "ietf.params.xml.ns.caldav";
+
+  private static final int maxPoolSize = 10;
+
+  private static volatile JAXBContext jc;
+
+  private static final List<Unmarshaller> unmarshallers = new ArrayList<>();
+
+  private static final List<DocumentBuilder> builders = new ArrayList<>();
+
+  private static DocumentBuilderFactory factory;
+
+  private FilterParser() {
+  }
+
+  /**
+   * @return the shared context for the caldav package
+   * @throws WebdavException on error
+   */
+  public static JAXBContext getJaxbContext() throws WebdavException {
+    if (jc != null) {
+      return jc;
+    }
+
+    synchronized (unmarshallers) {
+      if (jc == null) {
+        try {
+          jc = JAXBContext.newInstance(jaxbContextPath);
+        } catch (Throwable t) {
+          throw new WebdavException(t);
+        }
+      }
+
+      return jc;
+    }
+  }
+
+  /** Given a caldav like xml filter parse it
+   *
+   * @param xmlStr xml filter
+   * @return Filter
+   * @throws WebdavException on error
+   */
+  public static FilterType parse(final String xmlStr) throws WebdavException {
+    final DocumentBuilder builder = getBuilder();
+
+    try {
+      return parse(builder.parse(new InputSource(new StringReader(xmlStr)))
+                          .getDocumentElement());
+    } catch (WebdavException we) {
+      throw we;
+    } catch (Throwable t) {
+      throw new WebdavException(t);
+    } finally {
+      putBuilder(builder);
+    }
+  }
+
+  /** The given node must be the Filter element
+   *
+   * @param nd node
+   * @return Filter
+   * @throws WebdavException on error
+   */
+  public static FilterType parse(final Node nd) throws WebdavException {
+    if (nd instanceof Element) {
+      final FilterType f = parseFilter((Element)nd);
+
+      if (f != null) {
+        return f;
+      }
+    }
+
+    return unmarshal(nd);
+  }
+
+  /** Unmarshal the filter using JAXB.
+   *
+   * @param nd node
+   * @return Filter
+   * @throws WebdavException on error
+   */
+  public static FilterType unmarshal(final Node nd) throws WebdavException {
+    final Unmarshaller u = getUnmarshaller();
+
+    try {
+      final JAXBElement<?> jel = (JAXBElement<?>)u.unmarshal(nd);
+      if (jel == null) {
+        return null;
+      }
+
+      return (FilterType)jel.getValue();
+    } catch (Throwable t) {
+      throw new WebdavException(t);
+    } finally {
+      putUnmarshaller(u);
+    }
+  }
+
+  /* ====================================================================
+   *                   DOM parsing
+   * ====================================================================
+   * Each of these returns null if the element has an unexpected form.
+   */
+
+  private static FilterType parseFilter(final Element el) {
+    if (!XmlUtil.nodeMatches(el, CaldavTags.filter)) {
+      return null;
+    }
+
+    final Element[] children = getChildren(el);
+    if ((children == null) || (children.length != 1)) {
+      return null;
+    }
+
+    final CompFilterType cf = parseCompFilter(children[0]);
+    if (cf == null) {
+      return null;
+    }
+
+    final FilterType f = new FilterType();
+    f.setCompFilter(cf);
+
+    return f;
+  }
+
+  private static CompFilterType parseCompFilter(final Element el) {
+    if (!XmlUtil.nodeMatches(el, CaldavTags.compFilter)) {
+      return null;
+    }
+
+    final CompFilterType cf = new CompFilterType();
+
+    cf.setName(attr(el, "name"));
+    if (el.hasAttribute("test")) {
+      cf.setTest(el.getAttribute("test"));
+    }
+
+    final Element[] children = getChildren(el);
+    if (children == null) {
+      return null;
+    }
+
+    for (final Element child: children) {
+      if (XmlUtil.nodeMatches(child, CaldavTags.isNotDefined)) {
+        cf.setIsNotDefined(new IsNotDefinedType());
+      } else if (XmlUtil.nodeMatches(child, CaldavTags.timeRange)) {
+        cf.setTimeRange(parseTimeRange(child));
+      } else if (XmlUtil.nodeMatches(child, CaldavTags.propFilter)) {
+        final PropFilterType pf = parsePropFilter(child);
+        if (pf == null) {
+          return null;
+        }
+
+        cf.getPropFilter().add(pf);
+      } else if (XmlUtil.nodeMatches(child, CaldavTags.compFilter)) {
+        final CompFilterType subcf = parseCompFilter(child);
+        if (subcf == null) {
+          return null;
+        }
+
+        cf.getCompFilter().add(subcf);
+      } else {
+        return null;
+      }
+    }
+
+    return cf;
+  }
+
+  private static PropFilterType parsePropFilter(final Element el) {
+    final PropFilterType pf = new PropFilterType();
+
+    pf.setName(attr(el, "name"));
+    if (el.hasAttribute("test")) {
+      pf.setTest(el.getAttribute("test"));
+    }
+
+    final Element[] children = getChildren(el);
+    if (children == null) {
+      return null;
+    }
+
+    for (final Element child: children) {
+      if (XmlUtil.nodeMatches(child, CaldavTags.isNotDefined)) {
+        pf.setIsNotDefined(new IsNotDefinedType());
+      } else if (XmlUtil.nodeMatches(child, CaldavTags.timeRange)) {
+        pf.setTimeRange(parseTimeRange(child));
+      } else if (XmlUtil.nodeMatches(child, CaldavTags.textMatch)) {
+        pf.setTextMatch(parseTextMatch(child));
+      } else if (XmlUtil.nodeMatches(child, CaldavTags.paramFilter)) {
+        final ParamFilterType parf = parseParamFilter(child);
+        if (parf == null) {
+          return null;
+        }
+
+        pf.getParamFilter().add(parf);
+      } else {
+        return null;
+      }
+    }
+
+    return pf;
+  }
+
+  private static ParamFilterType parseParamFilter(final Element el) {
+    final ParamFilterType pf = new ParamFilterType();
+
+    pf.setName(attr(el, "name"));
+
+    final Element[] children = getChildren(el);
+    if (children == null) {
+      return null;
+    }
+
+    for (final Element child: children) {
+      if (XmlUtil.nodeMatches(child, CaldavTags.isNotDefined)) {
+        pf.setIsNotDefined(new IsNotDefinedType());
+      } else if (XmlUtil.nodeMatches(child, CaldavTags.textMatch)) {
+        pf.setTextMatch(parseTextMatch(child));
+      } else {
+        return null;
+      }
+    }
+
+    return pf;
+  }
+
+  private static UTCTimeRangeType parseTimeRange(final Element el) {
+    final UTCTimeRangeType tr = new UTCTimeRangeType();
+
+    tr.setStart(attr(el, "start"));
+    tr.setEnd(attr(el, "end"));
+
+    return tr;
+  }
+
+  private static TextMatchType parseTextMatch(final Element el) {
+    final TextMatchType tm = new TextMatchType();
+
+    if (el.hasAttribute("collation")) {
+      tm.setCollation(el.getAttribute("collation"));
+    }
+
+    if (el.hasAttribute("negate-condition")) {
+      tm.setNegateCondition(el.getAttribute("negate-condition"));
+    }
+
+    tm.setValue(el.getTextContent());
+
+    return tm;
+  }
+
+  private static String attr(final Element el, final String name) {
+    if (!el.hasAttribute(name)) {
+      return null;
+    }
+
+    return el.getAttribute(name);
+  }
+
+  /* Child elements or null if there is non-whitespace text */
+  private static Element[] getChildren(final Element el) {
+    try {
+      return XmlUtil.getElementsArray(el);
+    } catch (Throwable t) {
+      return null;
+    }
+  }
+
+  /* ====================================================================
+   *                   Pools
+   * ==================================================================== */
+
+  private static Unmarshaller getUnmarshaller() throws WebdavException {
+    synchronized (unmarshallers) {
+      if (unmarshallers.size() > 0) {
+        return unmarshallers.remove(unmarshallers.size() - 1);
+      }
+    }
+
+    try {
+      return getJaxbContext().createUnmarshaller();
+    } catch (WebdavException we) {
+      throw we;
+    } catch (Throwable t) {
+      throw new WebdavException(t);
+    }
+  }
+
+  private static void putUnmarshaller(final Unmarshaller u) {
+    synchronized (unmarshallers) {
+      if (unmarshallers.size() >= maxPoolSize) {
+        return;
+      }
+
+      unmarshallers.add(u);
+    }
+  }
+
+  private static DocumentBuilder getBuilder() throws WebdavException {
+    synchronized (builders) {
+      if (builders.size() > 0) {
+        return builders.remove(builders.size() - 1);
+      }
+
+      try {
+        if (factory == null) {
+          factory = DocumentBuilderFactory.newInstance();
+          factory.setNamespaceAware(true);
+        }
+
+        return factory.newDocumentBuilder();
+      } catch (Throwable t) {
+        throw new WebdavException(t);
+      }
+    }
+  }
+
+  private static void putBuilder(final DocumentBuilder builder) {
+    builder.reset();
+
+    synchronized (builders) {
+      if (builders.size() >= maxPoolSize) {
+        return;
+      }
+
+      builders.add(builder);
+    }
+  }
+}
@@ -41,26 +41,40 @@ import ietf.params.xml.ns.caldav.PropFilterType;
 import ietf.params.xml.ns.caldav.TextMatchType;
 import ietf.params.xml.ns.caldav.UTCTimeRangeType;
 import net.fortuna.ical4j.model.DateTime;
-import org.w3c.dom.Document;
 import org.w3c.dom.Node;
-import org.xml.sax.InputSource;
 
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBElement;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
 
 /** Class to parse and process query filters.
  *
  *   @author Mike Douglass   douglm rpi.edu
  */
 public class Filters {
+  private static final int maxCachedQueries = 200;
+
+  /* Clients poll with the same few queries. Key is the canonical form
+   * of the filter.
+   */
+  private static final Map<String, EventQuery> queryCache =
+          new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, EventQuery> eldest) {
+              return size() > maxCachedQueries;
+            }
+          };
+
+  private static final LongAdder queryCacheHits = new LongAdder();
+  private static final LongAdder queryCacheMisses = new LongAdder();
+
   /** Convenience method
    *
    * @param cf comp filter
@@ -90,20 +104,7 @@ public class Filters {
    * @throws WebdavException
    */
   public static FilterType parse(final String xmlStr) throws WebdavException {
-    try {
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      factory.setNamespaceAware(true);
-
-      DocumentBuilder builder = factory.newDocumentBuilder();
-
-      Document doc = builder.parse(new InputSource(new StringReader(xmlStr)));
-
-      return parse(doc.getDocumentElement());
-    } catch (WebdavException cfe) {
-      throw cfe;
-    } catch (Throwable t) {
-      throw new WebdavException(t);
-    }
+    return FilterParser.parse(xmlStr);
   }
 
   /** The given node must be the Filter element
@@ -113,35 +114,98 @@ public class Filters {
    * @throws WebdavException
    */
   public static FilterType parse(final Node nd) throws WebdavException {
-    try {
-      JAXBContext jc = JAXBContext.newInstance("ietf.params.xml.ns.caldav");
-      Unmarshaller u = jc.createUnmarshaller();
+    return FilterParser.parse(nd);
+  }
+
+  /** Return an object encapsulating the filter query. The translation
+   * is cached - each call returns a new EventQuery with its own copy of
+   * the filter tree.
+   *
+   * @param f filter
+   * @return EventQuery
+   * @throws WebdavException
+   */
+  public static EventQuery getQuery(final FilterType f) throws WebdavException {
+    final String key = getCanonicalKey(f);
 
-      JAXBElement<?> jel = (JAXBElement<?>)u.unmarshal(nd);
-      if (jel == null) {
-        return null;
+    synchronized (queryCache) {
+      final EventQuery eventq = queryCache.get(key);
+
+      if (eventq != null) {
+        queryCacheHits.increment();
+        return eventq.copy();
       }
 
-      return (FilterType)jel.getValue();
-    } catch (Throwable t) {
-      throw new WebdavException(t);
+      queryCacheMisses.increment();
+    }
+
+    final EventQuery eventq = compileQuery(f);
+
+    /* The cached query is never handed out - freeze the parts the
+       copies share.
+     */
+    eventq.eventFilters = unmodifiable(eventq.eventFilters);
+    eventq.todoFilters = unmodifiable(eventq.todoFilters);
+    eventq.journalFilters = unmodifiable(eventq.journalFilters);
+    eventq.alarmFilters = unmodifiable(eventq.alarmFilters);
+
+    if (eventq.postFilter) {
+      // Compile once for all the copies
+      eventq.getPostFilter(IcalDefs.entityTypeEvent);
+    }
+
+    synchronized (queryCache) {
+      queryCache.put(key, eventq);
     }
+
+    return eventq.copy();
   }
 
-  /** Return an object encapsulating the filter query.
+  /** Translate the filter without looking in the cache.
    *
    * @param f filter
-   * @return EventQuery
+   * @return a new EventQuery
    * @throws WebdavException
    */
-  public static EventQuery getQuery(final FilterType f) throws WebdavException {
+  public static EventQuery compileQuery(final FilterType f) throws WebdavException {
     final EventQuery eventq = new EventQuery();
 
     eventq.filter = getQueryFilter(f.getCompFilter(), eventq, 0);
 
+    setEntityTypesAndRange(f.getCompFilter(), eventq);
+
     return eventq;
   }
 
+  /**
+   * @return number of queries found in the cache
+   */
+  public static long getQueryCacheHits() {
+    return queryCacheHits.sum();
+  }
+
+  /**
+   * @return number of queries we had to translate
+   */
+  public static long getQueryCacheMisses() {
+    return queryCacheMisses.sum();
+  }
+
+  /** Return a string which is the same for any filters which will be
+   * translated to the same query. Child filters are sorted as anyof and
+   * allof are both unaffected by order.
+   *
+   * @param f filter
+   * @return key for the query cache
+   */
+  public static String getCanonicalKey(final FilterType f) {
+    final StringBuilder sb = new StringBuilder();
+
+    appendKey(sb, f.getCompFilter());
+
+    return sb.toString();
+  }
+
   /** Returns a subtree of the filter used in querying
    *
    * @param cf comp filter
@@ -242,6 +306,198 @@ public class Filters {
     return filter;
   }
 
+  /* Fill in the entity types and covering time range from the
+   * component filters directly below the VCALENDAR.
+   */
+  private static void setEntityTypesAndRange(final CompFilterType vcal,
+                                             final EventQuery eq) throws WebdavException {
+    if (vcal == null) {
+      return;
+    }
+
+    final List<CompFilterType> cfs = vcal.getCompFilter();
+
+    if (Util.isEmpty(cfs)) {
+      return;
+    }
+
+    final Set<Integer> entityTypes = new TreeSet<>();
+    DateTime start = null;
+    DateTime end = null;
+    boolean bounded = true;
+    boolean first = true;
+
+    for (final CompFilterType cf: cfs) {
+      if (cf.getIsNotDefined() != null) {
+        // Any other type may match
+        return;
+      }
+
+      entityTypes.add(EntityTypeFilter.makeIcalEntityTypeFilter(
+              null, cf.getName().toUpperCase(), false).getEntity());
+
+      if (!bounded) {
+        continue;
+      }
+
+      final TimeRange tr = makeTimeRange(cf.getTimeRange());
+
+      if (tr == null) {
+        bounded = false;
+        continue;
+      }
+
+      if (first) {
+        first = false;
+        start = tr.getStart();
+        end = tr.getEnd();
+        continue;
+      }
+
+      if ((start != null) &&
+              ((tr.getStart() == null) || tr.getStart().before(start))) {
+        start = tr.getStart();
+      }
+
+      if ((end != null) &&
+              ((tr.getEnd() == null) || tr.getEnd().after(end))) {
+        end = tr.getEnd();
+      }
+    }
+
+    eq.entityTypes = Collections.unmodifiableSet(entityTypes);
+
+    if (bounded && ((start != null) || (end != null))) {
+      eq.timeRange = new TimeRange(start, end);
+    }
+  }
+
+  /* ====================================================================
+   *                   Canonical keys
+   * ==================================================================== */
+
+  private static void appendKey(final StringBuilder sb,
+                                final CompFilterType cf) {
+    if (cf == null) {
+      sb.append("-");
+      return;
+    }
+
+    sb.append("C(");
+    appendVal(sb, cf.getName().toUpperCase());
+    sb.append(test(cf.getTest()));
+
+    if (cf.getIsNotDefined() != null) {
+      sb.append("N");
+    }
+
+    appendKey(sb, cf.getTimeRange());
+
+    final List<String> keys = new ArrayList<>();
+
+    for (final PropFilterType pf: cf.getPropFilter()) {
+      keys.add(getKey(pf));
+    }
+
+    for (final CompFilterType subcf: cf.getCompFilter()) {
+      final StringBuilder subsb = new StringBuilder();
+      appendKey(subsb, subcf);
+      keys.add(subsb.toString());
+    }
+
+    appendSorted(sb, keys);
+    sb.append(")");
+  }
+
+  private static String getKey(final PropFilterType pf) {
+    final StringBuilder sb = new StringBuilder("P(");
+
+    appendVal(sb, pf.getName());
+    sb.append(test(pf.getTest()));
+
+    if (pf.getIsNotDefined() != null) {
+      sb.append("N");
+    }
+
+    appendKey(sb, pf.getTimeRange());
+    appendKey(sb, pf.getTextMatch());
+
+    final List<String> keys = new ArrayList<>();
+
+    for (final ParamFilterType parf: pf.getParamFilter()) {
+      final StringBuilder parsb = new StringBuilder("A(");
+
+      appendVal(parsb, parf.getName());
+
+      if (parf.getIsNotDefined() != null) {
+        parsb.append("N");
+      }
+
+      appendKey(parsb, parf.getTextMatch());
+      parsb.append(")");
+
+      keys.add(parsb.toString());
+    }
+
+    appendSorted(sb, keys);
+    sb.append(")");
+
+    return sb.toString();
+  }
+
+  private static void appendKey(final StringBuilder sb,
+                                final UTCTimeRangeType utr) {
+    if (utr == null) {
+      return;
+    }
+
+    sb.append("T");
+    appendVal(sb, utr.getStart());
+    appendVal(sb, utr.getEnd());
+  }
+
+  private static void appendKey(final StringBuilder sb,
+                                final TextMatchType tm) {
+    if (tm == null) {
+      return;
+    }
+
+    sb.append("M");
+    appendVal(sb, tm.getCollation());
+    appendVal(sb, tm.getNegateCondition());
+    appendVal(sb, tm.getValue());
+  }
+
+  private static void appendSorted(final StringBuilder sb,
+                                   final List<String> keys) {
+    if (keys.size() > 1) {
+      Collections.sort(keys);
+    }
+
+    for (final String key: keys) {
+      sb.append(key);
+    }
+  }
+
+  private static String test(final String val) {
+    if ("allof".equals(val)) {
+      return "&";
+    }
+
+    return "|";
+  }
+
+  /* Length prefixed so that values can't run into each other */
+  private static void appendVal(final StringBuilder sb,
+                                final String val) {
+    if (val == null) {
+      sb.append("-");
+      return;
+    }
+
+    sb.append(val.length()).append(":").append(val);
+  }
+
   private static TimeRange makeTimeRange(final UTCTimeRangeType utr) throws WebdavException {
     if (utr == null) {
       return null;
@@ -376,6 +632,9 @@ public class Filters {
               pi != PropertyInfoIndex.UID;
       f.setCaseless(caseless);
       f.setNot(match.getNegateCondition().equals("yes"));
+
+      // Compile now so the cached plan and its copies share the matcher
+      f.getMatcher();
       filter = f;
     } else {
       // Must have param filters
@@ -423,6 +682,15 @@ public class Filters {
     return parfilters;
   }
 
+  private static List<PropFilterType> unmodifiable(
+          final List<PropFilterType> pfs) {
+    if (pfs == null) {
+      return null;
+    }
+
+    return Collections.unmodifiableList(pfs);
+  }
+
   private static List<PropFilterType> addPropFilter(List<PropFilterType> pfs,
                                          final PropFilterType val) {
     if (pfs == null) {
@@ -0,0 +1,399 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.util;
+
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.Date;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Dur;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.Property;
+import net.fortuna.ical4j.model.component.VAlarm;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.component.VFreeBusy;
+import net.fortuna.ical4j.model.component.VJournal;
+import net.fortuna.ical4j.model.component.VToDo;
+import net.fortuna.ical4j.model.parameter.Related;
+import net.fortuna.ical4j.model.property.Completed;
+import net.fortuna.ical4j.model.property.Created;
+import net.fortuna.ical4j.model.property.DtEnd;
+import net.fortuna.ical4j.model.property.DtStart;
+import net.fortuna.ical4j.model.property.Due;
+import net.fortuna.ical4j.model.property.Duration;
+import net.fortuna.ical4j.model.property.FreeBusy;
+import net.fortuna.ical4j.model.property.RRule;
+import net.fortuna.ical4j.model.property.Repeat;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** The time-range rules of RFC4791 section 9.9. Each row is a component,
+ * a range and the expected result. Ranges which touch the component are
+ * included to check which comparisons are inclusive.
+ */
+public class TimeRangeTest {
+  private static class Row {
+    final String desc;
+    final Component comp;
+    final String start;
+    final String end;
+    final boolean expected;
+
+    Row(final String desc,
+        final Component comp,
+        final String start,
+        final String end,
+        final boolean expected) {
+      this.desc = desc;
+      this.comp = comp;
+      this.start = start;
+      this.end = end;
+      this.expected = expected;
+    }
+  }
+
+  private static final String t1300 = "20060104T130000Z";
+  private static final String t1400 = "20060104T140000Z";
+  private static final String t1401 = "20060104T140100Z";
+  private static final String t1430 = "20060104T143000Z";
+  private static final String t1500 = "20060104T150000Z";
+  private static final String t1501 = "20060104T150100Z";
+  private static final String t1600 = "20060104T160000Z";
+
+  @Test
+  public void testVevent() throws Throwable {
+    final VEvent withEnd = event(t1400);
+    withEnd.getProperties().add(new DtEnd(new DateTime(t1500)));
+
+    final VEvent withDur = event(t1400);
+    withDur.getProperties().add(new Duration(new Dur("PT1H")));
+
+    final VEvent zeroDur = event(t1400);
+    zeroDur.getProperties().add(new Duration(new Dur("PT0S")));
+
+    final VEvent noEnd = event(t1400);
+
+    final VEvent allDay = new VEvent();
+    allDay.getProperties().add(new DtStart(new Date("20060104")));
+
+    check(new Row[] {
+            // start < DTEND AND end > DTSTART
+            new Row("dtend inside", withEnd, t1430, t1600, true),
+            new Row("dtend before", withEnd, t1300, t1400, false),
+            new Row("dtend after", withEnd, t1500, t1600, false),
+            new Row("dtend open start", withEnd, null, t1401, true),
+            new Row("dtend open end", withEnd, t1430, null, true),
+
+            // start < DTSTART+DURATION AND end > DTSTART
+            new Row("duration inside", withDur, t1430, t1600, true),
+            new Row("duration before", withDur, t1300, t1400, false),
+            new Row("duration after", withDur, t1500, t1600, false),
+
+            // start <= DTSTART AND end > DTSTART
+            new Row("zero duration at start", zeroDur, t1400, t1500, true),
+            new Row("zero duration before", zeroDur, t1300, t1400, false),
+            new Row("zero duration after", zeroDur, t1401, t1500, false),
+
+            new Row("no end at start", noEnd, t1400, t1500, true),
+            new Row("no end before", noEnd, t1300, t1400, false),
+            new Row("no end after", noEnd, t1401, t1500, false),
+
+            // start < DTSTART+P1D AND end > DTSTART
+            new Row("all day inside", allDay,
+                    "20060104T110000Z", "20060104T120000Z", true),
+            new Row("all day next day", allDay,
+                    "20060106T000000Z", "20060107T000000Z", false),
+            new Row("all day day before", allDay,
+                    "20060102T000000Z", "20060103T000000Z", false),
+    });
+  }
+
+  @Test
+  public void testVtodo() throws Throwable {
+    final VToDo startDur = todo(t1400);
+    startDur.getProperties().add(new Duration(new Dur("PT1H")));
+
+    final VToDo startDue = todo(t1400);
+    startDue.getProperties().add(new Due(new DateTime(t1500)));
+
+    final VToDo startOnly = todo(t1400);
+
+    final VToDo dueOnly = todo(null);
+    dueOnly.getProperties().add(new Due(new DateTime(t1500)));
+
+    final VToDo completedCreated = todo(null);
+    completedCreated.getProperties().add(
+            new Created(new DateTime("20060104T100000Z")));
+    completedCreated.getProperties().add(
+            new Completed(new DateTime("20060104T120000Z")));
+
+    final VToDo completedOnly = todo(null);
+    completedOnly.getProperties().add(
+            new Completed(new DateTime("20060104T120000Z")));
+
+    final VToDo createdOnly = todo(null);
+    createdOnly.getProperties().add(
+            new Created(new DateTime("20060104T100000Z")));
+
+    final VToDo nothing = todo(null);
+
+    check(new Row[] {
+            // start <= DTSTART+DURATION AND
+            //   (end > DTSTART OR end >= DTSTART+DURATION)
+            new Row("start+duration at end", startDur, t1500, t1600, true),
+            new Row("start+duration after", startDur, t1501, t1600, false),
+            new Row("start+duration before", startDur, t1300, t1400, false),
+
+            // (start < DUE OR start <= DTSTART) AND
+            //   (end > DTSTART OR end >= DUE)
+            new Row("start+due inside", startDue, t1430, t1600, true),
+            new Row("start+due at due", startDue, t1500, t1600, false),
+            new Row("start+due before", startDue, t1300, t1400, false),
+
+            // start <= DTSTART AND end > DTSTART
+            new Row("start at start", startOnly, t1400, t1500, true),
+            new Row("start before", startOnly, t1300, t1400, false),
+
+            // start < DUE AND end >= DUE
+            new Row("due at end", dueOnly, t1400, t1500, true),
+            new Row("due after", dueOnly, t1500, t1600, false),
+
+            // (start <= CREATED OR start <= COMPLETED) AND
+            //   (end >= CREATED OR end >= COMPLETED)
+            new Row("completed+created inside", completedCreated,
+                    "20060104T110000Z", "20060104T113000Z", true),
+            new Row("completed+created after", completedCreated,
+                    t1300, t1400, false),
+            new Row("completed+created before", completedCreated,
+                    "20060104T080000Z", "20060104T090000Z", false),
+
+            // start <= COMPLETED AND end >= COMPLETED
+            new Row("completed at end", completedOnly,
+                    "20060104T110000Z", "20060104T120000Z", true),
+            new Row("completed after", completedOnly,
+                    "20060104T120100Z", t1300, false),
+
+            // end > CREATED
+            new Row("created at end", createdOnly,
+                    "20060104T090000Z", "20060104T100000Z", false),
+            new Row("created inside", createdOnly,
+                    "20060104T090000Z", "20060104T100100Z", true),
+
+            new Row("no dates", nothing, t1300, t1400, true),
+    });
+  }
+
+  @Test
+  public void testVjournal() throws Throwable {
+    final VJournal withStart = new VJournal();
+    withStart.getProperties().add(new DtStart(new DateTime(t1400)));
+
+    final VJournal allDay = new VJournal();
+    allDay.getProperties().add(new DtStart(new Date("20060104")));
+
+    final VJournal noStart = new VJournal();
+
+    check(new Row[] {
+            // start <= DTSTART AND end > DTSTART
+            new Row("journal at start", withStart, t1400, t1500, true),
+            new Row("journal before", withStart, t1300, t1400, false),
+
+            // start < DTSTART+P1D AND end > DTSTART
+            new Row("journal all day", allDay,
+                    "20060104T110000Z", "20060104T120000Z", true),
+            new Row("journal all day next day", allDay,
+                    "20060106T000000Z", "20060107T000000Z", false),
+
+            new Row("journal no start", noStart, t1300, t1400, false),
+    });
+  }
+
+  @Test
+  public void testVfreebusy() throws Throwable {
+    final VFreeBusy withPeriods = new VFreeBusy();
+    final FreeBusy fb = new FreeBusy();
+    fb.getPeriods().add(new Period(new DateTime(t1400),
+                                   new DateTime(t1500)));
+    withPeriods.getProperties().add(fb);
+
+    final VFreeBusy withDates = new VFreeBusy();
+    withDates.getProperties().add(new DtStart(new DateTime(t1400)));
+    withDates.getProperties().add(new DtEnd(new DateTime(t1500)));
+
+    final VFreeBusy empty = new VFreeBusy();
+
+    check(new Row[] {
+            // start < period-end AND end > period-start
+            new Row("period inside", withPeriods, t1430, t1600, true),
+            new Row("period after", withPeriods, t1500, t1600, false),
+
+            // start <= DTEND AND end > DTSTART
+            new Row("dates at end", withDates, t1500, t1600, true),
+            new Row("dates after", withDates, t1501, t1600, false),
+            new Row("dates before", withDates, t1300, t1400, false),
+
+            new Row("no dates", empty, t1300, t1400, false),
+    });
+  }
+
+  @Test
+  public void testValarm() throws Throwable {
+    final VAlarm absolute = new VAlarm(new DateTime(t1400));
+
+    check(new Row[] {
+            // start <= trigger AND end > trigger
+            new Row("trigger at start", absolute, t1400, t1500, true),
+            new Row("trigger before", absolute, t1300, t1400, false),
+    });
+  }
+
+  @Test
+  public void testValarmRelative() throws Throwable {
+    final VEvent ev = event(t1400);
+    ev.getProperties().add(new DtEnd(new DateTime(t1500)));
+
+    // 13:30
+    final VAlarm beforeStart = new VAlarm(new Dur("-PT30M"));
+
+    // 15:30
+    final VAlarm afterEnd = new VAlarm(new Dur("PT30M"));
+    afterEnd.getProperty(Property.TRIGGER).getParameters().add(Related.END);
+
+    // 13:30, 13:40 and 13:50
+    final VAlarm repeating = new VAlarm(new Dur("-PT30M"));
+    repeating.getProperties().add(new Repeat(2));
+    repeating.getProperties().add(new Duration(new Dur("PT10M")));
+
+    checkAlarm(ev, new Row[] {
+            // start <= trigger AND end > trigger
+            new Row("start related in range", beforeStart,
+                    t1300, t1400, true),
+            new Row("start related at end", beforeStart,
+                    t1300, "20060104T133000Z", false),
+            new Row("start related before", beforeStart,
+                    t1400, t1500, false),
+
+            new Row("end related in range", afterEnd, t1500, t1600, true),
+            new Row("end related at start", afterEnd,
+                    "20060104T153000Z", t1600, true),
+            new Row("end related after", afterEnd, t1400, t1500, false),
+
+            new Row("repeat in range", repeating,
+                    "20060104T134500Z", t1400, true),
+            new Row("between repeats", repeating,
+                    "20060104T134100Z", "20060104T134500Z", false),
+    });
+
+    final VToDo due = todo(null);
+    due.getProperties().add(new Due(new DateTime(t1500)));
+
+    checkAlarm(due, new Row[] {
+            new Row("todo due related", afterEnd, t1500, t1600, true),
+            new Row("todo start related", beforeStart, t1300, t1600, false),
+    });
+
+    // Without the parent a relative trigger can't match
+    checkAlarm(null, new Row[] {
+            new Row("no parent", beforeStart, null, null, false),
+    });
+  }
+
+  @Test
+  public void testValarmRecurring() throws Throwable {
+    final VEvent daily = event("20060102T100000Z");
+    daily.getProperties().add(new DtEnd(new DateTime("20060102T110000Z")));
+    daily.getProperties().add(new RRule("FREQ=DAILY;COUNT=5"));
+
+    final VAlarm beforeStart = new VAlarm(new Dur("-PT30M"));
+
+    final VAlarm afterEnd = new VAlarm(new Dur("PT30M"));
+    afterEnd.getProperty(Property.TRIGGER).getParameters().add(Related.END);
+
+    checkAlarm(daily, new Row[] {
+            new Row("third instance start related", beforeStart,
+                    "20060104T090000Z", "20060104T100000Z", true),
+            new Row("third instance without trigger", beforeStart,
+                    "20060104T100000Z", "20060104T110000Z", false),
+            new Row("third instance end related", afterEnd,
+                    "20060104T110000Z", "20060104T120000Z", true),
+            new Row("after last", beforeStart,
+                    "20060107T000000Z", null, false),
+    });
+  }
+
+  @Test
+  public void testRecurring() throws Throwable {
+    final VEvent daily = event("20060102T100000Z");
+    daily.getProperties().add(new DtEnd(new DateTime("20060102T110000Z")));
+    daily.getProperties().add(
+            new RRule("FREQ=DAILY;COUNT=5"));
+
+    check(new Row[] {
+            new Row("third instance", daily,
+                    "20060104T093000Z", "20060104T120000Z", true),
+            new Row("between instances", daily,
+                    "20060104T120000Z", "20060105T090000Z", false),
+            new Row("after last", daily,
+                    "20060107T000000Z", null, false),
+    });
+  }
+
+  private static void check(final Row[] rows) throws Throwable {
+    for (final Row row: rows) {
+      final TimeRange tr = new TimeRange(dt(row.start), dt(row.end));
+
+      assertEquals(row.desc, row.expected, tr.overlaps(row.comp));
+    }
+  }
+
+  private static void checkAlarm(final Component parent,
+                                 final Row[] rows) throws Throwable {
+    for (final Row row: rows) {
+      final TimeRange tr = new TimeRange(dt(row.start), dt(row.end));
+
+      assertEquals(row.desc, row.expected, tr.overlaps(row.comp, parent));
+    }
+  }
+
+  private static VEvent event(final String start) throws Throwable {
+    final VEvent ev = new VEvent();
+
+    ev.getProperties().add(new DtStart(new DateTime(start)));
+
+    return ev;
+  }
+
+  private static VToDo todo(final String start) throws Throwable {
+    final VToDo td = new VToDo();
+
+    if (start != null) {
+      td.getProperties().add(new DtStart(new DateTime(start)));
+    }
+
+    return td;
+  }
+
+  private static DateTime dt(final String val) throws Throwable {
+    if (val == null) {
+      return null;
+    }
+
+    return new DateTime(val);
+  }
+}
@@ -0,0 +1,255 @@
+/* ********************************************************************
+    Licensed to Jasig under one or more contributor license
+    agreements. See the NOTICE file distributed with this work
+    for additional information regarding copyright ownership.
+    Jasig licenses this file to you under the Apache License,
+    Version 2.0 (the "License"); you may not use this file
+    except in compliance with the License. You may obtain a
+    copy of the License at:
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing,
+    software distributed under the License is distributed on
+    an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+    KIND, either express or implied. See the License for the
+    specific language governing permissions and limitations
+    under the License.
+*/
+package org.bedework.caldav.util.filter;
+
+import org.bedework.caldav.util.TimeRange;
+import org.bedework.util.calendar.IcalDefs;
+
+import ietf.params.xml.ns.caldav.IsNotDefinedType;
+import ietf.params.xml.ns.caldav.ParamFilterType;
+import ietf.params.xml.ns.caldav.PropFilterType;
+import ietf.params.xml.ns.caldav.TextMatchType;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Dur;
+import net.fortuna.ical4j.model.component.VAlarm;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.parameter.PartStat;
+import net.fortuna.ical4j.model.property.Attendee;
+import net.fortuna.ical4j.model.property.DtEnd;
+import net.fortuna.ical4j.model.property.DtStart;
+import net.fortuna.ical4j.model.property.RRule;
+import net.fortuna.ical4j.model.property.RecurrenceId;
+import net.fortuna.ical4j.model.property.Summary;
+import net.fortuna.ical4j.model.property.Uid;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+
+/** Post filtering of calendar object resources with FilterMatcher.
+ */
+public class FilterMatcherTest {
+  /* Daily at 10:00 for 5 days. The instance on the 4th is moved to 20:00
+     and has its own summary.
+   */
+  private static Calendar recurring() throws Throwable {
+    final VEvent master = new VEvent();
+    master.getProperties().add(new Uid("r1"));
+    master.getProperties().add(new DtStart(new DateTime("20060102T100000Z")));
+    master.getProperties().add(new DtEnd(new DateTime("20060102T110000Z")));
+    master.getProperties().add(new RRule("FREQ=DAILY;COUNT=5"));
+    master.getProperties().add(new Summary("Meeting"));
+
+    final VEvent override = new VEvent();
+    override.getProperties().add(new Uid("r1"));
+    override.getProperties().add(
+            new RecurrenceId(new DateTime("20060104T100000Z")));
+    override.getProperties().add(new DtStart(new DateTime("20060104T200000Z")));
+    override.getProperties().add(new DtEnd(new DateTime("20060104T210000Z")));
+    override.getProperties().add(new Summary("Moved meeting"));
+
+    final Calendar cal = new Calendar();
+    cal.getComponents().add(master);
+    cal.getComponents().add(override);
+
+    return cal;
+  }
+
+  @Test
+  public void testTimeRangeWithOverride() throws Throwable {
+    final Calendar cal = recurring();
+
+    final Object[][] rows = {
+            // start, end, expected
+            {"20060104T093000Z", "20060104T113000Z", false}, // overridden
+            {"20060104T193000Z", "20060104T203000Z", true},  // the override
+            {"20060105T093000Z", "20060105T103000Z", true},  // master
+            {"20060107T000000Z", "20060108T000000Z", false}, // after last
+    };
+
+    for (final Object[] row: rows) {
+      final TimeRange tr = new TimeRange(new DateTime((String)row[0]),
+                                         new DateTime((String)row[1]));
+      final FilterBase f = new EntityTimeRangeFilter(
+              null, IcalDefs.entityTypeEvent, tr);
+
+      assertEquals(row[0] + " - " + row[1], row[2],
+                   FilterMatcher.matchInstances(f.getPredicate(), cal,
+                                                IcalDefs.entityTypeEvent));
+      assertEquals(row[0] + " - " + row[1], row[2], f.match(cal, null));
+    }
+  }
+
+  @Test
+  public void testTextMatch() throws Throwable {
+    final Calendar cal = recurring();
+
+    final Object[][] rows = {
+            // value, collation, negate, expected
+            {"moved", "i;ascii-casemap", "no", true},   // only the override
+            {"moved", "i;octet", "no", false},
+            {"Moved", "i;octet", "no", true},
+            {"meeting", "i;ascii-casemap", "no", true},
+            {"lunch", "i;ascii-casemap", "no", false},
+            {"lunch", "i;ascii-casemap", "yes", true},
+    };
+
+    for (final Object[] row: rows) {
+      final Predicate<Component> p = FilterMatcher.compile(
+              propFilter("SUMMARY",
+                         textMatch((String)row[0], (String)row[1],
+                                   (String)row[2])));
+
+      assertEquals(row[0] + " " + row[1] + " " + row[2], row[3],
+                   FilterMatcher.matchInstances(p, cal,
+                                                IcalDefs.entityTypeEvent));
+    }
+  }
+
+  @Test
+  public void testPropFilters() throws Throwable {
+    final VEvent ev = new VEvent();
+    ev.getProperties().add(new Uid("p1"));
+    ev.getProperties().add(new DtStart(new DateTime("20060104T100000Z")));
+
+    final Attendee att = new Attendee("mailto:someone@example.com");
+    att.getParameters().add(PartStat.ACCEPTED);
+    ev.getProperties().add(att);
+
+    final PropFilterType notDefined = propFilter("LOCATION", null);
+    notDefined.setIsNotDefined(new IsNotDefinedType());
+
+    final PropFilterType present = propFilter("ATTENDEE", null);
+
+    final PropFilterType partstat = propFilter("ATTENDEE", null);
+    partstat.getParamFilter().add(paramFilter(
+            "PARTSTAT", textMatch("ACCEPTED", "i;ascii-casemap", "no")));
+
+    final PropFilterType declined = propFilter("ATTENDEE", null);
+    declined.getParamFilter().add(paramFilter(
+            "PARTSTAT", textMatch("DECLINED", "i;ascii-casemap", "no")));
+
+    final Object[][] rows = {
+            {"location not defined", notDefined, true},
+            {"attendee present", present, true},
+            {"partstat accepted", partstat, true},
+            {"partstat declined", declined, false},
+    };
+
+    for (final Object[] row: rows) {
+      assertEquals((String)row[0], row[2],
+                   FilterMatcher.compile((PropFilterType)row[1]).test(ev));
+    }
+  }
+
+  @Test
+  public void testAllPropFilters() throws Throwable {
+    final VEvent ev = new VEvent();
+    ev.getProperties().add(new Uid("a1"));
+    ev.getProperties().add(new DtStart(new DateTime("20060104T100000Z")));
+    ev.getProperties().add(new Summary("Meeting"));
+    ev.getProperties().add(new Attendee("mailto:someone@example.com"));
+
+    final PropFilterType meeting = propFilter(
+            "SUMMARY", textMatch("meeting", "i;ascii-casemap", "no"));
+    final PropFilterType lunch = propFilter(
+            "SUMMARY", textMatch("lunch", "i;ascii-casemap", "no"));
+    final PropFilterType attendee = propFilter("ATTENDEE", null);
+
+    final Object[][] rows = {
+            // RFC4791 9.7.1 - every prop-filter must match
+            {"both match", Arrays.asList(meeting, attendee), true},
+            {"only one matches", Arrays.asList(meeting, lunch), false},
+            {"only one matches reversed",
+             Arrays.asList(lunch, meeting), false},
+            {"none", Collections.emptyList(), false},
+    };
+
+    for (final Object[] row: rows) {
+      @SuppressWarnings("unchecked")
+      final List<PropFilterType> pfs = (List<PropFilterType>)row[1];
+
+      assertEquals((String)row[0], row[2],
+                   FilterMatcher.compileAll(pfs).test(ev));
+    }
+  }
+
+  @Test
+  public void testRelativeAlarm() throws Throwable {
+    final VEvent ev = new VEvent();
+    ev.getProperties().add(new Uid("v1"));
+    ev.getProperties().add(new DtStart(new DateTime("20060104T100000Z")));
+    ev.getProperties().add(new DtEnd(new DateTime("20060104T110000Z")));
+    ev.getAlarms().add(new VAlarm(new Dur("-PT15M")));
+
+    final Object[][] rows = {
+            // start, end, expected - the trigger is at 09:45
+            {"20060104T093000Z", "20060104T100000Z", true},
+            {"20060104T100000Z", "20060104T110000Z", false},
+            {"20060103T000000Z", "20060104T094500Z", false},
+    };
+
+    for (final Object[] row: rows) {
+      final TimeRange tr = new TimeRange(new DateTime((String)row[0]),
+                                         new DateTime((String)row[1]));
+      final FilterBase f = new EntityTimeRangeFilter(
+              null, IcalDefs.entityTypeAlarm, tr);
+
+      assertEquals(row[0] + " - " + row[1], row[2], f.match(ev, null));
+    }
+  }
+
+  private static PropFilterType propFilter(final String name,
+                                           final TextMatchType tm) {
+    final PropFilterType pf = new PropFilterType();
+
+    pf.setName(name);
+    pf.setTextMatch(tm);
+
+    return pf;
+  }
+
+  private static ParamFilterType paramFilter(final String name,
+                                             final TextMatchType tm) {
+    final ParamFilterType pf = new ParamFilterType();
+
+    pf.setName(name);
+    pf.setTextMatch(tm);
+
+    return pf;
+  }
+
+  private static TextMatchType textMatch(final String val,
+                                         final String collation,
+                                         final String negate) {
+    final TextMatchType tm = new TextMatchType();
+
+    tm.setValue(val);
+    tm.setCollation(collation);
+    tm.setNegateCondition(negate);
+
+    return tm;
+  }
+}